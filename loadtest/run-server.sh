@@ -0,0 +1,34 @@
+#!/usr/bin/env bash
+#
+# Starts the server for a load test inside build/loadtest, with ffmpeg and ffprobe replaced by the
+# fake executables of loadtest/bin and the address bound to the loopback interface.
+# Build the fat jar first (gradle shadowJar) or set JVS_CLASSPATH to the compiled classes and dependencies.
+# JVS_INSTANCES overrides the number of http verticle instances (0 = one per core), JVS_CONTENT_PORT
+# serves the streams content on a dedicated listener, JVS_RECORDINGS_PATH is the folder the file inputs can read,
+# JVS_VIDEO_PASSTHROUGH=false transcodes the H.264 video reported by the fake ffprobe instead of copying it.
+#
+# Usage: loadtest/run-server.sh, then in another shell:
+#        gradle loadtest -PloadtestArgs="--create 20 --viewers 500 --duration 120"
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+WORK="$ROOT/build/loadtest"
+
+mkdir -p "$WORK/assets"
+find "$ROOT/assets" -maxdepth 1 -type f -exec cp {} "$WORK/assets/" \;
+rm -f "$WORK/streams.json"
+
+sed -e "s#\"address\": *\"[^\"]*\"#\"address\": \"127.0.0.1\"#" \
+    -e "s#\"ffmpegPath\": *\"[^\"]*\"#\"ffmpegPath\": \"$ROOT/loadtest/bin/fake-ffmpeg\"#" \
+    -e "s#\"ffprobePath\": *\"[^\"]*\"#\"ffprobePath\": \"$ROOT/loadtest/bin/fake-ffprobe\"#" \
+    -e "s#\"instances\": *[0-9]*#\"instances\": ${JVS_INSTANCES:-0}#" \
+    -e "s#\"contentPort\": *-\?[0-9]*#\"contentPort\": ${JVS_CONTENT_PORT:--1}#" \
+    -e "s#\"recordingsPath\": *\"[^\"]*\"#\"recordingsPath\": \"${JVS_RECORDINGS_PATH:-}\"#" \
+    -e "s#\"onDemandIdleTimeout\": *[0-9]*#\"onDemandIdleTimeout\": ${JVS_IDLE_TIMEOUT:-60000}#" \
+    -e "s#\"videoPassthrough\": *[a-z]*#\"videoPassthrough\": ${JVS_VIDEO_PASSTHROUGH:-true}#" \
+    "$ROOT/config.json" > "$WORK/config.json"
+
+cd "$WORK" || exit 1
+if [[ -n "$JVS_CLASSPATH" ]]; then
+    exec java $JAVA_OPTS -cp "$JVS_CLASSPATH" io.vertx.core.Launcher run jvs.Main
+fi
+exec java $JAVA_OPTS -jar "$(ls "$ROOT"/build/libs/*-fat.jar | head -1)"
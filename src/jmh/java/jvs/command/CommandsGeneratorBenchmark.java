@@ -0,0 +1,48 @@
+package jvs.command;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.RTSPMode;
+import jvs.config.ConfigManager;
+import jvs.stream.Stream;
+import jvs.stream.StreamInfo;
+import jvs.stream.StreamInfoBenchmark;
+import jvs.workers.EncodingType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the generation of the ffmpeg command lines for every encoding type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandsGeneratorBenchmark {
+
+    /**
+     * Every encoding type (JMH runs an enum parameter without values with all its constants)
+     */
+    @Param
+    public EncodingType type;
+
+    private Stream stream;
+    private StreamInfo streamInfo;
+
+    @Setup
+    public void setup() {
+        ConfigManager.importConfig(Constants.CONFIG_FILE_PATH);
+        stream = new Stream(new JsonObject().put(Constants.INPUTURL_KEY, "rtsp://10.0.0.1:554/live"));
+        stream.setID(1);
+        streamInfo = StreamInfo.parseStreamInfo(StreamInfoBenchmark.FFPROBE_REPORT);
+    }
+
+    @Benchmark
+    public Commands generateCommands() {
+        //the generator keeps the manifest state, the encoder creates a new one for each encode
+        return new CommandsGenerator(stream, streamInfo).generateCommands(type, RTSPMode.CLIENT);
+    }
+}
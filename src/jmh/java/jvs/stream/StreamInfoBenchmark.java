@@ -0,0 +1,57 @@
+package jvs.stream;
+
+import jvs.Constants;
+import jvs.config.ConfigManager;
+import jvs.stream.track.TrackInfo;
+import jvs.stream.track.VideoTrackInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of the ffprobe report and the track lookups done while generating commands.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamInfoBenchmark {
+
+    /**
+     * Trimmed ffprobe report of a 1080p H.264 camera with G.711 audio
+     */
+    public static final String FFPROBE_REPORT = "{\"streams\":[" +
+            "{\"index\":0,\"codec_name\":\"h264\",\"profile\":\"Main\",\"codec_type\":\"video\",\"width\":1920," +
+            "\"height\":1080,\"has_b_frames\":0,\"pix_fmt\":\"yuv420p\",\"level\":40,\"r_frame_rate\":\"25/1\"," +
+            "\"avg_frame_rate\":\"25/1\",\"time_base\":\"1/90000\"}," +
+            "{\"index\":1,\"codec_name\":\"pcm_alaw\",\"codec_type\":\"audio\",\"sample_fmt\":\"s16\"," +
+            "\"sample_rate\":\"8000\",\"channels\":1,\"bits_per_sample\":8,\"time_base\":\"1/8000\"}]}";
+
+    private StreamInfo streamInfo;
+    private VideoTrackInfo videoTrack;
+
+    @Setup
+    public void setup() {
+        ConfigManager.importConfig(Constants.CONFIG_FILE_PATH);
+        streamInfo = StreamInfo.parseStreamInfo(FFPROBE_REPORT);
+        videoTrack = streamInfo.getVideoTracks().get(0);
+    }
+
+    @Benchmark
+    public StreamInfo parseStreamInfo() {
+        return StreamInfo.parseStreamInfo(FFPROBE_REPORT);
+    }
+
+    @Benchmark
+    public ArrayList<TrackInfo> getAllTracks() {
+        return streamInfo.getAllTracks();
+    }
+
+    @Benchmark
+    public Double getFrameRate() {
+        return videoTrack.getFrameRate();
+    }
+}
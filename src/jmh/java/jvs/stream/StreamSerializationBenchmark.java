@@ -0,0 +1,61 @@
+package jvs.stream;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.config.ConfigManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of a single stream and of the whole streams list (list request).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamSerializationBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int streamsCount;
+
+    private Map<Integer, Stream> streams;
+    private Stream stream;
+
+    @Setup
+    public void setup() {
+        ConfigManager.importConfig(Constants.CONFIG_FILE_PATH);
+        streams = new HashMap<>();
+
+        for (int id = 1; id <= streamsCount; id++) {
+            Stream s = new Stream(new JsonObject()
+                    .put(Constants.TITLE_KEY, "Camera " + id)
+                    .put(Constants.DESCR_KEY, "Benchmark stream")
+                    .put(Constants.INPUTURL_KEY, "rtsp://10.0.0." + (id % 250) + ":554/live"));
+            s.setID(id);
+            s.setCreationDate(new Date());
+            s.setDirectory(ConfigManager.getConfig().getStreamsPath() + "/stream_" + id);
+            s.setManifest(ConfigManager.getConfig().getRemoteStreamsPath() + "/stream_" + id + "/manifest.mpd");
+            streams.put(id, s);
+        }
+        stream = streams.get(1);
+    }
+
+    @Benchmark
+    public String toJSON() {
+        return stream.toJSON().encode();
+    }
+
+    @Benchmark
+    public String listStreams() {
+        JsonArray arr = new JsonArray();
+        streams.forEach((k, v) -> arr.add(v.toJSON()));
+        return arr.encode();
+    }
+}
@@ -0,0 +1,40 @@
+package jvs.utils;
+
+import jvs.Constants;
+import jvs.config.ConfigManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the duration conversions done for every progress event and manifest update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurationUtilsBenchmark {
+
+    private String time;
+    private Duration duration;
+
+    @Setup
+    public void setup() {
+        ConfigManager.importConfig(Constants.CONFIG_FILE_PATH);
+        time = "01:23:45.67";
+        duration = Duration.ofHours(1).plusMinutes(23).plusSeconds(45);
+    }
+
+    @Benchmark
+    public Duration parseDuration() {
+        return DurationUtils.parseDuration(time);
+    }
+
+    @Benchmark
+    public String formatToISO8601() {
+        return DurationUtils.formatToISO8601(duration);
+    }
+}
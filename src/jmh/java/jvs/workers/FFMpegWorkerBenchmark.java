@@ -0,0 +1,33 @@
+package jvs.workers;
+
+import jvs.Constants;
+import jvs.config.ConfigManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of a single ffmpeg progress line, executed for every line printed by ffmpeg.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FFMpegWorkerBenchmark {
+
+    private String progressLine;
+
+    @Setup
+    public void setup() {
+        ConfigManager.importConfig(Constants.CONFIG_FILE_PATH);
+        progressLine = "frame= 1523 fps= 25 q=28.0 size=    6144kB time=00:01:00.92 bitrate= 826.2kbits/s speed=   1x";
+    }
+
+    @Benchmark
+    public HashMap<String, String> parseProgressInfoLine() {
+        return FFMpegWorker.parseProgressInfoLine(progressLine);
+    }
+}
@@ -0,0 +1,100 @@
+package jvs.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Records request latencies and computes percentiles over a reporting window.
+ */
+public class LatencyRecorder {
+
+    private long[] samples = new long[4096];
+    private int count = 0;
+    private long errors = 0;
+    private long bytes = 0;
+
+    /**
+     * Records a successful request.
+     * @param latencyMicros The latency of the request in microseconds.
+     * @param size The number of bytes received.
+     */
+    public synchronized void record(final long latencyMicros, final long size) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = latencyMicros;
+        bytes += size;
+    }
+
+    /**
+     * Records a failed request.
+     */
+    public synchronized void error() {
+        errors++;
+    }
+
+    /**
+     * Takes a snapshot of the current window and resets it.
+     * @return The snapshot of the window.
+     */
+    public synchronized Snapshot reset() {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        Snapshot snapshot = new Snapshot(sorted, errors, bytes);
+        count = 0;
+        errors = 0;
+        bytes = 0;
+        return snapshot;
+    }
+
+    /**
+     * Immutable statistics of a reporting window.
+     */
+    public static class Snapshot {
+        private final long[] sorted;
+        private final long errors;
+        private final long bytes;
+
+        private Snapshot(final long[] sorted, final long errors, final long bytes) {
+            this.sorted = sorted;
+            this.errors = errors;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Gets the number of successful requests.
+         * @return The number of requests.
+         */
+        public int getRequests() {
+            return sorted.length;
+        }
+
+        /**
+         * Gets the number of failed requests.
+         * @return The number of errors.
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Gets the number of received bytes.
+         * @return The received bytes.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Gets a latency percentile.
+         * @param percentile The percentile (0-100).
+         * @return The latency in milliseconds; 0 if no request was recorded.
+         */
+        public double getPercentile(final double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int)Math.ceil(percentile / 100d * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000d;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package jvs.loadtest;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Simulated DASH viewer: polls the manifest of a live stream and fetches every new segment
+ * of each representation at the live edge, like a player would do.
+ */
+public class Viewer {
+
+    /**
+     * Interval between two manifest requests, in milliseconds
+     */
+    private static final long MANIFEST_INTERVAL = 2000;
+
+    /**
+     * Delay between two attempts to fetch a segment not yet available, in milliseconds
+     */
+    private static final long RETRY_DELAY = 250;
+
+    /**
+     * Maximum attempts to fetch a segment before counting an error and skipping it
+     */
+    private static final int MAX_ATTEMPTS = 8;
+
+    private final Vertx vertx;
+    private final HttpClient client;
+    private final String manifestUrl;
+    private final LatencyRecorder segmentLatencies;
+    private final LatencyRecorder manifestLatencies;
+    private final List<Representation> representations = new ArrayList<>();
+    private volatile boolean running = false;
+
+    /**
+     * Viewer constructor
+     * @param vertx The vertx instance used to schedule requests.
+     * @param client The http client.
+     * @param manifestUrl The absolute url of the manifest.
+     * @param segmentLatencies The recorder of segment requests.
+     * @param manifestLatencies The recorder of manifest requests.
+     */
+    public Viewer(final Vertx vertx, final HttpClient client, final String manifestUrl,
+                  final LatencyRecorder segmentLatencies, final LatencyRecorder manifestLatencies) {
+        this.vertx = vertx;
+        this.client = client;
+        this.manifestUrl = manifestUrl;
+        this.segmentLatencies = segmentLatencies;
+        this.manifestLatencies = manifestLatencies;
+    }
+
+    /**
+     * Starts playing the stream.
+     */
+    public void start() {
+        running = true;
+        fetch(manifestUrl, manifestLatencies, body -> {
+            if (body == null) {
+                //manifest not available yet
+                vertx.setTimer(MANIFEST_INTERVAL, id -> start());
+                return;
+            }
+            parseManifest(body);
+            for (Representation representation : representations) {
+                fetch(resolve(representation.initialization, representation, 0), segmentLatencies, init ->
+                        fetchSegment(representation, representation.getLiveNumber(), 1));
+            }
+            vertx.setPeriodic(MANIFEST_INTERVAL, id -> {
+                if (!running) {
+                    vertx.cancelTimer(id);
+                } else {
+                    fetch(manifestUrl, manifestLatencies, manifest -> {});
+                }
+            });
+        });
+    }
+
+    /**
+     * Stops playing the stream.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Fetches a segment and schedules the next one when it becomes available.
+     * @param representation The representation.
+     * @param number The number of the segment.
+     * @param attempt The current attempt.
+     */
+    private void fetchSegment(final Representation representation, final long number, final int attempt) {
+        if (!running) {
+            return;
+        }
+
+        String url = resolve(representation.media, representation, number);
+        fetchQuietly(url, body -> {
+            if (body != null) {
+                long delay = representation.getAvailabilityTime(number + 1) - System.currentTimeMillis();
+                vertx.setTimer(Math.max(1, delay), id -> fetchSegment(representation, number + 1, 1));
+            } else if (attempt < MAX_ATTEMPTS) {
+                vertx.setTimer(RETRY_DELAY, id -> fetchSegment(representation, number, attempt + 1));
+            } else {
+                segmentLatencies.error();
+                vertx.setTimer(RETRY_DELAY, id -> fetchSegment(representation, number + 1, 1));
+            }
+        });
+    }
+
+    /**
+     * Fetches a resource, counting 404 responses as not available instead of errors.
+     * @param url The absolute url.
+     * @param handler The handler of the body (null if the resource is not available).
+     */
+    private void fetchQuietly(final String url, final Consumer<Buffer> handler) {
+        request(url, segmentLatencies, handler, false);
+    }
+
+    /**
+     * Fetches a resource, counting every failure as an error.
+     * @param url The absolute url.
+     * @param recorder The recorder of the request.
+     * @param handler The handler of the body (null on failure).
+     */
+    private void fetch(final String url, final LatencyRecorder recorder, final Consumer<Buffer> handler) {
+        request(url, recorder, handler, true);
+    }
+
+    /**
+     * Executes a GET request and records its latency.
+     * @param url The absolute url.
+     * @param recorder The recorder of the request.
+     * @param handler The handler of the body (null on failure).
+     * @param notFoundIsError Whether a 404 response must be counted as an error.
+     */
+    private void request(final String url, final LatencyRecorder recorder, final Consumer<Buffer> handler,
+                         final boolean notFoundIsError) {
+        long start = System.nanoTime();
+        HttpClientRequest request = client.getAbs(url, response -> {
+            if (response.statusCode() == 200) {
+                response.bodyHandler(body -> {
+                    recorder.record((System.nanoTime() - start) / 1000, body.length());
+                    handler.accept(body);
+                });
+            } else {
+                if (response.statusCode() != 404 || notFoundIsError) {
+                    recorder.error();
+                }
+                response.bodyHandler(body -> handler.accept(null));
+            }
+        });
+        request.setTimeout(10000);
+        request.exceptionHandler(e -> {
+            recorder.error();
+            handler.accept(null);
+        });
+        request.end();
+    }
+
+    /**
+     * Parses the representations declared inside the manifest.
+     * @param body The manifest.
+     */
+    private void parseManifest(final Buffer body) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(body.getBytes()));
+            Element mpd = doc.getDocumentElement();
+            long availabilityStart = mpd.hasAttribute("availabilityStartTime") ?
+                    Instant.parse(mpd.getAttribute("availabilityStartTime")).toEpochMilli() : System.currentTimeMillis();
+
+            NodeList nodes = doc.getElementsByTagName("Representation");
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Element node = (Element)nodes.item(i);
+                Element template = findTemplate(node);
+                if (template == null) {
+                    continue;
+                }
+                Representation representation = new Representation();
+                representation.id = node.getAttribute("id");
+                representation.bandwidth = node.getAttribute("bandwidth");
+                representation.initialization = template.getAttribute("initialization");
+                representation.media = template.getAttribute("media");
+                representation.startNumber = template.hasAttribute("startNumber") ?
+                        Long.parseLong(template.getAttribute("startNumber")) : 1;
+                representation.segmentDuration = Double.parseDouble(template.getAttribute("duration")) * 1000d /
+                        Double.parseDouble(template.hasAttribute("timescale") ? template.getAttribute("timescale") : "1");
+                representation.availabilityStart = availabilityStart;
+                representations.add(representation);
+            }
+        } catch (Exception e) {
+            System.err.println("Unable to parse manifest " + manifestUrl + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Finds the segment template of a representation (declared inside it or in its adaptation set).
+     * @param representation The representation node.
+     * @return The template node; null if not found.
+     */
+    private Element findTemplate(final Element representation) {
+        NodeList inner = representation.getElementsByTagName("SegmentTemplate");
+        if (inner.getLength() > 0) {
+            return (Element)inner.item(0);
+        }
+        NodeList outer = ((Element)representation.getParentNode()).getElementsByTagName("SegmentTemplate");
+        return outer.getLength() > 0 ? (Element)outer.item(0) : null;
+    }
+
+    /**
+     * Resolves a segment template into the absolute url of a segment.
+     * @param template The template.
+     * @param representation The representation.
+     * @param number The number of the segment.
+     * @return The absolute url.
+     */
+    private String resolve(final String template, final Representation representation, final long number) {
+        String name = template.replace("$RepresentationID$", representation.id)
+                .replace("$Bandwidth$", representation.bandwidth)
+                .replace("$Number$", Long.toString(number));
+        int start = name.indexOf("$Number%");
+        if (start >= 0) {
+            int end = name.indexOf('$', start + 1);
+            String format = name.substring(start + 7, end);
+            name = name.substring(0, start) + String.format(format, number) + name.substring(end + 1);
+        }
+        return manifestUrl.substring(0, manifestUrl.lastIndexOf('/') + 1) + name;
+    }
+
+    /**
+     * Segment addressing of a representation.
+     */
+    private static class Representation {
+        private String id;
+        private String bandwidth;
+        private String initialization;
+        private String media;
+        private long startNumber;
+        private double segmentDuration;
+        private long availabilityStart;
+
+        /**
+         * Gets the number of the last segment completely available.
+         * @return The segment number.
+         */
+        private long getLiveNumber() {
+            long elapsed = System.currentTimeMillis() - availabilityStart;
+            return Math.max(startNumber, startNumber + (long)Math.floor(elapsed / segmentDuration) - 1);
+        }
+
+        /**
+         * Gets the time when a segment becomes available.
+         * @param number The number of the segment.
+         * @return The availability time in milliseconds.
+         */
+        private long getAvailabilityTime(final long number) {
+            return availabilityStart + (long)((number - startNumber + 1) * segmentDuration);
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package jvs.loadtest;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Load generator that simulates N concurrent DASH viewers over M live streams of a running server
+ * (usually started with the fake ffmpeg/ffprobe executables of the loadtest directory), reporting
+ * segment fetch latency percentiles, errors and the server cpu, threads and heap.
+ * The vod mode instead measures the wall time of the transcode of a recording.
+ *
+ * Arguments (all optional):
+ *   --server http://127.0.0.1:8081   base url of the server
+ *   --api /streams                    remote root path of the REST API
+ *   --metrics /metrics                remote path of the metrics
+ *   --create M                        number of streams to create before starting (0 uses the live ones)
+ *   --encType 0                       encoding type of the created streams
+ *   --onDemand false                  whether the created streams are encoded on demand (started by the viewers)
+ *   --streams M                       maximum number of live streams to watch
+ *   --viewers N                       number of concurrent viewers, spread over the streams
+ *   --duration 60                     duration of the test in seconds
+ *   --report 10                       interval between two reports in seconds
+ *   --content http://127.0.0.1:8082   base url of the content listener used by the fetch mode (defaults to --server)
+ *   --fetch /content/stream_1/x.m4s   instead of simulating viewers, fetches this path in a closed loop
+ *                                     (throughput of the static routes)
+ *   --connections 64                  number of concurrent requests of the fetch mode
+ *   --vod file:///tmp/movie.mp4       instead of simulating viewers, transcodes this recording once for every
+ *                                     number of chunks, one after the other, and reports the wall times
+ *   --chunks 1,0                      numbers of chunks of the vod mode (1 = single process, 0 = server default)
+ */
+public class ViewerSimulator {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArguments(args);
+        String server = options.getOrDefault("server", "http://127.0.0.1:8081");
+        String apiPath = options.getOrDefault("api", "/streams");
+        String metricsPath = options.getOrDefault("metrics", "/metrics");
+        int create = Integer.parseInt(options.getOrDefault("create", "0"));
+        int encType = Integer.parseInt(options.getOrDefault("encType", "0"));
+        boolean onDemand = Boolean.parseBoolean(options.getOrDefault("onDemand", "false"));
+        int maxStreams = Integer.parseInt(options.getOrDefault("streams", Integer.toString(Math.max(create, 1))));
+        int viewersCount = Integer.parseInt(options.getOrDefault("viewers", "10"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int reportInterval = Integer.parseInt(options.getOrDefault("report", "10"));
+
+        Vertx vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(Runtime.getRuntime().availableProcessors()));
+        HttpClient client = vertx.createHttpClient();
+
+        if (options.containsKey("vod")) {
+            //recordings are transcoded to H.264/AAC unless another type is requested
+            transcode(client, server + apiPath, options.get("vod"), Integer.parseInt(options.getOrDefault("encType", "1")),
+                    options.getOrDefault("chunks", "1,0"));
+            client.close();
+            vertx.close();
+            return;
+        }
+
+        if (options.containsKey("fetch")) {
+            int connections = Integer.parseInt(options.getOrDefault("connections", "64"));
+            String content = options.getOrDefault("content", server);
+            fetch(vertx, client, content + options.get("fetch"), server + metricsPath, connections, duration, reportInterval);
+            client.close();
+            vertx.close();
+            return;
+        }
+
+        for (int i = 1; i <= create; i++) {
+            JsonObject body = new JsonObject().put(Constants.INPUTURL_KEY, "rtsp://loadtest.invalid/camera" + i)
+                    .put(Constants.TITLE_KEY, "Load test " + i).put(Constants.DESCR_KEY, "")
+                    .put(Constants.ENCODINGTYPE_KEY, encType).put(Constants.ONDEMAND_KEY, onDemand);
+            JsonObject response = request(client, "POST", server + apiPath, body.encode());
+            if (response == null || !"0".equals(response.getString("status"))) {
+                System.err.println("Unable to create stream " + i + ": " + response);
+            }
+        }
+        if (create > 0 && !onDemand) {
+            //give the encoders the time to write the first segments
+            Thread.sleep(3000);
+        }
+
+        List<String> manifests = new ArrayList<>();
+        List<Integer> watchedIDs = new ArrayList<>();
+        JsonArray streams = requestArray(client, server + apiPath);
+        for (int i = 0; streams != null && i < streams.size() && manifests.size() < maxStreams; i++) {
+            JsonObject stream = streams.getJsonObject(i);
+            boolean watchable = stream.getBoolean(Constants.ISLIVE_KEY, false) ||
+                    stream.getBoolean(Constants.ONDEMAND_KEY, false);
+            if (watchable && !stream.getString(Constants.MANIFEST_KEY, "").isEmpty()) {
+                watchedIDs.add(stream.getInteger(Constants.ID_KEY));
+                //the manifest is absolute when the content is served by a dedicated listener
+                String manifest = stream.getString(Constants.MANIFEST_KEY);
+                manifests.add(manifest.startsWith("http") ? manifest : server + manifest);
+            }
+        }
+        if (manifests.isEmpty()) {
+            System.err.println("No live stream available, nothing to watch.");
+            vertx.close();
+            return;
+        }
+
+        System.out.println("Starting " + viewersCount + " viewers over " + manifests.size() + " streams for " +
+                duration + " seconds.");
+
+        //spread the viewers over one group per event loop, each group uses its own http client
+        LatencyRecorder segments = new LatencyRecorder();
+        LatencyRecorder manifestsRecorder = new LatencyRecorder();
+        int groupsCount = Math.min(viewersCount, Runtime.getRuntime().availableProcessors());
+        for (int g = 0; g < groupsCount; g++) {
+            List<String> groupManifests = new ArrayList<>();
+            for (int i = g; i < viewersCount; i += groupsCount) {
+                groupManifests.add(manifests.get(i % manifests.size()));
+            }
+            vertx.deployVerticle(new ViewerGroup(groupManifests, segments, manifestsRecorder));
+        }
+
+        long end = System.currentTimeMillis() + duration * 1000L;
+        LatencyRecorder totalSegments = new LatencyRecorder();
+        long totalRequests = 0;
+        long totalErrors = 0;
+        long totalBytes = 0;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(Math.min(reportInterval * 1000L, Math.max(1, end - System.currentTimeMillis())));
+            LatencyRecorder.Snapshot snapshot = segments.reset();
+            LatencyRecorder.Snapshot manifestSnapshot = manifestsRecorder.reset();
+            totalRequests += snapshot.getRequests();
+            totalErrors += snapshot.getErrors();
+            totalBytes += snapshot.getBytes();
+            report(snapshot, manifestSnapshot, requestObject(client, server + metricsPath), reportInterval);
+        }
+
+        System.out.println(String.format("Total: %d segments, %d errors, %.1f MB received.",
+                totalRequests, totalErrors, totalBytes / 1048576d));
+
+        //time to first segment of the on-demand streams started by the viewers
+        for (Integer id : watchedIDs) {
+            JsonObject stream = requestObject(client, server + apiPath + "/" + id);
+            if (stream != null && stream.getBoolean(Constants.ONDEMAND_KEY, false)) {
+                System.out.println("Stream " + id + ": first segment after " +
+                        stream.getLong(Constants.FIRSTSEGMENTTIME_KEY, -1L) + " ms.");
+            }
+        }
+        client.close();
+        vertx.close();
+    }
+
+    /**
+     * Fetches the same url in a closed loop with a fixed number of concurrent requests and reports the throughput.
+     * @param vertx The vertx instance.
+     * @param client The http client used to retrieve the server metrics.
+     * @param url The absolute url to fetch.
+     * @param metricsUrl The absolute url of the server metrics.
+     * @param connections The number of concurrent requests.
+     * @param duration The duration of the test in seconds.
+     * @param reportInterval The interval between two reports in seconds.
+     */
+    private static void fetch(final Vertx vertx, final HttpClient client, final String url, final String metricsUrl,
+                              final int connections, final int duration, final int reportInterval) throws Exception {
+        System.out.println("Fetching " + url + " with " + connections + " concurrent requests for " +
+                duration + " seconds.");
+
+        LatencyRecorder recorder = new LatencyRecorder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        int groupsCount = Math.min(connections, Runtime.getRuntime().availableProcessors());
+        for (int g = 0; g < groupsCount; g++) {
+            vertx.deployVerticle(new FetchGroup(url, connections / groupsCount + (g < connections % groupsCount ? 1 : 0),
+                    recorder, running));
+        }
+
+        long end = System.currentTimeMillis() + duration * 1000L;
+        long totalRequests = 0;
+        long totalErrors = 0;
+        long totalBytes = 0;
+        while (System.currentTimeMillis() < end) {
+            long windowStart = System.nanoTime();
+            Thread.sleep(Math.min(reportInterval * 1000L, Math.max(1, end - System.currentTimeMillis())));
+            LatencyRecorder.Snapshot snapshot = recorder.reset();
+            double elapsed = (System.nanoTime() - windowStart) / 1e9;
+            totalRequests += snapshot.getRequests();
+            totalErrors += snapshot.getErrors();
+            totalBytes += snapshot.getBytes();
+
+            JsonObject metrics = requestObject(client, metricsUrl);
+            JsonObject jvm = metrics != null ? metrics.getJsonObject(Constants.HOST_KEY, new JsonObject())
+                    .getJsonObject(Constants.JVM_KEY, new JsonObject()) : new JsonObject();
+            System.out.println(String.format("%.0f req/s (%.1f MB/s), %d errors, latency ms p50 %.2f p99 %.2f " +
+                            "max %.2f | server cpu %.1f%%",
+                    snapshot.getRequests() / elapsed, snapshot.getBytes() / 1048576d / elapsed, snapshot.getErrors(),
+                    snapshot.getPercentile(50), snapshot.getPercentile(99), snapshot.getPercentile(100),
+                    jvm.getDouble(Constants.CPU_KEY, 0d)));
+        }
+
+        //let the in-flight requests complete before closing the clients
+        running.set(false);
+        Thread.sleep(1000);
+
+        System.out.println(String.format("Total: %d requests (%.0f req/s), %d errors, %.1f MB received.",
+                totalRequests, totalRequests / (double)duration, totalErrors, totalBytes / 1048576d));
+    }
+
+    /**
+     * Group of closed loop fetchers sharing an event loop and an http client.
+     */
+    private static class FetchGroup extends AbstractVerticle {
+        private final String url;
+        private final int connections;
+        private final LatencyRecorder recorder;
+        private final AtomicBoolean running;
+        private HttpClient client;
+
+        private FetchGroup(final String url, final int connections, final LatencyRecorder recorder,
+                           final AtomicBoolean running) {
+            this.url = url;
+            this.connections = connections;
+            this.recorder = recorder;
+            this.running = running;
+        }
+
+        @Override
+        public void start() {
+            client = vertx.createHttpClient(new HttpClientOptions().setMaxPoolSize(Math.max(1, connections))
+                    .setKeepAlive(true));
+            for (int i = 0; i < connections; i++) {
+                next();
+            }
+        }
+
+        /**
+         * Sends the next request as soon as the previous one completes.
+         */
+        private void next() {
+            if (!running.get()) {
+                return;
+            }
+            long start = System.nanoTime();
+            client.getAbs(url, response -> response.bodyHandler(body -> {
+                if (response.statusCode() == 200) {
+                    recorder.record((System.nanoTime() - start) / 1000, body.length());
+                } else {
+                    recorder.error();
+                }
+                next();
+            })).exceptionHandler(e -> {
+                recorder.error();
+                vertx.setTimer(100, t -> next());
+            }).end();
+        }
+    }
+
+    /**
+     * Group of viewers sharing an event loop and an http client.
+     */
+    private static class ViewerGroup extends AbstractVerticle {
+        private final List<String> manifests;
+        private final LatencyRecorder segments;
+        private final LatencyRecorder manifestsRecorder;
+        private final List<Viewer> viewers = new ArrayList<>();
+
+        private ViewerGroup(final List<String> manifests, final LatencyRecorder segments,
+                            final LatencyRecorder manifestsRecorder) {
+            this.manifests = manifests;
+            this.segments = segments;
+            this.manifestsRecorder = manifestsRecorder;
+        }
+
+        @Override
+        public void start() {
+            HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+                    .setMaxPoolSize(Math.max(10, manifests.size() * 2)).setKeepAlive(true));
+            for (String manifest : manifests) {
+                Viewer viewer = new Viewer(vertx, client, manifest, segments, manifestsRecorder);
+                viewers.add(viewer);
+                viewer.start();
+            }
+        }
+
+        @Override
+        public void stop() {
+            viewers.forEach(Viewer::stop);
+        }
+    }
+
+    /**
+     * Transcodes a recording once for every number of chunks and reports the wall time of each transcode,
+     * relative to the first one.
+     * @param client The http client.
+     * @param apiUrl The absolute url of the REST API.
+     * @param url The url of the recording.
+     * @param encType The encoding type of the created streams.
+     * @param chunks The comma separated numbers of chunks.
+     */
+    private static void transcode(final HttpClient client, final String apiUrl, final String url, final int encType,
+                                  final String chunks) throws Exception {
+        long baseline = 0;
+        for (String value : chunks.split(",")) {
+            int count = Integer.parseInt(value.trim());
+            JsonObject body = new JsonObject().put(Constants.INPUTURL_KEY, url)
+                    .put(Constants.TITLE_KEY, "Vod benchmark (" + count + " chunks)").put(Constants.DESCR_KEY, "")
+                    .put(Constants.ENCODINGTYPE_KEY, encType).put(Constants.CHUNKS_KEY, count);
+
+            long start = System.currentTimeMillis();
+            JsonObject response = request(client, "POST", apiUrl, body.encode());
+            if (response == null || !"0".equals(response.getString("status"))) {
+                System.err.println("Unable to create the stream: " + response);
+                return;
+            }
+
+            //the new stream has the highest id
+            JsonArray streams = requestArray(client, apiUrl);
+            int id = -1;
+            for (int i = 0; streams != null && i < streams.size(); i++) {
+                id = Math.max(id, streams.getJsonObject(i).getInteger(Constants.ID_KEY));
+            }
+
+            JsonObject stream;
+            do {
+                Thread.sleep(200);
+                stream = requestObject(client, apiUrl + "/" + id);
+            } while (stream != null && stream.getBoolean(Constants.ISLIVE_KEY, false));
+            long wallTime = System.currentTimeMillis() - start;
+
+            JsonObject vod = stream != null ? stream.getJsonObject(Constants.VOD_KEY) : null;
+            if (baseline == 0) {
+                baseline = wallTime;
+            }
+            System.out.println(String.format("%s chunks: %d ms wall time (x%.2f), transcode %s ms, duration %s",
+                    vod != null ? Integer.toString(vod.getInteger(Constants.CHUNKS_KEY)) : "no", wallTime,
+                    baseline / (double)wallTime, vod != null ? vod.getLong(Constants.ENCODETIME_KEY).toString() : "-",
+                    stream != null ? stream.getString(Constants.DURATION_KEY) : "-"));
+
+            request(client, "DELETE", apiUrl + "/" + id, "");
+        }
+    }
+
+    /**
+     * Prints the statistics of a reporting window.
+     * @param segments The segment requests statistics.
+     * @param manifests The manifest requests statistics.
+     * @param metrics The server metrics (can be null).
+     * @param interval The duration of the window in seconds.
+     */
+    private static void report(final LatencyRecorder.Snapshot segments, final LatencyRecorder.Snapshot manifests,
+                               final JsonObject metrics, final int interval) {
+        String server = "server metrics not available";
+        if (metrics != null) {
+            JsonObject host = metrics.getJsonObject(Constants.HOST_KEY, new JsonObject());
+            JsonObject jvm = host.getJsonObject(Constants.JVM_KEY, new JsonObject());
+            server = String.format("server cpu %.1f%% (host %.1f%%), threads %d, heap %.1f MB",
+                    jvm.getDouble(Constants.CPU_KEY, 0d), host.getDouble(Constants.CPU_KEY, 0d),
+                    jvm.getInteger(Constants.THREADS_KEY, 0), jvm.getLong(Constants.HEAPUSED_KEY, 0L) / 1048576d);
+        }
+
+        System.out.println(String.format("segments: %d req (%.1f MB/s), %d errors, latency ms p50 %.1f p90 %.1f " +
+                        "p99 %.1f max %.1f | manifests: %d req, %d errors, p99 %.1f | %s",
+                segments.getRequests(), segments.getBytes() / 1048576d / interval, segments.getErrors(),
+                segments.getPercentile(50), segments.getPercentile(90), segments.getPercentile(99),
+                segments.getPercentile(100), manifests.getRequests(), manifests.getErrors(),
+                manifests.getPercentile(99), server));
+    }
+
+    /**
+     * Executes a blocking request with a json body.
+     * @param client The http client.
+     * @param method The http method.
+     * @param url The absolute url.
+     * @param body The body.
+     * @return The json response; null on failure.
+     */
+    private static JsonObject request(final HttpClient client, final String method, final String url, final String body) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        client.requestAbs(HttpMethod.valueOf(method), url,
+                response -> response.bodyHandler(b -> future.complete(b.toString())))
+                .exceptionHandler(future::completeExceptionally)
+                .putHeader("content-type", "application/json")
+                .end(body);
+        try {
+            return new JsonObject(future.get(30, TimeUnit.SECONDS));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Executes a blocking GET request returning a json object.
+     * @param client The http client.
+     * @param url The absolute url.
+     * @return The json response; null on failure.
+     */
+    private static JsonObject requestObject(final HttpClient client, final String url) {
+        String body = get(client, url);
+        try {
+            return body != null ? new JsonObject(body) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Executes a blocking GET request returning a json array.
+     * @param client The http client.
+     * @param url The absolute url.
+     * @return The json response; null on failure.
+     */
+    private static JsonArray requestArray(final HttpClient client, final String url) {
+        String body = get(client, url);
+        try {
+            return body != null ? new JsonArray(body) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Executes a blocking GET request.
+     * @param client The http client.
+     * @param url The absolute url.
+     * @return The body of the response; null on failure.
+     */
+    private static String get(final HttpClient client, final String url) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        client.getAbs(url, response -> response.bodyHandler(b -> future.complete(b.toString())))
+                .exceptionHandler(future::completeExceptionally)
+                .end();
+        try {
+            return future.get(30, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses "--key value" arguments.
+     * @param args The command line arguments.
+     * @return The map of parsed options.
+     */
+    private static Map<String, String> parseArguments(final String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        return options;
+    }
+}
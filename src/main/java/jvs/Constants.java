@@ -2,16 +2,17 @@ package jvs;
 
 public class Constants {
 	
-	public static final Boolean DEBUG_MODE = true;
-
 	/* Client add stream request keys */
 	public static final String INPUTURL_KEY = "url";
 	public static final String TITLE_KEY = "title";
 	public static final String DESCR_KEY = "descr";
 	public static final String ENCODINGTYPE_KEY = "encType";
+	public static final String ONDEMAND_KEY = "onDemand";
 	public static final String MODE_KEY = "mode";
 	public static final String INFOS_KEY = "infos";
 	public static final String CUSTOM_ARGS_KEY = "customArgs";
+	public static final String CHUNKS_KEY = "chunks";
+	public static final String HLS_KEY = "hls";
 
 	/* Additional keys reported by the server after a stream information request */
     public static final String ID_KEY = "id";
@@ -23,6 +24,101 @@ public class Constants {
     public static final String STREAMTYPE_KEY = "streamType";
     public static final String ANNOUNCEPATH_KEY = "annPath";
     public static final String LISTENINGPORT_KEY = "listPort";
+    public static final String RESOURCES_KEY = "resources";
+    public static final String STALLED_KEY = "stalled";
+    public static final String STALLS_KEY = "stalls";
+    public static final String SOURCEID_KEY = "sourceId";
+    public static final String DECISION_KEY = "decision";
+    public static final String ESTIMATEDCPU_KEY = "estimatedCpu";
+    public static final String REASON_KEY = "reason";
+    public static final String QUEUED_KEY = "queued";
+    public static final String FIRSTSEGMENTTIME_KEY = "firstSegmentTime";
+    public static final String VOD_KEY = "vod";
+    public static final String COMPLETEDCHUNKS_KEY = "completedChunks";
+    public static final String ENCODETIME_KEY = "encodeTime";
+    public static final String ARCHIVE_KEY = "archive";
+    public static final String WEBMMANIFEST_KEY = "webmManifest";
+    public static final String HLSMANIFEST_KEY = "hlsManifest";
+    public static final String SEGMENTS_KEY = "segments";
+
+    /* Name of the WEBM-DASH manifest of a multi output encode, next to the MPEG-DASH one */
+    public static final String WEBM_MANIFEST = "manifest-webm.mpd";
+
+    /* Name of the HLS master playlist written by the MPEG-DASH muxer next to its manifest */
+    public static final String HLS_PLAYLIST = "master.m3u8";
+    public static final String STATE_KEY = "state";
+    public static final String BYTESBEFORE_KEY = "bytesBefore";
+    public static final String BYTESAFTER_KEY = "bytesAfter";
+    public static final String BYTESSAVED_KEY = "bytesSaved";
+    public static final String COUNT_KEY = "count";
+    public static final String BITRATE_KEY = "bitrate";
+
+    /* Keys of the seek request */
+    public static final String SEEK_TIME_KEY = "t";
+    public static final String TIME_KEY = "time";
+    public static final String REPRESENTATIONS_KEY = "representations";
+    public static final String NUMBER_KEY = "number";
+    public static final String SEGMENT_KEY = "segment";
+    public static final String FILE_KEY = "file";
+    public static final String OFFSET_KEY = "offset";
+    public static final String SIZE_KEY = "size";
+
+    /* Keys of the clip request and of the extraction of a clip */
+    public static final String CLIP_KEY = "clip";
+    public static final String FROM_KEY = "from";
+    public static final String TO_KEY = "to";
+    public static final String SOURCE_KEY = "source";
+    public static final String COMPLETEDSEGMENTS_KEY = "completedSegments";
+
+    /* Name of the fragmented mp4 mezzanine of a recording packaged on request, in the stream directory */
+    public static final String MEZZANINE_FILE = "mezzanine.mp4";
+
+    /* Name of the sidecar of the index of the segments of a stream, in the stream directory */
+    public static final String SEGMENT_INDEX_FILE = "segments.idx";
+
+    /* Resource usage keys reported for streams and by the metrics request */
+    public static final String PROCESSES_KEY = "processes";
+    public static final String CPU_KEY = "cpu";
+    public static final String RSS_KEY = "rss";
+    public static final String READBYTES_KEY = "readBytes";
+    public static final String WRITEBYTES_KEY = "writeBytes";
+    public static final String CORES_KEY = "cores";
+    public static final String LOADAVG_KEY = "loadAvg";
+    public static final String MEMTOTAL_KEY = "memTotal";
+    public static final String MEMAVAILABLE_KEY = "memAvailable";
+    public static final String FFMPEG_KEY = "ffmpeg";
+    public static final String JVM_KEY = "jvm";
+    public static final String THREADS_KEY = "threads";
+    public static final String HEAPUSED_KEY = "heapUsed";
+    public static final String HEAPMAX_KEY = "heapMax";
+    public static final String HOST_KEY = "host";
+    public static final String STREAMS_KEY = "streams";
+
+    /* Admission control keys reported by the metrics request */
+    public static final String ADMISSION_KEY = "admission";
+    public static final String BUDGET_KEY = "budget";
+    public static final String LOAD_KEY = "load";
+    public static final String COEFFICIENTS_KEY = "coefficients";
+
+    /* Storage keys reported by the metrics request */
+    public static final String STORAGE_KEY = "storage";
+    public static final String PATH_KEY = "path";
+    public static final String FREE_KEY = "free";
+    public static final String WRITE_RATE_KEY = "writeRate";
+    public static final String CAPACITY_KEY = "capacity";
+    public static final String EVICTIONS_KEY = "evictions";
+    public static final String EVICTEDBYTES_KEY = "evictedBytes";
+    public static final String STAGING_KEY = "staging";
+    public static final String DURABLE_KEY = "durable";
+    public static final String BYTES_KEY = "bytes";
+    public static final String BATCHES_KEY = "batches";
+
+    /* Logging keys */
+    public static final String DEFAULT_LEVEL_KEY = "default";
+    public static final String LEVELS_KEY = "levels";
+    public static final String DROPPED_KEY = "dropped";
+    public static final String LINES_KEY = "lines";
+    public static final String SKIPPED_KEY = "skipped";
 
 	/* FFProbe report keys */
 	public static final String CODEC_TYPE_KEY = "codec_type";
@@ -47,10 +143,59 @@ public class Constants {
         public static final String REMOTE_ROOT_API_PATH = "remoteRootAPIPath";
         /* Remote path used to access file system where web-app assets are stored */
         public static final String REMOTE_ASSETS_PATH = "remoteAssetsPath";
+        /* Remote path used to access resource usage metrics */
+        public static final String REMOTE_METRICS_PATH = "remoteMetricsPath";
+        public static final String REMOTE_LOGGING_PATH = "remoteLoggingPath";
+        public static final String LOG_LEVELS = "logLevels";
+        public static final String FFMPEG_LOG_RATE = "ffmpegLogRate";
+        public static final String LOG_TAIL_LINES = "logTailLines";
+        public static final String ONDEMAND_IDLE_TIMEOUT = "onDemandIdleTimeout";
+        public static final String ONDEMAND_START_TIMEOUT = "onDemandStartTimeout";
         public static final String FFMPEG_PATH = "ffmpegPath";
         public static final String FFPROBE_PATH = "ffprobePath";
         public static final String ANNOUNCE_PATH = "announcePath";
         public static final String LISTENING_PORT = "listeningPort";
+        /* Interval, in milliseconds, between two samples of the ffmpeg processes resources */
+        public static final String MONITOR_INTERVAL = "monitorInterval";
+        /* Interval, in milliseconds, without progress or new segments after which an encode is stalled (0 disables) */
+        public static final String STALL_TIMEOUT = "stallTimeout";
+        /* Whether a stalled encode must be restarted */
+        public static final String STALL_RESTART = "stallRestart";
+        /* Whether H.264/AAC encodes copy the input video when browsers can play it */
+        public static final String VIDEO_PASSTHROUGH = "videoPassthrough";
+        /* Host cpu usage (percent) above which automatic encodes copy H.264 video of unverified compatibility */
+        public static final String AUTO_MAX_HOST_CPU = "autoMaxHostCpu";
+        /* Cpu budget of the encodes, in percent of the whole host (0 disables the admission control) */
+        public static final String CPU_BUDGET = "cpuBudget";
+        /* Maximum time, in milliseconds, an encode waits for cpu before failing */
+        public static final String ADMISSION_QUEUE_TIMEOUT = "admissionQueueTimeout";
+        /* Number of chunks transcoded in parallel for file and http inputs (0 = one per core) */
+        public static final String VOD_CHUNKS = "vodChunks";
+        /* Local folder of the recordings that file inputs can read; empty to reject file inputs */
+        public static final String RECORDINGS_PATH = "recordingsPath";
+        /* Whether completed live H.264 encodes are re-encoded with an efficient preset when the cpu is idle */
+        public static final String ARCHIVE_REENCODE = "archiveReencode";
+        /* Whether completed live MPEG-DASH encodes are stored as a fragmented mp4 mezzanine packaged on request */
+        public static final String MEZZANINE = "mezzanine";
+        /* Whether the closed segments of the recordings are appended to pack files instead of being kept as files */
+        public static final String SEGMENT_PACK = "segmentPack";
+        /* Period, in seconds, of the segments appended to the same pack file */
+        public static final String SEGMENT_PACK_DURATION = "segmentPackDuration";
+        /* Whether the finished recordings are evicted, least recently requested first, when a streams folder fills up */
+        public static final String CAPACITY_EVICTION = "capacityEviction";
+        /* Usage, in percent of the disk, of a streams folder above which the evictions start, and where they stop */
+        public static final String CAPACITY_HIGH_WATER = "capacityHighWater";
+        public static final String CAPACITY_LOW_WATER = "capacityLowWater";
+        /* Memory-backed folder (e.g. a tmpfs mount) the live encodes are written to before being persisted; empty to disable */
+        public static final String STAGING_PATH = "stagingPath";
+        /* Time, in seconds, the persisted segments are still served from the staging folder */
+        public static final String STAGING_RETENTION = "stagingRetention";
+        public static final String INSTANCES = "instances";
+        public static final String MAX_CONNECTIONS = "maxConnections";
+        public static final String CONTENT_ADDRESS = "contentAddress";
+        public static final String CONTENT_PORT = "contentPort";
+        public static final String CONTENT_INSTANCES = "contentInstances";
+        public static final String CONTENT_MAX_CONNECTIONS = "contentMaxConnections";
         public static final String PATTERNS = "patterns";
         public static final String COMMANDS = "commands";
         public static final String DEFAULTS = "defaults";
@@ -83,10 +228,12 @@ public class Constants {
     /* Commands keys */
     public class COMMANDS {
         public static final String ADVOPT_FFMPEG = "advOptFFMpeg";
+        public static final String ADVOPT_FFMPEG_VOD = "advOptFFmpegVod";
         public static final String ADVOPT_RTSPSERVER = "advOptRtspServer";
 
         public static final String ADVOPT_MPEGDASH = "advOptMpegDash";
         public static final String ADVOPT_H264 = "advOptH264";
+        public static final String ADVOPT_H264_ARCHIVE = "advOptH264Archive";
         public static final String ADVOPT_AAC = "advOptAac";
 
         public static final String ADVOPT_WEBMDASH = "advOptWebmDash";
@@ -0,0 +1,835 @@
+package jvs;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.BodyHandler;
+import io.vertx.ext.web.handler.StaticHandler;
+import jvs.config.ConfigManager;
+import jvs.monitor.ResourceMonitor;
+import jvs.monitor.StorageMonitor;
+import jvs.packaging.MezzanineIndex;
+import jvs.packaging.MezzaninePackager;
+import jvs.packaging.PackagedContent;
+import jvs.packaging.SeekResolver;
+import jvs.packaging.SegmentIndex;
+import jvs.packaging.SegmentPack;
+import jvs.stream.Stream;
+import jvs.stream.StreamRegistry;
+import jvs.utils.Logger;
+import jvs.workers.AdmissionController;
+import jvs.workers.CapacityManager;
+import jvs.workers.OutputRingBuffer;
+import jvs.workers.SegmentIndexer;
+import jvs.workers.SegmentStager;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Http verticle that serves the REST API, the web-app assets and the encoded streams.
+ * Multiple instances can be deployed, vert.x balances connections between them and every
+ * instance shares the same {@link StreamRegistry}.
+ * The deployment config selects the served routes ({@link #PLANE_KEY}): the control plane (REST API,
+ * metrics and assets), the data plane (streams content) or both on the same listener.
+ */
+public class ServerVerticle extends AbstractVerticle {
+
+    /**
+     * Key of the deployment config that selects the routes served by the verticle
+     */
+    public static final String PLANE_KEY = "plane";
+
+    /**
+     * Serves every route on the main listener
+     */
+    public static final String PLANE_ALL = "all";
+
+    /**
+     * Serves the REST API, the metrics and the assets on the main listener
+     */
+    public static final String PLANE_CONTROL = "control";
+
+    /**
+     * Serves the streams content on the content listener
+     */
+    public static final String PLANE_CONTENT = "content";
+
+    /**
+     * Open connections of each plane, shared by all instances of the plane
+     */
+    private static final Map<String, AtomicInteger> openConnections = new ConcurrentHashMap<>();
+
+    /**
+     * Interval, in milliseconds, between two checks of the first segment of an on-demand encode
+     */
+    private static final long ON_DEMAND_POLL_INTERVAL = 50;
+
+    private final StreamRegistry registry = StreamRegistry.getInstance();
+
+    /**
+     * Handlers of the files of the streams, indexed by the local path of their streams folder
+     */
+    private final Map<String, StaticHandler> contentHandlers = new HashMap<>();
+
+    /**
+     * Handler of the files of the live encodes written to the staging folder; null if the staging is disabled
+     */
+    private StaticHandler stagingHandler = null;
+
+    @Override
+    public void start(Future<Void> startFuture) {
+
+        String plane = config().getString(PLANE_KEY, PLANE_ALL);
+        boolean controlRoutes = !plane.equals(PLANE_CONTENT);
+        boolean contentRoutes = !plane.equals(PLANE_CONTROL);
+
+        Router router = Router.router(vertx);
+
+        /* get remote paths */
+        String remoteAssetsPath = ConfigManager.getConfig().getRemoteAssetsPath();
+        String remoteStreamsPath = ConfigManager.getConfig().getRemoteStreamsPath();
+        String remoteRootAPIPath = ConfigManager.getConfig().getRemoteRootAPIPath();
+        /* get local paths */
+        String localAssetsPath = ConfigManager.getConfig().getAssetsPath();
+
+        if (contentRoutes) {
+            /* define route to access encoded manifest (the web-app can be served by another listener) */
+            router.route(remoteStreamsPath + "/*").handler(routingContext -> {
+                routingContext.response().putHeader("Access-Control-Allow-Origin", "*");
+                routingContext.next();
+            });
+            /* start on-demand encodes on the first request */
+            router.route(remoteStreamsPath + "/*").handler(this::handleOnDemandContent);
+            /* package the recordings stored as mezzanines on request */
+            router.route(remoteStreamsPath + "/*").handler(this::handleSeekManifest);
+            router.route(remoteStreamsPath + "/*").handler(this::handleMezzanineContent);
+            /* serve the segments appended to pack files as byte ranges of the packs */
+            router.route(remoteStreamsPath + "/*").handler(this::handlePackedContent);
+            /* serve the files from the streams folder of every stream */
+            for (String localStreamsPath : ConfigManager.getConfig().getStreamsPaths()) {
+                contentHandlers.put(localStreamsPath, createContentHandler(localStreamsPath));
+            }
+            if (ConfigManager.getConfig().isStagingEnabled()) {
+                stagingHandler = createContentHandler(ConfigManager.getConfig().getStagingPath());
+            }
+            router.route(remoteStreamsPath + "/*").handler(this::handleStreamContent);
+        }
+
+        if (controlRoutes) {
+            String remoteLoggingPath = ConfigManager.getConfig().getRemoteLoggingPath();
+
+            /* create body handler */
+            router.route(remoteRootAPIPath + "*").handler(BodyHandler.create());
+            router.route(remoteLoggingPath).handler(BodyHandler.create());
+
+            /* define route to access web-app assets */
+            router.route(remoteAssetsPath + "/*").handler(StaticHandler.create(localAssetsPath));
+
+            /* definitions of the REST API routes */
+            router.get(remoteRootAPIPath + "/:streamID").handler(this::handleGetStream);
+            router.get(remoteRootAPIPath + "/:streamID/log").handler(this::handleGetStreamLog);
+            router.get(remoteRootAPIPath + "/:streamID/seek").handler(this::handleSeekStream);
+            router.post(remoteRootAPIPath).handler(this::handleAddStream);
+            router.post(remoteRootAPIPath + "/:streamID/clips").handler(this::handleAddClip);
+            router.delete(remoteRootAPIPath + "/:streamID").handler(this::handleDeleteStream);
+            router.patch(remoteRootAPIPath + "/:streamID").handler(this::handleStopStream);
+            router.get(remoteRootAPIPath).handler(this::handleListStreams);
+            router.get(ConfigManager.getConfig().getRemoteMetricsPath()).handler(this::handleGetMetrics);
+            router.get(remoteLoggingPath).handler(this::handleGetLogging);
+            router.put(remoteLoggingPath).handler(this::handleSetLogging);
+        }
+
+        String address = plane.equals(PLANE_CONTENT) ? ConfigManager.getConfig().getContentAddress() :
+                ConfigManager.getConfig().getAddress();
+        int port = plane.equals(PLANE_CONTENT) ? ConfigManager.getConfig().getContentPort() :
+                ConfigManager.getConfig().getPort();
+        int maxConnections = plane.equals(PLANE_CONTENT) ? ConfigManager.getConfig().getContentMaxConnections() :
+                ConfigManager.getConfig().getMaxConnections();
+
+        HttpServer server = vertx.createHttpServer().requestHandler(router::accept);
+
+        if (maxConnections > 0) {
+            AtomicInteger connections = openConnections.computeIfAbsent(plane, k -> new AtomicInteger());
+            server.connectionHandler(connection -> {
+                if (connections.incrementAndGet() > maxConnections) {
+                    connections.decrementAndGet();
+                    Logger.warn("Too many connections on the " + plane + " listener, closing the new one.");
+                    connection.close();
+                } else {
+                    connection.closeHandler(v -> connections.decrementAndGet());
+                }
+            });
+        }
+
+        server.listen(port, address, res -> {
+            if (res.succeeded()) {
+                startFuture.complete();
+            } else {
+                startFuture.fail(res.cause());
+            }
+        });
+    }
+
+    /* REQUEST HANDLERS */
+
+    /**
+     * Handles a content request: records the request and, if the stream is an on-demand stream that is not
+     * being encoded, starts the encode and holds the request until the first segment is available.
+     * @param routingContext The routing context.
+     */
+    private void handleOnDemandContent(RoutingContext routingContext) {
+        Stream stream = registry.getContentOwner(parseContentStreamID(routingContext.normalisedPath()));
+
+        if (stream != null) {
+            stream.touch();
+        }
+        if (stream == null || !stream.isOnDemand()) {
+            routingContext.next();
+            return;
+        }
+
+        if (stream.isReady()) {
+            routingContext.next();
+            return;
+        }
+
+        //the stream directory is listed and cleaned by a worker
+        long deadline = System.currentTimeMillis() + ConfigManager.getConfig().getOnDemandStartTimeout();
+        vertx.<Boolean>executeBlocking(future -> future.complete(stream.pollReady() || registry.startOnDemand(stream)), false, res -> {
+            if (res.failed() || !res.result()) {
+                sendError(503, "Unable to start the encode of the stream.", routingContext.response());
+            } else if (stream.isReady()) {
+                routingContext.next();
+            } else {
+                awaitFirstSegment(routingContext, stream, deadline);
+            }
+        });
+    }
+
+    /**
+     * Holds a content request of an on-demand stream until the first segment of its encode is available.
+     * @param routingContext The routing context.
+     * @param stream The owner of the encode.
+     * @param deadline The time, in milliseconds, after which the request fails.
+     */
+    private void awaitFirstSegment(RoutingContext routingContext, Stream stream, long deadline) {
+        vertx.setTimer(ON_DEMAND_POLL_INTERVAL, timerID -> {
+            if (routingContext.response().closed()) {
+                return;
+            }
+
+            vertx.<Boolean>executeBlocking(future -> future.complete(stream.pollReady()), false, res -> {
+                if (routingContext.response().closed()) {
+                    return;
+                }
+
+                if (res.succeeded() && res.result()) {
+                    routingContext.next();
+                } else if (!stream.isEncoding() || System.currentTimeMillis() > deadline) {
+                    sendError(503, "The first segment of the stream is not available.", routingContext.response());
+                } else {
+                    awaitFirstSegment(routingContext, stream, deadline);
+                }
+            });
+        });
+    }
+
+    /**
+     * Handles a content request of a recording stored as a mezzanine: the manifests, the playlists and the
+     * segments missing from the stream directory are packaged from the mezzanine, other requests are served
+     * by the static handler.
+     * @param routingContext The routing context.
+     */
+    private void handleMezzanineContent(RoutingContext routingContext) {
+        String path = routingContext.normalisedPath();
+        Stream stream = registry.getContentOwner(parseContentStreamID(path));
+        String name = path.substring(path.lastIndexOf('/') + 1);
+
+        //only the files at the root of the stream directory are packaged
+        if (stream == null || !stream.hasMezzanine() || path.indexOf('/', ConfigManager.getConfig().getRemoteStreamsPath().length() + 1) != path.lastIndexOf('/')) {
+            routingContext.next();
+            return;
+        }
+
+        File directory = new File(stream.getDirectory());
+        vertx.<PackagedContent>executeBlocking(future -> {
+            File mezzanine = new File(directory, Constants.MEZZANINE_FILE);
+            if (name.isEmpty() || new File(directory, name).exists() || !mezzanine.exists()) {
+                future.complete(null);
+                return;
+            }
+            MezzanineIndex index = MezzanineIndex.open(mezzanine);
+            future.complete(index != null ? MezzaninePackager.resolve(index, name) : null);
+        }, false, res -> sendContent(routingContext, res.failed() ? null : res.result()));
+    }
+
+    /**
+     * Handles a content request of a segment appended to a pack file (see {@link SegmentPack}): the segment is
+     * served as a byte range of its pack, other requests are served by the static handler.
+     * @param routingContext The routing context.
+     */
+    private void handlePackedContent(RoutingContext routingContext) {
+        String path = routingContext.normalisedPath();
+        Stream stream = ConfigManager.getConfig().isSegmentPackEnabled() ? registry.getContentOwner(parseContentStreamID(path)) : null;
+        int start = path.indexOf('/', ConfigManager.getConfig().getRemoteStreamsPath().length() + 1);
+        int end = path.lastIndexOf('/');
+
+        if (stream == null || start < 0 || end == path.length() - 1) {
+            routingContext.next();
+            return;
+        }
+
+        File directory = new File(stream.getDirectory(), path.substring(start, end));
+        String name = path.substring(end + 1);
+        vertx.<PackagedContent>executeBlocking(future -> future.complete(SegmentPack.open(directory).resolve(name)),
+                false, res -> sendContent(routingContext, res.failed() ? null : res.result()));
+    }
+
+    /**
+     * Handles a request of a manifest that starts at a given time (manifest.mpd?t=...), as returned by a seek:
+     * the static manifest of a completed recording is rewritten to start with the segments that contain the time.
+     * Other requests, and the requests of dynamic manifests, are served by the next handlers.
+     * @param routingContext The routing context.
+     */
+    private void handleSeekManifest(RoutingContext routingContext) {
+        String path = routingContext.normalisedPath();
+        String time = routingContext.request().getParam(Constants.SEEK_TIME_KEY);
+        Stream stream = registry.getContentOwner(parseContentStreamID(path));
+        String name = path.substring(path.lastIndexOf('/') + 1);
+
+        //only the manifests at the root of the stream directory are rewritten
+        if (time == null || stream == null || !name.endsWith(".mpd") ||
+                path.indexOf('/', ConfigManager.getConfig().getRemoteStreamsPath().length() + 1) != path.lastIndexOf('/')) {
+            routingContext.next();
+            return;
+        }
+
+        File directory = new File(stream.getDirectory());
+        int streamID = stream.getID();
+        vertx.<PackagedContent>executeBlocking(future -> {
+            File manifest = new File(directory, name);
+            File mezzanine = new File(directory, Constants.MEZZANINE_FILE);
+            SegmentIndex segments = SegmentIndexer.get(streamID);
+            long startTime = segments != null ? segments.getStartTime() : -1;
+
+            if (manifest.exists() && segments != null && segments.getCount() > 0) {
+                Double offset = SeekResolver.parseOffset(time, startTime, segments.getDuration());
+                future.complete(offset != null ? SeekResolver.trimManifest(manifest, segments, offset) : null);
+            } else if (!manifest.exists() && mezzanine.exists() && name.equals("manifest.mpd")) {
+                MezzanineIndex index = MezzanineIndex.open(mezzanine);
+                Double offset = index != null ? SeekResolver.parseOffset(time, startTime, index.getDuration()) : null;
+                future.complete(offset != null ? MezzaninePackager.resolveManifest(index, offset) : null);
+            } else {
+                future.complete(null);
+            }
+        }, false, res -> sendContent(routingContext, res.failed() ? null : res.result()));
+    }
+
+    /**
+     * Sends a packaged content.
+     * @param routingContext The routing context.
+     * @param content The content; null to let the next handlers serve the request.
+     */
+    private void sendContent(RoutingContext routingContext, PackagedContent content) {
+        if (content == null) {
+            routingContext.next();
+            return;
+        }
+
+        HttpServerResponse response = routingContext.response().putHeader("Content-Type", content.getContentType());
+        if (content.getData() != null) {
+            response.end(Buffer.buffer(content.getData()));
+        } else {
+            response.sendFile(content.getFile().getPath(), content.getOffset(), content.getLength());
+        }
+    }
+
+    /**
+     * Creates the handler of the files of a streams folder, the folder can be an absolute path (e.g. a mount point).
+     * @param root The local path of the folder.
+     * @return The handler.
+     */
+    private static StaticHandler createContentHandler(final String root) {
+        return StaticHandler.create().setAllowRootFileSystemAccess(root.startsWith("/")).setWebRoot(root)
+                .setCachingEnabled(false);
+    }
+
+    /**
+     * Serves a file of a stream from the staging folder while the live encode has it there, otherwise from the
+     * streams folder where the stream has been placed. The requests of unknown streams are served from the first
+     * streams folder.
+     * @param routingContext The routing context.
+     */
+    private void handleStreamContent(RoutingContext routingContext) {
+        String path = routingContext.normalisedPath();
+        int streamID = parseContentStreamID(path);
+        Stream stream = registry.getContentOwner(streamID);
+        if (stagingHandler != null && stream != null && stream.getID() == streamID &&
+                SegmentStager.isStaged(streamID, path.substring(path.lastIndexOf('/') + 1))) {
+            stagingHandler.handle(routingContext);
+            return;
+        }
+
+        String dataDirectory = stream != null && stream.getDirectory() != null ?
+                StorageMonitor.getDataDirectory(stream.getDirectory()) : null;
+        StaticHandler handler = dataDirectory != null ? contentHandlers.get(dataDirectory) : null;
+        (handler != null ? handler : contentHandlers.get(ConfigManager.getConfig().getStreamsPath())).handle(routingContext);
+    }
+
+    /**
+     * Parses the stream id from the path of a content request (remoteStreamsPath/stream_ID/...).
+     * @param path The normalised request path.
+     * @return The id of the stream; -1 if the path does not refer to a stream.
+     */
+    private int parseContentStreamID(final String path) {
+        String prefix = ConfigManager.getConfig().getRemoteStreamsPath() + "/stream_";
+        if (path == null || !path.startsWith(prefix)) {
+            return -1;
+        }
+        int end = path.indexOf('/', prefix.length());
+        try {
+            return Integer.parseInt(path.substring(prefix.length(), end > 0 ? end : path.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Handles the get stream information request.
+     * @param routingContext The routing context.
+     */
+    private void handleGetStream(RoutingContext routingContext) {
+
+        HttpServerResponse response = routingContext.response();
+        String requestedID = routingContext.request().getParam("streamID");
+        int streamID = -1;
+
+        //get client address
+        String host = routingContext.request().remoteAddress().host();
+        Logger.info("Client (ip: " + host + "): requests information about stream with id: " + requestedID + ".");
+
+        if (!requestedID.isEmpty()) {
+            try {
+                streamID = Integer.parseInt(requestedID);
+            } catch (NumberFormatException ex) {
+                Logger.error("Unable to parse integer from GET request (value: " + requestedID + ").");
+                ex.printStackTrace();
+            }
+        }
+
+        if (streamID > 0) {
+            Stream stream = registry.get(streamID);
+            if (stream == null) {
+                sendError(404, "Unable to find the stream.", response);
+            } else {
+                response.setStatusCode(200)
+                        .setStatusMessage("OK")
+                        .putHeader("Access-Control-Allow-Origin", "*")
+                        .putHeader("content-type", "application/json")
+                        .end(stream.toJSON().encode());
+            }
+        } else {
+            sendError(400, "Missing or invalid stream id.", response);
+        }
+    }
+
+    /**
+     * Handles the get stream log request, returning the last ffmpeg output lines kept in memory.
+     * @param routingContext The routing context.
+     */
+    private void handleGetStreamLog(RoutingContext routingContext) {
+
+        HttpServerResponse response = routingContext.response();
+        String requestedID = routingContext.request().getParam("streamID");
+        String requestedLines = routingContext.request().getParam("lines");
+        int streamID = -1;
+        int lines = 100; //default
+
+        try {
+            streamID = Integer.parseInt(requestedID);
+            if (requestedLines != null) {
+                lines = Integer.parseInt(requestedLines);
+            }
+        } catch (NumberFormatException ex) {
+            Logger.error("Unable to parse integer from GET request (value: " + requestedID + ", lines: " +
+                    requestedLines + ").");
+        }
+
+        if (streamID <= 0 || lines <= 0) {
+            sendError(400, "Missing or invalid stream id or number of lines.", response);
+            return;
+        }
+
+        Stream stream = registry.get(streamID);
+        if (stream == null) {
+            sendError(404, "Unable to find the stream.", response);
+            return;
+        }
+
+        OutputRingBuffer output = stream.getEncodeOwner().getOutput();
+        JsonArray tail = new JsonArray();
+        if (output != null) {
+            output.tail(lines).forEach(tail::add);
+        }
+
+        response.setStatusCode(200)
+                .setStatusMessage("OK")
+                .putHeader("Access-Control-Allow-Origin", "*")
+                .putHeader("content-type", "application/json")
+                .end(new JsonObject().put(Constants.ID_KEY, streamID)
+                        .put(Constants.LINES_KEY, tail)
+                        .put(Constants.SKIPPED_KEY, output != null ? output.getSkippedCount() : 0).encode());
+    }
+
+    /**
+     * Handles the seek request: finds the segments to start from to play a time of a stream (an ISO-8601 date,
+     * an ISO-8601 duration or a number of seconds, negative durations are counted back from the live edge).
+     * The returned manifest starts at that time: a rewritten manifest for a completed recording, the live manifest
+     * with a DASH start time fragment for a live stream.
+     * @param routingContext The routing context.
+     */
+    private void handleSeekStream(RoutingContext routingContext) {
+
+        HttpServerResponse response = routingContext.response();
+        String requestedID = routingContext.request().getParam("streamID");
+        String time = routingContext.request().getParam(Constants.SEEK_TIME_KEY);
+        int streamID = -1;
+
+        try {
+            streamID = Integer.parseInt(requestedID);
+        } catch (NumberFormatException ex) {
+            Logger.error("Unable to parse integer from GET request (value: " + requestedID + ").");
+        }
+
+        if (streamID <= 0 || time == null || time.isEmpty()) {
+            sendError(400, "Missing or invalid stream id or time.", response);
+            return;
+        }
+
+        Stream stream = registry.get(streamID);
+        Stream owner = stream != null ? stream.getEncodeOwner() : null;
+        String manifest = owner == null ? null : owner.getManifest() != null && !owner.getManifest().isEmpty() ?
+                owner.getManifest() : owner.getWebmManifest();
+        if (manifest == null || manifest.isEmpty()) {
+            sendError(404, "Unable to find the stream.", response);
+            return;
+        }
+
+        String manifestUrl = ConfigManager.getConfig().getContentBaseUrl() + manifest;
+        String baseUrl = manifestUrl.substring(0, manifestUrl.lastIndexOf('/') + 1);
+        File mezzanine = new File(owner.getDirectory(), Constants.MEZZANINE_FILE);
+        vertx.<JsonObject>executeBlocking(future -> {
+            SegmentIndex segments = SegmentIndexer.get(owner.getID());
+            long startTime = segments != null ? segments.getStartTime() : -1;
+            MezzanineIndex index = mezzanine.exists() ? MezzanineIndex.open(mezzanine) : null;
+
+            JsonObject seek = null;
+            if (index != null) {
+                Double offset = SeekResolver.parseOffset(time, startTime, index.getDuration());
+                seek = offset != null ? SeekResolver.seek(index, offset, baseUrl) : new JsonObject();
+            } else if (segments != null && segments.getCount() > 0) {
+                Double offset = SeekResolver.parseOffset(time, startTime, segments.getDuration());
+                seek = offset != null ? SeekResolver.seek(segments, offset, baseUrl) : new JsonObject();
+            }
+
+            if (seek != null && seek.containsKey(Constants.TIME_KEY)) {
+                double start = seek.getDouble(Constants.TIME_KEY);
+                seek.put(Constants.MANIFEST_KEY, !owner.isEncoding() ? manifestUrl + "?" + Constants.SEEK_TIME_KEY + "=" + start :
+                        manifestUrl + "#t=" + (startTime >= 0 ? String.format(Locale.ROOT, "posix:%.3f", startTime / 1000d + start) : start));
+            }
+            future.complete(seek);
+        }, false, res -> {
+            JsonObject seek = res.failed() ? null : res.result();
+            if (seek == null) {
+                sendError(404, "No segment of the stream is indexed.", response);
+            } else if (!seek.containsKey(Constants.TIME_KEY)) {
+                sendError(400, "Invalid time, expected an ISO-8601 date or duration or a number of seconds.", response);
+            } else {
+                response.setStatusCode(200)
+                        .setStatusMessage("OK")
+                        .putHeader("Access-Control-Allow-Origin", "*")
+                        .putHeader("content-type", "application/json")
+                        .end(seek.encode());
+            }
+        });
+    }
+
+    /**
+     * Handles the add new stream request.
+     * @param routingContext The routing context.
+     */
+    private void handleAddStream(RoutingContext routingContext) {
+
+        HttpServerResponse response = routingContext.response();
+
+        //get client address
+        String host = routingContext.request().remoteAddress().host();
+        Logger.info("Client (ip: " + host + "): requests to add a new stream.");
+
+        JsonObject json = null;
+
+        try {
+            json = routingContext.getBodyAsJson();
+        } catch (Exception ex) {
+            Logger.error("Unable to parse json body from the incoming request (value: " + routingContext.getBodyAsString() + ").");
+            ex.printStackTrace();
+        }
+
+        //reject encodes that do not fit in the cpu budget, before any process is started
+        if (json != null && !registry.canAdmit(json)) {
+            response.putHeader("Retry-After", String.valueOf(AdmissionController.RETRY_AFTER));
+            sendError(503, "The server cannot afford a new encode, retry later.", response);
+            return;
+        }
+
+        if (json == null) {
+            sendError(400, "Unable to initialize the new stream and start the encoding.", response);
+            return;
+        }
+
+        //the encoder start does file IO, it must not block the event loop
+        final JsonObject body = json;
+        vertx.<Stream>executeBlocking(future -> future.complete(registry.addStream(body)), false, res -> {
+            Stream stream = res.failed() ? null : res.result();
+            if (stream == null) {
+                sendError(400, "Unable to initialize the new stream and start the encoding.", response);
+            } else if (stream.getMode() == RTSPMode.SERVER) {
+                //if ffmpeg is configured like server mode, put in the response additional information about announce
+                response.setStatusCode(200)
+                        .setStatusMessage("OK")
+                        .putHeader("Access-Control-Allow-Origin", "*")
+                        .putHeader("content-type", "application/json")
+                        .end(new JsonObject().put("status", "0").put("message", "OK")
+                                .put(Constants.LISTENINGPORT_KEY, ConfigManager.getConfig().getListeningPort())
+                                .put(Constants.ANNOUNCEPATH_KEY, ConfigManager.getConfig().getAnnouncePath() +
+                                        "/stream" + stream.getID())
+                                .put(Constants.ID_KEY, stream.getID()).encode());
+            } else {
+                sendSuccess(response);
+            }
+        });
+    }
+
+    /**
+     * Handles the add clip request: a new stream with the segments of a recording between two times is extracted
+     * in the background, its extraction is reported by the get stream request.
+     * @param routingContext The routing context.
+     */
+    private void handleAddClip(RoutingContext routingContext) {
+
+        HttpServerResponse response = routingContext.response();
+        String requestedID = routingContext.request().getParam("streamID");
+        int streamID = -1;
+
+        //get client address
+        String host = routingContext.request().remoteAddress().host();
+        Logger.info("Client (ip: " + host + "): requests a clip of stream with id: " + requestedID);
+
+        try {
+            streamID = Integer.parseInt(requestedID);
+        } catch (NumberFormatException ex) {
+            Logger.error("Unable to parse integer from POST request (value: " + requestedID + ").");
+        }
+
+        JsonObject json = null;
+
+        try {
+            json = routingContext.getBodyAsJson();
+        } catch (Exception ex) {
+            Logger.error("Unable to parse json body from the incoming request (value: " + routingContext.getBodyAsString() + ").");
+        }
+
+        Stream clip = json != null && streamID > 0 ? registry.addClip(streamID, json) : null;
+
+        if (clip == null) {
+            sendError(400, "Unable to extract a clip of the stream in the requested range.", response);
+        } else {
+            response.setStatusCode(200)
+                    .setStatusMessage("OK")
+                    .putHeader("Access-Control-Allow-Origin", "*")
+                    .putHeader("content-type", "application/json")
+                    .end(new JsonObject().put("status", "0").put("message", "OK")
+                            .put(Constants.ID_KEY, clip.getID()).encode());
+        }
+    }
+
+    /**
+     * Handles the delete stream request.
+     * @param routingContext The routing context.
+     */
+    private void handleDeleteStream(RoutingContext routingContext) {
+
+        HttpServerResponse response = routingContext.response();
+        String requestedID = routingContext.request().getParam("streamID");
+        int streamID = -1;
+
+        //get client address
+        String host = routingContext.request().remoteAddress().host();
+        Logger.info("Client (ip: " + host + "): requests removal of stream with id: " + requestedID);
+
+        if (!requestedID.isEmpty()) {
+            try {
+                streamID = Integer.parseInt(requestedID);
+            } catch (NumberFormatException ex) {
+                Logger.error("Unable to parse integer from DELETE request (value: " + requestedID + ").");
+                ex.printStackTrace();
+            }
+        }
+
+        if (registry.deleteStream(streamID)) {
+            sendSuccess(response);
+        } else {
+            sendError(400, "Unable to delete stream.", response);
+        }
+    }
+
+    /**
+     * Handles the list stream request.
+     * @param routingContext The routing context.
+     */
+    private void handleListStreams(RoutingContext routingContext) {
+
+        //get client address
+        String host = routingContext.request().remoteAddress().host();
+        Logger.info("Client (ip: " + host + "): requests all active streams.");
+
+        routingContext.response()
+                .setStatusCode(200)
+                .setStatusMessage("OK")
+                .putHeader("Access-Control-Allow-Origin", "*")
+                .putHeader("content-type", "application/json")
+                .end(registry.toJSON().encode());
+    }
+
+    /**
+     * Handles the resource usage metrics request.
+     * @param routingContext The routing context.
+     */
+    private void handleGetMetrics(RoutingContext routingContext) {
+
+        JsonObject streamsUsage = new JsonObject();
+        ResourceMonitor.getStreamsUsage().forEach((k, v) -> streamsUsage.put(k.toString(), v.toJSON()));
+
+        routingContext.response()
+                .setStatusCode(200)
+                .setStatusMessage("OK")
+                .putHeader("Access-Control-Allow-Origin", "*")
+                .putHeader("content-type", "application/json")
+                .end(new JsonObject().put(Constants.HOST_KEY, ResourceMonitor.getHostUsage())
+                        .put(Constants.STREAMS_KEY, streamsUsage)
+                        .put(Constants.ADMISSION_KEY, AdmissionController.toJSON())
+                        .put(Constants.STORAGE_KEY, StorageMonitor.toJSON())
+                        .put(Constants.CAPACITY_KEY, CapacityManager.toJSON())
+                        .put(Constants.STAGING_KEY, SegmentStager.toJSON()).encode());
+    }
+
+    /**
+     * Handles the logging levels request.
+     * @param routingContext The routing context.
+     */
+    private void handleGetLogging(RoutingContext routingContext) {
+
+        JsonObject levels = new JsonObject();
+        Logger.getLevels().forEach((k, v) -> levels.put(k, v.name()));
+
+        routingContext.response()
+                .setStatusCode(200)
+                .setStatusMessage("OK")
+                .putHeader("Access-Control-Allow-Origin", "*")
+                .putHeader("content-type", "application/json")
+                .end(new JsonObject().put(Constants.DEFAULT_LEVEL_KEY, Logger.getDefaultLevel().name())
+                        .put(Constants.LEVELS_KEY, levels)
+                        .put(Constants.DROPPED_KEY, Logger.getDroppedCount()).encode());
+    }
+
+    /**
+     * Handles the change logging levels request, the body maps each category ("default" included) to its level.
+     * @param routingContext The routing context.
+     */
+    private void handleSetLogging(RoutingContext routingContext) {
+        HttpServerResponse response = routingContext.response();
+
+        //get client address
+        String host = routingContext.request().remoteAddress().host();
+        Logger.info("Client (ip: " + host + "): requests to change logging levels.");
+
+        Map<String, String> levels = new HashMap<>();
+        try {
+            routingContext.getBodyAsJson().getMap().forEach((k, v) -> levels.put(k, String.valueOf(v)));
+        } catch (Exception ex) {
+            Logger.error("Unable to parse json body from the incoming request (value: " + routingContext.getBodyAsString() + ").");
+        }
+
+        if (!levels.isEmpty() && Logger.setLevels(levels)) {
+            sendSuccess(response);
+        } else {
+            sendError(400, "Missing or invalid logging levels.", response);
+        }
+    }
+
+    /**
+     * Handles the stop stream request.
+     * @param routingContext The routing context.
+     */
+    private void handleStopStream(RoutingContext routingContext) {
+        HttpServerResponse response = routingContext.response();
+        String requestedID = routingContext.request().getParam("streamID");
+        int streamID = -1;
+
+        //get client address
+        String host = routingContext.request().remoteAddress().host();
+        Logger.info("Client (ip: " + host + "): requests stopping of stream with id: " + requestedID);
+
+        if (!requestedID.isEmpty()) {
+            try {
+                streamID = Integer.parseInt(requestedID);
+            } catch (NumberFormatException ex) {
+                Logger.error("Unable to parse integer from PATCH request (value: " + requestedID + ").");
+                ex.printStackTrace();
+            }
+        }
+
+        if (registry.stopStream(streamID)) {
+            sendSuccess(response);
+        } else {
+            sendError(400, "Unable to stop stream.", response);
+        }
+    }
+
+    /**
+     * Sends a message to signal client the success of an operation.
+     * @param response The response used to send the reply.
+     */
+    private void sendSuccess(HttpServerResponse response) {
+        response.setStatusCode(200)
+                .setStatusMessage("OK")
+                .putHeader("Access-Control-Allow-Origin", "*")
+                .putHeader("content-type", "application/json")
+                .end(new JsonObject().put("status", "0").put("message", "OK").encode());
+    }
+
+    /**
+     * Sends a message to signal client of the failure of an operation.
+     * @param statusCode The HTTP status to report.
+     * @param message The message to report inside the json of the body.
+     * @param response The response used to send the reply.
+     */
+    private void sendError(int statusCode, String message, HttpServerResponse response) {
+        Logger.error("Server has encoutered an error, sending error code: " + statusCode);
+        response.setStatusCode(statusCode)
+                .putHeader("Access-Control-Allow-Origin", "*")
+                .putHeader("content-type", "application/json")
+                .end(new JsonObject().put("status", "-1").put("message", message).encode());
+    }
+}
@@ -38,6 +38,10 @@ public class CommandsGenerator {
     private List<String> extraArgs = new ArrayList<String>(); //extra ffmpeg arguments
     private StringBuilder adaptationSets = new StringBuilder(); //the disposition of the input track in the manifest
 
+    /* Labels of the split video of a multi output encode */
+    private static final String WEBM_VIDEO_LABEL = "webm";
+    private static final String MPEG_VIDEO_LABEL = "mpeg";
+
     /**
      * Default constructor
      */
@@ -102,7 +106,7 @@ public class CommandsGenerator {
         Commands commands = new Commands();
 
         if (type == EncodingType.MPEG_DASH_PASSTHROUGH) {
-            commands.appendEncodeCommands(ConfigManager.getConfig().getCommands(ADVOPT_FFMPEG));
+            commands.appendEncodeCommands(getGlobalCommands());
 
             //add rtsp server ffmpeg commands if the rstp mode is set to server
             if (mode == RTSPMode.SERVER) {
@@ -113,6 +117,7 @@ public class CommandsGenerator {
             }
             commands.appendEncodeCommands("-min_seg_duration", ConfigManager.getConfig().getDefaultValue(Constants.DEFAULTS.MIN_SEGMENT_DURATION));
             commands.appendEncodeCommands("-c:v", "copy", "-c:a", "copy", "-sn");
+            commands.appendEncodeCommands(getHlsCommands());
             commands.appendEncodeCommands(ConfigManager.getConfig().getCommands(ADVOPT_MPEGDASH));
             commands.appendEncodeCommands("manifest.mpd");
         } else {
@@ -124,14 +129,19 @@ public class CommandsGenerator {
                 String fps = String.format("%d",(int)Math.ceil(vti.getFrameRate()));
 
                 //input declaration and ffmpeg flags
-                commands.appendEncodeCommands(ConfigManager.getConfig().getCommands(ADVOPT_FFMPEG));
+                commands.appendEncodeCommands(getGlobalCommands());
+
+                //the input frame rate is forced only if live video is transcoded, copied frames and recordings keep their timestamps
+                if (type != EncodingType.MPEG_DASH_COPY_AAC && !stream.isVod()) {
+                    commands.appendEncodeCommands("-r", fps);
+                }
 
                 //add rtsp server ffmpeg commands if the rstp mode is set to server
                 if (mode == RTSPMode.SERVER) {
                     commands.appendEncodeCommands(ConfigManager.getConfig().getCommands(ADVOPT_RTSPSERVER));
-                    commands.appendEncodeCommands("-r", fps, "-i", generateServerAnnounceUrl());
+                    commands.appendEncodeCommands("-i", generateServerAnnounceUrl());
                 } else {
-                    commands.appendEncodeCommands("-r", fps, "-i", stream.getInputUrl());
+                    commands.appendEncodeCommands("-i", stream.getInputUrl());
                 }
 
                 //add extra client ffmpeg arguments
@@ -139,23 +149,33 @@ public class CommandsGenerator {
                     commands.appendEncodeCommands(extraArgs);
                 }
 
-                //add command to declare input video track and encode it
-                commands.appendEncodeCommands(generateTrackCommand(type, TrackType.VIDEO, 0));
+                if (type.isMultiOutput()) {
+                    //the input is decoded once, the decoded video is split between the encoders of both outputs
+                    commands.appendEncodeCommands("-filter_complex", "[0:" + vti.getIndex() + "]split=2[" +
+                            WEBM_VIDEO_LABEL + "][" + MPEG_VIDEO_LABEL + "]");
+                    commands.appendEncodeCommands(generateMultiOutputTrackCommands(type.getWebmType(), WEBM_VIDEO_LABEL));
+                    commands.appendEncodeCommands(generateMultiOutputTrackCommands(EncodingType.MPEG_DASH_H264_AAC, MPEG_VIDEO_LABEL));
+                } else {
+                    //add command to declare input video track and encode it
+                    commands.appendEncodeCommands(generateTrackCommand(type, TrackType.VIDEO, 0));
 
-                //audio streams
-                if (streamInfo.getAudioTracks().size() > 0) {
-                    //add command to declare input audio track and encode it
-                    commands.appendEncodeCommands(generateTrackCommand(type, TrackType.AUDIO, 0)); //encode audio
+                    //audio streams
+                    if (streamInfo.getAudioTracks().size() > 0) {
+                        //add command to declare input audio track and encode it
+                        commands.appendEncodeCommands(generateTrackCommand(type, TrackType.AUDIO, 0)); //encode audio
+                    }
                 }
 
                 //generate complete webm dash manifest command based on all encoded tracks
-                if (type != EncodingType.MPEG_DASH_H264_AAC) {
+                if (!type.isMpegDash()) {
                     commands.appendManifestCommands(generateManifestCommand());
-                    commands.appendManifestCommands("manifest.mpd");
-                } else {
+                    commands.appendManifestCommands(type.isMultiOutput() ? Constants.WEBM_MANIFEST : "manifest.mpd");
+                }
+                if (type.isMpegDash() || type.isMultiOutput()) {
                     //generate arguments for mpeg dash output
                     commands.appendEncodeCommands("-f", "dash", "-min_seg_duration",
                             ConfigManager.getConfig().getDefaultValue(Constants.DEFAULTS.MIN_SEGMENT_DURATION));
+                    commands.appendEncodeCommands(getHlsCommands());
                     commands.appendEncodeCommands(ConfigManager.getConfig().getCommands(ADVOPT_MPEGDASH));
                     commands.appendEncodeCommands("manifest.mpd");
                 }
@@ -164,19 +184,220 @@ public class CommandsGenerator {
             }
         }
 
-        if (Constants.DEBUG_MODE) {
-            Logger.log("Encode commands:");
-            Logger.log(String.join(" ", commands.getEncodeCommands()));
+        if (Logger.isDebugEnabled(Logger.COMMANDS)) {
+            Logger.debug(Logger.COMMANDS, "Encode commands:");
+            Logger.debug(Logger.COMMANDS, String.join(" ", commands.getEncodeCommands()));
 
-            if (type != EncodingType.MPEG_DASH_H264_AAC && type != EncodingType.MPEG_DASH_PASSTHROUGH) {
-                Logger.log("Manifest commands:");
-                Logger.log(String.join(" ", commands.getManifestCommands()));
+            if (!type.isMpegDash()) {
+                Logger.debug(Logger.COMMANDS, "Manifest commands:");
+                Logger.debug(Logger.COMMANDS, String.join(" ", commands.getManifestCommands()));
             }
         }
 
         return commands;
     }
 
+    /**
+     * Generates the commands to transcode a chunk of a recording to H.264. The chunk must start at a keyframe
+     * of the input, so that ffmpeg seeks to it without decoding the previous frames.
+     * @param start The start of the chunk, in seconds.
+     * @param duration The duration of the chunk, in seconds; 0 to transcode until the end of the input.
+     * @param output The name of the MPEG-TS file of the chunk.
+     * @return The list of command line to pass to the encoder
+     */
+    public Commands generateChunkCommands(final double start, final double duration, final String output) {
+
+        Commands commands = new Commands();
+
+        commands.appendEncodeCommands(getGlobalCommands());
+        commands.appendEncodeCommands("-ss", formatSeconds(start), "-i", stream.getInputUrl());
+
+        //add extra client ffmpeg arguments
+        if (extraArgs != null) {
+            commands.appendEncodeCommands(extraArgs);
+        }
+
+        commands.appendEncodeCommands(generateTrackCommand(EncodingType.MPEG_DASH_H264_AAC, TrackType.VIDEO, 0));
+        if (duration > 0) {
+            commands.appendEncodeCommands("-t", formatSeconds(duration));
+        }
+        commands.appendEncodeCommands("-f", "mpegts", output);
+
+        if (Logger.isDebugEnabled(Logger.COMMANDS)) {
+            Logger.debug(Logger.COMMANDS, "Chunk commands:");
+            Logger.debug(Logger.COMMANDS, String.join(" ", commands.getEncodeCommands()));
+        }
+
+        return commands;
+    }
+
+    /**
+     * Generates the commands to transcode the whole audio of a recording to AAC.
+     * @param output The name of the MP4 file of the audio.
+     * @return The list of command line to pass to the encoder
+     */
+    public Commands generateAudioCommands(final String output) {
+
+        Commands commands = new Commands();
+
+        commands.appendEncodeCommands(getGlobalCommands());
+        commands.appendEncodeCommands("-i", stream.getInputUrl(), "-vn");
+        commands.appendEncodeCommands(generateTrackCommand(EncodingType.MPEG_DASH_H264_AAC, TrackType.AUDIO, 0));
+        commands.appendEncodeCommands("-f", "mp4", output);
+
+        if (Logger.isDebugEnabled(Logger.COMMANDS)) {
+            Logger.debug(Logger.COMMANDS, "Audio commands:");
+            Logger.debug(Logger.COMMANDS, String.join(" ", commands.getEncodeCommands()));
+        }
+
+        return commands;
+    }
+
+    /**
+     * Generates the commands to package the transcoded chunks of a recording, and its audio, into a single
+     * MPEG-DASH presentation. The tracks are only copied.
+     * @param chunksList The name of the concat list of the chunks.
+     * @param audio The name of the audio file; null if the recording has no audio.
+     * @return The list of command line to pass to the encoder
+     */
+    public Commands generateStitchCommands(final String chunksList, final String audio) {
+
+        Commands commands = new Commands();
+
+        commands.appendEncodeCommands(getGlobalCommands());
+        commands.appendEncodeCommands("-f", "concat", "-safe", "0", "-i", chunksList);
+        if (audio != null) {
+            commands.appendEncodeCommands("-i", audio);
+        }
+        commands.appendEncodeCommands("-map", "0:v:0");
+        if (audio != null) {
+            commands.appendEncodeCommands("-map", "1:a:0");
+        }
+        commands.appendEncodeCommands("-c", "copy", "-f", "dash", "-min_seg_duration",
+                ConfigManager.getConfig().getDefaultValue(Constants.DEFAULTS.MIN_SEGMENT_DURATION));
+        commands.appendEncodeCommands(getHlsCommands());
+        commands.appendEncodeCommands(ConfigManager.getConfig().getCommands(ADVOPT_MPEGDASH));
+        commands.appendEncodeCommands("manifest.mpd");
+
+        if (Logger.isDebugEnabled(Logger.COMMANDS)) {
+            Logger.debug(Logger.COMMANDS, "Stitch commands:");
+            Logger.debug(Logger.COMMANDS, String.join(" ", commands.getEncodeCommands()));
+        }
+
+        return commands;
+    }
+
+    /**
+     * Generates the commands to re-encode the recording of a completed H.264 live encode with an efficient preset.
+     * The video is transcoded again with the quality based options of the archives, the audio is copied.
+     * @param inputs The names of the recorded representations, one file per track.
+     * @return The list of command line to pass to the encoder
+     */
+    public Commands generateArchiveCommands(final List<String> inputs) {
+
+        Configuration config = ConfigManager.getConfig();
+        Commands commands = new Commands();
+
+        appendArchiveInputCommands(commands, inputs);
+        appendArchiveVideoCommands(commands);
+        commands.appendEncodeCommands("-c:a", "copy", "-f", "dash", "-min_seg_duration",
+                config.getDefaultValue(Constants.DEFAULTS.MIN_SEGMENT_DURATION));
+        commands.appendEncodeCommands(getHlsCommands());
+        commands.appendEncodeCommands(config.getCommands(ADVOPT_MPEGDASH));
+        commands.appendEncodeCommands("manifest.mpd");
+
+        if (Logger.isDebugEnabled(Logger.COMMANDS)) {
+            Logger.debug(Logger.COMMANDS, "Archive commands:");
+            Logger.debug(Logger.COMMANDS, String.join(" ", commands.getEncodeCommands()));
+        }
+
+        return commands;
+    }
+
+    /**
+     * Generates the commands that write the recording of a completed live encode in a single fragmented mp4
+     * mezzanine, with a fragment per keyframe and track (see {@link jvs.packaging.MezzanineIndex}).
+     * @param inputs The fragmented mp4 files of the representations of the recording, in order.
+     * @param reencode True, to re-encode the video with the archive preset; false, to copy it.
+     * @return The commands.
+     */
+    public Commands generateMezzanineCommands(final List<String> inputs, final boolean reencode) {
+
+        Commands commands = new Commands();
+
+        appendArchiveInputCommands(commands, inputs);
+        if (reencode) {
+            appendArchiveVideoCommands(commands);
+        } else {
+            commands.appendEncodeCommands("-c:v", "copy");
+        }
+        commands.appendEncodeCommands("-c:a", "copy", "-f", "mp4",
+                "-movflags", "frag_keyframe+empty_moov+separate_moof+default_base_moof", Constants.MEZZANINE_FILE);
+
+        if (Logger.isDebugEnabled(Logger.COMMANDS)) {
+            Logger.debug(Logger.COMMANDS, "Mezzanine commands:");
+            Logger.debug(Logger.COMMANDS, String.join(" ", commands.getEncodeCommands()));
+        }
+
+        return commands;
+    }
+
+    /**
+     * Appends the inputs of an archive encode, mapping every track of each of them.
+     * @param commands The commands.
+     * @param inputs The fragmented mp4 files of the representations of the recording, in order.
+     */
+    private void appendArchiveInputCommands(final Commands commands, final List<String> inputs) {
+        commands.appendEncodeCommands(ConfigManager.getConfig().getCommands(ADVOPT_FFMPEG_VOD));
+        for (String input : inputs) {
+            commands.appendEncodeCommands("-i", input);
+        }
+        for (int i = 0; i < inputs.size(); i++) {
+            commands.appendEncodeCommands("-map", Integer.toString(i));
+        }
+    }
+
+    /**
+     * Appends the video encoding commands of an archive encode, with the efficient preset.
+     * @param commands The commands.
+     */
+    private void appendArchiveVideoCommands(final Commands commands) {
+        Configuration config = ConfigManager.getConfig();
+        Optional<VideoTrackInfo> videoTrackInfo = streamInfo.getVideoTrackAtIndex(0);
+        if (videoTrackInfo.isPresent()) {
+            VideoTrackInfo vti = videoTrackInfo.get();
+
+            String pixFmt = vti.getPixelFormat().isEmpty() ? config.getDefaultValue(PIXEL_FORMAT)  : vti.getPixelFormat();
+            String res = vti.getWidth() + "x" + vti.getHeight();
+
+            //same keyframes interval of the live encode, so that the segments keep their duration
+            Double chunkDuration = Double.parseDouble(config.getDefaultValue(MIN_SEGMENT_DURATION)) / 1000; //seconds
+            String keyInt = String.format("%d", Utils.roundEven(vti.getFrameRate() * chunkDuration)); //keyint_min and g
+
+            commands.appendEncodeCommands("-pix_fmt", pixFmt, "-c:v", "libx264", "-s", res, "-keyint_min", keyInt, "-g", keyInt);
+            commands.appendEncodeCommands(config.getCommands(ADVOPT_H264_ARCHIVE));
+        }
+    }
+
+    /**
+     * Generates the commands of one of the outputs of a multi output encode, whose video is read from
+     * an output of the split filter instead of the input.
+     * @param encodingType The encoding type of the output.
+     * @param videoLabel The label of the split filter output.
+     * @return The array of commands to encode the tracks.
+     */
+    private List<String> generateMultiOutputTrackCommands(final EncodingType encodingType, final String videoLabel) {
+
+        //the map of the input video track is the first option of the track commands
+        List<String> commands = generateTrackCommand(encodingType, TrackType.VIDEO, 0);
+        commands.set(1, "[" + videoLabel + "]");
+
+        if (streamInfo.getAudioTracks().size() > 0) {
+            commands.addAll(generateTrackCommand(encodingType, TrackType.AUDIO, 0));
+        }
+        return commands;
+    }
+
     /**
      * Generates command line for a specific track type in the given index
      * @param encodingType The selected type of encoding
@@ -293,18 +514,37 @@ public class CommandsGenerator {
                     Logger.warn("Cannot generate specific track commands if it's not audio or video.");
                 }
                 break;
-            case MPEG_DASH_H264_AAC: {
+            case MPEG_DASH_COPY_AAC: {
 
                 if (type == TrackType.AUDIO) {
                     Optional<AudioTrackInfo> audioTrackInfo = streamInfo.getAudioTrackAtIndex(index);
 
-                    if (audioTrackInfo.isPresent()) {
+                    //aac audio is copied as well, any other codec (e.g. G.711 or PCM) is transcoded
+                    if (audioTrackInfo.isPresent() && "aac".equals(audioTrackInfo.get().getCodecName())) {
+                        return new ArrayList<>(Arrays.asList("-map", "0:" + audioTrackInfo.get().getIndex(), "-c:a", "copy"));
+                    } else if (audioTrackInfo.isPresent()) {
+                        return generateAacCommand(audioTrackInfo.get());
+                    }
 
-                        List<String> commands = new ArrayList<>(Arrays.asList("-map", "0:" + audioTrackInfo.get().getIndex(), "-c:a","libfdk_aac", "-b:a",
-                                config.getDefaultValue(AAC_BITRATE)));
-                        commands.addAll(config.getCommands(ADVOPT_AAC));
+                } else if (type == TrackType.VIDEO) {
 
-                        return commands;
+                    Optional<VideoTrackInfo> videoTrackInfo = streamInfo.getVideoTrackAtIndex(index);
+
+                    if (videoTrackInfo.isPresent()) {
+                        return new ArrayList<>(Arrays.asList("-map", "0:" + videoTrackInfo.get().getIndex(), "-c:v", "copy"));
+                    }
+                } else {
+                    Logger.warn("Cannot generate specific track commands if it's not audio or video.");
+                }
+                break;
+            }
+            case MPEG_DASH_H264_AAC: {
+
+                if (type == TrackType.AUDIO) {
+                    Optional<AudioTrackInfo> audioTrackInfo = streamInfo.getAudioTrackAtIndex(index);
+
+                    if (audioTrackInfo.isPresent()) {
+                        return generateAacCommand(audioTrackInfo.get());
                     }
 
                 } else if (type == TrackType.VIDEO){
@@ -341,6 +581,22 @@ public class CommandsGenerator {
         return new ArrayList<String>(){};
     }
 
+    /**
+     * Generates command line to transcode an audio track to aac.
+     * @param audioTrackInfo The audio track to transcode.
+     * @return The array of commands to encode the track.
+     */
+    private List<String> generateAacCommand(final AudioTrackInfo audioTrackInfo) {
+
+        Configuration config = ConfigManager.getConfig();
+
+        List<String> commands = new ArrayList<>(Arrays.asList("-map", "0:" + audioTrackInfo.getIndex(), "-c:a","libfdk_aac", "-b:a",
+                config.getDefaultValue(AAC_BITRATE)));
+        commands.addAll(config.getCommands(ADVOPT_AAC));
+
+        return commands;
+    }
+
     /**
      * Add new track definition into manifest
      * @param type The type of the track.
@@ -382,6 +638,35 @@ public class CommandsGenerator {
         return manifestCommands;
     }
 
+    /**
+     * Gets the ffmpeg global options: recordings are read as fast as possible, live inputs at their native rate.
+     * @return The list of options.
+     */
+    private List<String> getGlobalCommands() {
+        return ConfigManager.getConfig().getCommands(stream != null && stream.isVod() ? ADVOPT_FFMPEG_VOD : ADVOPT_FFMPEG);
+    }
+
+    /**
+     * Gets the MPEG-DASH muxer options that also write HLS playlists (master.m3u8 and one media playlist per
+     * representation) referencing the same fMP4 segments, if the stream is packaged in HLS.
+     * @return The list of options; empty if the stream is not packaged in HLS.
+     */
+    private List<String> getHlsCommands() {
+        if (stream != null && stream.isHls()) {
+            return Arrays.asList("-hls_playlist", "1");
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Formats a time for the ffmpeg seek options.
+     * @param seconds The time, in seconds.
+     * @return The formatted time.
+     */
+    private static String formatSeconds(final double seconds) {
+        return String.format(Locale.ROOT, "%.6f", seconds);
+    }
+
     /**
      * Generates the rtsp announce url.
      * @return The string representing the rtsp announce url.
@@ -1,5 +1,6 @@
 package jvs.config;
 
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import jvs.utils.Utils;
 
@@ -15,15 +16,46 @@ public class Configuration {
 
     private String address;
     private final int port;
-    private final String streamsPath;
+    private final List<String> streamsPaths;
     private final String assetsPath;
     private final String remoteStreamsPath;
     private final String remoteAssetsPath;
     private final String remoteRootAPIPath;
+    private final String remoteMetricsPath;
+    private final String remoteLoggingPath;
     private final String ffmpegPath;
     private final String ffprobePath;
     private final int listeningPort;
     private final String announcePath;
+    private final int monitorInterval;
+    private final int stallTimeout;
+    private final boolean stallRestart;
+    private final boolean videoPassthrough;
+    private final int autoMaxHostCpu;
+    private final int cpuBudget;
+    private final int admissionQueueTimeout;
+    private final int vodChunks;
+    private final String recordingsPath;
+    private final boolean archiveReencode;
+    private final boolean mezzanine;
+    private final boolean segmentPack;
+    private final int segmentPackDuration;
+    private final boolean capacityEviction;
+    private final int capacityHighWater;
+    private final int capacityLowWater;
+    private final String stagingPath;
+    private final int stagingRetention;
+    private final int instances;
+    private final int maxConnections;
+    private final String contentAddress;
+    private final int contentPort;
+    private final int contentInstances;
+    private final int contentMaxConnections;
+    private final int ffmpegLogRate;
+    private final int logTailLines;
+    private final int onDemandIdleTimeout;
+    private final int onDemandStartTimeout;
+    private final HashMap<String, String> logLevels;
     private final HashMap<String, Pattern> patterns;
     private final HashMap<String, String> defaults;
     private final HashMap<String, List<String>> commands;
@@ -36,15 +68,58 @@ public class Configuration {
 
         address = json.getString(ADDRESS);
         port = json.getInteger(PORT);
-        streamsPath = json.getString(STREAMS_PATH);
+        streamsPaths = new ArrayList<>();
+        Object parsedStreamsPath = json.getValue(STREAMS_PATH);
+        if (parsedStreamsPath instanceof JsonArray) {
+            ((JsonArray) parsedStreamsPath).forEach(path -> streamsPaths.add(Utils.trimTrailingSuffix(path.toString(), "/")));
+        } else {
+            streamsPaths.add(Utils.trimTrailingSuffix(json.getString(STREAMS_PATH), "/"));
+        }
         assetsPath = json.getString(ASSETS_PATH);
         remoteStreamsPath = json.getString(REMOTE_STREAMS_PATH);
         remoteAssetsPath = json.getString(REMOTE_ASSETS_PATH);
         remoteRootAPIPath = json.getString(REMOTE_ROOT_API_PATH);
+        remoteMetricsPath = json.getString(REMOTE_METRICS_PATH, "/metrics");
+        remoteLoggingPath = json.getString(REMOTE_LOGGING_PATH, "/logging");
         ffmpegPath = json.getString(FFMPEG_PATH);
         ffprobePath = json.getString(FFPROBE_PATH);
         announcePath = json.getString(ANNOUNCE_PATH);
         listeningPort = json.getInteger(LISTENING_PORT, -1);
+        monitorInterval = json.getInteger(MONITOR_INTERVAL, 2000);
+        stallTimeout = json.getInteger(STALL_TIMEOUT, 30000);
+        stallRestart = json.getBoolean(STALL_RESTART, false);
+        videoPassthrough = json.getBoolean(VIDEO_PASSTHROUGH, true);
+        autoMaxHostCpu = json.getInteger(AUTO_MAX_HOST_CPU, 80);
+        cpuBudget = json.getInteger(CPU_BUDGET, 90);
+        admissionQueueTimeout = json.getInteger(ADMISSION_QUEUE_TIMEOUT, 60000);
+        vodChunks = json.getInteger(VOD_CHUNKS, 0);
+        recordingsPath = json.getString(RECORDINGS_PATH, "");
+        archiveReencode = json.getBoolean(ARCHIVE_REENCODE, false);
+        mezzanine = json.getBoolean(MEZZANINE, false);
+        segmentPack = json.getBoolean(SEGMENT_PACK, false);
+        segmentPackDuration = json.getInteger(SEGMENT_PACK_DURATION, 3600);
+        capacityEviction = json.getBoolean(CAPACITY_EVICTION, false);
+        capacityHighWater = json.getInteger(CAPACITY_HIGH_WATER, 90);
+        capacityLowWater = json.getInteger(CAPACITY_LOW_WATER, 80);
+        stagingPath = json.getString(STAGING_PATH, "");
+        stagingRetention = json.getInteger(STAGING_RETENTION, 30);
+        instances = json.getInteger(INSTANCES, 0);
+        maxConnections = json.getInteger(MAX_CONNECTIONS, 0);
+        contentAddress = json.getString(CONTENT_ADDRESS, "");
+        contentPort = json.getInteger(CONTENT_PORT, -1);
+        contentInstances = json.getInteger(CONTENT_INSTANCES, 0);
+        contentMaxConnections = json.getInteger(CONTENT_MAX_CONNECTIONS, 0);
+
+        ffmpegLogRate = json.getInteger(FFMPEG_LOG_RATE, 20);
+        logTailLines = json.getInteger(LOG_TAIL_LINES, 500);
+        onDemandIdleTimeout = json.getInteger(ONDEMAND_IDLE_TIMEOUT, 60000);
+        onDemandStartTimeout = json.getInteger(ONDEMAND_START_TIMEOUT, 20000);
+
+        logLevels = new HashMap<>();
+        JsonObject parsedLevels = json.getJsonObject(LOG_LEVELS);
+        if (parsedLevels != null) {
+            parsedLevels.getMap().forEach((k,v) -> logLevels.put(k, v.toString()));
+        }
 
         commands = new HashMap<>();
         patterns = new HashMap<>();
@@ -85,11 +160,20 @@ public class Configuration {
     }
 
     /**
-     * Gets the local path where all streams are stored (the path is sanitized from trailing '/').
+     * Gets the local path of the first streams folder (the path is sanitized from trailing '/').
      * @return The local path of the streams folder.
      */
     public String getStreamsPath() {
-        return Utils.trimTrailingSuffix(streamsPath, "/");
+        return streamsPaths.isEmpty() ? "" : streamsPaths.get(0);
+    }
+
+    /**
+     * Gets the local paths of the streams folders (e.g. one per mount point), the new streams are placed on one
+     * of them (the paths are sanitized from trailing '/').
+     * @return The local paths of the streams folders.
+     */
+    public List<String> getStreamsPaths() {
+        return Collections.unmodifiableList(streamsPaths);
     }
 
     /**
@@ -124,6 +208,62 @@ public class Configuration {
         return Utils.trimTrailingSuffix(remoteRootAPIPath, "/");
     }
 
+    /**
+     * Gets the remote path of the resource usage metrics (the path is sanitized from trailing '/').
+     * @return The remote path of the metrics.
+     */
+    public String getRemoteMetricsPath() {
+        return Utils.trimTrailingSuffix(remoteMetricsPath, "/");
+    }
+
+    /**
+     * Gets the remote path of the logging levels (the path is sanitized from trailing '/').
+     * @return The remote path of the logging levels.
+     */
+    public String getRemoteLoggingPath() {
+        return Utils.trimTrailingSuffix(remoteLoggingPath, "/");
+    }
+
+    /**
+     * Gets the initial logging level of each category ("default" is used by categories without a level).
+     * @return The level names indexed by category.
+     */
+    public Map<String, String> getLogLevels() {
+        return logLevels;
+    }
+
+    /**
+     * Gets the maximum number of ffmpeg output lines logged per second by each stream.
+     * @return The number of lines per second; 0 if unlimited.
+     */
+    public int getFfmpegLogRate() {
+        return Math.max(0, ffmpegLogRate);
+    }
+
+    /**
+     * Gets the number of ffmpeg output lines kept in memory for each stream.
+     * @return The number of lines.
+     */
+    public int getLogTailLines() {
+        return Math.max(1, logTailLines);
+    }
+
+    /**
+     * Gets the interval without content requests after which the encode of an on-demand stream is stopped.
+     * @return The idle timeout in milliseconds.
+     */
+    public int getOnDemandIdleTimeout() {
+        return onDemandIdleTimeout;
+    }
+
+    /**
+     * Gets the maximum time a request waits for the first segment of an on-demand encode.
+     * @return The start timeout in milliseconds.
+     */
+    public int getOnDemandStartTimeout() {
+        return onDemandStartTimeout;
+    }
+
     /**
      * Gets the location of the ffmpeg executable.
      * @return The ffmpeg path.
@@ -159,6 +299,227 @@ public class Configuration {
                 .replaceAll("/+$", "");
     }
 
+    /**
+     * Gets the interval between two samples of the ffmpeg processes resources.
+     * @return The sampling interval in milliseconds.
+     */
+    public int getMonitorInterval() {
+        return monitorInterval;
+    }
+
+    /**
+     * Gets the interval without progress or new segments after which an encode is considered stalled.
+     * @return The stall timeout in milliseconds (0 if the watchdog is disabled).
+     */
+    public int getStallTimeout() {
+        return stallTimeout;
+    }
+
+    /**
+     * Gets whether a stalled encode must be restarted after being killed.
+     * @return True, if stalled encodes must be restarted; otherwise false.
+     */
+    public boolean isStallRestartEnabled() {
+        return stallRestart;
+    }
+
+    /**
+     * Gets whether H.264/AAC encodes copy the input video, instead of transcoding it, when browsers can play it.
+     * @return True, if the video passthrough is enabled; otherwise false.
+     */
+    public boolean isVideoPassthroughEnabled() {
+        return videoPassthrough;
+    }
+
+    /**
+     * Gets the host cpu usage above which automatic encodes copy H.264 video whose compatibility cannot be verified.
+     * @return The cpu usage, in percent (0-100).
+     */
+    public int getAutoMaxHostCpu() {
+        return autoMaxHostCpu;
+    }
+
+    /**
+     * Gets the cpu budget of the encodes.
+     * @return The budget, in percent of the whole host; 0 if the admission control is disabled.
+     */
+    public int getCpuBudget() {
+        return Math.max(0, cpuBudget);
+    }
+
+    /**
+     * Gets the maximum time an encode waits for cpu before failing.
+     * @return The timeout in milliseconds.
+     */
+    public int getAdmissionQueueTimeout() {
+        return admissionQueueTimeout;
+    }
+
+    /**
+     * Gets the number of chunks transcoded in parallel for file and http inputs.
+     * @return The number of chunks (defaults to the number of available cores).
+     */
+    public int getVodChunks() {
+        return vodChunks > 0 ? vodChunks : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Gets the local path of the folder of the recordings that file inputs can read (the path is sanitized from
+     * trailing '/').
+     * @return The local path of the recordings folder; empty if file inputs are rejected.
+     */
+    public String getRecordingsPath() {
+        return Utils.trimTrailingSuffix(recordingsPath, "/");
+    }
+
+    /**
+     * Determine whether completed live H.264 encodes are re-encoded with an efficient preset when the cpu is idle.
+     * @return True, if the archives are re-encoded; otherwise false.
+     */
+    public boolean isArchiveReencodeEnabled() {
+        return archiveReencode;
+    }
+
+    /**
+     * Determine whether completed live MPEG-DASH encodes are stored as a single fragmented mp4 mezzanine,
+     * packaged just in time on request.
+     * @return True, if the recordings are stored as mezzanines; otherwise false.
+     */
+    public boolean isMezzanineEnabled() {
+        return mezzanine;
+    }
+
+    /**
+     * Determine whether the closed segments of the recordings are appended to pack files, served as byte ranges,
+     * instead of being kept as a file per segment.
+     * @return True, if the segments are packed; otherwise false.
+     */
+    public boolean isSegmentPackEnabled() {
+        return segmentPack;
+    }
+
+    /**
+     * Gets the period of the segments appended to the same pack file.
+     * @return The period in seconds (defaults to an hour).
+     */
+    public int getSegmentPackDuration() {
+        return segmentPackDuration > 0 ? segmentPackDuration : 3600;
+    }
+
+    /**
+     * Determine whether the finished recordings are evicted when a streams folder fills up.
+     * @return True, if the recordings are evicted; otherwise false.
+     */
+    public boolean isCapacityEvictionEnabled() {
+        return capacityEviction;
+    }
+
+    /**
+     * Gets the usage of a streams folder disk above which the finished recordings are evicted.
+     * @return The usage in percent of the disk (defaults to 90).
+     */
+    public int getCapacityHighWater() {
+        return capacityHighWater > 0 && capacityHighWater <= 100 ? capacityHighWater : 90;
+    }
+
+    /**
+     * Gets the usage of a streams folder disk the evictions bring it back to.
+     * @return The usage in percent of the disk, below the high-water mark (defaults to 10 points below it).
+     */
+    public int getCapacityLowWater() {
+        return capacityLowWater >= 0 && capacityLowWater < getCapacityHighWater() ? capacityLowWater :
+                Math.max(0, getCapacityHighWater() - 10);
+    }
+
+    /**
+     * Determine whether the live encodes are written to a staging folder before being persisted.
+     * @return True, if the staging folder is configured; otherwise false.
+     */
+    public boolean isStagingEnabled() {
+        return !getStagingPath().isEmpty();
+    }
+
+    /**
+     * Gets the local path of the memory-backed folder the live encodes are written to (the path is sanitized
+     * from trailing '/').
+     * @return The local path of the staging folder; empty if the live encodes are written to the streams folders.
+     */
+    public String getStagingPath() {
+        return Utils.trimTrailingSuffix(stagingPath, "/");
+    }
+
+    /**
+     * Gets the time the persisted segments are still served from the staging folder.
+     * @return The time in seconds.
+     */
+    public int getStagingRetention() {
+        return Math.max(0, stagingRetention);
+    }
+
+    /**
+     * Gets the number of instances of the http verticle to deploy.
+     * @return The number of instances (defaults to the number of available cores).
+     */
+    public int getInstances() {
+        return instances > 0 ? instances : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Gets the maximum number of concurrent connections of the main listener.
+     * @return The maximum number of connections; 0 if unlimited.
+     */
+    public int getMaxConnections() {
+        return Math.max(0, maxConnections);
+    }
+
+    /**
+     * Determine whether the streams content is served by a dedicated listener.
+     * @return True, if a content port different from the server one is configured; otherwise false.
+     */
+    public boolean isContentListenerEnabled() {
+        return contentPort > 0 && (contentPort != port || !getContentAddress().equals(address));
+    }
+
+    /**
+     * Gets the address of the streams content listener.
+     * @return The IPV4 content address (defaults to the server address).
+     */
+    public String getContentAddress() {
+        return contentAddress != null && !contentAddress.isEmpty() ? contentAddress : address;
+    }
+
+    /**
+     * Gets the port of the streams content listener.
+     * @return The content port; -1 if the content is served by the main listener.
+     */
+    public int getContentPort() {
+        return contentPort;
+    }
+
+    /**
+     * Gets the number of event loops (and verticle instances) of the streams content listener.
+     * @return The number of instances (defaults to the number of available cores).
+     */
+    public int getContentInstances() {
+        return contentInstances > 0 ? contentInstances : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Gets the maximum number of concurrent connections of the streams content listener.
+     * @return The maximum number of connections; 0 if unlimited.
+     */
+    public int getContentMaxConnections() {
+        return Math.max(0, contentMaxConnections);
+    }
+
+    /**
+     * Gets the base url that clients must use to fetch the streams content.
+     * @return The absolute base url of the content listener; empty if the content is served by the main listener.
+     */
+    public String getContentBaseUrl() {
+        return isContentListenerEnabled() ? "http://" + getContentAddress() + ":" + contentPort : "";
+    }
+
     /**
      * Gets the regex pattern relative to the inpuyt key.
      * @param key The key of the pattern.
@@ -0,0 +1,322 @@
+package jvs.monitor;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.utils.Logger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples cpu, memory and disk usage of every ffmpeg/ffprobe process started by the
+ * workers reading the /proc file system on a fixed interval, and keeps host level totals.
+ */
+public class ResourceMonitor {
+
+    /**
+     * Kernel clock ticks per second (USER_HZ), fixed to 100 on every mainstream linux build
+     */
+    private static final double CLOCK_TICKS = 100d;
+
+    /**
+     * Tracked processes indexed by pid
+     */
+    private static final Map<Long, TrackedProcess> processes = new ConcurrentHashMap<>();
+
+    /**
+     * Last computed usage of each stream (replaced as a whole on every sample)
+     */
+    private static volatile Map<Integer, ResourceUsage> streamsUsage = Collections.emptyMap();
+
+    /**
+     * Last computed host totals
+     */
+    private static volatile JsonObject hostUsage = new JsonObject();
+
+    /**
+     * Last computed host cpu usage, in percent of the whole machine
+     */
+    private static volatile double hostCpuPercent = 0;
+
+    /**
+     * Sampling state of the jvm process itself
+     */
+    private static final TrackedProcess jvmProcess = new TrackedProcess(-1, -1);
+
+    private static ScheduledExecutorService scheduler = null;
+    private static long prevHostTotalTicks = 0;
+    private static long prevHostIdleTicks = 0;
+
+    private ResourceMonitor(){}
+
+    /**
+     * Starts the sampler.
+     * @param interval The sampling interval in milliseconds.
+     */
+    public static synchronized void start(final long interval) {
+        if (scheduler != null) {
+            return;
+        }
+
+        if (Files.notExists(Paths.get("/proc/self/stat"))) {
+            Logger.warn("The /proc file system is not available, process resources will not be sampled.");
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "resource-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(ResourceMonitor::sample, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the sampler.
+     */
+    public static synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Starts tracking a process.
+     * @param ownerID The id of the stream that owns the process.
+     * @param pid The pid of the process.
+     */
+    public static void track(final int ownerID, final long pid) {
+        if (pid > 0) {
+            processes.put(pid, new TrackedProcess(ownerID, pid));
+        }
+    }
+
+    /**
+     * Stops tracking a process.
+     * @param pid The pid of the process.
+     */
+    public static void untrack(final long pid) {
+        processes.remove(pid);
+    }
+
+    /**
+     * Gets the usage of all processes owned by a stream.
+     * @param streamID The id of the stream.
+     * @return The last sampled usage; empty usage if no process is tracked for the stream.
+     */
+    public static ResourceUsage getStreamUsage(final int streamID) {
+        return streamsUsage.getOrDefault(streamID, ResourceUsage.EMPTY);
+    }
+
+    /**
+     * Gets the usage of a single tracked process.
+     * @param pid The pid of the process.
+     * @return The last sampled usage; empty usage if the process is not tracked.
+     */
+    public static ResourceUsage getProcessUsage(final long pid) {
+        TrackedProcess tracked = processes.get(pid);
+        return tracked != null ? tracked.usage : ResourceUsage.EMPTY;
+    }
+
+    /**
+     * Gets the usage of every stream with at least one tracked process.
+     * @return The map of usages indexed by stream id.
+     */
+    public static Map<Integer, ResourceUsage> getStreamsUsage() {
+        return streamsUsage;
+    }
+
+    /**
+     * Gets the host cpu usage.
+     * @return The cpu usage of the whole machine, in percent (0-100).
+     */
+    public static double getHostCpuPercent() {
+        return hostCpuPercent;
+    }
+
+    /**
+     * Return a json object with host level totals (cpu, memory, ffmpeg processes and jvm).
+     * @return The json with all host totals.
+     */
+    public static JsonObject getHostUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        JsonObject jvm = new JsonObject()
+                .put(Constants.CPU_KEY, Math.round(jvmProcess.usage.getCpuPercent() * 10) / 10d)
+                .put(Constants.THREADS_KEY, ManagementFactory.getThreadMXBean().getThreadCount())
+                .put(Constants.HEAPUSED_KEY, runtime.totalMemory() - runtime.freeMemory())
+                .put(Constants.HEAPMAX_KEY, runtime.maxMemory());
+
+        return hostUsage.copy().put(Constants.JVM_KEY, jvm);
+    }
+
+    /**
+     * Samples all tracked processes and the host totals.
+     */
+    private static void sample() {
+        try {
+            long now = System.nanoTime();
+            Map<Integer, ResourceUsage> usages = new HashMap<>();
+            ResourceUsage total = ResourceUsage.EMPTY;
+
+            for (TrackedProcess tracked : processes.values()) {
+                ResourceUsage usage = sampleProcess(tracked, now);
+                if (usage == null) {
+                    //process is gone
+                    processes.remove(tracked.pid);
+                    continue;
+                }
+                tracked.usage = usage;
+                usages.merge(tracked.ownerID, usage, ResourceUsage::add);
+                total = total.add(usage);
+            }
+            streamsUsage = usages;
+
+            ResourceUsage jvmUsage = sampleProcess(jvmProcess, now);
+            if (jvmUsage != null) {
+                jvmProcess.usage = jvmUsage;
+            }
+
+            sampleHost(total);
+        } catch (Exception e) {
+            Logger.warn("Unable to sample process resources: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Samples a single process.
+     * @param tracked The tracked process.
+     * @param now The sample time in nanoseconds.
+     * @return The usage of the process; null if the process does not exist anymore.
+     */
+    private static ResourceUsage sampleProcess(final TrackedProcess tracked, final long now) {
+        Path procDir = Paths.get("/proc", tracked.pid > 0 ? Long.toString(tracked.pid) : "self");
+
+        String stat = readFile(procDir.resolve("stat"));
+        if (stat == null) {
+            return null;
+        }
+
+        //fields after the command name (which can contain spaces), utime and stime are the 14th and 15th fields
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+
+        double cpu = 0;
+        if (tracked.prevTime > 0 && now > tracked.prevTime) {
+            double elapsedSeconds = (now - tracked.prevTime) / 1e9;
+            cpu = ((ticks - tracked.prevTicks) / CLOCK_TICKS) / elapsedSeconds * 100d;
+        }
+        tracked.prevTicks = ticks;
+        tracked.prevTime = now;
+
+        Map<String, Long> status = readKeyValues(procDir.resolve("status"));
+        Map<String, Long> io = readKeyValues(procDir.resolve("io"));
+
+        return new ResourceUsage(1, cpu, status.getOrDefault("VmRSS", 0L) * 1024,
+                io.getOrDefault("read_bytes", 0L), io.getOrDefault("write_bytes", 0L));
+    }
+
+    /**
+     * Samples host cpu and memory and stores the totals.
+     * @param processesTotal The sum of the usages of all tracked processes.
+     */
+    private static void sampleHost(final ResourceUsage processesTotal) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        JsonObject host = new JsonObject().put(Constants.CORES_KEY, cores);
+
+        String stat = readFile(Paths.get("/proc/stat"));
+        if (stat != null) {
+            //first line: cpu user nice system idle iowait irq softirq steal ...
+            String[] fields = stat.substring(0, stat.indexOf('\n')).trim().split("\\s+");
+            long totalTicks = 0;
+            for (int i = 1; i < fields.length && i <= 8; i++) {
+                totalTicks += Long.parseLong(fields[i]);
+            }
+            long idleTicks = Long.parseLong(fields[4]) + (fields.length > 5 ? Long.parseLong(fields[5]) : 0);
+
+            if (prevHostTotalTicks > 0 && totalTicks > prevHostTotalTicks) {
+                double busy = 1d - (double)(idleTicks - prevHostIdleTicks) / (totalTicks - prevHostTotalTicks);
+                hostCpuPercent = Math.max(0, Math.min(100, busy * 100d));
+            }
+            prevHostTotalTicks = totalTicks;
+            prevHostIdleTicks = idleTicks;
+        }
+        host.put(Constants.CPU_KEY, Math.round(hostCpuPercent * 10) / 10d);
+
+        String loadAvg = readFile(Paths.get("/proc/loadavg"));
+        if (loadAvg != null) {
+            host.put(Constants.LOADAVG_KEY, Double.parseDouble(loadAvg.split("\\s+")[0]));
+        }
+
+        Map<String, Long> memInfo = readKeyValues(Paths.get("/proc/meminfo"));
+        host.put(Constants.MEMTOTAL_KEY, memInfo.getOrDefault("MemTotal", 0L) * 1024)
+                .put(Constants.MEMAVAILABLE_KEY, memInfo.getOrDefault("MemAvailable", 0L) * 1024)
+                .put(Constants.FFMPEG_KEY, processesTotal.toJSON());
+
+        hostUsage = host;
+    }
+
+    /**
+     * Reads the whole content of a proc file.
+     * @param path The path of the file.
+     * @return The content of the file; null if it cannot be read.
+     */
+    private static String readFile(final Path path) {
+        try {
+            return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a "key: value [unit]" proc file, keeping only the numeric value.
+     * @param path The path of the file.
+     * @return The map of parsed values (empty if the file cannot be read, e.g. missing permissions).
+     */
+    private static Map<String, Long> readKeyValues(final Path path) {
+        Map<String, Long> values = new HashMap<>();
+        String content = readFile(path);
+
+        if (content != null) {
+            for (String line : content.split("\n")) {
+                int separator = line.indexOf(':');
+                if (separator <= 0) {
+                    continue;
+                }
+                String[] value = line.substring(separator + 1).trim().split("\\s+");
+                try {
+                    values.put(line.substring(0, separator), Long.parseLong(value[0]));
+                } catch (NumberFormatException e) {
+                    //not a numeric entry, skip it
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Sampling state of a tracked process.
+     */
+    private static class TrackedProcess {
+        private final int ownerID;
+        private final long pid;
+        private long prevTicks = 0;
+        private long prevTime = 0;
+        private volatile ResourceUsage usage = ResourceUsage.EMPTY;
+
+        private TrackedProcess(final int ownerID, final long pid) {
+            this.ownerID = ownerID;
+            this.pid = pid;
+        }
+    }
+}
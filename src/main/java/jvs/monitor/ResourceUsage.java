@@ -0,0 +1,100 @@
+package jvs.monitor;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+
+/**
+ * Resource usage of one or more processes sampled from the /proc file system.
+ */
+public class ResourceUsage {
+
+    /**
+     * Empty usage, reported for streams without running processes.
+     */
+    public static final ResourceUsage EMPTY = new ResourceUsage(0, 0d, 0, 0, 0);
+
+    private final int processes;
+    private final double cpuPercent;
+    private final long rssBytes;
+    private final long readBytes;
+    private final long writeBytes;
+
+    /**
+     * ResourceUsage constructor
+     * @param processes The number of processes included in this usage.
+     * @param cpuPercent The cpu usage, in percent of a single core.
+     * @param rssBytes The resident set size, in bytes.
+     * @param readBytes The total bytes read from the storage layer.
+     * @param writeBytes The total bytes written to the storage layer.
+     */
+    public ResourceUsage(final int processes, final double cpuPercent, final long rssBytes,
+                         final long readBytes, final long writeBytes) {
+        this.processes = processes;
+        this.cpuPercent = cpuPercent;
+        this.rssBytes = rssBytes;
+        this.readBytes = readBytes;
+        this.writeBytes = writeBytes;
+    }
+
+    /**
+     * Gets the number of processes included in this usage.
+     * @return The number of processes.
+     */
+    public int getProcesses() {
+        return processes;
+    }
+
+    /**
+     * Gets the cpu usage (100 means one core fully used).
+     * @return The cpu usage in percent.
+     */
+    public double getCpuPercent() {
+        return cpuPercent;
+    }
+
+    /**
+     * Gets the resident set size.
+     * @return The resident memory in bytes.
+     */
+    public long getRssBytes() {
+        return rssBytes;
+    }
+
+    /**
+     * Gets the bytes read from the storage layer.
+     * @return The read bytes.
+     */
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    /**
+     * Gets the bytes written to the storage layer.
+     * @return The written bytes.
+     */
+    public long getWriteBytes() {
+        return writeBytes;
+    }
+
+    /**
+     * Sums this usage with another one.
+     * @param other The usage to add.
+     * @return A new usage that represents the sum of both.
+     */
+    public ResourceUsage add(final ResourceUsage other) {
+        return new ResourceUsage(processes + other.processes, cpuPercent + other.cpuPercent,
+                rssBytes + other.rssBytes, readBytes + other.readBytes, writeBytes + other.writeBytes);
+    }
+
+    /**
+     * Return a json object that represents the usage.
+     * @return The json with all usage values.
+     */
+    public JsonObject toJSON() {
+        return new JsonObject().put(Constants.PROCESSES_KEY, processes)
+                .put(Constants.CPU_KEY, Math.round(cpuPercent * 10) / 10d)
+                .put(Constants.RSS_KEY, rssBytes)
+                .put(Constants.READBYTES_KEY, readBytes)
+                .put(Constants.WRITEBYTES_KEY, writeBytes);
+    }
+}
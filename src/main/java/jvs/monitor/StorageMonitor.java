@@ -0,0 +1,198 @@
+package jvs.monitor;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.utils.Logger;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the free space and the write throughput of the data directories of the streams (e.g. one per mount
+ * point) on a fixed interval, and places the new streams on the directory that will take the longest to fill up.
+ * The write throughput is the decrease of the free space between two samples, smoothed over the recent samples.
+ */
+public class StorageMonitor {
+
+    /**
+     * Weight of the last sample in the smoothed write throughput
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Write throughput, in bytes per second, expected from a stream placed since the last sample (a 5 Mbit/s encode)
+     */
+    private static final double PLACEMENT_RATE = 625_000;
+
+    private static volatile List<DataDirectory> directories = Collections.emptyList();
+    private static ScheduledExecutorService scheduler = null;
+
+    private StorageMonitor(){}
+
+    /**
+     * Starts the sampler, the data directories are created if they do not exist.
+     * @param paths The local paths of the data directories.
+     * @param interval The sampling interval in milliseconds.
+     */
+    public static synchronized void start(final List<String> paths, final long interval) {
+        if (scheduler != null) {
+            return;
+        }
+
+        List<DataDirectory> sampled = new ArrayList<>();
+        for (String path : paths) {
+            File directory = new File(path);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Logger.warn("Unable to create the streams folder " + path + ", no stream will be placed on it.");
+                continue;
+            }
+            DataDirectory dataDirectory = new DataDirectory(path, directory);
+            dataDirectory.sample(directory.getUsableSpace(), System.nanoTime());
+            sampled.add(dataDirectory);
+        }
+        directories = Collections.unmodifiableList(sampled);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "storage-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(StorageMonitor::sample, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the sampler.
+     */
+    public static synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Selects the data directory of a new stream: the one with the longest time before it is full at its recent
+     * write throughput, counting the streams already placed on it since the last sample. Directories that are not
+     * written to are ranked by their free space.
+     * @param fallback The path used if no data directory is sampled (the sampler is not started).
+     * @return The local path of the data directory.
+     */
+    public static synchronized String select(final String fallback) {
+        DataDirectory best = select(directories);
+        return best != null ? best.path : fallback;
+    }
+
+    /**
+     * Selects the data directory with the longest time before it is full, and counts the new stream placed on it.
+     * @param candidates The sampled data directories.
+     * @return The selected directory; null if there is none.
+     */
+    static DataDirectory select(final List<DataDirectory> candidates) {
+        DataDirectory best = null;
+        double bestTime = 0;
+        for (DataDirectory directory : candidates) {
+            double time = directory.getTimeToFull();
+            if (best == null || time > bestTime || (time == bestTime && directory.free > best.free)) {
+                best = directory;
+                bestTime = time;
+            }
+        }
+        if (best != null) {
+            best.placements++;
+        }
+        return best;
+    }
+
+    /**
+     * Gets the data directory of a stream directory.
+     * @param streamDirectory The local path of the directory of a stream.
+     * @return The local path of its data directory; null if it is not in a data directory.
+     */
+    public static String getDataDirectory(final String streamDirectory) {
+        Path path = new File(streamDirectory).getAbsoluteFile().toPath().normalize();
+        for (DataDirectory directory : directories) {
+            if (path.startsWith(directory.file.getAbsoluteFile().toPath().normalize())) {
+                return directory.path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the last sampled state of the data directories.
+     * @return The path, the free space (bytes) and the write throughput (bytes per second) of every directory.
+     */
+    public static JsonArray toJSON() {
+        JsonArray json = new JsonArray();
+        for (DataDirectory directory : directories) {
+            json.add(new JsonObject()
+                    .put(Constants.PATH_KEY, directory.path)
+                    .put(Constants.FREE_KEY, directory.free)
+                    .put(Constants.WRITE_RATE_KEY, Math.round(directory.writeRate)));
+        }
+        return json;
+    }
+
+    private static synchronized void sample() {
+        try {
+            long now = System.nanoTime();
+            for (DataDirectory directory : directories) {
+                directory.sample(directory.file.getUsableSpace(), now);
+            }
+        } catch (Exception e) {
+            Logger.error("Storage monitor failed to sample the streams folders: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Sampling state of a data directory.
+     */
+    static class DataDirectory {
+        private final String path;
+        private final File file;
+        private long free = -1;
+        private long sampleTime;
+        private double writeRate = 0;
+
+        /**
+         * Number of streams placed on the directory since the last sample
+         */
+        private int placements = 0;
+
+        DataDirectory(final String path, final File file) {
+            this.path = path;
+            this.file = file;
+        }
+
+        /**
+         * Records a sample of the free space.
+         * @param current The free space of the directory, in bytes.
+         * @param now The time of the sample, in nanoseconds.
+         */
+        void sample(final long current, final long now) {
+            if (free >= 0 && now > sampleTime) {
+                //deletions free space, they do not count as negative writes
+                double rate = Math.max(0, free - current) * 1e9 / (now - sampleTime);
+                writeRate = SMOOTHING * rate + (1 - SMOOTHING) * writeRate;
+            }
+            free = current;
+            sampleTime = now;
+            placements = 0;
+        }
+
+        /**
+         * @return The time, in seconds, before the directory is full; infinite if it is not written to.
+         */
+        double getTimeToFull() {
+            double rate = writeRate + placements * PLACEMENT_RATE;
+            return rate > 0 ? free / rate : Double.POSITIVE_INFINITY;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package jvs.packaging;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ISO-BMFF box in a range of data, with the helpers shared by the parsers of the mp4 files.
+ */
+final class Box {
+
+    /**
+     * Flags of the track fragment header
+     */
+    static final int TFHD_BASE_DATA_OFFSET = 0x01;
+    private static final int TFHD_SAMPLE_DESCRIPTION_INDEX = 0x02;
+    private static final int TFHD_DEFAULT_SAMPLE_DURATION = 0x08;
+    private static final int TFHD_DEFAULT_SAMPLE_SIZE = 0x10;
+    private static final int TFHD_DEFAULT_SAMPLE_FLAGS = 0x20;
+
+    /**
+     * Flags of the track fragment run
+     */
+    private static final int TRUN_DATA_OFFSET = 0x01;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS = 0x04;
+    private static final int TRUN_SAMPLE_DURATION = 0x100;
+    private static final int TRUN_SAMPLE_SIZE = 0x200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x400;
+    private static final int TRUN_SAMPLE_CTO = 0x800;
+
+    /**
+     * Flag of the samples that are not sync samples (keyframes)
+     */
+    private static final int SAMPLE_IS_NON_SYNC = 0x10000;
+
+    final String type;
+    final int offset;
+    final int size;
+    final int header;
+
+    private Box(final String type, final int offset, final int size, final int header) {
+        this.type = type;
+        this.offset = offset;
+        this.size = size;
+        this.header = header;
+    }
+
+    int getContentStart() {
+        //full boxes fields are part of the content
+        return offset + header;
+    }
+
+    int getEnd() {
+        return offset + size;
+    }
+
+    /**
+     * Parses the boxes in a range of data.
+     * @param buffer The data.
+     * @param start The start of the range.
+     * @param end The end of the range.
+     * @return The boxes, a truncated box ends the list.
+     */
+    static List<Box> parse(final ByteBuffer buffer, final int start, final int end) {
+        List<Box> boxes = new ArrayList<>();
+        int position = start;
+        while (position + 8 <= end) {
+            long size = buffer.getInt(position) & 0xFFFFFFFFL;
+            int header = 8;
+            if (size == 1 && position + 16 <= end) {
+                size = buffer.getLong(position + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < header || position + size > end) {
+                break;
+            }
+            boxes.add(new Box(readType(buffer, position + 4), position, (int) size, header));
+            position += size;
+        }
+        return boxes;
+    }
+
+    /**
+     * Finds a descendant of a container box.
+     * @param buffer The data.
+     * @param parent The container box.
+     * @param path The types of the boxes from the children of the container to the descendant.
+     * @return The first matching box; null if there is none.
+     */
+    static Box find(final ByteBuffer buffer, final Box parent, final String... path) {
+        Box box = parent;
+        for (String type : path) {
+            Box next = null;
+            for (Box child : parse(buffer, box.getContentStart(), box.getEnd())) {
+                if (child.type.equals(type)) {
+                    next = child;
+                    break;
+                }
+            }
+            if (next == null) {
+                return null;
+            }
+            box = next;
+        }
+        return box;
+    }
+
+    /**
+     * Reads a four character code.
+     * @param buffer The data.
+     * @param position The position of the code.
+     * @return The code.
+     */
+    static String readType(final ByteBuffer buffer, final int position) {
+        byte[] type = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            type[i] = buffer.get(position + i);
+        }
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads the track id of a track header box.
+     * @param buffer The box data.
+     * @param tkhd The track header box.
+     * @return The track id.
+     */
+    static int readTrackID(final ByteBuffer buffer, final Box tkhd) {
+        return buffer.getInt(tkhd.getContentStart() + (buffer.get(tkhd.getContentStart()) == 1 ? 20 : 12));
+    }
+
+    /**
+     * Reads the timescale of a media header box.
+     * @param buffer The box data.
+     * @param mdhd The media header box.
+     * @return The timescale.
+     */
+    static long readTimescale(final ByteBuffer buffer, final Box mdhd) {
+        return buffer.getInt(mdhd.getContentStart() + (buffer.get(mdhd.getContentStart()) == 1 ? 20 : 12)) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Writes a box.
+     * @param out The output.
+     * @param type The type of the box.
+     * @param content The content of the box.
+     */
+    static void write(final ByteArrayOutputStream out, final String type, final byte[] content) {
+        out.write(ByteBuffer.allocate(4).putInt(content.length + 8).array(), 0, 4);
+        out.write(type.getBytes(StandardCharsets.US_ASCII), 0, 4);
+        out.write(content, 0, content.length);
+    }
+
+    /**
+     * Parses a track fragment box: its decode time, the duration of its samples and its first keyframe.
+     * @param buffer The data.
+     * @param traf The track fragment box.
+     * @param defaultDuration The default duration of the samples of the track (from its track extends box).
+     * @param defaultFlags The default flags of the samples of the track (from its track extends box).
+     * @return The track fragment; null if it has no track fragment header.
+     */
+    static TrackFragment parseTrackFragment(final ByteBuffer buffer, final Box traf, final long defaultDuration,
+                                            final int defaultFlags) {
+        Box tfhd = find(buffer, traf, "tfhd");
+        if (tfhd == null) {
+            return null;
+        }
+
+        TrackFragment fragment = new TrackFragment();
+        fragment.flags = buffer.getInt(tfhd.getContentStart()) & 0xFFFFFF;
+        fragment.trackID = buffer.getInt(tfhd.getContentStart() + 4);
+        long sampleDuration = defaultDuration;
+        int sampleFlags = defaultFlags;
+        int position = tfhd.getContentStart() + 8 + ((fragment.flags & TFHD_BASE_DATA_OFFSET) != 0 ? 8 : 0) +
+                ((fragment.flags & TFHD_SAMPLE_DESCRIPTION_INDEX) != 0 ? 4 : 0);
+        if ((fragment.flags & TFHD_DEFAULT_SAMPLE_DURATION) != 0) {
+            sampleDuration = buffer.getInt(position) & 0xFFFFFFFFL;
+            position += 4;
+        }
+        if ((fragment.flags & TFHD_DEFAULT_SAMPLE_SIZE) != 0) {
+            position += 4;
+        }
+        if ((fragment.flags & TFHD_DEFAULT_SAMPLE_FLAGS) != 0) {
+            sampleFlags = buffer.getInt(position);
+        }
+
+        for (Box box : parse(buffer, traf.getContentStart(), traf.getEnd())) {
+            int content = box.getContentStart();
+            if (box.type.equals("tfdt")) {
+                fragment.time = buffer.get(content) == 1 ? buffer.getLong(content + 4) : buffer.getInt(content + 4) & 0xFFFFFFFFL;
+            } else if (box.type.equals("trun")) {
+                int runFlags = buffer.getInt(content) & 0xFFFFFF;
+                int count = buffer.getInt(content + 4);
+                int sample = content + 8 + ((runFlags & TRUN_DATA_OFFSET) != 0 ? 4 : 0);
+                int firstFlags = sampleFlags;
+                if ((runFlags & TRUN_FIRST_SAMPLE_FLAGS) != 0) {
+                    firstFlags = buffer.getInt(sample);
+                    sample += 4;
+                }
+                int stride = 4 * Integer.bitCount(runFlags & (TRUN_SAMPLE_DURATION | TRUN_SAMPLE_SIZE |
+                        TRUN_SAMPLE_FLAGS | TRUN_SAMPLE_CTO));
+                int flagsOffset = 4 * Integer.bitCount(runFlags & (TRUN_SAMPLE_DURATION | TRUN_SAMPLE_SIZE));
+
+                for (int i = 0; i < count; i++) {
+                    int flags = (runFlags & TRUN_SAMPLE_FLAGS) != 0 ? buffer.getInt(sample + i * stride + flagsOffset) :
+                            i == 0 ? firstFlags : sampleFlags;
+                    if (fragment.keyframeOffset < 0 && (flags & SAMPLE_IS_NON_SYNC) == 0) {
+                        fragment.keyframeOffset = fragment.duration;
+                    }
+                    fragment.duration += (runFlags & TRUN_SAMPLE_DURATION) != 0 ?
+                            buffer.getInt(sample + i * stride) & 0xFFFFFFFFL : sampleDuration;
+                }
+            }
+        }
+        return fragment;
+    }
+
+    /**
+     * Timing of a track fragment.
+     */
+    static final class TrackFragment {
+        int trackID;
+        int flags;
+        long time = 0;
+        long duration = 0;
+
+        /**
+         * Offset of the first keyframe from the decode time, -1 if the fragment has no keyframe
+         */
+        long keyframeOffset = -1;
+    }
+}
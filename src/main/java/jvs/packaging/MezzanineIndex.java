@@ -0,0 +1,703 @@
+package jvs.packaging;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jvs.utils.JsonUtils;
+import jvs.utils.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Index of the fragments of a fragmented mp4 mezzanine: the file is written with a moof per track
+ * (ffmpeg -movflags separate_moof+default_base_moof), so that every moof/mdat pair is a self-contained
+ * media segment of a single track that can be served as a byte range of the file.
+ * The index is built by scanning the top level boxes of the file, persisted next to it (so that cold opens
+ * do not scan the file again) and cached in memory until the file changes.
+ */
+public class MezzanineIndex {
+
+    /**
+     * Version of the persisted index, incremented when its format changes
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Suffix of the persisted index, next to the mezzanine
+     */
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Size of the sample entries fields preceding their child boxes
+     */
+    private static final int VISUAL_SAMPLE_ENTRY_SIZE = 78;
+    private static final int AUDIO_SAMPLE_ENTRY_SIZE = 28;
+
+    private static final Map<String, MezzanineIndex> cache = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final long size;
+    private final long modified;
+    private final long[] ftypRange;
+    private final long[] moovRange;
+    private final byte[] ftyp;
+    private final byte[] moov;
+    private final Map<Integer, Track> tracks;
+    private final List<long[]> fragments;
+    private final Map<Integer, byte[]> initSegments = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> packaged = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the index of a mezzanine.
+     * @param file The mezzanine.
+     * @param size The size of the file when it has been indexed.
+     * @param modified The last modification time of the file when it has been indexed.
+     * @param ftypRange The offset and the size of the file type box.
+     * @param moovRange The offset and the size of the movie box.
+     * @param fragments The fragments (track id, offset, size, decode time, duration), in file order.
+     * @throws IOException If the header boxes cannot be read or parsed.
+     */
+    private MezzanineIndex(final File file, final long size, final long modified, final long[] ftypRange,
+                           final long[] moovRange, final List<long[]> fragments) throws IOException {
+        this.file = file;
+        this.size = size;
+        this.modified = modified;
+        this.ftypRange = ftypRange;
+        this.moovRange = moovRange;
+        this.fragments = fragments;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            this.ftyp = read(input, ftypRange[0], ftypRange[1]);
+            this.moov = read(input, moovRange[0], moovRange[1]);
+        }
+        this.tracks = parseTracks(moov);
+        for (long[] values : fragments) {
+            Track track = tracks.get((int) values[0]);
+            if (track == null) {
+                throw new IOException("fragment of unknown track " + values[0]);
+            }
+            track.fragments.add(new Fragment(values[1], values[2], values[3], values[4]));
+        }
+    }
+
+    /**
+     * Opens the index of a mezzanine: the cached one if the file did not change, the persisted one if it is
+     * still valid, otherwise the file is scanned and the new index persisted.
+     * @param file The mezzanine.
+     * @return The index; null if the file is not a fragmented mp4 with a moof per track.
+     */
+    public static MezzanineIndex open(final File file) {
+        String key = file.getAbsolutePath();
+        MezzanineIndex index = cache.get(key);
+        if (index != null && index.isValid()) {
+            return index;
+        }
+
+        File indexFile = new File(file.getPath() + INDEX_SUFFIX);
+        try {
+            index = load(file, indexFile);
+            if (index == null) {
+                index = scan(file);
+                index.persist(indexFile);
+            }
+            cache.put(key, index);
+            return index;
+        } catch (Exception e) {
+            Logger.error("Unable to index the mezzanine " + file.getPath() + ". " + e.getLocalizedMessage());
+            cache.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes a mezzanine with its persisted index and removes the index from the cache.
+     * @param file The mezzanine.
+     */
+    public static void delete(final File file) {
+        cache.remove(file.getAbsolutePath());
+        new File(file.getPath() + INDEX_SUFFIX).delete();
+        file.delete();
+    }
+
+    /**
+     * Gets the mezzanine.
+     * @return The file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the tracks of the mezzanine.
+     * @return The tracks, in the order of the movie box.
+     */
+    public List<Track> getTracks() {
+        return new ArrayList<>(tracks.values());
+    }
+
+    /**
+     * Gets a track of the mezzanine.
+     * @param trackID The id of the track.
+     * @return The track; null if the mezzanine has no such track.
+     */
+    public Track getTrack(final int trackID) {
+        return tracks.get(trackID);
+    }
+
+    /**
+     * Gets the duration of the presentation.
+     * @return The duration of the longest track, in seconds.
+     */
+    public double getDuration() {
+        double duration = 0;
+        for (Track track : tracks.values()) {
+            duration = Math.max(duration, track.getDuration());
+        }
+        return duration;
+    }
+
+    /**
+     * Gets the init segment of a track: the file type box and a movie box without the other tracks.
+     * @param trackID The id of the track.
+     * @return The init segment; null if the mezzanine has no such track.
+     */
+    public byte[] getInitSegment(final int trackID) {
+        if (!tracks.containsKey(trackID)) {
+            return null;
+        }
+        return initSegments.computeIfAbsent(trackID, this::buildInitSegment);
+    }
+
+    /**
+     * Gets content packaged from the index (e.g. a manifest), generating it on the first request.
+     * @param name The name of the content.
+     * @param generator The generator of the content.
+     * @return The content.
+     */
+    byte[] getPackaged(final String name, final Supplier<String> generator) {
+        return packaged.computeIfAbsent(name, k -> generator.get().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Determine whether the index still describes the file.
+     * @return True, if the file did not change since it has been indexed; otherwise false.
+     */
+    private boolean isValid() {
+        return file.length() == size && file.lastModified() == modified;
+    }
+
+    /**
+     * Builds the init segment of a track.
+     * @param trackID The id of the track.
+     * @return The init segment.
+     */
+    private byte[] buildInitSegment(final int trackID) {
+        ByteBuffer buffer = ByteBuffer.wrap(moov);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        Box movie = Box.parse(buffer, 0, moov.length).get(0);
+        for (Box box : Box.parse(buffer, movie.getContentStart(), movie.getEnd())) {
+            if (box.type.equals("trak")) {
+                Box tkhd = Box.find(buffer, box, "tkhd");
+                if (tkhd == null || Box.readTrackID(buffer, tkhd) != trackID) {
+                    continue;
+                }
+                body.write(moov, box.offset, box.size);
+            } else if (box.type.equals("mvex")) {
+                ByteArrayOutputStream trackExtends = new ByteArrayOutputStream();
+                for (Box child : Box.parse(buffer, box.getContentStart(), box.getEnd())) {
+                    if (!child.type.equals("trex") || buffer.getInt(child.getContentStart() + 4) == trackID) {
+                        trackExtends.write(moov, child.offset, child.size);
+                    }
+                }
+                Box.write(body, "mvex", trackExtends.toByteArray());
+            } else {
+                body.write(moov, box.offset, box.size);
+            }
+        }
+
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        segment.write(ftyp, 0, ftyp.length);
+        Box.write(segment, "moov", body.toByteArray());
+        return segment.toByteArray();
+    }
+
+    /**
+     * Scans a mezzanine.
+     * @param file The mezzanine.
+     * @return The index.
+     * @throws IOException If the file cannot be read or is not a fragmented mp4 with a moof per track.
+     */
+    private static MezzanineIndex scan(final File file) throws IOException {
+        long size = file.length();
+        long modified = file.lastModified();
+        long[] ftypRange = null;
+        long[] moovRange = null;
+        Map<Integer, Track> tracks = null;
+        List<long[]> fragments = new ArrayList<>();
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            long position = 0;
+            byte[] moof = null;
+            long moofOffset = 0;
+            ByteBuffer header = ByteBuffer.allocate(16);
+
+            while (position + 8 <= size) {
+                header.clear();
+                input.seek(position);
+                input.readFully(header.array(), 0, (int) Math.min(16, size - position));
+                long boxSize = header.getInt(0) & 0xFFFFFFFFL;
+                String type = new String(header.array(), 4, 4, StandardCharsets.US_ASCII);
+                if (boxSize == 1) {
+                    boxSize = header.getLong(8);
+                } else if (boxSize == 0) {
+                    boxSize = size - position;
+                }
+                if (boxSize < 8 || position + boxSize > size) {
+                    throw new IOException("truncated " + type + " box at offset " + position);
+                }
+
+                switch (type) {
+                    case "ftyp":
+                        ftypRange = new long[]{position, boxSize};
+                        break;
+                    case "moov":
+                        moovRange = new long[]{position, boxSize};
+                        tracks = parseTracks(read(input, position, boxSize));
+                        break;
+                    case "moof":
+                        moof = read(input, position, boxSize);
+                        moofOffset = position;
+                        break;
+                    case "mdat":
+                        if (moof != null) {
+                            if (tracks == null) {
+                                throw new IOException("movie fragment before the movie box");
+                            }
+                            long[] fragment = parseFragment(moof, tracks);
+                            fragments.add(new long[]{fragment[0], moofOffset, position + boxSize - moofOffset,
+                                    fragment[1], fragment[2]});
+                            moof = null;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                position += boxSize;
+            }
+        }
+
+        if (ftypRange == null || moovRange == null) {
+            throw new IOException("missing file type or movie box");
+        }
+        return new MezzanineIndex(file, size, modified, ftypRange, moovRange, fragments);
+    }
+
+    /**
+     * Loads a persisted index, reading the file type and movie boxes from the mezzanine.
+     * @param file The mezzanine.
+     * @param indexFile The persisted index.
+     * @return The index; null if it does not exist or does not describe the current file.
+     * @throws IOException If the mezzanine cannot be read.
+     */
+    private static MezzanineIndex load(final File file, final File indexFile) throws IOException {
+        JsonObject json = JsonUtils.readJsonFromFile(indexFile.getPath());
+        if (json == null || json.getInteger("version", 0) != VERSION ||
+                json.getLong("size", -1L) != file.length() || json.getLong("modified", -1L) != file.lastModified()) {
+            return null;
+        }
+
+        long[] ftypRange = toRange(json.getJsonArray("ftyp"));
+        long[] moovRange = toRange(json.getJsonArray("moov"));
+        List<long[]> fragments = new ArrayList<>();
+        for (Object entry : json.getJsonArray("fragments")) {
+            JsonArray values = (JsonArray) entry;
+            fragments.add(new long[]{values.getLong(0), values.getLong(1), values.getLong(2), values.getLong(3), values.getLong(4)});
+        }
+        return new MezzanineIndex(file, json.getLong("size"), json.getLong("modified"), ftypRange, moovRange, fragments);
+    }
+
+    /**
+     * Persists the index next to the mezzanine, atomically replacing the previous one.
+     * @param indexFile The persisted index.
+     */
+    private void persist(final File indexFile) {
+        JsonArray entries = new JsonArray();
+        for (long[] fragment : fragments) {
+            JsonArray values = new JsonArray();
+            for (long value : fragment) {
+                values.add(value);
+            }
+            entries.add(values);
+        }
+        JsonObject json = new JsonObject().put("version", VERSION)
+                .put("size", size)
+                .put("modified", modified)
+                .put("ftyp", new JsonArray().add(ftypRange[0]).add(ftypRange[1]))
+                .put("moov", new JsonArray().add(moovRange[0]).add(moovRange[1]))
+                .put("fragments", entries);
+
+        try {
+            File tmp = new File(indexFile.getPath() + ".tmp");
+            Files.write(tmp.toPath(), json.encode().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Logger.warn("Unable to persist the index of the mezzanine " + file.getPath() + ". " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Parses the tracks of a movie box.
+     * @param moov The movie box.
+     * @return The tracks, by track id.
+     * @throws IOException If a track misses a mandatory box.
+     */
+    private static Map<Integer, Track> parseTracks(final byte[] moov) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(moov);
+        Box movie = Box.parse(buffer, 0, moov.length).get(0);
+
+        //the default duration of the samples of a track may only be in its track extends box
+        Map<Integer, Long> defaultDurations = new LinkedHashMap<>();
+        Box mvex = Box.find(buffer, movie, "mvex");
+        if (mvex == null) {
+            throw new IOException("not a fragmented mp4");
+        }
+        for (Box trex : Box.parse(buffer, mvex.getContentStart(), mvex.getEnd())) {
+            if (trex.type.equals("trex")) {
+                defaultDurations.put(buffer.getInt(trex.getContentStart() + 4), buffer.getInt(trex.getContentStart() + 12) & 0xFFFFFFFFL);
+            }
+        }
+
+        Map<Integer, Track> tracks = new LinkedHashMap<>();
+        for (Box trak : Box.parse(buffer, movie.getContentStart(), movie.getEnd())) {
+            if (!trak.type.equals("trak")) {
+                continue;
+            }
+            Box tkhd = Box.find(buffer, trak, "tkhd");
+            Box mdhd = Box.find(buffer, trak, "mdia", "mdhd");
+            Box hdlr = Box.find(buffer, trak, "mdia", "hdlr");
+            Box stsd = Box.find(buffer, trak, "mdia", "minf", "stbl", "stsd");
+            if (tkhd == null || mdhd == null || hdlr == null || stsd == null) {
+                throw new IOException("incomplete track");
+            }
+
+            Track track = new Track();
+            track.id = Box.readTrackID(buffer, tkhd);
+            track.timescale = Box.readTimescale(buffer, mdhd);
+            track.handler = Box.readType(buffer, hdlr.getContentStart() + 8);
+            track.defaultDuration = defaultDurations.getOrDefault(track.id, 0L);
+            List<Box> entries = Box.parse(buffer, stsd.getContentStart() + 8, stsd.getEnd());
+            if (!entries.isEmpty()) {
+                parseSampleEntry(buffer, entries.get(0), track);
+            }
+            tracks.put(track.id, track);
+        }
+        return tracks;
+    }
+
+    /**
+     * Parses the codec and the format of a track from its first sample entry.
+     * @param buffer The movie box.
+     * @param entry The sample entry.
+     * @param track The track.
+     */
+    private static void parseSampleEntry(final ByteBuffer buffer, final Box entry, final Track track) {
+        int content = entry.getContentStart();
+        track.codecs = entry.type;
+
+        if (track.isVideo() && entry.getEnd() >= content + VISUAL_SAMPLE_ENTRY_SIZE) {
+            track.width = buffer.getShort(content + 24) & 0xFFFF;
+            track.height = buffer.getShort(content + 26) & 0xFFFF;
+            for (Box child : Box.parse(buffer, content + VISUAL_SAMPLE_ENTRY_SIZE, entry.getEnd())) {
+                if (child.type.equals("avcC") && child.size >= child.header + 4) {
+                    //profile, compatibility and level
+                    track.codecs = String.format("%s.%02x%02x%02x", entry.type, buffer.get(child.getContentStart() + 1) & 0xFF,
+                            buffer.get(child.getContentStart() + 2) & 0xFF, buffer.get(child.getContentStart() + 3) & 0xFF);
+                }
+            }
+        } else if (track.isAudio() && entry.getEnd() >= content + AUDIO_SAMPLE_ENTRY_SIZE) {
+            track.channels = buffer.getShort(content + 16) & 0xFFFF;
+            track.sampleRate = buffer.getInt(content + 24) >>> 16;
+            for (Box child : Box.parse(buffer, content + AUDIO_SAMPLE_ENTRY_SIZE, entry.getEnd())) {
+                if (child.type.equals("esds")) {
+                    track.codecs = parseAudioCodecs(buffer, child, entry.type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the codecs parameter of an audio track from its elementary stream descriptor.
+     * @param buffer The movie box.
+     * @param esds The elementary stream descriptor box.
+     * @param format The format of the sample entry.
+     * @return The codecs parameter (e.g. mp4a.40.2).
+     */
+    private static String parseAudioCodecs(final ByteBuffer buffer, final Box esds, final String format) {
+        int position = esds.getContentStart() + 4;
+        int objectType = -1;
+        while (position + 2 <= esds.getEnd()) {
+            int tag = buffer.get(position++) & 0xFF;
+            int length = 0;
+            int b;
+            do {
+                b = buffer.get(position++) & 0xFF;
+                length = (length << 7) | (b & 0x7F);
+            } while ((b & 0x80) != 0 && position < esds.getEnd());
+
+            if (tag == 0x03) {
+                //elementary stream descriptor: id, flags and optional fields, then the nested descriptors
+                int flags = buffer.get(position + 2) & 0xFF;
+                position += 3;
+                if ((flags & 0x80) != 0) {
+                    position += 2;
+                }
+                if ((flags & 0x40) != 0) {
+                    position += 1 + (buffer.get(position) & 0xFF);
+                }
+                if ((flags & 0x20) != 0) {
+                    position += 2;
+                }
+            } else if (tag == 0x04) {
+                //decoder config descriptor: the object type, then the nested decoder specific info
+                objectType = buffer.get(position) & 0xFF;
+                position += 13;
+            } else if (tag == 0x05 && objectType == 0x40 && length > 0) {
+                return String.format("%s.40.%d", format, (buffer.get(position) & 0xFF) >>> 3);
+            } else {
+                position += length;
+            }
+        }
+        return objectType > 0 ? String.format("%s.%02x", format, objectType) : format;
+    }
+
+    /**
+     * Parses a movie fragment.
+     * @param moof The movie fragment box.
+     * @param tracks The tracks of the mezzanine.
+     * @return The track id, the decode time and the duration of the fragment.
+     * @throws IOException If the fragment does not contain a single track or cannot be served as a byte range.
+     */
+    private static long[] parseFragment(final byte[] moof, final Map<Integer, Track> tracks) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(moof);
+        Box fragment = Box.parse(buffer, 0, moof.length).get(0);
+
+        Box traf = null;
+        for (Box box : Box.parse(buffer, fragment.getContentStart(), fragment.getEnd())) {
+            if (box.type.equals("traf")) {
+                if (traf != null) {
+                    throw new IOException("movie fragment with more than one track, the mezzanine must be written with a moof per track");
+                }
+                traf = box;
+            }
+        }
+        Box tfhd = traf != null ? Box.find(buffer, traf, "tfhd") : null;
+        if (tfhd == null) {
+            throw new IOException("movie fragment without track fragment header");
+        }
+
+        Track track = tracks.get(buffer.getInt(tfhd.getContentStart() + 4));
+        if (track == null) {
+            throw new IOException("movie fragment of unknown track " + buffer.getInt(tfhd.getContentStart() + 4));
+        }
+        Box.TrackFragment trackFragment = Box.parseTrackFragment(buffer, traf, track.defaultDuration, 0);
+        if ((trackFragment.flags & Box.TFHD_BASE_DATA_OFFSET) != 0) {
+            throw new IOException("movie fragment with absolute data offsets, the mezzanine must be written with default_base_moof");
+        }
+        return new long[]{trackFragment.trackID, trackFragment.time, trackFragment.duration};
+    }
+
+    /**
+     * Reads a range of a file.
+     * @param input The file.
+     * @param offset The offset of the range.
+     * @param length The length of the range.
+     * @return The data.
+     * @throws IOException If the range cannot be read.
+     */
+    private static byte[] read(final RandomAccessFile input, final long offset, final long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("box too large at offset " + offset);
+        }
+        byte[] data = new byte[(int) length];
+        input.seek(offset);
+        input.readFully(data);
+        return data;
+    }
+
+    /**
+     * Converts a persisted range.
+     * @param range The range as offset and length.
+     * @return The range.
+     * @throws IOException If the range is missing.
+     */
+    private static long[] toRange(final JsonArray range) throws IOException {
+        if (range == null || range.size() != 2) {
+            throw new IOException("invalid persisted index");
+        }
+        return new long[]{range.getLong(0), range.getLong(1)};
+    }
+
+    /**
+     * Track of a mezzanine.
+     */
+    public static class Track {
+        private int id;
+        private long timescale;
+        private String handler;
+        private String codecs;
+        private long defaultDuration;
+        private int width;
+        private int height;
+        private int channels;
+        private int sampleRate;
+        private final List<Fragment> fragments = new ArrayList<>();
+
+        public int getID() {
+            return id;
+        }
+
+        public long getTimescale() {
+            return timescale;
+        }
+
+        public String getCodecs() {
+            return codecs;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public boolean isVideo() {
+            return "vide".equals(handler);
+        }
+
+        public boolean isAudio() {
+            return "soun".equals(handler);
+        }
+
+        /**
+         * Gets the fragments of the track.
+         * @return The fragments, in decode order.
+         */
+        public List<Fragment> getFragments() {
+            return Collections.unmodifiableList(fragments);
+        }
+
+        /**
+         * Gets the duration of the track.
+         * @return The duration from the first to the end of the last fragment, in seconds.
+         */
+        public double getDuration() {
+            if (fragments.isEmpty() || timescale <= 0) {
+                return 0;
+            }
+            Fragment last = fragments.get(fragments.size() - 1);
+            return (double) (last.time + last.duration - fragments.get(0).time) / timescale;
+        }
+
+        /**
+         * Finds the fragment to start from to play a time: the last fragment that starts at or before it
+         * (the fragments of the mezzanine start with a keyframe).
+         * @param offset The time, in seconds from the start of the first fragment.
+         * @return The position of the fragment; -1 if the track has no fragment.
+         */
+        public int find(final double offset) {
+            if (fragments.isEmpty()) {
+                return -1;
+            }
+
+            long time = fragments.get(0).time + Math.round(offset * timescale);
+            int low = 0;
+            int high = fragments.size() - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (fragments.get(middle).time <= time) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Gets the average bitrate of the track.
+         * @return The bitrate, in bits per second.
+         */
+        public long getBandwidth() {
+            double duration = getDuration();
+            long bytes = 0;
+            for (Fragment fragment : fragments) {
+                bytes += fragment.size;
+            }
+            return duration > 0 ? Math.round(bytes * 8 / duration) : 0;
+        }
+    }
+
+    /**
+     * Fragment of a track: a moof box with the following mdat box.
+     */
+    public static class Fragment {
+        private final long offset;
+        private final long size;
+        private final long time;
+        private final long duration;
+
+        private Fragment(final long offset, final long size, final long time, final long duration) {
+            this.offset = offset;
+            this.size = size;
+            this.time = time;
+            this.duration = duration;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the decode time of the first sample.
+         * @return The time, in the timescale of the track.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Gets the duration of the fragment.
+         * @return The duration, in the timescale of the track.
+         */
+        public long getDuration() {
+            return duration;
+        }
+    }
+}
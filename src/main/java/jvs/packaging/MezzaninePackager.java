@@ -0,0 +1,246 @@
+package jvs.packaging;
+
+import jvs.Constants;
+import jvs.utils.DurationUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Packages a mezzanine just in time: the static MPEG-DASH manifest, the HLS playlists and the init segments of the
+ * tracks are generated from the {@link MezzanineIndex} on request (and cached with it), the media segments are
+ * byte ranges of the mezzanine. A media segment is a fragment of a track, so both formats share the same segments.
+ */
+public class MezzaninePackager {
+
+    /**
+     * Names of the generated content, relative to the directory of the mezzanine
+     */
+    private static final String MANIFEST = "manifest.mpd";
+    private static final Pattern MEDIA_PLAYLIST = Pattern.compile("media-(\\d+)\\.m3u8");
+    private static final Pattern INIT_SEGMENT = Pattern.compile("init-(\\d+)\\.mp4");
+    private static final Pattern MEDIA_SEGMENT = Pattern.compile("seg-(\\d+)-(\\d+)\\.m4s");
+
+    /**
+     * Mime types of the generated content
+     */
+    static final String DASH_MIME_TYPE = "application/dash+xml";
+    private static final String HLS_MIME_TYPE = "application/vnd.apple.mpegurl";
+
+    /**
+     * Group of the HLS audio renditions
+     */
+    private static final String AUDIO_GROUP = "audio";
+
+    private MezzaninePackager(){}
+
+    /**
+     * Resolves a content request.
+     * @param index The index of the mezzanine.
+     * @param name The name of the requested file, relative to the directory of the mezzanine.
+     * @return The content; null if the name does not refer to content of the mezzanine.
+     */
+    public static PackagedContent resolve(final MezzanineIndex index, final String name) {
+        if (name.equals(MANIFEST)) {
+            return PackagedContent.of(DASH_MIME_TYPE, index.getPackaged(name, () -> generateManifest(index)));
+        }
+        if (name.equals(Constants.HLS_PLAYLIST)) {
+            return PackagedContent.of(HLS_MIME_TYPE, index.getPackaged(name, () -> generateMasterPlaylist(index)));
+        }
+
+        Matcher playlist = MEDIA_PLAYLIST.matcher(name);
+        if (playlist.matches()) {
+            MezzanineIndex.Track track = index.getTrack(Integer.parseInt(playlist.group(1)));
+            return track != null ? PackagedContent.of(HLS_MIME_TYPE, index.getPackaged(name, () -> generateMediaPlaylist(track))) : null;
+        }
+
+        Matcher init = INIT_SEGMENT.matcher(name);
+        if (init.matches()) {
+            MezzanineIndex.Track track = index.getTrack(Integer.parseInt(init.group(1)));
+            return track != null ? PackagedContent.of(getMimeType(track), index.getInitSegment(track.getID())) : null;
+        }
+
+        Matcher segment = MEDIA_SEGMENT.matcher(name);
+        if (segment.matches()) {
+            MezzanineIndex.Track track = index.getTrack(Integer.parseInt(segment.group(1)));
+            int number = Integer.parseInt(segment.group(2));
+            if (track == null || number < 1 || number > track.getFragments().size()) {
+                return null;
+            }
+            MezzanineIndex.Fragment fragment = track.getFragments().get(number - 1);
+            return PackagedContent.of(getMimeType(track), index.getFile(), fragment.getOffset(), fragment.getSize());
+        }
+        return null;
+    }
+
+    /**
+     * Resolves a request of the MPEG-DASH manifest that starts at a given time (not cached).
+     * @param index The index of the mezzanine.
+     * @param offset The time, in seconds from the start of the mezzanine.
+     * @return The manifest, starting with the fragments that contain the time.
+     */
+    public static PackagedContent resolveManifest(final MezzanineIndex index, final double offset) {
+        return PackagedContent.of(DASH_MIME_TYPE, generateManifest(index, offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String generateManifest(final MezzanineIndex index) {
+        return generateManifest(index, 0);
+    }
+
+    /**
+     * Generates the static MPEG-DASH manifest, with an adaptation set per track and the fragments
+     * described by a segment timeline.
+     * @param index The index of the mezzanine.
+     * @param offset The time, in seconds from the start of the mezzanine, of the start of the manifest.
+     * @return The manifest.
+     */
+    private static String generateManifest(final MezzanineIndex index, final double offset) {
+        //the presentation starts with the fragment of the first track that contains the time
+        double start = 0;
+        for (MezzanineIndex.Track track : index.getTracks()) {
+            int position = track.find(offset);
+            if (position >= 0 && (track.isVideo() || track.isAudio())) {
+                start = (double) (track.getFragments().get(position).getTime() - track.getFragments().get(0).getTime()) /
+                        track.getTimescale();
+                break;
+            }
+        }
+        String duration = DurationUtils.formatToISO8601(Duration.ofMillis(Math.round((index.getDuration() - start) * 1000)));
+        StringBuilder mpd = new StringBuilder();
+        mpd.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+                .append("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" profiles=\"urn:mpeg:dash:profile:isoff-live:2011\" ")
+                .append("type=\"static\" mediaPresentationDuration=\"").append(duration).append("\" minBufferTime=\"PT2S\">\n")
+                .append(" <Period id=\"0\" start=\"PT0S\">\n");
+
+        for (MezzanineIndex.Track track : index.getTracks()) {
+            if (track.getFragments().isEmpty() || (!track.isVideo() && !track.isAudio())) {
+                continue;
+            }
+            int first = track.find(offset);
+            List<MezzanineIndex.Fragment> fragments = track.getFragments().subList(first, track.getFragments().size());
+            mpd.append("  <AdaptationSet id=\"").append(track.getID()).append("\" contentType=\"")
+                    .append(track.isVideo() ? "video" : "audio").append("\" segmentAlignment=\"true\">\n")
+                    .append("   <Representation id=\"").append(track.getID()).append("\" mimeType=\"").append(getMimeType(track))
+                    .append("\" codecs=\"").append(track.getCodecs()).append("\" bandwidth=\"").append(track.getBandwidth()).append("\"");
+            if (track.isVideo()) {
+                mpd.append(" width=\"").append(track.getWidth()).append("\" height=\"").append(track.getHeight()).append("\"");
+            } else {
+                mpd.append(" audioSamplingRate=\"").append(track.getSampleRate()).append("\"");
+            }
+            mpd.append(">\n")
+                    .append("    <SegmentTemplate timescale=\"").append(track.getTimescale())
+                    .append("\" presentationTimeOffset=\"").append(fragments.get(0).getTime())
+                    .append("\" initialization=\"init-$RepresentationID$.mp4\" media=\"seg-$RepresentationID$-$Number$.m4s\" startNumber=\"")
+                    .append(first + 1).append("\">\n")
+                    .append("     <SegmentTimeline>\n");
+
+            //runs of fragments of the same duration, with an explicit time after a discontinuity
+            long expected = -1;
+            for (int i = 0; i < fragments.size(); ) {
+                MezzanineIndex.Fragment fragment = fragments.get(i);
+                int repeat = 0;
+                while (i + repeat + 1 < fragments.size() &&
+                        fragments.get(i + repeat + 1).getDuration() == fragment.getDuration() &&
+                        fragments.get(i + repeat + 1).getTime() == fragment.getTime() + (repeat + 1) * fragment.getDuration()) {
+                    repeat++;
+                }
+                mpd.append("      <S");
+                if (fragment.getTime() != expected) {
+                    mpd.append(" t=\"").append(fragment.getTime()).append("\"");
+                }
+                mpd.append(" d=\"").append(fragment.getDuration()).append("\"");
+                if (repeat > 0) {
+                    mpd.append(" r=\"").append(repeat).append("\"");
+                }
+                mpd.append("/>\n");
+                expected = fragment.getTime() + (repeat + 1) * fragment.getDuration();
+                i += repeat + 1;
+            }
+
+            mpd.append("     </SegmentTimeline>\n")
+                    .append("    </SegmentTemplate>\n")
+                    .append("   </Representation>\n")
+                    .append("  </AdaptationSet>\n");
+        }
+
+        mpd.append(" </Period>\n").append("</MPD>\n");
+        return mpd.toString();
+    }
+
+    /**
+     * Generates the HLS master playlist: a variant per video track, with the audio tracks as renditions.
+     * @param index The index of the mezzanine.
+     * @return The playlist.
+     */
+    private static String generateMasterPlaylist(final MezzanineIndex index) {
+        StringBuilder m3u8 = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:7\n#EXT-X-INDEPENDENT-SEGMENTS\n");
+
+        MezzanineIndex.Track audio = null;
+        boolean hasVideo = false;
+        for (MezzanineIndex.Track track : index.getTracks()) {
+            if (track.isAudio() && !track.getFragments().isEmpty()) {
+                m3u8.append("#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"").append(AUDIO_GROUP).append("\",NAME=\"audio_")
+                        .append(track.getID()).append("\",DEFAULT=").append(audio == null ? "YES" : "NO")
+                        .append(",AUTOSELECT=YES,URI=\"media-").append(track.getID()).append(".m3u8\"\n");
+                audio = audio == null ? track : audio;
+            }
+            hasVideo |= track.isVideo() && !track.getFragments().isEmpty();
+        }
+
+        for (MezzanineIndex.Track track : index.getTracks()) {
+            if (track.getFragments().isEmpty() || !(hasVideo ? track.isVideo() : track.isAudio())) {
+                continue;
+            }
+            m3u8.append("#EXT-X-STREAM-INF:BANDWIDTH=");
+            if (track.isVideo()) {
+                m3u8.append(track.getBandwidth() + (audio != null ? audio.getBandwidth() : 0))
+                        .append(",CODECS=\"").append(track.getCodecs()).append(audio != null ? "," + audio.getCodecs() : "")
+                        .append("\",RESOLUTION=").append(track.getWidth()).append("x").append(track.getHeight());
+                if (audio != null) {
+                    m3u8.append(",AUDIO=\"").append(AUDIO_GROUP).append("\"");
+                }
+            } else {
+                m3u8.append(track.getBandwidth()).append(",CODECS=\"").append(track.getCodecs()).append("\"");
+            }
+            m3u8.append("\nmedia-").append(track.getID()).append(".m3u8\n");
+        }
+        return m3u8.toString();
+    }
+
+    /**
+     * Generates the HLS media playlist of a track, with the fragments as fMP4 segments.
+     * @param track The track.
+     * @return The playlist.
+     */
+    private static String generateMediaPlaylist(final MezzanineIndex.Track track) {
+        double timescale = track.getTimescale();
+        long maxDuration = 0;
+        for (MezzanineIndex.Fragment fragment : track.getFragments()) {
+            maxDuration = Math.max(maxDuration, fragment.getDuration());
+        }
+
+        StringBuilder m3u8 = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:7\n")
+                .append("#EXT-X-TARGETDURATION:").append((long) Math.ceil(maxDuration / timescale)).append("\n")
+                .append("#EXT-X-MEDIA-SEQUENCE:1\n#EXT-X-PLAYLIST-TYPE:VOD\n#EXT-X-INDEPENDENT-SEGMENTS\n")
+                .append("#EXT-X-MAP:URI=\"init-").append(track.getID()).append(".mp4\"\n");
+        int number = 1;
+        for (MezzanineIndex.Fragment fragment : track.getFragments()) {
+            m3u8.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", fragment.getDuration() / timescale))
+                    .append("seg-").append(track.getID()).append("-").append(number++).append(".m4s\n");
+        }
+        return m3u8.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    /**
+     * Gets the mime type of the segments of a track.
+     * @param track The track.
+     * @return The mime type.
+     */
+    private static String getMimeType(final MezzanineIndex.Track track) {
+        return track.isAudio() ? "audio/mp4" : "video/mp4";
+    }
+}
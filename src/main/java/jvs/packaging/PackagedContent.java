@@ -0,0 +1,70 @@
+package jvs.packaging;
+
+import java.io.File;
+
+/**
+ * Content generated from a mezzanine: either data built in memory (manifests, playlists and init segments)
+ * or a byte range of the mezzanine (media segments). The segments appended to pack files are byte ranges too.
+ */
+public class PackagedContent {
+
+    private final String contentType;
+    private final byte[] data;
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    private PackagedContent(final String contentType, final byte[] data, final File file, final long offset, final long length) {
+        this.contentType = contentType;
+        this.data = data;
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Creates a content built in memory.
+     * @param contentType The mime type of the content.
+     * @param data The content.
+     * @return The content.
+     */
+    public static PackagedContent of(final String contentType, final byte[] data) {
+        return new PackagedContent(contentType, data, null, 0, data.length);
+    }
+
+    /**
+     * Creates a content served from a byte range of a file.
+     * @param contentType The mime type of the content.
+     * @param file The file.
+     * @param offset The offset of the range.
+     * @param length The length of the range.
+     * @return The content.
+     */
+    public static PackagedContent of(final String contentType, final File file, final long offset, final long length) {
+        return new PackagedContent(contentType, null, file, offset, length);
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Gets the content built in memory.
+     * @return The content; null if the content is a byte range of a file.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,246 @@
+package jvs.packaging;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.utils.DurationUtils;
+import jvs.utils.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves the seeks in the recordings and in the live window of the streams: a time is looked up in the
+ * {@link SegmentIndex} of the segments (or in the {@link MezzanineIndex} of a recording stored as a mezzanine)
+ * to find the segment to start from, and the manifests of completed recordings are rewritten to start with it.
+ */
+public class SeekResolver {
+
+    private SeekResolver(){}
+
+    /**
+     * Parses a seek time.
+     * @param value The time: an ISO-8601 date, an ISO-8601 duration or a number of seconds. Durations are counted
+     *              from the start of the stream, or back from its end when negative.
+     * @param startTime The wall clock time, in milliseconds, of the start of the stream (-1 if unknown).
+     * @param duration The duration of the stream, in seconds.
+     * @return The time, in seconds from the start of the stream, within the stream; null if the value is not valid.
+     */
+    public static Double parseOffset(final String value, final long startTime, final double duration) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+
+        double offset;
+        try {
+            if (value.contains("T") && !value.startsWith("P") && !value.startsWith("-P")) {
+                if (startTime < 0) {
+                    return null;
+                }
+                offset = (OffsetDateTime.parse(value).toInstant().toEpochMilli() - startTime) / 1000d;
+            } else if (value.startsWith("P") || value.startsWith("-P")) {
+                offset = Duration.parse(value).toMillis() / 1000d;
+                offset = value.startsWith("-") ? duration + offset : offset;
+            } else {
+                offset = Double.parseDouble(value);
+                offset = offset < 0 || value.startsWith("-") ? duration + offset : offset;
+            }
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return null;
+        }
+        return Double.isNaN(offset) || Double.isInfinite(offset) ? null : Math.max(0, Math.min(duration, offset));
+    }
+
+    /**
+     * Finds the segment of every representation to start from to play a time.
+     * @param index The index of the segments of the stream.
+     * @param offset The time, in seconds from the start of the stream.
+     * @param baseUrl The url of the directory of the stream, the segments are relative to it.
+     * @return The seek point: the start of the segments and, for every representation, the number of its segment,
+     *         its url and its byte range. Null if no segment is indexed.
+     */
+    public static JsonObject seek(final SegmentIndex index, final double offset, final String baseUrl) {
+        JsonArray representations = new JsonArray();
+        Double time = null;
+        for (SegmentIndex.Representation representation : index.getRepresentations()) {
+            int position = representation.find(offset);
+            if (position < 0) {
+                continue;
+            }
+            time = time != null ? time : representation.getOffset(position);
+            String segment = baseUrl + representation.getSegmentName(representation.getNumber(position));
+            representations.add(new JsonObject()
+                    .put(Constants.ID_KEY, representation.getID())
+                    .put(Constants.NUMBER_KEY, representation.getNumber(position))
+                    .put(Constants.TIME_KEY, round(representation.getOffset(position)))
+                    .put(Constants.SEGMENT_KEY, segment)
+                    .put(Constants.FILE_KEY, segment)
+                    .put(Constants.OFFSET_KEY, 0)
+                    .put(Constants.SIZE_KEY, representation.getSize(position)));
+        }
+        return time != null ? new JsonObject().put(Constants.TIME_KEY, round(time))
+                .put(Constants.REPRESENTATIONS_KEY, representations) : null;
+    }
+
+    /**
+     * Finds the fragment of every track of a mezzanine to start from to play a time.
+     * @param index The index of the mezzanine.
+     * @param offset The time, in seconds from the start of the mezzanine.
+     * @param baseUrl The url of the directory of the stream.
+     * @return The seek point, like for the segments, the byte ranges are the fragments in the mezzanine.
+     *         Null if the mezzanine has no fragment.
+     */
+    public static JsonObject seek(final MezzanineIndex index, final double offset, final String baseUrl) {
+        JsonArray representations = new JsonArray();
+        Double time = null;
+        for (MezzanineIndex.Track track : index.getTracks()) {
+            int position = track.find(offset);
+            if (position < 0 || (!track.isVideo() && !track.isAudio())) {
+                continue;
+            }
+            MezzanineIndex.Fragment fragment = track.getFragments().get(position);
+            double start = (double) (fragment.getTime() - track.getFragments().get(0).getTime()) / track.getTimescale();
+            time = time != null ? time : start;
+            representations.add(new JsonObject()
+                    .put(Constants.ID_KEY, String.valueOf(track.getID()))
+                    .put(Constants.NUMBER_KEY, position + 1)
+                    .put(Constants.TIME_KEY, round(start))
+                    .put(Constants.SEGMENT_KEY, baseUrl + "seg-" + track.getID() + "-" + (position + 1) + ".m4s")
+                    .put(Constants.FILE_KEY, baseUrl + Constants.MEZZANINE_FILE)
+                    .put(Constants.OFFSET_KEY, fragment.getOffset())
+                    .put(Constants.SIZE_KEY, fragment.getSize()));
+        }
+        return time != null ? new JsonObject().put(Constants.TIME_KEY, round(time))
+                .put(Constants.REPRESENTATIONS_KEY, representations) : null;
+    }
+
+    /**
+     * Rewrites the static MPEG-DASH (or WebM-DASH) manifest of a completed recording so that it starts with the
+     * segments that contain a time: the segment templates start with their number and the presentation time offset
+     * is their time. Dynamic manifests are not rewritten, the players seek in their live window.
+     * @param manifest The manifest.
+     * @param index The index of the segments of the stream.
+     * @param offset The time, in seconds from the start of the stream.
+     * @return The rewritten manifest; null if the manifest is dynamic or cannot be rewritten.
+     */
+    public static PackagedContent trimManifest(final File manifest, final SegmentIndex index, final double offset) {
+        try {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(manifest);
+            Element root = doc.getDocumentElement();
+            if (!"static".equals(root.getAttribute("type"))) {
+                return null;
+            }
+
+            Double start = null;
+            List<Element> trimmed = new ArrayList<>();
+            NodeList nodes = doc.getElementsByTagName("Representation");
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Element representation = (Element) nodes.item(i);
+                SegmentIndex.Representation segments = index.getRepresentation(representation.getAttribute("id"));
+                int position = segments != null ? segments.find(offset) : -1;
+                //the template of an adaptation set is shared by its representations
+                Element template = getChild(representation, "SegmentTemplate");
+                template = template != null ? template : getChild((Element) representation.getParentNode(), "SegmentTemplate");
+                if (position < 0 || template == null || trimmed.contains(template)) {
+                    continue;
+                }
+
+                long timescale = template.hasAttribute("timescale") ? Long.parseLong(template.getAttribute("timescale")) : 1;
+                long time = Math.round((double) segments.getTime(position) * timescale / segments.getTimescale());
+                trimTemplate(template, segments.getNumber(position), time);
+                trimmed.add(template);
+                start = start != null ? start : segments.getOffset(position);
+            }
+            if (start == null) {
+                return null;
+            }
+
+            root.setAttribute("mediaPresentationDuration",
+                    DurationUtils.formatToISO8601(Duration.ofMillis(Math.round(Math.max(0, index.getDuration() - start) * 1000))));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(out));
+            return PackagedContent.of(MezzaninePackager.DASH_MIME_TYPE, out.toByteArray());
+        } catch (Exception e) {
+            Logger.warn("Unable to rewrite the manifest " + manifest.getPath() + " for a seek. " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Makes a segment template start with a segment.
+     * @param template The segment template.
+     * @param number The number of the segment.
+     * @param time The time of the segment, in the timescale of the template.
+     */
+    private static void trimTemplate(final Element template, final int number, final long time) {
+        template.setAttribute("presentationTimeOffset", Long.toString(time));
+        Element timeline = getChild(template, "SegmentTimeline");
+        if (timeline == null) {
+            template.setAttribute("startNumber", Integer.toString(number));
+            return;
+        }
+
+        //the entries before the time are removed, the first kept one gets an explicit time
+        long startNumber = template.hasAttribute("startNumber") ? Long.parseLong(template.getAttribute("startNumber")) : 1;
+        long current = 0;
+        Element entry = getChild(timeline, "S");
+        while (entry != null) {
+            Element next = getNextSibling(entry, "S");
+            current = entry.hasAttribute("t") ? Long.parseLong(entry.getAttribute("t")) : current;
+            long duration = Long.parseLong(entry.getAttribute("d"));
+            long repeat = entry.hasAttribute("r") ? Math.max(0, Long.parseLong(entry.getAttribute("r"))) : 0;
+
+            if (current + duration * (repeat + 1) <= time) {
+                timeline.removeChild(entry);
+                startNumber += repeat + 1;
+                current += duration * (repeat + 1);
+            } else {
+                long skipped = duration > 0 ? Math.max(0, (time - current) / duration) : 0;
+                entry.setAttribute("t", Long.toString(current + skipped * duration));
+                if (repeat - skipped > 0) {
+                    entry.setAttribute("r", Long.toString(repeat - skipped));
+                } else {
+                    entry.removeAttribute("r");
+                }
+                startNumber += skipped;
+                break;
+            }
+            entry = next;
+        }
+        template.setAttribute("startNumber", Long.toString(startNumber));
+    }
+
+    private static Element getChild(final Element parent, final String name) {
+        Node node = parent.getFirstChild();
+        while (node != null && !(node instanceof Element && name.equals(node.getNodeName()))) {
+            node = node.getNextSibling();
+        }
+        return (Element) node;
+    }
+
+    private static Element getNextSibling(final Element element, final String name) {
+        Node node = element.getNextSibling();
+        while (node != null && !(node instanceof Element && name.equals(node.getNodeName()))) {
+            node = node.getNextSibling();
+        }
+        return (Element) node;
+    }
+
+    private static double round(final double seconds) {
+        return Math.round(seconds * 1000) / 1000d;
+    }
+}
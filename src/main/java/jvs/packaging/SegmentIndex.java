@@ -0,0 +1,512 @@
+package jvs.packaging;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.utils.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the segments of the representations of a stream: the number, time, duration, first keyframe and size of
+ * every segment, in growable primitive arrays. It gives the actual duration and the measured bitrate of an encode,
+ * and the segment to start from to play a given time.
+ *
+ * The index is persisted in an append-only sidecar next to the segments: a header, then a record per representation
+ * and a record per segment, so that only the segments indexed since the last save are written.
+ */
+public class SegmentIndex {
+
+    /**
+     * Format of the sidecar
+     */
+    private static final int SIDECAR_MAGIC = 0x4A565358;
+    private static final byte SIDECAR_VERSION = 1;
+    private static final byte REPRESENTATION_RECORD = 'R';
+    private static final byte SEGMENT_RECORD = 'S';
+
+    private final Map<String, Representation> representations = new LinkedHashMap<>();
+
+    /**
+     * Wall clock time, in milliseconds, of the start of the first segments (-1 if unknown)
+     */
+    private long startTime = -1;
+
+    /**
+     * Whether the sidecar holds the header and the records of the index, new records are appended to it
+     */
+    private boolean persisted = false;
+
+    /**
+     * Gets a representation, adding it if needed.
+     * @param id The id of the representation.
+     * @param timescale The timescale of its segments.
+     * @param segmentName The format of the paths of its segments, relative to the stream directory, from their number.
+     * @return The representation.
+     */
+    public synchronized Representation getRepresentation(final String id, final long timescale, final String segmentName) {
+        return representations.computeIfAbsent(id, k -> new Representation(id, timescale, segmentName));
+    }
+
+    /**
+     * Gets a representation.
+     * @param id The id of the representation.
+     * @return The representation; null if it is not indexed.
+     */
+    public synchronized Representation getRepresentation(final String id) {
+        return representations.get(id);
+    }
+
+    /**
+     * Gets the segments that cover a time range, e.g. to extract a clip: every representation starts with the segment
+     * to start from to play the start of the range (see {@link Representation#find(double)}) and ends with the
+     * segment that contains its end. The segments keep their numbers, their paths lose their directory.
+     * @param from The start of the range, in seconds from the start of the stream.
+     * @param to The end of the range, in seconds from the start of the stream.
+     * @return The index of the segments, starting at the wall clock time of its first segment if it is known.
+     */
+    public synchronized SegmentIndex slice(final double from, final double to) {
+        SegmentIndex slice = new SegmentIndex();
+        double start = Double.MAX_VALUE;
+        for (Representation representation : representations.values()) {
+            Representation target = new Representation(representation.id, representation.timescale,
+                    new File(representation.segmentName).getName());
+            int first = representation.copy(target, from, to);
+            if (first >= 0) {
+                slice.representations.put(target.id, target);
+                start = Math.min(start, representation.getOffset(first));
+            }
+        }
+        slice.startTime = startTime >= 0 && !slice.representations.isEmpty() ? startTime + Math.round(start * 1000) : -1;
+        return slice;
+    }
+
+    /**
+     * Gets the representations, in the order they were added.
+     * @return The representations.
+     */
+    public synchronized List<Representation> getRepresentations() {
+        return new ArrayList<>(representations.values());
+    }
+
+    /**
+     * Gets the wall clock time of the start of the first segments.
+     * @return The time in milliseconds; -1 if unknown.
+     */
+    public synchronized long getStartTime() {
+        return startTime;
+    }
+
+    public synchronized void setStartTime(final long startTime) {
+        this.startTime = startTime;
+    }
+
+    /**
+     * Gets the duration of the stream: the duration of its longest representation.
+     * @return The duration in seconds.
+     */
+    public synchronized double getDuration() {
+        double duration = 0;
+        for (Representation representation : representations.values()) {
+            duration = Math.max(duration, representation.getDuration());
+        }
+        return duration;
+    }
+
+    /**
+     * Gets the measured bitrate of the stream, the sum of the bitrates of its representations.
+     * @return The bitrate in bits per second.
+     */
+    public synchronized long getBitrate() {
+        long bitrate = 0;
+        for (Representation representation : representations.values()) {
+            bitrate += representation.getBitrate();
+        }
+        return bitrate;
+    }
+
+    /**
+     * Gets the measured bitrates of the representations that have segments.
+     * @return The bitrates in bits per second, indexed by representation id.
+     */
+    public synchronized Map<String, Long> getBandwidths() {
+        Map<String, Long> bandwidths = new LinkedHashMap<>();
+        for (Representation representation : representations.values()) {
+            if (representation.getCount() > 0) {
+                bandwidths.put(representation.getID(), representation.getBitrate());
+            }
+        }
+        return bandwidths;
+    }
+
+    /**
+     * Gets the size of the indexed segments of all representations, updated as the segments are indexed.
+     * @return The size in bytes.
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (Representation representation : representations.values()) {
+            size += representation.getTotalSize();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of segments of the stream: the count of its representation with the most segments.
+     * @return The number of segments.
+     */
+    public synchronized int getCount() {
+        int count = 0;
+        for (Representation representation : representations.values()) {
+            count = Math.max(count, representation.getCount());
+        }
+        return count;
+    }
+
+    public synchronized JsonObject toJSON() {
+        return new JsonObject()
+                .put(Constants.COUNT_KEY, getCount())
+                .put(Constants.DURATION_KEY, Math.round(getDuration() * 1000) / 1000d)
+                .put(Constants.BITRATE_KEY, getBitrate());
+    }
+
+    /**
+     * Determines whether the index has records that are not in its sidecar.
+     * @return True, if the index must be saved; otherwise false.
+     */
+    public synchronized boolean isDirty() {
+        if (!persisted) {
+            return true;
+        }
+        for (Representation representation : representations.values()) {
+            if (!representation.persisted || representation.persistedCount < representation.getCount()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Saves the index: the records added since the last save are appended to the sidecar, the whole index is written
+     * if the sidecar does not hold it.
+     * @param sidecar The sidecar.
+     * @return True, if the index has been saved; otherwise false.
+     */
+    public synchronized boolean save(final File sidecar) {
+        boolean append = persisted && sidecar.isFile();
+        if (!append) {
+            for (Representation representation : representations.values()) {
+                representation.persisted = false;
+                representation.persistedCount = 0;
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar, append)))) {
+            if (!append) {
+                out.writeInt(SIDECAR_MAGIC);
+                out.writeByte(SIDECAR_VERSION);
+                out.writeLong(startTime);
+            }
+            int ordinal = 0;
+            for (Representation representation : representations.values()) {
+                representation.write(out, ordinal++);
+            }
+            persisted = true;
+            return true;
+        } catch (IOException e) {
+            //the next save writes the whole index again
+            persisted = false;
+            Logger.warn("Unable to save the segment index " + sidecar.getPath() + ". " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads an index from its sidecar. The records of a truncated sidecar (e.g. after a crash) are kept,
+     * the sidecar is written again on the next save.
+     * @param sidecar The sidecar.
+     * @return The index; null if there is no valid sidecar.
+     */
+    public static SegmentIndex read(final File sidecar) {
+        if (!sidecar.isFile()) {
+            return null;
+        }
+
+        SegmentIndex index = new SegmentIndex();
+        List<Representation> ordinals = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+            if (in.readInt() != SIDECAR_MAGIC || in.readByte() != SIDECAR_VERSION) {
+                Logger.warn("Unable to read the segment index " + sidecar.getPath() + ", its format is not supported.");
+                return null;
+            }
+            index.startTime = in.readLong();
+            index.persisted = true;
+
+            int type;
+            while ((type = in.read()) >= 0) {
+                if (type == REPRESENTATION_RECORD) {
+                    String id = in.readUTF();
+                    long timescale = in.readLong();
+                    Representation representation = index.getRepresentation(id, timescale, in.readUTF());
+                    representation.persisted = true;
+                    ordinals.add(representation);
+                } else if (type == SEGMENT_RECORD) {
+                    Representation representation = ordinals.get(in.readUnsignedShort());
+                    representation.add(in.readInt(), in.readLong(), in.readInt(), in.readInt(), in.readInt());
+                    representation.persistedCount = representation.count;
+                } else {
+                    throw new IOException("unknown record type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            index.persisted = false;
+        } catch (IOException | RuntimeException e) {
+            Logger.warn("Unable to read the whole segment index " + sidecar.getPath() + ". " + e.getLocalizedMessage());
+            index.persisted = false;
+        }
+        return index;
+    }
+
+    /**
+     * Segments of a representation, in the order they are written.
+     */
+    public static class Representation {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final String id;
+        private final long timescale;
+        private final String segmentName;
+        private int count = 0;
+        private int[] numbers = new int[INITIAL_CAPACITY];
+        private long[] times = new long[INITIAL_CAPACITY];
+        private int[] durations = new int[INITIAL_CAPACITY];
+        private int[] keyframeOffsets = new int[INITIAL_CAPACITY];
+        private int[] sizes = new int[INITIAL_CAPACITY];
+        private long totalSize = 0;
+
+        /**
+         * State of the sidecar: whether it holds the representation record, and the number of its segment records
+         */
+        private boolean persisted = false;
+        private int persistedCount = 0;
+
+        private Representation(final String id, final long timescale, final String segmentName) {
+            this.id = id;
+            this.timescale = timescale;
+            this.segmentName = segmentName;
+        }
+
+        public String getID() {
+            return id;
+        }
+
+        public long getTimescale() {
+            return timescale;
+        }
+
+        /**
+         * Gets the path of a segment.
+         * @param number The number of the segment.
+         * @return The path, relative to the stream directory.
+         */
+        public String getSegmentName(final int number) {
+            return String.format(segmentName, number);
+        }
+
+        /**
+         * Adds a segment.
+         * @param number The number of the segment.
+         * @param timing The timing of the segment.
+         */
+        public void add(final int number, final SegmentScanner.Timing timing) {
+            add(number, timing.getTime(), (int) Math.min(timing.getDuration(), Integer.MAX_VALUE),
+                    (int) Math.min(timing.getKeyframeOffset(), Integer.MAX_VALUE), (int) Math.min(timing.getSize(), Integer.MAX_VALUE));
+        }
+
+        synchronized void add(final int number, final long time, final int duration, final int keyframeOffset,
+                              final int size) {
+            if (count == numbers.length) {
+                int capacity = count * 2;
+                numbers = Arrays.copyOf(numbers, capacity);
+                times = Arrays.copyOf(times, capacity);
+                durations = Arrays.copyOf(durations, capacity);
+                keyframeOffsets = Arrays.copyOf(keyframeOffsets, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+            }
+            numbers[count] = number;
+            times[count] = time;
+            durations[count] = duration;
+            keyframeOffsets[count] = keyframeOffset;
+            sizes[count] = size;
+            totalSize += size;
+            count++;
+        }
+
+        public synchronized int getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the number of the last indexed segment.
+         * @return The number; 0 if no segment is indexed.
+         */
+        public synchronized int getLastNumber() {
+            return count > 0 ? numbers[count - 1] : 0;
+        }
+
+        /**
+         * Gets the duration covered by the segments, from the start of the first to the end of the last.
+         * @return The duration in seconds.
+         */
+        public synchronized double getDuration() {
+            if (count == 0 || timescale <= 0) {
+                return 0;
+            }
+            return (times[count - 1] + durations[count - 1] - times[0]) / (double) timescale;
+        }
+
+        /**
+         * Gets the measured bitrate of the segments.
+         * @return The bitrate in bits per second; 0 if no segment is indexed.
+         */
+        public synchronized long getBitrate() {
+            double duration = getDuration();
+            return duration > 0 ? Math.round(totalSize * 8 / duration) : 0;
+        }
+
+        /**
+         * Finds the segment to start from to play a time: the last segment with a keyframe that starts at or before it.
+         * @param offset The time, in seconds from the start of the first segment.
+         * @return The position of the segment in the index; -1 if no segment is indexed.
+         */
+        public synchronized int find(final double offset) {
+            if (count == 0) {
+                return -1;
+            }
+
+            long time = times[0] + Math.round(offset * timescale);
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (times[middle] <= time) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            while (low > 0 && keyframeOffsets[low] < 0) {
+                low--;
+            }
+            return low;
+        }
+
+        /**
+         * Gets the number of a segment.
+         * @param position The position of the segment in the index.
+         * @return The number.
+         */
+        public synchronized int getNumber(final int position) {
+            return numbers[position];
+        }
+
+        /**
+         * Gets the time of a segment.
+         * @param position The position of the segment in the index.
+         * @return The time, in the timescale of the representation.
+         */
+        public synchronized long getTime(final int position) {
+            return times[position];
+        }
+
+        /**
+         * Gets the start of a segment.
+         * @param position The position of the segment in the index.
+         * @return The start, in seconds from the start of the first segment.
+         */
+        public synchronized double getOffset(final int position) {
+            return timescale > 0 ? (times[position] - times[0]) / (double) timescale : 0;
+        }
+
+        /**
+         * Gets the duration of a segment.
+         * @param position The position of the segment in the index.
+         * @return The duration, in the timescale of the representation.
+         */
+        public synchronized long getDuration(final int position) {
+            return durations[position];
+        }
+
+        /**
+         * Gets the size of the indexed segments.
+         * @return The size in bytes.
+         */
+        public synchronized long getTotalSize() {
+            return totalSize;
+        }
+
+        /**
+         * Gets the size of a segment.
+         * @param position The position of the segment in the index.
+         * @return The size in bytes.
+         */
+        public synchronized int getSize(final int position) {
+            return sizes[position];
+        }
+
+        /**
+         * Copies the segments that cover a time range.
+         * @param target The representation the segments are added to.
+         * @param from The start of the range, in seconds from the start of the first segment.
+         * @param to The end of the range, in seconds from the start of the first segment.
+         * @return The position of the first copied segment; -1 if no segment is indexed.
+         */
+        private synchronized int copy(final Representation target, final double from, final double to) {
+            int first = find(from);
+            if (first < 0) {
+                return -1;
+            }
+
+            long end = times[0] + Math.round(to * timescale);
+            for (int i = first; i < count && (i == first || times[i] < end); i++) {
+                target.add(numbers[i], times[i], durations[i], keyframeOffsets[i], sizes[i]);
+            }
+            return first;
+        }
+
+        /**
+         * Writes the records that are not in the sidecar.
+         */
+        private synchronized void write(final DataOutputStream out, final int ordinal) throws IOException {
+            if (!persisted) {
+                out.writeByte(REPRESENTATION_RECORD);
+                out.writeUTF(id);
+                out.writeLong(timescale);
+                out.writeUTF(segmentName);
+                persisted = true;
+            }
+            for (; persistedCount < count; persistedCount++) {
+                out.writeByte(SEGMENT_RECORD);
+                out.writeShort(ordinal);
+                out.writeInt(numbers[persistedCount]);
+                out.writeLong(times[persistedCount]);
+                out.writeInt(durations[persistedCount]);
+                out.writeInt(keyframeOffsets[persistedCount]);
+                out.writeInt(sizes[persistedCount]);
+            }
+        }
+    }
+}
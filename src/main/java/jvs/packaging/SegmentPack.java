@@ -0,0 +1,272 @@
+package jvs.packaging;
+
+import jvs.utils.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pack files of the media segments of a directory, so that long recordings do not leave a file per segment:
+ * the closed segments are appended to the pack of their period (e.g. an hour) and deleted, and every pack has an
+ * append-only index with the offset and the length of its segments. The segments are served as byte ranges of
+ * the packs, and a recording is deleted with a few packs instead of thousands of segments.
+ *
+ * The packs are written in the packs subdirectory of the segments directory, their indexes are loaded in
+ * memory when the directory is first opened and cached until it is deleted.
+ */
+public class SegmentPack {
+
+    /**
+     * Header of the indexes of the packs
+     */
+    private static final int INDEX_MAGIC = 0x4A565350;
+    private static final byte INDEX_VERSION = 1;
+
+    /**
+     * Subdirectory of the packs, and names of the packs and of their indexes (formatted with their period)
+     */
+    private static final String PACK_DIR = "packs";
+    private static final String PACK_NAME = "pack-%d.pack";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final Map<String, SegmentPack> cache = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+
+    private SegmentPack(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the packs of a directory: the cached ones, otherwise their indexes are loaded.
+     * @param directory The directory of the segments.
+     * @return The packs, empty if no segment of the directory has been packed.
+     */
+    public static SegmentPack open(final File directory) {
+        return cache.computeIfAbsent(directory.getAbsolutePath(), key -> {
+            SegmentPack pack = new SegmentPack(directory);
+            pack.load();
+            return pack;
+        });
+    }
+
+    /**
+     * Deletes the packs of a directory, with their indexes, and removes them from the cache.
+     * @param directory The directory of the segments.
+     */
+    public static void delete(final File directory) {
+        SegmentPack pack = cache.remove(directory.getAbsolutePath());
+        if (pack != null) {
+            pack.locations.clear();
+        }
+
+        File packs = new File(directory, PACK_DIR);
+        File[] files = packs.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Logger.warn("Unable to delete the segment pack " + file.getPath() + ".");
+                }
+            }
+        }
+        packs.delete();
+    }
+
+    /**
+     * Removes the packs of a directory and of its subdirectories from the cache, before the directory is deleted.
+     * @param directory The directory.
+     */
+    public static void close(final File directory) {
+        String path = directory.getAbsolutePath();
+        cache.keySet().removeIf(key -> key.equals(path) || key.startsWith(path + File.separator));
+    }
+
+    /**
+     * Appends a closed segment to the pack of a period, then deletes it.
+     * @param segment The segment, in the directory of the packs.
+     * @param period The period of the pack (e.g. the number of hours since the epoch).
+     * @return True, if the segment has been packed; otherwise false, the segment is left in place.
+     */
+    public synchronized boolean append(final File segment, final long period) {
+        File packs = new File(directory, PACK_DIR);
+        File pack = new File(packs, String.format(PACK_NAME, period));
+        File index = new File(pack.getPath() + INDEX_SUFFIX);
+        if (!packs.isDirectory() && !packs.mkdirs()) {
+            Logger.warn("Unable to create the segment packs folder " + packs.getPath() + ".");
+            return false;
+        }
+
+        long offset;
+        long length;
+        try (FileChannel in = FileChannel.open(segment.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(pack.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            offset = out.size();
+            length = in.size();
+            out.position(offset);
+            for (long written = 0; written < length; ) {
+                written += in.transferTo(written, length - written, out);
+            }
+
+            boolean created = !index.exists();
+            try (DataOutputStream record = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index, true)))) {
+                if (created) {
+                    record.writeInt(INDEX_MAGIC);
+                    record.writeByte(INDEX_VERSION);
+                }
+                record.writeUTF(segment.getName());
+                record.writeLong(offset);
+                record.writeLong(length);
+            }
+        } catch (IOException e) {
+            Logger.warn("Unable to pack the segment " + segment.getPath() + ". " + e.getLocalizedMessage());
+            return false;
+        }
+
+        //the segment is served from the pack before it is deleted
+        locations.put(segment.getName(), new Location(pack, offset, length));
+        if (!segment.delete()) {
+            Logger.warn("Unable to delete the packed segment " + segment.getPath() + ".");
+        }
+        return true;
+    }
+
+    /**
+     * Finds a packed segment.
+     * @param name The name of the segment.
+     * @return The location of the segment; null if it is not packed.
+     */
+    public Location find(final String name) {
+        return locations.get(name);
+    }
+
+    /**
+     * Gets the names of the packed segments.
+     * @return The names, in no particular order.
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(locations.keySet());
+    }
+
+    /**
+     * Resolves a request of a packed segment.
+     * @param name The name of the segment.
+     * @return The byte range of its pack; null if the segment is not packed.
+     */
+    public PackagedContent resolve(final String name) {
+        Location location = find(name);
+        return location != null ? PackagedContent.of(getMimeType(name), location.getFile(), location.getOffset(),
+                location.getLength()) : null;
+    }
+
+    /**
+     * Copies a packed segment.
+     * @param name The name of the segment.
+     * @param out The stream the segment is copied to.
+     * @return The number of bytes copied.
+     * @throws IOException If the segment is not packed or it cannot be read.
+     */
+    public long copy(final String name, final OutputStream out) throws IOException {
+        Location location = find(name);
+        if (location == null) {
+            throw new IOException("the segment " + name + " is not packed in " + directory.getPath());
+        }
+
+        try (FileChannel in = FileChannel.open(location.getFile().toPath(), StandardOpenOption.READ)) {
+            long copied = 0;
+            while (copied < location.getLength()) {
+                copied += in.transferTo(location.getOffset() + copied, location.getLength() - copied, Channels.newChannel(out));
+            }
+            return copied;
+        }
+    }
+
+    /**
+     * Loads the indexes of the packs, the records of segments missing from their pack (the server stopped while
+     * the segment was appended) are ignored.
+     */
+    private void load() {
+        File[] indexes = new File(directory, PACK_DIR).listFiles((dir, name) -> name.endsWith(INDEX_SUFFIX));
+        if (indexes == null) {
+            return;
+        }
+
+        Arrays.sort(indexes);
+        for (File index : indexes) {
+            File pack = new File(index.getPath().substring(0, index.getPath().length() - INDEX_SUFFIX.length()));
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+                if (in.readInt() != INDEX_MAGIC || in.readByte() != INDEX_VERSION) {
+                    Logger.warn("Ignoring the segment pack index " + index.getPath() + ", unknown format.");
+                    continue;
+                }
+                while (true) {
+                    String name = in.readUTF();
+                    long offset = in.readLong();
+                    long length = in.readLong();
+                    if (offset + length <= pack.length()) {
+                        locations.put(name, new Location(pack, offset, length));
+                    }
+                }
+            } catch (EOFException e) {
+                //end of the index, or a record truncated by a stop of the server
+            } catch (IOException e) {
+                Logger.warn("Unable to read the segment pack index " + index.getPath() + ". " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the mime type of a segment.
+     * @param name The name of the segment.
+     * @return The mime type.
+     */
+    private static String getMimeType(final String name) {
+        if (name.endsWith(".chk")) {
+            return "video/webm";
+        }
+        return name.endsWith(".m4s") ? "video/iso.segment" : "application/octet-stream";
+    }
+
+    /**
+     * Byte range of a segment in its pack.
+     */
+    public static final class Location {
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        private Location(final File file, final long offset, final long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+}
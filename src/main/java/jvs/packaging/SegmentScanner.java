@@ -0,0 +1,418 @@
+package jvs.packaging;
+
+import jvs.utils.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the timing of the segments written by ffmpeg without probing them: the fragments of the fMP4 segments of
+ * the MPEG-DASH encodes and the clusters of the chunks of the WebM-DASH encodes. Only the headers of the segments
+ * are read, the media data are skipped.
+ */
+public class SegmentScanner {
+
+    /**
+     * Ids of the EBML elements of the WebM files
+     */
+    private static final int EBML_SEGMENT = 0x18538067;
+    private static final int EBML_INFO = 0x1549A966;
+    private static final int EBML_TIMECODE_SCALE = 0x2AD7B1;
+    private static final int EBML_CLUSTER = 0x1F43B675;
+    private static final int EBML_CLUSTER_TIMECODE = 0xE7;
+    private static final int EBML_SIMPLE_BLOCK = 0xA3;
+    private static final int EBML_BLOCK_GROUP = 0xA0;
+    private static final int EBML_BLOCK = 0xA1;
+    private static final int EBML_BLOCK_DURATION = 0x9B;
+    private static final int EBML_REFERENCE_BLOCK = 0xFB;
+
+    /**
+     * Keyframe flag of the simple blocks
+     */
+    private static final int SIMPLE_BLOCK_KEYFRAME = 0x80;
+
+    /**
+     * Default duration of the timecode unit of the WebM files, in nanoseconds
+     */
+    private static final long DEFAULT_TIMECODE_SCALE = 1000000;
+
+    /**
+     * Maximum size of the headers read in memory (init segments, WebM headers and moof boxes)
+     */
+    private static final int MAX_HEADER_SIZE = 4 * 1024 * 1024;
+
+    private SegmentScanner(){}
+
+    /**
+     * Reads the header of the segments of a representation: an fMP4 init segment or a WebM header (.hdr).
+     * @param header The header file.
+     * @return The timing information of the representation; null if the header cannot be read.
+     */
+    public static Track readHeader(final File header) {
+        try {
+            return header.getName().endsWith(".hdr") ? readWebmHeader(header) : readMp4Header(header);
+        } catch (IOException | RuntimeException e) {
+            Logger.warn("Unable to read the segment header " + header + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the timing of a segment.
+     * @param track The timing information of the representation of the segment.
+     * @param segment The segment file, an fMP4 segment or a WebM chunk (.chk).
+     * @return The timing of the segment; null if the segment cannot be read or has no sample.
+     */
+    public static Timing readSegment(final Track track, final File segment) {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            Timing timing = track.webm ? readWebmSegment(file) : readMp4Segment(track, file);
+            if (timing != null) {
+                timing.size = file.length();
+            }
+            return timing;
+        } catch (IOException | RuntimeException e) {
+            Logger.warn("Unable to read the segment " + segment + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the timescale and the sample defaults of the first track of an init segment.
+     */
+    private static Track readMp4Header(final File header) throws IOException {
+        ByteBuffer buffer = readFully(header, 0, (int) Math.min(header.length(), MAX_HEADER_SIZE));
+
+        for (Box moov : Box.parse(buffer, 0, buffer.limit())) {
+            if (!moov.type.equals("moov")) {
+                continue;
+            }
+            Box trak = Box.find(buffer, moov, "trak");
+            Box tkhd = trak != null ? Box.find(buffer, trak, "tkhd") : null;
+            Box mdhd = trak != null ? Box.find(buffer, trak, "mdia", "mdhd") : null;
+            if (tkhd == null || mdhd == null) {
+                break;
+            }
+
+            int trackID = Box.readTrackID(buffer, tkhd);
+            long defaultDuration = 0;
+            int defaultFlags = 0;
+            Box mvex = Box.find(buffer, moov, "mvex");
+            if (mvex != null) {
+                for (Box trex : Box.parse(buffer, mvex.getContentStart(), mvex.getEnd())) {
+                    if (trex.type.equals("trex") && buffer.getInt(trex.getContentStart() + 4) == trackID) {
+                        defaultDuration = buffer.getInt(trex.getContentStart() + 12) & 0xFFFFFFFFL;
+                        defaultFlags = buffer.getInt(trex.getContentStart() + 20);
+                    }
+                }
+            }
+            return new Track(false, Box.readTimescale(buffer, mdhd), defaultDuration, defaultFlags);
+        }
+        throw new IOException("no track in the init segment");
+    }
+
+    /**
+     * Reads the moof boxes of an fMP4 segment, the mdat boxes are skipped.
+     */
+    private static Timing readMp4Segment(final Track track, final RandomAccessFile file) throws IOException {
+        Timing timing = null;
+        long position = 0;
+        long length = file.length();
+        byte[] header = new byte[16];
+
+        while (position + 8 <= length) {
+            file.seek(position);
+            file.readFully(header, 0, 8);
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            long size = headerBuffer.getInt(0) & 0xFFFFFFFFL;
+            if (size == 1) {
+                file.readFully(header, 8, 8);
+                size = headerBuffer.getLong(8);
+            } else if (size == 0) {
+                size = length - position;
+            }
+            if (size < 8 || position + size > length) {
+                break;
+            }
+
+            if (Box.readType(headerBuffer, 4).equals("moof") && size <= MAX_HEADER_SIZE) {
+                ByteBuffer moof = readFully(file, position, (int) size);
+                for (Box box : Box.parse(moof, 0, moof.limit())) {
+                    for (Box traf : Box.parse(moof, box.getContentStart(), box.getEnd())) {
+                        if (!traf.type.equals("traf")) {
+                            continue;
+                        }
+                        Box.TrackFragment fragment = Box.parseTrackFragment(moof, traf, track.defaultDuration, track.defaultFlags);
+                        if (fragment == null || fragment.duration == 0) {
+                            continue;
+                        }
+                        if (timing == null) {
+                            timing = new Timing();
+                            timing.time = fragment.time;
+                        }
+                        if (timing.keyframeOffset < 0 && fragment.keyframeOffset >= 0) {
+                            timing.keyframeOffset = fragment.time - timing.time + fragment.keyframeOffset;
+                        }
+                        timing.duration = Math.max(timing.duration, fragment.time + fragment.duration - timing.time);
+                    }
+                }
+            }
+            position += size;
+        }
+        return timing;
+    }
+
+    /**
+     * Reads the timecode scale of the segment info of a WebM header.
+     */
+    private static Track readWebmHeader(final File header) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(header, "r")) {
+            long scale = DEFAULT_TIMECODE_SCALE;
+            long position = 0;
+            long end = file.length();
+
+            while (position < end) {
+                file.seek(position);
+                int id = readElementID(file);
+                long size = readElementSize(file);
+                long content = file.getFilePointer();
+                long next = size < 0 ? end : Math.min(end, content + size);
+
+                if (id == EBML_SEGMENT || id == EBML_INFO) {
+                    //containers, their children are read next
+                    next = content;
+                    end = size < 0 ? end : Math.min(end, content + size);
+                } else if (id == EBML_TIMECODE_SCALE) {
+                    scale = readUnsigned(file, (int) size);
+                    break;
+                } else if (id == EBML_CLUSTER) {
+                    break;
+                }
+                position = next;
+            }
+            if (scale <= 0) {
+                throw new IOException("invalid timecode scale");
+            }
+            return new Track(true, Math.round(1e9 / scale), 0, 0);
+        }
+    }
+
+    /**
+     * Reads the clusters of a WebM chunk: the time of the first block and the duration up to the end of the last block.
+     * The duration of the last block is its block duration when it has one, else the gap between the last two blocks.
+     */
+    private static Timing readWebmSegment(final RandomAccessFile file) throws IOException {
+        long first = -1;
+        long last = -1;
+        long previous = -1;
+        long lastDuration = 0;
+        long keyframe = -1;
+        long clusterTime = 0;
+        long position = 0;
+        long end = file.length();
+
+        //state of the block group being read
+        long groupEnd = -1;
+        long groupTime = -1;
+        long groupDuration = -1;
+        boolean groupReference = false;
+
+        while (position < end) {
+            file.seek(position);
+            if (groupEnd >= 0 && position >= groupEnd) {
+                //end of a block group, its block is added now that its references are known
+                if (groupTime >= 0) {
+                    previous = last;
+                    last = groupTime;
+                    first = first < 0 ? groupTime : first;
+                    lastDuration = groupDuration;
+                    if (keyframe < 0 && !groupReference) {
+                        keyframe = groupTime;
+                    }
+                }
+                groupEnd = -1;
+            }
+            if (end - position < 2) {
+                break;
+            }
+
+            int id = readElementID(file);
+            long size = readElementSize(file);
+            long content = file.getFilePointer();
+            long next = size < 0 ? end : Math.min(end, content + size);
+
+            if (id == EBML_CLUSTER) {
+                next = content;
+            } else if (id == EBML_CLUSTER_TIMECODE) {
+                clusterTime = readUnsigned(file, (int) size);
+            } else if (id == EBML_SIMPLE_BLOCK || id == EBML_BLOCK) {
+                readElementSize(file);
+                long time = clusterTime + file.readShort();
+                if (id == EBML_SIMPLE_BLOCK) {
+                    int flags = file.readUnsignedByte();
+                    previous = last;
+                    last = time;
+                    first = first < 0 ? time : first;
+                    lastDuration = -1;
+                    if (keyframe < 0 && (flags & SIMPLE_BLOCK_KEYFRAME) != 0) {
+                        keyframe = time;
+                    }
+                } else {
+                    groupTime = time;
+                }
+            } else if (id == EBML_BLOCK_GROUP) {
+                groupEnd = next;
+                groupTime = -1;
+                groupDuration = -1;
+                groupReference = false;
+                next = content;
+            } else if (id == EBML_BLOCK_DURATION) {
+                groupDuration = readUnsigned(file, (int) size);
+            } else if (id == EBML_REFERENCE_BLOCK) {
+                groupReference = true;
+            }
+            position = next;
+        }
+        if (groupEnd >= 0 && groupTime >= 0) {
+            previous = last;
+            last = groupTime;
+            first = first < 0 ? groupTime : first;
+            lastDuration = groupDuration;
+            if (keyframe < 0 && !groupReference) {
+                keyframe = groupTime;
+            }
+        }
+
+        if (first < 0) {
+            return null;
+        }
+        Timing timing = new Timing();
+        timing.time = first;
+        timing.duration = last - first + (lastDuration >= 0 ? lastDuration : previous >= 0 ? last - previous : 0);
+        timing.keyframeOffset = keyframe >= 0 ? keyframe - first : -1;
+        return timing;
+    }
+
+    /**
+     * Reads an EBML element id, its length marker is kept.
+     */
+    private static int readElementID(final RandomAccessFile file) throws IOException {
+        int first = file.readUnsignedByte();
+        int length = Integer.numberOfLeadingZeros(first) - 23;
+        if (length < 1 || length > 4) {
+            throw new IOException("invalid element id");
+        }
+        int id = first;
+        for (int i = 1; i < length; i++) {
+            id = (id << 8) | file.readUnsignedByte();
+        }
+        return id;
+    }
+
+    /**
+     * Reads an EBML element size.
+     * @return The size; -1 if the size is unknown.
+     */
+    private static long readElementSize(final RandomAccessFile file) throws IOException {
+        int first = file.readUnsignedByte();
+        int length = Integer.numberOfLeadingZeros(first) - 23;
+        if (length < 1 || length > 8) {
+            throw new IOException("invalid element size");
+        }
+        long size = first & (0xFF >> length);
+        boolean unknown = size == (0xFF >> length);
+        for (int i = 1; i < length; i++) {
+            int next = file.readUnsignedByte();
+            unknown &= next == 0xFF;
+            size = (size << 8) | next;
+        }
+        return unknown ? -1 : size;
+    }
+
+    /**
+     * Reads an EBML unsigned integer.
+     */
+    private static long readUnsigned(final RandomAccessFile file, final int size) throws IOException {
+        if (size < 0 || size > 8) {
+            throw new IOException("invalid integer size");
+        }
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | file.readUnsignedByte();
+        }
+        return value;
+    }
+
+    private static ByteBuffer readFully(final File source, final long offset, final int length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(source, "r")) {
+            return readFully(file, offset, length);
+        }
+    }
+
+    private static ByteBuffer readFully(final RandomAccessFile file, final long offset, final int length) throws IOException {
+        byte[] data = new byte[length];
+        file.seek(offset);
+        file.readFully(data);
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Timing information shared by the segments of a representation.
+     */
+    public static final class Track {
+        private final boolean webm;
+        private final long timescale;
+        private final long defaultDuration;
+        private final int defaultFlags;
+
+        private Track(final boolean webm, final long timescale, final long defaultDuration, final int defaultFlags) {
+            this.webm = webm;
+            this.timescale = timescale;
+            this.defaultDuration = defaultDuration;
+            this.defaultFlags = defaultFlags;
+        }
+
+        /**
+         * Gets the number of time units per second of the segments.
+         * @return The timescale.
+         */
+        public long getTimescale() {
+            return timescale;
+        }
+    }
+
+    /**
+     * Timing of a segment, in the timescale of its representation.
+     */
+    public static final class Timing {
+        private long time = 0;
+        private long duration = 0;
+        private long keyframeOffset = -1;
+        private long size = 0;
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Gets the offset of the first keyframe of the segment from its start.
+         * @return The offset; -1 if the segment has no keyframe.
+         */
+        public long getKeyframeOffset() {
+            return keyframeOffset;
+        }
+
+        /**
+         * Gets the size of the segment file.
+         * @return The size in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package jvs.stream;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.time.Duration;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -11,9 +14,18 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import io.vertx.core.json.JsonObject;
 import jvs.Constants;
 import jvs.RTSPMode;
+import jvs.config.ConfigManager;
+import jvs.monitor.ResourceMonitor;
+import jvs.packaging.SegmentIndex;
 import jvs.utils.Logger;
+import jvs.workers.AdmissionController;
+import jvs.workers.ArchiveReencoder;
+import jvs.workers.ClipExtractor;
 import jvs.workers.Encoder;
+import jvs.workers.EncodingDecision;
 import jvs.workers.EncodingType;
+import jvs.workers.OutputRingBuffer;
+import jvs.workers.SegmentIndexer;
 
 /**
  * Stream implementation, defines all general information about the stream
@@ -48,6 +60,10 @@ public class Stream {
      * The url of the DASH manifest that let clients to play this stream
      */
 	private String manifest;
+    /**
+     * The url of the WEBM-DASH manifest of a multi output encode; empty if the encode has a single output
+     */
+    private String webmManifest;
     /**
      * The date when the stream was added
      */
@@ -56,11 +72,31 @@ public class Stream {
      * The local directory where all stream dash chunks are stored
      */
 	private String directory;
+    /**
+     * The encoding type of the stream
+     */
+    private EncodingType encodingType;
+    /**
+     * Flags to determine if the encode runs only while the stream is watched
+     */
+    private boolean onDemand;
+    /**
+     * Flags to determine if HLS playlists are written next to the MPEG-DASH manifest
+     */
+    private boolean hls;
+    /**
+     * The id of the stream whose encode is shared by this stream (-1 if the stream has its own encode)
+     */
+    private int sourceID;
+    /**
+     * The number of chunks transcoded in parallel for file and http inputs (0 to use the configured number)
+     */
+    private int vodChunks;
     /**
      * Reference to current working encoder
      */
     @JsonIgnore
-    private Encoder encoder;
+    private volatile Encoder encoder;
 
     /**
      * Flags to determine if this instance is dirty (errors were detected during his encoding)
@@ -68,6 +104,72 @@ public class Stream {
     @JsonIgnore
     private boolean errorFlag;
 
+    /**
+     * Flags to determine if the encode stopped producing output
+     */
+    @JsonIgnore
+    private volatile boolean stalled;
+
+    /**
+     * Number of stalls detected since the stream was added
+     */
+    @JsonIgnore
+    private int stallCount;
+
+    /**
+     * Last output lines of the most recent ffmpeg encode
+     */
+    @JsonIgnore
+    private volatile OutputRingBuffer output;
+
+    /**
+     * Time of the last content request, it stops the idle on-demand encodes and orders the evictions of the recordings
+     */
+    @JsonIgnore
+    private volatile long lastRequestTime;
+
+    /**
+     * Time when the current on-demand encode was started, 0 once its first segment is available
+     */
+    @JsonIgnore
+    private volatile long demandStartTime;
+
+    /**
+     * Flags to determine if the first segment of the current encode is available
+     */
+    @JsonIgnore
+    private volatile boolean segmentsReady;
+
+    /**
+     * Time, in milliseconds, between the last on-demand start and its first segment (-1 if never measured)
+     */
+    @JsonIgnore
+    private volatile long firstSegmentTime;
+
+    /**
+     * Encoding type selected for the last analysis of the input, with its estimated cost
+     */
+    @JsonIgnore
+    private volatile EncodingDecision encodingDecision;
+
+    /**
+     * The stream whose encode is shared by this stream (null if the stream has its own encode)
+     */
+    @JsonIgnore
+    private volatile Stream source;
+
+    /**
+     * Flags to determine if the stream has been stopped, while its shared encode may still be running
+     */
+    @JsonIgnore
+    private volatile boolean released;
+
+    /**
+     * Flags to determine if the recording is stored as a mezzanine, whose manifests and playlists are packaged on request
+     */
+    @JsonIgnore
+    private volatile boolean mezzanine;
+
     /**
      * Default constructor
      */
@@ -79,9 +181,18 @@ public class Stream {
         inputUrl = "";
         duration = null;
         manifest = "";
+        webmManifest = "";
         encoder = null;
         creationDate = null;
         errorFlag = false;
+        stalled = false;
+        stallCount = 0;
+        encodingType = null;
+        onDemand = false;
+        hls = false;
+        sourceID = -1;
+        vodChunks = 0;
+        firstSegmentTime = -1;
     }
 
     /**
@@ -100,6 +211,8 @@ public class Stream {
 		this.title = title;
 		this.description = description;
 		this.inputUrl = url;
+		this.sourceID = -1;
+		this.firstSegmentTime = -1;
 	}
 	
 	/**
@@ -138,12 +251,29 @@ public class Stream {
 	}
 	
 	/**
-	 * Gets the original rtsp url from which the stream was taken.
-	 * @return The input rtsp url.
+	 * Gets the original url from which the stream was taken.
+	 * @return The input url.
 	 */
 	public String getInputUrl() {
 		return this.inputUrl;
 	}
+
+    /**
+     * Determine whether the input is a recording (file or http url) instead of a live rtsp stream.
+     * @return True, if the input is a recording; otherwise false.
+     */
+    @JsonIgnore
+    public boolean isVod() {
+        return inputUrl != null && !inputUrl.startsWith("rtsp://");
+    }
+
+    /**
+     * Gets the number of chunks transcoded in parallel for a recording.
+     * @return The number of chunks; 0 to use the configured number.
+     */
+    public int getVodChunks() {
+        return vodChunks;
+    }
 	
 	/**
 	 * Gets the current timecode, in seconds, to seek to play this stream live.
@@ -164,6 +294,14 @@ public class Stream {
 		return this.manifest;
 	}
 
+    /**
+     * Gets the WEBM-DASH manifest of a multi output encode, the MPEG-DASH one is returned by {@link #getManifest()}.
+     * @return The WEBM-DASH manifest url; empty if the encode has a single output.
+     */
+    public String getWebmManifest() {
+        return this.webmManifest;
+    }
+
     /**
      * Gets the duration in milliseconds of the stream.
      * @return The duration of the stream in milliseconds.
@@ -194,6 +332,66 @@ public class Stream {
         return directory;
     }
 
+    /**
+     * Gets the encoding type of the stream.
+     * @return The encoding type; null if the encoder has never been prepared.
+     */
+    public EncodingType getEncodingType() {
+        return encodingType;
+    }
+
+    /**
+     * Determine whether the encode runs only while the stream is watched.
+     * @return True, if the stream is encoded on demand; otherwise false.
+     */
+    public boolean isOnDemand() {
+        return onDemand;
+    }
+
+    /**
+     * Determine whether HLS playlists, referencing the MPEG-DASH segments, are written next to the manifest.
+     * @return True, if the stream is packaged in HLS as well; otherwise false.
+     */
+    public boolean isHls() {
+        return hls;
+    }
+
+    /**
+     * Gets the id of the stream whose encode is shared by this stream.
+     * @return The id of the source stream; -1 if the stream has its own encode.
+     */
+    public int getSourceID() {
+        return sourceID;
+    }
+
+    /**
+     * Gets the stream that owns the encode of this stream.
+     * @return The source stream, if the encode is shared; otherwise this stream.
+     */
+    @JsonIgnore
+    public Stream getEncodeOwner() {
+        Stream current = source;
+        return current != null ? current : this;
+    }
+
+    /**
+     * Determine whether the stream has been stopped by a client.
+     * @return True, if the stream has been stopped; otherwise false.
+     */
+    @JsonIgnore
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Determine whether the recording of the stream is stored as a mezzanine.
+     * @return True, if the manifests and the playlists are packaged from the mezzanine; otherwise false.
+     */
+    @JsonIgnore
+    public boolean hasMezzanine() {
+        return mezzanine;
+    }
+
 	/* SETTERS */
 	
 	/**
@@ -236,6 +434,14 @@ public class Stream {
 		this.manifest = manifest;
 	}
 
+    /**
+     * Sets the WEBM-DASH manifest url of a multi output encode.
+     * @param webmManifest The WEBM-DASH manifest url; empty if the encode has a single output.
+     */
+    public void setWebmManifest(final String webmManifest) {
+        this.webmManifest = webmManifest;
+    }
+
     /**
      * Sets the creation date of the stream.
      * @param creationDate The creation date.
@@ -244,6 +450,79 @@ public class Stream {
         this.creationDate = creationDate;
     }
 
+    /**
+     * Sets the encoding type of the stream.
+     * @param encodingType The encoding type.
+     */
+    public void setEncodingType(final EncodingType encodingType) {
+        this.encodingType = encodingType;
+    }
+
+    /**
+     * Sets whether the encode runs only while the stream is watched.
+     * @param onDemand True, to encode the stream on demand.
+     */
+    public void setOnDemand(final boolean onDemand) {
+        this.onDemand = onDemand;
+    }
+
+    /**
+     * Sets whether HLS playlists are written next to the MPEG-DASH manifest.
+     * @param hls True, to package the stream in HLS as well.
+     */
+    public void setHls(final boolean hls) {
+        this.hls = hls;
+    }
+
+    /**
+     * Sets the number of chunks transcoded in parallel for a recording.
+     * @param vodChunks The number of chunks; 0 to use the configured number.
+     */
+    public void setVodChunks(final int vodChunks) {
+        this.vodChunks = Math.max(0, vodChunks);
+    }
+
+    /**
+     * Sets whether the recording of the stream is stored as a mezzanine.
+     * @param mezzanine True, once the mezzanine replaced the segments of the recording.
+     */
+    public void setMezzanine(final boolean mezzanine) {
+        this.mezzanine = mezzanine;
+    }
+
+    /**
+     * Sets the id of the stream whose encode is shared by this stream.
+     * @param sourceID The id of the source stream; -1 if the stream has its own encode.
+     */
+    public void setSourceID(final int sourceID) {
+        this.sourceID = sourceID;
+    }
+
+    /**
+     * Makes this stream an alias of the encode of another stream, sharing its directory and manifest.
+     * @param source The stream that owns the encode; null to detach the stream.
+     */
+    public void setSource(final Stream source) {
+        this.source = source;
+        if (source != null) {
+            this.sourceID = source.getID();
+            this.directory = source.getDirectory();
+            this.manifest = source.getManifest();
+            this.webmManifest = source.getWebmManifest();
+            this.encodingType = source.getEncodingType();
+            this.onDemand = source.isOnDemand();
+            this.hls = source.isHls();
+        }
+    }
+
+    /**
+     * Sets whether the stream has been stopped by a client.
+     * @param released True, if the stream has been stopped.
+     */
+    public void setReleased(final boolean released) {
+        this.released = released;
+    }
+
     /**
      * Sets the directory where all stream files are stored.
      * @param directory The where all stream files are stored.
@@ -259,17 +538,65 @@ public class Stream {
 	 * @return The json with all stream information.
 	 */
 	public JsonObject toJSON() {
+	    //aliases report the state of the shared encode
+	    Stream owner = getEncodeOwner();
+	    Encoder current = owner.encoder;
+	    boolean queued = !released && AdmissionController.isQueued(owner.getID());
+	    boolean live = current != null && current.isRunning() && !released && !queued;
+	    //the manifests of an alias are set by the encode of its owner
+	    String ownerManifest = owner.manifest;
+	    //the playlists of a recording stored as a mezzanine are always generated
+	    boolean hls = owner.hls || owner.mezzanine;
+	    SegmentIndex segments = SegmentIndexer.get(owner.getID());
 		return new JsonObject().put(Constants.ID_KEY, id)
                 .put(Constants.TITLE_KEY, title)
                 .put(Constants.DESCR_KEY, description)
-				.put(Constants.LIVETIME_KEY, encoder != null && encoder.isRunning() ? getCurrentLiveTime() : 0)
-                .put(Constants.DURATION_KEY, getDuration().toString())
-                .put(Constants.MANIFEST_KEY, manifest)
+				.put(Constants.LIVETIME_KEY, live ? owner.getCurrentLiveTime() : 0)
+                .put(Constants.DURATION_KEY, owner.getDuration().toString())
+                .put(Constants.MANIFEST_KEY, ownerManifest == null || ownerManifest.isEmpty() ? ownerManifest :
+                        ConfigManager.getConfig().getContentBaseUrl() + ownerManifest)
+                .put(Constants.HLSMANIFEST_KEY, !hls || ownerManifest == null || ownerManifest.isEmpty() ? null :
+                        ConfigManager.getConfig().getContentBaseUrl() +
+                                ownerManifest.substring(0, ownerManifest.lastIndexOf('/') + 1) + Constants.HLS_PLAYLIST)
+                .put(Constants.WEBMMANIFEST_KEY, owner.webmManifest == null || owner.webmManifest.isEmpty() ? owner.webmManifest :
+                        ConfigManager.getConfig().getContentBaseUrl() + owner.webmManifest)
                 .put(Constants.CREATIONDATE_KEY, getCreationDate().toInstant().toString())
-                .put(Constants.STREAMTYPE_KEY, encoder != null ? encoder.getType().getDescription() : "unknown")
-                .put(Constants.ISLIVE_KEY, encoder != null && encoder.isRunning());
+                .put(Constants.STREAMTYPE_KEY, current != null ? current.getActiveType().getDescription() : "unknown")
+                .put(Constants.ISLIVE_KEY, live)
+                .put(Constants.STALLED_KEY, owner.stalled)
+                .put(Constants.STALLS_KEY, owner.stallCount)
+                .put(Constants.ONDEMAND_KEY, onDemand)
+                .put(Constants.QUEUED_KEY, queued)
+                .put(Constants.FIRSTSEGMENTTIME_KEY, owner.firstSegmentTime)
+                .put(Constants.SOURCEID_KEY, sourceID)
+                .put(Constants.VOD_KEY, current != null ? current.getVodJSON() : null)
+                .put(Constants.ARCHIVE_KEY, ArchiveReencoder.toJSON(owner.getID()))
+                .put(Constants.CLIP_KEY, ClipExtractor.toJSON(owner.getID()))
+                .put(Constants.SEGMENTS_KEY, segments != null ? segments.toJSON() : null)
+                .put(Constants.DECISION_KEY, owner.encodingDecision != null ? owner.encodingDecision.toJSON() : null)
+                .put(Constants.RESOURCES_KEY, ResourceMonitor.getStreamUsage(owner.getID()).toJSON());
 	}
 
+    /**
+     * Determine whether a new stream with the specified settings would produce the same output of this encode.
+     * @param url The input url of the new stream.
+     * @param type The encoding type of the new stream.
+     * @param mode The ffmpeg RTSP mode of the new stream.
+     * @param extraArgs The extra ffmpeg arguments of the new stream (null if not defined).
+     * @return True, if the encode can be shared; otherwise false.
+     */
+    public boolean canShareEncode(final String url, final EncodingType type, final RTSPMode mode, final List<String> extraArgs) {
+        Encoder current = encoder;
+        if (source != null || current == null || released || errorFlag || mode != RTSPMode.CLIENT ||
+                current.getMode() != RTSPMode.CLIENT || (!current.isRunning() && !onDemand)) {
+            return false;
+        }
+        List<String> currentArgs = current.getExtraArgs();
+        return inputUrl.equals(url) && current.getType() == type &&
+                (currentArgs == null ? Collections.emptyList() : currentArgs)
+                        .equals(extraArgs == null ? Collections.emptyList() : extraArgs);
+    }
+
 	/**
 	 * Prepares the encoder of this stream.
 	 * @param type The encoding type.
@@ -278,6 +605,7 @@ public class Stream {
 	public void prepareEncoder(final EncodingType type, final RTSPMode mode) {
 		if (encoder == null) {
 			encoder = new Encoder(this, type, mode);
+			encodingType = type;
 		} else {
 		    Logger.warn("Encoder have been prepared multiple times for stream with id: " + id);
         }
@@ -343,10 +671,216 @@ public class Stream {
 	}
 
     /**
-     * Sets error flag for the streams, so it will be removed on next cleaning.
+     * Starts the encode of an on-demand stream, if it is not already running. Segments of the previous
+     * encode are deleted, so that the first segment of the new encode can be detected.
+     * @return True, if the encode is running; otherwise false.
+     */
+    public synchronized boolean startOnDemand() {
+        Encoder current = encoder;
+        if (current == null) {
+            Logger.error("Unable to start on-demand encode, encoder have not been prepared for stream with id: " + id);
+            return false;
+        }
+        if (current.isRunning()) {
+            return true;
+        }
+
+        File[] files = new File(directory).listFiles(File::isFile);
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        duration = null;
+        segmentsReady = false;
+        demandStartTime = System.currentTimeMillis();
+        lastRequestTime = demandStartTime;
+
+        Logger.info("Starting on-demand encode of stream with id: " + id);
+        encoder = current.recreate();
+        return encoder.run();
+    }
+
+    /**
+     * Gracefully stops the encode of an on-demand stream, keeping its settings for the next start.
+     */
+    public synchronized void stopOnDemand() {
+        Encoder current = encoder;
+        if (current != null && current.isRunning()) {
+            Logger.info("Stopping idle on-demand encode of stream with id: " + id);
+            segmentsReady = false;
+            if (!current.stopGracefully()) {
+                current.stop();
+            }
+        }
+    }
+
+    /**
+     * Determine whether the encode is running and its first segment has already been detected (see {@link #pollReady()}).
+     * @return True, if the stream can be served; otherwise false.
+     */
+    public boolean isReady() {
+        Encoder current = encoder;
+        return current != null && current.isRunning() && segmentsReady;
+    }
+
+    /**
+     * Determine whether the encode is running and its first segment is available, the stream directory is listed
+     * until the first segment is detected. When it is detected for the first time, the time elapsed since the
+     * on-demand start is recorded.
+     * @return True, if the stream can be served; otherwise false.
+     */
+    public boolean pollReady() {
+        Encoder current = encoder;
+        if (current == null || !current.isRunning()) {
+            return false;
+        }
+        if (segmentsReady) {
+            return true;
+        }
+
+        File manifestFile = new File(directory, "manifest.mpd");
+        File[] segments = new File(directory).listFiles((dir, name) ->
+                name.startsWith("chunk-") || name.endsWith(".chk"));
+
+        if (manifestFile.exists() && segments != null && segments.length > 0) {
+            segmentsReady = true;
+            long startTime = demandStartTime;
+            if (startTime > 0) {
+                firstSegmentTime = System.currentTimeMillis() - startTime;
+                demandStartTime = 0;
+                Logger.info("First segment of stream with id: " + id + " available after " + firstSegmentTime + " ms.");
+            }
+        }
+        return segmentsReady;
+    }
+
+    /**
+     * Records a content request for the stream.
+     */
+    public void touch() {
+        touch(System.currentTimeMillis());
+    }
+
+    /**
+     * Records a content request for the stream at the specified time.
+     * @param time The time in milliseconds.
+     */
+    void touch(final long time) {
+        lastRequestTime = time;
+    }
+
+    /**
+     * Gets the time of the last content request.
+     * @return The time in milliseconds; 0 if the stream has never been requested.
+     */
+    @JsonIgnore
+    public long getLastRequestTime() {
+        return lastRequestTime;
+    }
+
+    /**
+     * Determine whether the encode is running.
+     * @return True, if the encoder is running; otherwise false.
+     */
+    @JsonIgnore
+    public boolean isEncoding() {
+        Encoder current = encoder;
+        return current != null && current.isRunning();
+    }
+
+    /**
+     * Gets the ffmpeg RTSP mode of the stream encoder.
+     * @return The RTSP mode; client mode if the encoder has not been prepared.
+     */
+    @JsonIgnore
+    public RTSPMode getMode() {
+        Encoder current = encoder;
+        return current != null ? current.getMode() : RTSPMode.CLIENT;
+    }
+
+    /**
+     * Handles a stall of the encode: kills ffmpeg and, if requested, restarts the encode with the same settings.
+     * @param restart Whether the encode must be restarted.
+     */
+    public synchronized void handleStall(final boolean restart) {
+        stalled = true;
+        stallCount++;
+
+        Encoder stalledEncoder = encoder;
+        if (stalledEncoder == null) {
+            return;
+        }
+        stalledEncoder.stop();
+
+        if (restart) {
+            Logger.info("Restarting stalled encode of stream with id: " + id);
+            encoder = stalledEncoder.recreate();
+            if (!encoder.run()) {
+                Logger.error("Unable to restart stalled encode of stream with id: " + id);
+            }
+        }
+    }
+
+    /**
+     * Determine whether the encode of the stream is stalled.
+     * @return True, if the last encode stopped producing output; otherwise false.
+     */
+    public boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * Sets the stall flag of the stream.
+     * @param stalled Whether the encode is stalled.
+     */
+    public void setStalled(final boolean stalled) {
+        this.stalled = stalled;
+    }
+
+    /**
+     * Sets the encoding type selected for the analyzed input.
+     * @param encodingDecision The decision.
+     */
+    public void setEncodingDecision(final EncodingDecision encodingDecision) {
+        this.encodingDecision = encodingDecision;
+    }
+
+    /**
+     * Gets the encoding type selected for the analyzed input.
+     * @return The decision; null if the input has not been analyzed yet.
+     */
+    @JsonIgnore
+    public EncodingDecision getEncodingDecision() {
+        return encodingDecision;
+    }
+
+    /**
+     * Sets the output buffer of the current ffmpeg encode.
+     * @param output The output buffer.
+     */
+    public void setOutput(final OutputRingBuffer output) {
+        this.output = output;
+    }
+
+    /**
+     * Gets the output buffer of the most recent ffmpeg encode.
+     * @return The output buffer; null if no encode has been started.
+     */
+    @JsonIgnore
+    public OutputRingBuffer getOutput() {
+        return output;
+    }
+
+    /**
+     * Sets error flag for the streams, so it will be removed on next cleaning. On-demand streams are kept,
+     * their encode is started again by the next client.
      */
     public void setError() {
-        this.errorFlag = true;
+        if (!onDemand) {
+            this.errorFlag = true;
+        }
     }
 
     /**
@@ -358,7 +892,7 @@ public class Stream {
     }
 
 	/**
-     * Checks whether the url parameter is valid (must be rtsp).
+     * Checks whether the url parameter is valid (must be rtsp, http or file).
      * @param url The url to check
 	 */
 	private Boolean checkInputUrl(final String url) {
@@ -366,10 +900,33 @@ public class Stream {
             Logger.error("Stream cannot be initialized with an empty input url.");
             return false;
         }
-        if (!url.startsWith("rtsp://")) {
-            Logger.error("Stream can only be initialized with a rtsp input url.");
+        if (!url.startsWith("rtsp://") && !url.startsWith("http://") && !url.startsWith("https://") &&
+                !url.startsWith("file:")) {
+            Logger.error("Stream can only be initialized with a rtsp, http or file input url.");
+            return false;
+        }
+        if (url.startsWith("file:") && !isRecordingFile(url.substring("file:".length()))) {
+            Logger.error("Stream can only be initialized with a file of the recordings folder.");
             return false;
         }
 		return true;
 	}
+
+    /**
+     * Determine whether the path of a file input is inside the recordings folder, once the links and the '..'
+     * segments are resolved.
+     * @param path The path of the file, as read by ffmpeg.
+     * @return True, if the recordings folder is configured and contains the file; otherwise false.
+     */
+    private static boolean isRecordingFile(final String path) {
+        String recordingsPath = ConfigManager.getConfig().getRecordingsPath();
+        if (recordingsPath.isEmpty()) {
+            return false;
+        }
+        try {
+            return new File(path).getCanonicalFile().toPath().startsWith(new File(recordingsPath).getCanonicalFile().toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
 }
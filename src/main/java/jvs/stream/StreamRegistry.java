@@ -0,0 +1,841 @@
+package jvs.stream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.RTSPMode;
+import jvs.config.ConfigManager;
+import jvs.monitor.StorageMonitor;
+import jvs.packaging.MezzanineIndex;
+import jvs.packaging.SeekResolver;
+import jvs.packaging.SegmentIndex;
+import jvs.packaging.SegmentPack;
+import jvs.utils.JsonUtils;
+import jvs.utils.Logger;
+import jvs.workers.AdmissionController;
+import jvs.workers.ArchiveReencoder;
+import jvs.workers.ClipExtractor;
+import jvs.workers.EncodingType;
+import jvs.workers.SegmentIndexer;
+import jvs.workers.SegmentStager;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.InvalidParameterException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Thread-safe registry of all streams, shared by every instance of the http verticle.
+ * Lookups are lock-free, while every operation that starts or stops encodes is serialized
+ * so that the registry also acts as the single scheduler of the encoders.
+ */
+public class StreamRegistry {
+
+    private static final StreamRegistry instance = new StreamRegistry();
+
+    /**
+     * Map with all current active streams
+     */
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * The next unique stream id
+     */
+    private final AtomicInteger nextID = new AtomicInteger(1);
+
+    /**
+     * Deletes the directories of the deleted streams, outside of the registry lock and off the event loops
+     */
+    private final ExecutorService deleter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "stream-deleter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private StreamRegistry(){}
+
+    /**
+     * Gets the registry shared by the whole server.
+     * @return The stream registry.
+     */
+    public static StreamRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets a stream.
+     * @param id The id of the stream.
+     * @return The stream; null if it does not exist.
+     */
+    public Stream get(final int id) {
+        return streams.get(id);
+    }
+
+    /**
+     * Gets the stream that owns the encode written to the content directory of a stream id.
+     * The stream may have been deleted while its encode is still shared by other streams.
+     * @param id The id in the name of the content directory.
+     * @return The owner of the encode; null if no stream uses the directory.
+     */
+    public Stream getContentOwner(final int id) {
+        Stream stream = streams.get(id);
+        if (stream != null) {
+            return stream.getEncodeOwner();
+        }
+        for (Stream alias : streams.values()) {
+            if (alias.getSourceID() == id) {
+                return alias.getEncodeOwner();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets all streams.
+     * @return The collection of all streams.
+     */
+    public Collection<Stream> getAll() {
+        return streams.values();
+    }
+
+    /**
+     * Gets the number of streams.
+     * @return The number of streams.
+     */
+    public int size() {
+        return streams.size();
+    }
+
+    /**
+     * Return a json array that represents all streams.
+     * @return The json with all streams information.
+     */
+    public JsonArray toJSON() {
+        JsonArray arr = new JsonArray();
+        streams.forEach((k, v) -> arr.add(v.toJSON()));
+        return arr;
+    }
+
+    /**
+     * Adds a new stream and start the encoding. If an encode with the same input url, encoding type and
+     * arguments is already running, the new stream becomes an alias of it and no new encode is started.
+     *
+     * @param json The json from which parse stream information.
+     * @return The new stream, if it has been successfully initialized and the encode has been started; otherwise, null.
+     */
+    public Stream addStream(final JsonObject json) {
+        Stream stream = registerStream(json);
+        if (stream == null || stream.getEncodeOwner() != stream) {
+            return stream;
+        }
+
+        //the encoder creates and cleans the directories of the stream, outside of the lock
+        if (stream.isOnDemand()) {
+            new File(stream.getDirectory()).mkdirs();
+            return stream;
+        }
+
+        if (!stream.startEncoding()) {
+            stream.setError();
+            return null;
+        }
+
+        //the stream may have been deleted while the encode was starting
+        synchronized (this) {
+            if (countReferences(stream, false) == 0) {
+                stream.stopEncoding();
+                return null;
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Parses a new stream and adds it to the collection, sharing an identical encode if one is running.
+     *
+     * @param json The json from which parse stream information.
+     * @return The new stream, whose own encode has not been started yet; null if it cannot be initialized.
+     */
+    private synchronized Stream registerStream(final JsonObject json) {
+
+        //clean streams collection
+        deleteDirectories(cleanStreams());
+
+        EncodingType type = parseEncodingType(json);
+        RTSPMode mode = parseMode(json);
+        List<String> extraArgs = parseExtraArgs(json, true);
+
+        //on-demand encodes are started by clients, which is not possible when ffmpeg waits for an announce
+        boolean onDemand = json.getBoolean(Constants.ONDEMAND_KEY, false);
+        if (onDemand && mode == RTSPMode.SERVER) {
+            Logger.error("On-demand encoding is not available when ffmpeg is configured as rtsp server.");
+            return null;
+        }
+
+        //the HLS playlists are written by the MPEG-DASH muxer
+        boolean hls = json.getBoolean(Constants.HLS_KEY, false);
+        if (hls && (type == EncodingType.WEBM_DASH_VP8_VORBIS || type == EncodingType.WEBM_DASH_VP9_OPUS)) {
+            Logger.error("HLS packaging is not available for WEBM-DASH encodes.");
+            return null;
+        }
+
+        //check whether all necessary informations are present to setup ffmpeg as rtsp server
+        if (mode == RTSPMode.SERVER && (ConfigManager.getConfig().getAnnouncePath() == null ||
+                ConfigManager.getConfig().getListeningPort() <= 0)) {
+            Logger.error("Missing announce path or listening port, ffmpeg cannot be configured as rtsp server.");
+            return null;
+        }
+
+        Stream stream;
+
+        try {
+            stream = new Stream(json);
+        } catch (InvalidParameterException ex) {
+            Logger.error(ex.getLocalizedMessage());
+            return null;
+        }
+
+        //recordings are transcoded once, as fast as possible
+        if (onDemand && stream.isVod()) {
+            Logger.error("On-demand encoding is not available for file and http inputs.");
+            return null;
+        }
+
+        int newID = nextID.getAndIncrement();
+        stream.setCreationDate(new Date());
+        stream.setID(newID);
+
+        //share an identical encode instead of starting a new one
+        Stream source = findSharedEncode(stream.getInputUrl(), type, mode, extraArgs, onDemand, hls);
+        if (source != null) {
+            stream.setSource(source);
+            streams.put(newID, stream);
+            Logger.info("Stream with id: " + newID + " shares the encode of stream with id: " + source.getID());
+            return stream;
+        }
+
+        stream.setDirectory(StorageMonitor.select(ConfigManager.getConfig().getStreamsPath()) + File.separator + "stream_" + newID);
+        stream.setOnDemand(onDemand);
+        stream.setHls(hls);
+        stream.setVodChunks(json.getInteger(Constants.CHUNKS_KEY, 0));
+        streams.put(newID, stream);
+
+        //prepare the encoder
+        stream.prepareEncoder(type, mode);
+
+        //add extra arguments if needed
+        if (extraArgs != null) {
+            stream.setExtraArguments(extraArgs);
+        }
+
+        //parse client information about streams if the encoding type is not passthrough
+        if (mode == RTSPMode.SERVER && type != EncodingType.MPEG_DASH_PASSTHROUGH) {
+
+            JsonObject parsedInfo = json.getJsonObject(Constants.INFOS_KEY);
+            String clientInfo = parsedInfo != null ? parsedInfo.encode() : null;
+
+            if (clientInfo != null && JsonUtils.isJSONValid(clientInfo)) {
+                StreamInfo streamInfo = StreamInfo.parseStreamInfo(clientInfo);
+
+                if (streamInfo != null) {
+                    stream.setUserStreamInfo(streamInfo);
+                } else {
+                    Logger.error("Parsing of json stream information failed, ffmpeg cannot be configured as rtsp server.");
+                    stream.setError();
+                    return null;
+                }
+            } else {
+                Logger.error("Missing or invalid stream information, ffmpeg cannot be configured as rtsp server.");
+                stream.setError();
+                return null;
+            }
+        }
+
+        //on-demand streams are encoded when the first client requests the manifest
+        if (onDemand) {
+            stream.setManifest(ConfigManager.getConfig().getRemoteStreamsPath() + "/stream_" + newID + "/manifest.mpd");
+        }
+        return stream;
+    }
+
+    /**
+     * Adds a clip of the recording of a stream, extracted in the background from its segments without re-encoding
+     * (see {@link ClipExtractor}). The clip is a new stream with its own directory, completed once its manifest exists.
+     *
+     * @param id The id of the stream.
+     * @param json The json with the range of the clip (the from and to times: ISO-8601 dates, ISO-8601 durations or
+     *             seconds, see {@link SeekResolver#parseOffset}) and optionally its title and description.
+     * @return The new stream, if the range contains segments of the recording; otherwise, null.
+     */
+    public synchronized Stream addClip(final int id, final JsonObject json) {
+        Stream stream = streams.get(id);
+        Stream source = stream != null ? stream.getEncodeOwner() : null;
+        SegmentIndex index = source != null ? SegmentIndexer.get(source.getID()) : null;
+        if (index == null || index.getCount() == 0) {
+            Logger.error("Unable to extract a clip of stream with id: " + id + ", its segments are not indexed.");
+            return null;
+        }
+
+        Double from = SeekResolver.parseOffset(String.valueOf(json.getValue(Constants.FROM_KEY, "0")),
+                index.getStartTime(), index.getDuration());
+        Double to = SeekResolver.parseOffset(String.valueOf(json.getValue(Constants.TO_KEY, String.valueOf(index.getDuration()))),
+                index.getStartTime(), index.getDuration());
+        if (from == null || to == null || from >= to) {
+            Logger.error("Unable to extract a clip of stream with id: " + id + ", invalid range (from: " +
+                    json.getValue(Constants.FROM_KEY) + ", to: " + json.getValue(Constants.TO_KEY) + ").");
+            return null;
+        }
+
+        int newID = nextID.getAndIncrement();
+        String path = ConfigManager.getConfig().getRemoteStreamsPath() + "/stream_" + newID + "/";
+        Stream clip = new Stream();
+        clip.setID(newID);
+        clip.setCreationDate(new Date());
+        clip.setTitle(json.getString(Constants.TITLE_KEY, stream.getTitle()));
+        clip.setDescription(json.getString(Constants.DESCR_KEY, stream.getDescription()));
+        //the clip is placed in the streams folder of its source, so that the segments are linked instead of copied
+        String dataDirectory = StorageMonitor.getDataDirectory(source.getDirectory());
+        clip.setDirectory((dataDirectory != null ? dataDirectory : ConfigManager.getConfig().getStreamsPath()) +
+                File.separator + "stream_" + newID);
+        clip.setEncodingType(source.getEncodingType());
+        if (source.getManifest() != null && !source.getManifest().isEmpty()) {
+            clip.setManifest(path + source.getManifest().substring(source.getManifest().lastIndexOf('/') + 1));
+        }
+        if (source.getWebmManifest() != null && !source.getWebmManifest().isEmpty()) {
+            clip.setWebmManifest(path + source.getWebmManifest().substring(source.getWebmManifest().lastIndexOf('/') + 1));
+        }
+        streams.put(newID, clip);
+
+        if (!ClipExtractor.schedule(clip, source, from, to)) {
+            streams.remove(newID);
+            Logger.error("Unable to extract a clip of stream with id: " + id + ", no segment in the range.");
+            return null;
+        }
+        return clip;
+    }
+
+    /**
+     * Determine whether the encode requested by a json fits in the cpu budget. On-demand streams and streams
+     * sharing a running encode are always admitted, because they do not start any encode.
+     *
+     * @param json The json of the add stream request.
+     * @return True, if the stream can be added; otherwise false.
+     */
+    public synchronized boolean canAdmit(final JsonObject json) {
+        EncodingType type = parseEncodingType(json);
+        RTSPMode mode = parseMode(json);
+
+        if (json.getBoolean(Constants.ONDEMAND_KEY, false) ||
+                findSharedEncode(json.getString(Constants.INPUTURL_KEY, ""), type, mode, parseExtraArgs(json, false), false,
+                        json.getBoolean(Constants.HLS_KEY, false)) != null) {
+            return true;
+        }
+
+        //the input of a client mode stream is analyzed only after it is added
+        StreamInfo streamInfo = null;
+        JsonObject parsedInfo = json.getJsonObject(Constants.INFOS_KEY);
+        if (mode == RTSPMode.SERVER && parsedInfo != null && JsonUtils.isJSONValid(parsedInfo.encode())) {
+            streamInfo = StreamInfo.parseStreamInfo(parsedInfo.encode());
+        }
+
+        if (!AdmissionController.canAdmit(type, streamInfo)) {
+            Logger.warn("New " + type.getDescription() + " encode rejected, the cpu budget is exhausted.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Safely retrieves the encoding type of an add stream request.
+     * @param json The json of the request.
+     * @return The encoding type (H.264/AAC if not defined or not valid).
+     */
+    private EncodingType parseEncodingType(final JsonObject json) {
+        if (json.containsKey(Constants.ENCODINGTYPE_KEY)) {
+            int parsedType = json.getInteger(Constants.ENCODINGTYPE_KEY, 0);
+
+            if (parsedType >= 0 && parsedType < EncodingType.values().length) {
+                return EncodingType.values()[parsedType];
+            }
+        }
+        return EncodingType.MPEG_DASH_H264_AAC; //default
+    }
+
+    /**
+     * Safely retrieves the ffmpeg mode of an add stream request.
+     * @param json The json of the request.
+     * @return The ffmpeg mode (client if not defined or not valid).
+     */
+    private RTSPMode parseMode(final JsonObject json) {
+        if (json.containsKey(Constants.MODE_KEY)) {
+            int parsedMode = json.getInteger(Constants.MODE_KEY, 0);
+
+            if (parsedMode >= 0 && parsedMode < RTSPMode.values().length) {
+                return RTSPMode.values()[parsedMode];
+            }
+        }
+        return RTSPMode.CLIENT; //default
+    }
+
+    /**
+     * Safely retrieves the custom ffmpeg arguments of an add stream request.
+     * @param json The json of the request.
+     * @param warn Whether invalid arguments must be reported.
+     * @return The list of arguments; null if not defined or not valid.
+     */
+    private List<String> parseExtraArgs(final JsonObject json, final boolean warn) {
+        if (json.containsKey(Constants.CUSTOM_ARGS_KEY)) {
+            try {
+                JsonArray parsedArgs = json.getJsonArray(Constants.CUSTOM_ARGS_KEY);
+
+                if (parsedArgs != null && parsedArgs.size() > 0) {
+                    List<String> extraArgs = new ArrayList<>();
+                    for (Object arg : parsedArgs.getList()) {
+                        extraArgs.add((String)arg);
+                    }
+                    return extraArgs;
+                }
+            } catch (Exception ex) {
+                if (warn) {
+                    Logger.warn("Extra client ffmpeg arguments cannot be parsed. Will be ignored.");
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the stream encoding. A shared encode is stopped only when every stream using it has been stopped.
+     *
+     * @param id The id of the target stream.
+     * @return True, if the ffmpeg process is successfully stopped; otherwise false.
+     */
+    public synchronized Boolean stopStream(final int id) {
+        Stream stream = streams.get(id);
+        if (stream != null) {
+            try {
+                stream.setReleased(true);
+                Stream owner = stream.getEncodeOwner();
+                if (countReferences(owner, true) > 0) {
+                    Logger.info("Stream with id: " + id + " stopped, its encode is still used by other streams.");
+                    return true;
+                }
+
+                //gracefully stops encoding if the selected mode is RTSP server
+                owner.stopEncodingGracefully();
+                return true;
+            } catch (Exception ex) {
+                stream.setReleased(false);
+                Logger.warn("Unable to stop stream with id: " + id + ". " + ex.getLocalizedMessage());
+                return false;
+            }
+        } else {
+            Logger.warn("Unable to stop stream with id: " + id + ". The stream does not exists.");
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the stream with the specified id. The encode and the directory of a shared encode are
+     * deleted with the last stream using them, the directory is deleted in the background.
+     * @param id The id of the stream to delete.
+     * @return True, if the stream is successfully removed; otherwise false.
+     */
+    public Boolean deleteStream(final int id) {
+        List<File> directories = new ArrayList<>();
+        Boolean deleted = deleteStream(id, directories);
+        deleteDirectories(directories);
+        return deleted;
+    }
+
+    /**
+     * Removes the stream with the specified id from the registry and stops its encode if it is the last stream
+     * using it.
+     * @param id The id of the stream to delete.
+     * @param directories The list to which the directory of the stream is added if it must be deleted.
+     * @return True, if the stream is successfully removed; otherwise false.
+     */
+    private synchronized Boolean deleteStream(final int id, final List<File> directories) {
+        Stream stream = streams.get(id);
+        if (stream != null) {
+            try {
+                streams.remove(id);
+                Stream owner = stream.getEncodeOwner();
+                if (countReferences(owner, false) > 0) {
+                    //the remaining streams keep the directory, but the encode stops if all of them were stopped
+                    if (countReferences(owner, true) == 0) {
+                        owner.stopEncodingGracefully();
+                    }
+                    Logger.info("Stream with id: " + id + " deleted, its directory is still used by other streams.");
+                    return true;
+                }
+
+                //the staged segments are not persisted, their folder is deleted once ffmpeg stopped
+                File staging = SegmentStager.remove(owner.getID());
+                owner.stopEncoding(); //stop encoding
+                if (staging != null) {
+                    directories.add(staging);
+                }
+                ArchiveReencoder.cancel(owner.getID());
+                ClipExtractor.cancel(owner.getID());
+                SegmentIndexer.remove(owner.getID());
+                if (streams.values().stream().noneMatch(s -> s.getDirectory().equals(stream.getDirectory()))) {
+                    MezzanineIndex.delete(new File(stream.getDirectory(), Constants.MEZZANINE_FILE));
+                    SegmentPack.close(new File(stream.getDirectory()));
+                    directories.add(new File(stream.getDirectory()));
+                }
+                return true;
+            } catch (Exception ex) {
+                Logger.warn("Unable to delete stream with id: " + id + ". " + ex.getLocalizedMessage());
+                return false;
+            }
+        } else {
+            Logger.warn("Unable to delete stream with id: " + id + ". The stream does not exists.");
+            return false;
+        }
+    }
+
+    /**
+     * Starts the encode of an on-demand stream, if it is not already running. The stream directory is cleaned
+     * outside of the registry lock, so this must not be called from an event loop.
+     * @param stream The owner of the encode (see {@link #getContentOwner(int)}).
+     * @return True, if the encode is running; otherwise false.
+     */
+    public boolean startOnDemand(final Stream stream) {
+        if (stream == null || !stream.isOnDemand() || !stream.startOnDemand()) {
+            return false;
+        }
+
+        //the streams may have been deleted while the encode was starting
+        synchronized (this) {
+            if (countReferences(stream, false) == 0) {
+                stream.stopEncoding();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gracefully stops the encodes of on-demand streams without content requests since the idle timeout.
+     * @param idleTimeout The idle timeout in milliseconds.
+     */
+    public synchronized void stopIdleStreams(final long idleTimeout) {
+        long now = System.currentTimeMillis();
+        for (Stream stream : getEncodeOwners()) {
+            if (stream.isOnDemand() && stream.isEncoding() && now - stream.getLastRequestTime() > idleTimeout) {
+                stream.stopOnDemand();
+            }
+        }
+    }
+
+    /**
+     * Gets the finished recordings that can be evicted to free disk space: the streams that own an encode that is
+     * neither live nor on-demand and has completed, whose recording is not re-encoded nor clipped.
+     * @return The owners of the recordings, the least recently requested first (or created, if never requested).
+     */
+    public synchronized List<Stream> getEvictableStreams() {
+        return sortForEviction(getEncodeOwners().stream()
+                .filter(this::isEvictable)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Sorts recordings in eviction order: the least recently requested first, or created if never requested. The
+     * requests update the time of a stream while the recordings are sorted, so the time of each one is read once.
+     * @param recordings The owners of the recordings.
+     * @return The sorted recordings.
+     */
+    static List<Stream> sortForEviction(final List<Stream> recordings) {
+        Map<Stream, Long> times = new IdentityHashMap<>();
+        for (Stream stream : recordings) {
+            times.put(stream, Math.max(stream.getLastRequestTime(), stream.getCreationDate().getTime()));
+        }
+
+        List<Stream> sorted = new ArrayList<>(recordings);
+        sorted.sort(Comparator.comparingLong(times::get));
+        return sorted;
+    }
+
+    /**
+     * Evicts a finished recording to free disk space: the streams that use it are deleted with its directory. The
+     * directory is deleted on the calling thread once the streams are removed, outside of the registry lock.
+     * @param owner The stream that owns the recording (see {@link #getEvictableStreams()}).
+     * @return True, if the recording has been evicted; otherwise false, e.g. its encode has been restarted.
+     */
+    public boolean evictStream(final Stream owner) {
+        List<File> directories = new ArrayList<>();
+        boolean evicted;
+        synchronized (this) {
+            if (!isEvictable(owner)) {
+                return false;
+            }
+
+            //the owner is deleted last, with the directory
+            List<Integer> ids = streams.values().stream()
+                    .filter(s -> s.getEncodeOwner() == owner)
+                    .sorted(Comparator.comparing(s -> s == owner))
+                    .map(Stream::getID)
+                    .collect(Collectors.toList());
+            evicted = !ids.isEmpty();
+            for (Integer id : ids) {
+                evicted &= deleteStream(id, directories);
+            }
+        }
+
+        directories.forEach(this::deleteDirectory);
+        return evicted;
+    }
+
+    private boolean isEvictable(final Stream owner) {
+        return owner.getEncodeOwner() == owner && countReferences(owner, false) > 0 && !owner.isOnDemand() &&
+                !owner.isEncoding() && !AdmissionController.isQueued(owner.getID()) &&
+                !ArchiveReencoder.isPending(owner.getID()) && !ClipExtractor.isPending(owner.getID());
+    }
+
+    /**
+     * Stops the encoding of every stream.
+     */
+    public synchronized void stopAll() {
+        for (Stream s : getEncodeOwners()) {
+            s.stopEncoding();
+        }
+    }
+
+    /**
+     * Finds a running (or on-demand) encode that produces the same output requested for a new stream.
+     * @param url The input url of the new stream.
+     * @param type The encoding type of the new stream.
+     * @param mode The ffmpeg RTSP mode of the new stream.
+     * @param extraArgs The extra ffmpeg arguments of the new stream (null if not defined).
+     * @param onDemand Whether the new stream is encoded on demand.
+     * @param hls Whether the new stream is packaged in HLS as well (an encode with HLS serves streams without it).
+     * @return The stream that owns the encode; null if there is none.
+     */
+    private Stream findSharedEncode(final String url, final EncodingType type, final RTSPMode mode,
+                                    final List<String> extraArgs, final boolean onDemand, final boolean hls) {
+        for (Stream stream : getEncodeOwners()) {
+            if (stream.isOnDemand() == onDemand && (stream.isHls() || !hls) &&
+                    stream.canShareEncode(url, type, mode, extraArgs)) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts the streams that use an encode.
+     * @param owner The stream that owns the encode.
+     * @param activeOnly Whether streams stopped by clients must be ignored.
+     * @return The number of streams in the registry that use the encode.
+     */
+    private long countReferences(final Stream owner, final boolean activeOnly) {
+        return streams.values().stream()
+                .filter(s -> s.getEncodeOwner() == owner && !(activeOnly && s.isReleased()))
+                .count();
+    }
+
+    /**
+     * Gets the streams that own an encode, including deleted streams whose encode is still shared.
+     * @return The distinct owners of the encodes.
+     */
+    private Set<Stream> getEncodeOwners() {
+        Set<Stream> owners = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Stream stream : streams.values()) {
+            owners.add(stream.getEncodeOwner());
+        }
+        return owners;
+    }
+
+    /**
+     * Cleans global streams collections from instances that had errors.
+     * @return The directories of the removed streams, to be deleted.
+     */
+    private List<File> cleanStreams() {
+        List<File> directories = new ArrayList<>();
+        if (streams.size() > 0) {
+            try {
+                Logger.info("Cleaning streams...");
+                List<Integer> errorStreams = streams.entrySet().stream()
+                        .filter(i -> i.getValue().hadErrors())
+                        .map(i -> i.getValue().getID())
+                        .collect(Collectors.toList());
+
+                for (Integer id : errorStreams) {
+                    deleteStream(id, directories);
+                }
+                Logger.info("Cleaning completed.");
+            } catch (Exception e) {
+                Logger.warn("Unable to clean streams.");
+                e.printStackTrace();
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Restores streams from a backup file, if it's present
+     * @return True, if the operation is completed without errors; otherwise false.
+     */
+    public synchronized boolean restoreStreams() {
+
+        if (Files.notExists(Paths.get(Constants.STREAMS_FILE_PATH))) {
+            return false;
+        }
+
+        JsonObject jsonObject = JsonUtils.readJsonFromFile(Constants.STREAMS_FILE_PATH);
+
+        if (jsonObject != null) {
+            try {
+                //deserialize
+                ObjectMapper objectMapper = new ObjectMapper();
+                objectMapper.registerModule(new JavaTimeModule());
+                Map<Integer, Stream> parsedStreams = objectMapper.readValue(jsonObject.encode(), new TypeReference<Map<Integer, Stream>>(){});
+
+                //add entries if the manifest or the mezzanine exists, on-demand streams are kept and prepared for the next request
+                for (Map.Entry<Integer, Stream> entry : parsedStreams.entrySet()) {
+                    Stream stream = entry.getValue();
+                    locateDirectory(stream);
+                    String manifestPath = stream.getDirectory() + File.separator + "manifest.mpd";
+                    if (stream.isOnDemand() && stream.getEncodingType() != null) {
+                        if (!parsedStreams.containsKey(stream.getSourceID())) {
+                            stream.prepareEncoder(stream.getEncodingType(), RTSPMode.CLIENT);
+                        }
+                        streams.put(entry.getKey(), stream);
+                    } else {
+                        stream.setMezzanine(Files.exists(Paths.get(stream.getDirectory(), Constants.MEZZANINE_FILE)));
+                        if (stream.hasMezzanine() || Files.exists(Paths.get(manifestPath))) {
+                            streams.put(entry.getKey(), stream);
+                        }
+                    }
+                }
+
+                //attach aliases to the restored streams that own their encode
+                for (Stream stream : streams.values()) {
+                    Stream source = streams.get(stream.getSourceID());
+                    if (source != null && source != stream) {
+                        stream.setSource(source);
+                    }
+                }
+
+                //index the segments of the restored recordings, the aliases share the index of their owner
+                for (Stream stream : streams.values()) {
+                    if (!stream.isOnDemand() && stream.getEncodeOwner() == stream) {
+                        SegmentIndexer.restore(stream);
+                    }
+                }
+
+                //never reuse the id of a restored stream
+                streams.keySet().stream().max(Comparator.naturalOrder()).ifPresent(max -> nextID.set(max + 1));
+
+                //delete unused folders of every streams folder
+                List<Path> usedDirectories = streams.values().stream()
+                        .filter(i -> i.getDirectory() != null)
+                        .map(i -> Paths.get(i.getDirectory()).normalize())
+                        .collect(Collectors.toList());
+
+                for (String streamsPath : ConfigManager.getConfig().getStreamsPaths()) {
+                    File[] directories = new File(streamsPath).listFiles(File::isDirectory);
+                    if (directories == null) {
+                        continue;
+                    }
+
+                    for (File file : directories) {
+                        Path currPath = Paths.get(file.getPath()).normalize();
+                        if (!usedDirectories.contains(currPath)) {
+                            deleteDirectory(file);
+                        }
+                    }
+                }
+            } catch (Exception ex) {
+                Logger.error("Unable to restore streams:");
+                ex.printStackTrace();
+            }
+        } else {
+            Logger.warn("Unable to restore streams, the file may be corrupted.");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Looks for the directory of a restored stream in every streams folder if it is not where it was saved (e.g.
+     * the streams folders have been reordered or mounted elsewhere).
+     * @param stream The restored stream.
+     */
+    private void locateDirectory(final Stream stream) {
+        if (stream.getDirectory() == null || Files.isDirectory(Paths.get(stream.getDirectory()))) {
+            return;
+        }
+
+        String name = new File(stream.getDirectory()).getName();
+        for (String streamsPath : ConfigManager.getConfig().getStreamsPaths()) {
+            File directory = new File(streamsPath, name);
+            if (directory.isDirectory()) {
+                Logger.info("Stream with id: " + stream.getID() + " has been found in the streams folder " + streamsPath + ".");
+                stream.setDirectory(streamsPath + File.separator + name);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Saves all current active streams to file.
+     * @return True, if the operations is completed without errors; otherwise false.
+     */
+    public synchronized boolean saveStreams() {
+        try{
+            ObjectMapper objectMapper = new ObjectMapper();
+            objectMapper.registerModule(new JavaTimeModule());
+            objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+            String serialized = objectMapper.writeValueAsString(new TreeMap<>(streams));
+
+            FileWriter fstream = new FileWriter(Constants.STREAMS_FILE_PATH);
+            BufferedWriter out = new BufferedWriter(fstream);
+            out.write(serialized);
+            out.close();
+        }catch (Exception e){
+            Logger.error("Unable to serialize streams: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the directories of deleted streams in the background.
+     * @param directories The directories to delete.
+     */
+    private void deleteDirectories(final List<File> directories) {
+        if (!directories.isEmpty()) {
+            deleter.execute(() -> directories.forEach(this::deleteDirectory));
+        }
+    }
+
+    /**
+     * Deletes a folder and all its content (recursively).
+     * @param file The target folder to delete.
+     */
+    private void deleteDirectory(File file) {
+        File[] contents = file.listFiles();
+        if (contents != null) {
+            for (File f : contents) {
+                deleteDirectory(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -3,6 +3,8 @@ package jvs.stream.track;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -12,8 +14,25 @@ import java.util.regex.Pattern;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class VideoTrackInfo extends TrackInfo {
 
+    /**
+     * H.264 profiles decoded by every browser with MSE support
+     */
+    private static final List<String> BROWSER_PROFILES = Arrays.asList("Baseline", "Constrained Baseline", "Main", "High");
+
+    /**
+     * Highest H.264 level (5.2, up to 4096x2304) decoded by browsers
+     */
+    private static final int BROWSER_MAX_LEVEL = 52;
+
+    /**
+     * Pixel formats (8 bit 4:2:0) decoded by every browser
+     */
+    private static final List<String> BROWSER_PIXEL_FORMATS = Arrays.asList("yuv420p", "yuvj420p");
+
     @JsonProperty("pix_fmt")
     private String pixelFormat;
+    private String profile;
+    private int level;
     private int width;
     private int height;
     @JsonProperty("r_frame_rate")
@@ -43,6 +62,44 @@ public class VideoTrackInfo extends TrackInfo {
         return pixelFormat;
     }
 
+    /**
+     * Gets the codec profile.
+     * @return The profile of the video track (e.g. Main); null if not reported.
+     */
+    public String getProfile() {
+        return profile;
+    }
+
+    /**
+     * Gets the codec level.
+     * @return The level of the video track multiplied by 10 (e.g. 31 for 3.1); 0 or less if not reported.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Determine whether the track can be played by browsers as it is: H.264 up to the High profile
+     * and level 5.2, 8 bit 4:2:0.
+     * @return True, if the video can be copied instead of transcoded; otherwise false.
+     */
+    public boolean isBrowserCompatible() {
+        return "h264".equals(getCodecName()) && BROWSER_PROFILES.contains(profile) &&
+                BROWSER_PIXEL_FORMATS.contains(pixelFormat) && level > 0 && level <= BROWSER_MAX_LEVEL;
+    }
+
+    /**
+     * Determine whether the track may be played by browsers as it is: H.264 without any reported
+     * profile, level or pixel format that browsers cannot decode.
+     * @return True, if the video is H.264 and nothing prevents its playback; otherwise false.
+     */
+    public boolean isPossiblyBrowserCompatible() {
+        return "h264".equals(getCodecName()) &&
+                (profile == null || profile.isEmpty() || BROWSER_PROFILES.contains(profile)) &&
+                (pixelFormat == null || pixelFormat.isEmpty() || BROWSER_PIXEL_FORMATS.contains(pixelFormat)) &&
+                level <= BROWSER_MAX_LEVEL;
+    }
+
     /**
      * Gets the video framerate.
      * @return The framerate of the video track.
@@ -51,7 +108,7 @@ public class VideoTrackInfo extends TrackInfo {
 
         Double parsedValue = 24d; //default
 
-        if (!frameRate.isEmpty()) {
+        if (frameRate != null && !frameRate.isEmpty()) {
             Pattern pattern = Pattern.compile("(\\d+)/(\\d+)");
             Matcher matcher = pattern.matcher(frameRate);
 
@@ -19,14 +19,13 @@ public class DurationUtils {
      * @param duration The duration
     */
     public static String formatToISO8601(final Duration duration) {
-        long seconds = duration.getSeconds();
-        long absSeconds = Math.abs(seconds);
-        String positive = String.format(
-                "PT%dH%dM%dS",
-                absSeconds / 3600,
-                (absSeconds % 3600) / 60,
-                absSeconds % 60);
-        return seconds < 0 ? "-" + positive : positive;
+        long absSeconds = duration.abs().getSeconds();
+        //the fraction of second is only written when there is one
+        long millis = duration.abs().toMillis() % 1000;
+        String positive = millis == 0 ?
+                String.format("PT%dH%dM%dS", absSeconds / 3600, (absSeconds % 3600) / 60, absSeconds % 60) :
+                String.format("PT%dH%dM%d.%03dS", absSeconds / 3600, (absSeconds % 3600) / 60, absSeconds % 60, millis);
+        return duration.isNegative() ? "-" + positive : positive;
     }
 
     /**
@@ -0,0 +1,125 @@
+package jvs.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated ring buffer of the log messages, written by any number of threads and read by a single one.
+ * Producers claim a slot with a CAS on the head and publish it by writing its sequence number, so they never
+ * block: when the reader is a whole buffer behind, new messages are dropped and counted.
+ */
+class LogBuffer {
+
+    private final Entry[] entries;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(0);
+    private volatile long tail = 0;
+
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong totalDropped = new AtomicLong(0);
+
+    /**
+     * LogBuffer constructor
+     *
+     * @param size The number of slots (must be a power of two)
+     */
+    LogBuffer(final int size) {
+        if (size <= 0 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("The size of the log buffer must be a power of two (value: " + size + ")");
+        }
+        entries = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Adds a message, unless the buffer is full.
+     *
+     * @param level The level of the message
+     * @param category The category of the message
+     * @param message The message
+     * @return True, if the message has been added; otherwise false, it has been dropped.
+     */
+    boolean offer(final Logger.Level level, final String category, final String message) {
+        //claim a slot, drop the message if the reader is too far behind
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= entries.length) {
+                dropped.incrementAndGet();
+                totalDropped.incrementAndGet();
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        Entry entry = entries[(int)(sequence & mask)];
+        entry.level = level;
+        entry.category = category;
+        entry.message = message;
+        entry.sequence = sequence; //publish
+        return true;
+    }
+
+    /**
+     * Removes the oldest message and appends it to a line as it is written, e.g. "[WARNING] [ffmpeg] message".
+     * Must only be called by the reader.
+     *
+     * @param line The line to append the message to
+     * @return True, if a message has been removed; otherwise false, the buffer is empty or the next producer is
+     * still filling its slot.
+     */
+    boolean poll(final StringBuilder line) {
+        long sequence = tail;
+        Entry entry = entries[(int)(sequence & mask)];
+        if (entry.sequence != sequence) {
+            return false;
+        }
+
+        line.append('[').append(entry.level.name()).append("] ");
+        if (!Logger.SERVER.equals(entry.category)) {
+            line.append('[').append(entry.category).append("] ");
+        }
+        line.append(entry.message);
+        entry.message = null;
+        tail = sequence + 1; //release the slot
+        return true;
+    }
+
+    /**
+     * Determine whether every claimed slot has been read.
+     *
+     * @return True, if the buffer is empty; otherwise false.
+     */
+    boolean isEmpty() {
+        return tail >= head.get();
+    }
+
+    /**
+     * Gets the number of messages dropped since the last call, and resets it.
+     *
+     * @return The number of dropped messages
+     */
+    long takeDropped() {
+        return dropped.getAndSet(0);
+    }
+
+    /**
+     * Gets the number of messages dropped since the buffer was created.
+     *
+     * @return The number of dropped messages
+     */
+    long getDroppedCount() {
+        return totalDropped.get();
+    }
+
+    /**
+     * Slot of the ring buffer.
+     */
+    private static class Entry {
+        private volatile long sequence = -1;
+        private Logger.Level level;
+        private String category;
+        private String message;
+    }
+}
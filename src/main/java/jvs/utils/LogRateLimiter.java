@@ -0,0 +1,63 @@
+package jvs.utils;
+
+/**
+ * Limits the number of lines logged per second by a single source (e.g. the stderr of one ffmpeg process),
+ * so that a verbose or failing encode cannot flood the log of the whole server.
+ * Suppressed lines are counted and reported once per second.
+ */
+public class LogRateLimiter {
+
+    private final String category;
+    private final String prefix;
+    private final int linesPerSecond;
+    private long windowStart = 0;
+    private int windowLines = 0;
+    private long suppressed = 0;
+
+    /**
+     * LogRateLimiter constructor
+     * @param category The logger category of the lines.
+     * @param prefix The prefix of every line (e.g. the stream id).
+     * @param linesPerSecond The maximum number of lines logged per second (0 or less means unlimited).
+     */
+    public LogRateLimiter(final String category, final String prefix, final int linesPerSecond) {
+        this.category = category;
+        this.prefix = prefix;
+        this.linesPerSecond = linesPerSecond;
+    }
+
+    /**
+     * Logs a line if the rate of the source allows it.
+     * @param level The level of the line.
+     * @param line The line to log.
+     */
+    public void log(final Logger.Level level, final String line) {
+        if (!Logger.isEnabled(level, category)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= 1000) {
+            report();
+            windowStart = now;
+            windowLines = 0;
+        }
+
+        if (linesPerSecond <= 0 || windowLines < linesPerSecond) {
+            windowLines++;
+            Logger.log(level, category, prefix + line);
+        } else {
+            suppressed++;
+        }
+    }
+
+    /**
+     * Reports the lines suppressed since the last report.
+     */
+    public void report() {
+        if (suppressed > 0) {
+            Logger.log(Logger.Level.WARNING, category, prefix + suppressed + " lines suppressed (rate limit).");
+            suppressed = 0;
+        }
+    }
+}
@@ -1,42 +1,282 @@
 package jvs.utils;
 
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 /**
- * Generic easy to use logger implementation
+ * Generic easy to use logger implementation.
+ * Messages are stored in a preallocated ring buffer and written to the standard output by a single
+ * writer thread, so callers (event loops and ffmpeg reader threads) never block on a slow stdout.
+ * When the buffer is full new messages are dropped and counted. Every category has its own level,
+ * which can be changed at runtime.
  */
 public class Logger {
-	/**
-	 * Logs a normal information message.
-	 * 
-	 * @param message The message to log
-	 */
-	public static void info(final String message) {	
-		System.out.println("[INFO] " + message);
-	}
-	
-	/**
-	 * Logs a warning message
-	 * 
-	 * @param message The message to log
-	 */
-	public static void warn(final String message) {	
-		System.out.println("[WARNING] " + message);
-	}
-	
-	/**
-	 * Logs an error message
-	 * 
-	 * @param message The message to log
-	 */
-	public static void error(final String message) {	
-		System.out.println("[ERROR] " + message);
-	}
-	
-	/**
-	 * Logs a generic message
-	 * 
-	 * @param message The message to log
-	 */
-	public static void log(final String message) {	
-		System.out.println(message);
-	}
+
+    /**
+     * Severity of a message, in increasing order
+     */
+    public enum Level {
+        DEBUG, INFO, WARNING, ERROR, OFF
+    }
+
+    /* Categories */
+    public static final String SERVER = "server";
+    public static final String COMMANDS = "commands";
+    public static final String FFMPEG = "ffmpeg";
+    public static final String FFPROBE = "ffprobe";
+
+    /**
+     * Name used to refer to the default level
+     */
+    public static final String DEFAULT_CATEGORY = "default";
+
+    /**
+     * Number of slots of the ring buffer (must be a power of two)
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    static final LogBuffer buffer = new LogBuffer(BUFFER_SIZE);
+
+    private static final Map<String, Level> levels = new ConcurrentHashMap<>();
+    private static volatile Level defaultLevel = Level.INFO;
+
+    private static volatile boolean writerWaiting = false;
+    private static final Thread writer = startWriter();
+
+    private Logger(){}
+
+    /**
+     * Logs a normal information message.
+     *
+     * @param message The message to log
+     */
+    public static void info(final String message) {
+        log(Level.INFO, SERVER, message);
+    }
+
+    /**
+     * Logs a warning message
+     *
+     * @param message The message to log
+     */
+    public static void warn(final String message) {
+        log(Level.WARNING, SERVER, message);
+    }
+
+    /**
+     * Logs an error message
+     *
+     * @param message The message to log
+     */
+    public static void error(final String message) {
+        log(Level.ERROR, SERVER, message);
+    }
+
+    /**
+     * Logs a debug message of a category
+     *
+     * @param category The category of the message
+     * @param message The message to log
+     */
+    public static void debug(final String category, final String message) {
+        log(Level.DEBUG, category, message);
+    }
+
+    /**
+     * Logs a message of a category, if the level is enabled for the category.
+     *
+     * @param level The level of the message
+     * @param category The category of the message
+     * @param message The message to log
+     */
+    public static void log(final Level level, final String category, final String message) {
+        if (!isEnabled(level, category)) {
+            return;
+        }
+
+        if (buffer.offer(level, category, message) && writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Determine whether messages of a level are logged for a category. Callers should check it
+     * before building expensive messages.
+     *
+     * @param level The level of the message
+     * @param category The category of the message
+     * @return True, if the messages are logged; otherwise false.
+     */
+    public static boolean isEnabled(final Level level, final String category) {
+        Level threshold = levels.getOrDefault(category, defaultLevel);
+        return level != Level.OFF && level.ordinal() >= threshold.ordinal();
+    }
+
+    /**
+     * Determine whether debug messages are logged for a category.
+     *
+     * @param category The category
+     * @return True, if debug messages are logged; otherwise false.
+     */
+    public static boolean isDebugEnabled(final String category) {
+        return isEnabled(Level.DEBUG, category);
+    }
+
+    /**
+     * Sets the level of a category.
+     *
+     * @param category The category
+     * @param level The minimum level of the logged messages
+     */
+    public static void setLevel(final String category, final Level level) {
+        levels.put(category, level);
+    }
+
+    /**
+     * Sets the level used by categories without a specific level.
+     *
+     * @param level The minimum level of the logged messages
+     */
+    public static void setDefaultLevel(final Level level) {
+        defaultLevel = level;
+    }
+
+    /**
+     * Sets the levels of multiple categories, the "default" category sets the default level.
+     *
+     * @param categoryLevels The level names indexed by category
+     * @return True, if all levels are valid and have been applied; otherwise false.
+     */
+    public static boolean setLevels(final Map<String, String> categoryLevels) {
+        boolean valid = true;
+        for (Map.Entry<String, String> entry : categoryLevels.entrySet()) {
+            Level level = parseLevel(entry.getValue());
+            if (level == null) {
+                warn("Invalid logging level '" + entry.getValue() + "' for category: " + entry.getKey());
+                valid = false;
+            } else if (DEFAULT_CATEGORY.equals(entry.getKey())) {
+                setDefaultLevel(level);
+            } else {
+                setLevel(entry.getKey(), level);
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Gets the level used by categories without a specific level.
+     *
+     * @return The default level
+     */
+    public static Level getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    /**
+     * Gets the levels of all categories with a specific level.
+     *
+     * @return The levels indexed by category
+     */
+    public static Map<String, Level> getLevels() {
+        return new TreeMap<>(levels);
+    }
+
+    /**
+     * Gets the number of messages dropped since the start because the buffer was full.
+     *
+     * @return The number of dropped messages
+     */
+    public static long getDroppedCount() {
+        return buffer.getDroppedCount();
+    }
+
+    /**
+     * Parses a level name.
+     *
+     * @param name The name of the level (case insensitive)
+     * @return The level; null if the name is not valid
+     */
+    public static Level parseLevel(final String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return "WARN".equalsIgnoreCase(name.trim()) ? Level.WARNING : null;
+        }
+    }
+
+    /**
+     * Waits until all buffered messages are written.
+     *
+     * @param timeout The maximum time to wait, in milliseconds
+     */
+    public static void flush(final long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (!buffer.isEmpty() && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Starts the writer thread and the hook that drains the buffer on exit.
+     *
+     * @return The writer thread
+     */
+    private static Thread startWriter() {
+        Thread thread = new Thread(Logger::write, "logger");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(2000)));
+        return thread;
+    }
+
+    /**
+     * Body of the writer thread: drains the buffer in order, flushing stdout only when it is empty.
+     */
+    private static void write() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out),
+                StandardCharsets.UTF_8), 1 << 16);
+        StringBuilder line = new StringBuilder(256);
+
+        while (true) {
+            try {
+                line.setLength(0);
+                if (!buffer.poll(line)) {
+                    //buffer empty (or the next producer is still filling its slot)
+                    long lost = buffer.takeDropped();
+                    if (lost > 0) {
+                        out.write("[WARNING] Logger buffer full, " + lost + " messages dropped.\n");
+                    }
+                    out.flush();
+
+                    writerWaiting = true;
+                    if (buffer.isEmpty()) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                    }
+                    writerWaiting = false;
+                    continue;
+                }
+
+                out.append(line.append('\n'));
+            } catch (IOException e) {
+                //stdout is gone, nothing else to report to
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
 }
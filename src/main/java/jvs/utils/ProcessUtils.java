@@ -0,0 +1,61 @@
+package jvs.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Process utilities
+ */
+public class ProcessUtils {
+
+    private ProcessUtils(){}
+
+    /**
+     * Gets the operating system identifier of a process started by the JVM.
+     * Uses Process.pid() when available (Java 9+), otherwise reads the private
+     * pid field of the unix process implementation (Java 8).
+     * @param process The process.
+     * @return The pid of the process; -1 if it cannot be retrieved.
+     */
+    public static long getPid(final Process process) {
+        if (process == null) {
+            return -1;
+        }
+
+        try {
+            Method method = Process.class.getMethod("pid");
+            return (long)method.invoke(process);
+        } catch (Exception e) {
+            //not available, fallback to the implementation field
+        }
+
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getLong(process);
+        } catch (Exception e) {
+            Logger.warn("Unable to retrieve the pid of the process: " + e.getLocalizedMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * Sends a signal to a process (e.g. STOP or CONT to pause and resume it).
+     * @param pid The pid of the process.
+     * @param signal The name of the signal, without the SIG prefix.
+     * @return True, if the signal has been sent; otherwise false.
+     */
+    public static boolean signal(final long pid, final String signal) {
+        if (pid <= 0) {
+            return false;
+        }
+
+        try {
+            Process kill = new ProcessBuilder("kill", "-" + signal, Long.toString(pid)).start();
+            return kill.waitFor() == 0;
+        } catch (Exception e) {
+            Logger.warn("Unable to send signal " + signal + " to the process " + pid + ": " + e.getLocalizedMessage());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,331 @@
+package jvs.workers;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.monitor.ResourceMonitor;
+import jvs.stream.Stream;
+import jvs.stream.StreamInfo;
+import jvs.utils.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the cpu usage of the encodes within a configured budget.
+ * Every encode reserves its estimated cost (see {@link EncodingSelector#estimateCpu(EncodingType, StreamInfo)})
+ * before ffmpeg is started: new requests are rejected when the projected load exceeds the budget, while
+ * encodes whose input turns out to be more expensive than expected wait in a queue until enough cpu is released.
+ * The model estimates are multiplied by a coefficient per encoding type, calibrated from the cpu usage of the
+ * running ffmpeg processes sampled by the {@link ResourceMonitor}.
+ */
+public class AdmissionController {
+
+    /**
+     * Weight of a new sample in the calibrated coefficients
+     */
+    private static final double CALIBRATION_WEIGHT = 0.2;
+
+    /**
+     * Time, in milliseconds, after the start of an encode before its cpu usage is representative
+     */
+    private static final long WARMUP_TIME = 10000;
+
+    /**
+     * Seconds suggested to rejected clients before retrying
+     */
+    public static final int RETRY_AFTER = 30;
+
+    /**
+     * Input assumed for requests that cannot be analyzed before they are admitted (1080p at 30 fps with audio)
+     */
+    private static final StreamInfo DEFAULT_INPUT = StreamInfo.parseStreamInfo("{\"streams\":[" +
+            "{\"index\":0,\"codec_type\":\"video\",\"width\":1920,\"height\":1080,\"r_frame_rate\":\"30/1\"}," +
+            "{\"index\":1,\"codec_type\":\"audio\"}]}");
+
+    private static final Map<EncodingType, Double> coefficients = new EnumMap<>(EncodingType.class);
+    private static final Map<Integer, Reservation> reservations = new ConcurrentHashMap<>();
+    private static final Deque<Reservation> queue = new ArrayDeque<>();
+    private static final Set<Integer> queuedIDs = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService timer = null;
+    private static volatile double budget = 0;
+    private static long queueTimeout = 0;
+
+    private AdmissionController(){}
+
+    /**
+     * Starts the admission control.
+     * @param budgetPercent The cpu budget of the encodes, in percent of the whole host (0 disables the control).
+     * @param timeout The maximum time, in milliseconds, an encode waits in the queue before failing.
+     * @param interval The interval, in milliseconds, between two calibrations.
+     */
+    public static synchronized void start(final int budgetPercent, final long timeout, final long interval) {
+        if (timer != null || budgetPercent <= 0) {
+            return;
+        }
+
+        budget = budgetPercent * Runtime.getRuntime().availableProcessors();
+        queueTimeout = timeout;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "admission-controller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(AdmissionController::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the admission control.
+     */
+    public static synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        budget = 0;
+    }
+
+    /**
+     * Determine whether a new encode fits in the budget.
+     * @param type The requested encoding type.
+     * @param streamInfo The information about the input tracks; null if the input has not been analyzed.
+     * @return True, if the encode can be started; otherwise false.
+     */
+    public static synchronized boolean canAdmit(final EncodingType type, final StreamInfo streamInfo) {
+        if (budget <= 0) {
+            return true;
+        }
+        double cost = estimate(type == EncodingType.AUTO ? EncodingType.MPEG_DASH_H264_AAC : type,
+                streamInfo != null ? streamInfo : DEFAULT_INPUT);
+        return fits(cost);
+    }
+
+    /**
+     * Reserves the cost of an encode and starts it, or queues it if the budget is exhausted.
+     * @param stream The stream to encode.
+     * @param type The encoding type actually used.
+     * @param streamInfo The information about the input tracks; null if the input has not been analyzed.
+     * @param start The action that starts ffmpeg.
+     */
+    public static void admit(final Stream stream, final EncodingType type, final StreamInfo streamInfo, final Runnable start) {
+        double modelCpu = EncodingSelector.estimateCpu(type, streamInfo != null ? streamInfo : new StreamInfo());
+        admit(new Reservation(stream, type, modelCpu, true, start));
+    }
+
+    /**
+     * Reserves a fixed cost for an encode and starts it, or queues it if the budget is exhausted.
+     * The cost is not used to calibrate the coefficients (e.g. a recording transcoded faster than real time).
+     * @param stream The stream to encode.
+     * @param type The encoding type actually used.
+     * @param cpu The cpu usage of the encode, in percent of a single core.
+     * @param start The action that starts ffmpeg.
+     */
+    public static void admit(final Stream stream, final EncodingType type, final double cpu, final Runnable start) {
+        admit(new Reservation(stream, type, cpu, false, start));
+    }
+
+    /**
+     * Reserves the cost of an encode and starts it, or queues it if the budget is exhausted.
+     * @param reservation The reservation of the encode.
+     */
+    private static void admit(final Reservation reservation) {
+        Stream stream = reservation.stream;
+        Runnable start = reservation.start;
+
+        synchronized (AdmissionController.class) {
+            if (budget > 0 && (!queue.isEmpty() || !fits(reservation.getEstimatedCpu()))) {
+                reservation.deadline = System.currentTimeMillis() + queueTimeout;
+                queue.add(reservation);
+                queuedIDs.add(stream.getID());
+                Logger.warn("Encode of stream with id: " + stream.getID() + " queued, the cpu budget is exhausted (load: " +
+                        Math.round(getLoad()) + "%, cost: " + Math.round(reservation.getEstimatedCpu()) +
+                        "%, budget: " + Math.round(budget) + "%).");
+                return;
+            }
+            reservation.startTime = System.currentTimeMillis();
+            reservations.put(stream.getID(), reservation);
+        }
+        start.run();
+    }
+
+    /**
+     * Releases the cost reserved by an encode (running or queued) and starts the queued encodes that fit on the
+     * admission thread, since the encodes are released by the event loops and by the completion of ffmpeg.
+     * @param streamID The id of the stream.
+     */
+    public static void release(final int streamID) {
+        synchronized (AdmissionController.class) {
+            boolean released = reservations.remove(streamID) != null | queue.removeIf(r -> r.stream.getID() == streamID);
+            queuedIDs.remove(streamID);
+            if (released && timer != null && !queue.isEmpty()) {
+                timer.execute(AdmissionController::drainQueue);
+            }
+        }
+    }
+
+    /**
+     * Determine whether the encode of a stream is waiting for cpu.
+     * @param streamID The id of the stream.
+     * @return True, if the encode is queued; otherwise false.
+     */
+    public static boolean isQueued(final int streamID) {
+        return queuedIDs.contains(streamID);
+    }
+
+    /**
+     * Gets the share of the budget left by the admitted encodes, for work that must yield the cpu to them.
+     * @return The share (0-1), 0 if encodes are waiting in the queue; 1 if the admission control is disabled.
+     */
+    public static synchronized double getHeadroom() {
+        if (budget <= 0) {
+            return 1;
+        }
+        return queue.isEmpty() ? Math.max(0, 1 - getLoad() / budget) : 0;
+    }
+
+    /**
+     * Return a json object with the budget, the current load, the queue length and the calibrated coefficients.
+     * @return The json with the admission state.
+     */
+    public static synchronized JsonObject toJSON() {
+        JsonObject calibration = new JsonObject();
+        coefficients.forEach((k, v) -> calibration.put(k.name(), Math.round(v * 100) / 100d));
+
+        return new JsonObject().put(Constants.BUDGET_KEY, budget)
+                .put(Constants.LOAD_KEY, Math.round(getLoad() * 10) / 10d)
+                .put(Constants.QUEUED_KEY, queue.size())
+                .put(Constants.COEFFICIENTS_KEY, calibration);
+    }
+
+    /**
+     * Estimates the cost of an encode with the calibrated coefficient of its type.
+     * @param type The encoding type.
+     * @param streamInfo The information about the input tracks.
+     * @return The estimated cpu usage, in percent of a single core.
+     */
+    private static double estimate(final EncodingType type, final StreamInfo streamInfo) {
+        return EncodingSelector.estimateCpu(type, streamInfo) * coefficients.getOrDefault(type, 1d);
+    }
+
+    /**
+     * Determine whether an encode fits in the budget. An encode more expensive than the whole budget
+     * is still started when no other encode is running, otherwise it could never run.
+     * @param cost The estimated cpu usage of the encode, in percent of a single core.
+     * @return True, if the encode fits; otherwise false.
+     */
+    private static boolean fits(final double cost) {
+        return reservations.isEmpty() || getLoad() + cost <= budget;
+    }
+
+    /**
+     * Gets the load of the admitted encodes: the measured cpu usage of warmed up encodes, the estimated one otherwise.
+     * @return The cpu usage, in percent of a single core.
+     */
+    private static double getLoad() {
+        long now = System.currentTimeMillis();
+        double load = 0;
+        for (Reservation reservation : reservations.values()) {
+            double measured = ResourceMonitor.getStreamUsage(reservation.stream.getID()).getCpuPercent();
+            load += now - reservation.startTime > WARMUP_TIME && measured > 0 ? measured : reservation.getEstimatedCpu();
+        }
+        return load;
+    }
+
+    /**
+     * Calibrates the coefficients, expires the queued encodes that waited too long and starts the ones that fit.
+     */
+    private static void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Reservation> expired = new ArrayList<>();
+
+            synchronized (AdmissionController.class) {
+                for (Reservation reservation : reservations.values()) {
+                    double measured = ResourceMonitor.getStreamUsage(reservation.stream.getID()).getCpuPercent();
+                    if (reservation.calibrated && now - reservation.startTime > WARMUP_TIME && measured > 0 && reservation.modelCpu > 0) {
+                        double coefficient = coefficients.getOrDefault(reservation.type, 1d);
+                        coefficients.put(reservation.type, coefficient * (1 - CALIBRATION_WEIGHT) +
+                                measured / reservation.modelCpu * CALIBRATION_WEIGHT);
+                    }
+                }
+
+                Iterator<Reservation> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    Reservation reservation = iterator.next();
+                    if (now > reservation.deadline) {
+                        iterator.remove();
+                        queuedIDs.remove(reservation.stream.getID());
+                        expired.add(reservation);
+                    }
+                }
+            }
+
+            for (Reservation reservation : expired) {
+                Logger.error("Encode of stream with id: " + reservation.stream.getID() +
+                        " failed, no cpu has been available for " + (queueTimeout / 1000) + " seconds.");
+                reservation.stream.setError();
+                reservation.stream.stopEncoding();
+            }
+
+            drainQueue();
+        } catch (Exception e) {
+            Logger.error("Admission controller failed to calibrate the encodes costs: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Starts the queued encodes, in order, while they fit in the budget.
+     */
+    private static void drainQueue() {
+        while (true) {
+            Reservation next;
+            synchronized (AdmissionController.class) {
+                next = queue.peek();
+                if (next == null || !fits(next.getEstimatedCpu())) {
+                    return;
+                }
+                queue.poll();
+                queuedIDs.remove(next.stream.getID());
+                next.startTime = System.currentTimeMillis();
+                reservations.put(next.stream.getID(), next);
+            }
+            Logger.info("Starting queued encode of stream with id: " + next.stream.getID());
+            next.start.run();
+        }
+    }
+
+    /**
+     * Cost reserved by an encode.
+     */
+    private static class Reservation {
+        private final Stream stream;
+        private final EncodingType type;
+        private final double modelCpu;
+        private final boolean calibrated;
+        private final Runnable start;
+        private long startTime;
+        private long deadline;
+
+        private Reservation(final Stream stream, final EncodingType type, final double modelCpu,
+                            final boolean calibrated, final Runnable start) {
+            this.stream = stream;
+            this.type = type;
+            this.modelCpu = modelCpu;
+            this.calibrated = calibrated;
+            this.start = start;
+        }
+
+        private double getEstimatedCpu() {
+            return calibrated ? modelCpu * coefficients.getOrDefault(type, 1d) : modelCpu;
+        }
+    }
+}
@@ -5,7 +5,6 @@ import java.util.Optional;
 
 import jvs.stream.*;
 import jvs.stream.track.*;
-import jvs.Constants;
 import jvs.utils.Logger;
 import jvs.workers.events.CompletedEventArgs;
 import jvs.workers.events.CompletedEventListener;
@@ -43,9 +42,11 @@ public class Analyzer {
 
         Worker mainWorker = new FFProbeWorker(Arrays.asList("-hide_banner", "-print_format", "json",
                 "-show_streams", stream.getInputUrl()));
+        mainWorker.setOwnerID(stream.getID());
 
         mainWorker.addOnCompleteListener(args -> {
             Optional<Integer> opt = args.getExitCode();
+            StreamInfo streamInfo = null;
 
             //mark stream as removable
             if (!opt.isPresent() || opt.get() != 0) {
@@ -57,19 +58,19 @@ public class Analyzer {
                     Logger.info("Analysis completed for stream with id: " + stream.getID());
 
                     String json = (String)args.getResult();
-                    StreamInfo streamInfo = StreamInfo.parseStreamInfo(json);
+                    streamInfo = StreamInfo.parseStreamInfo(json);
 
                     //check if parsing failed or succeeded
                     if (streamInfo != null) {
 
                         // prettily print all parsed tracks
-                        if (Constants.DEBUG_MODE) {
+                        if (Logger.isDebugEnabled(Logger.FFPROBE)) {
 
                             String log = "Parsed Tracks:\r\n";
                             for (TrackInfo si : streamInfo.getAllTracks()) {
                                 if (si.getStreamType() == TrackType.VIDEO) {
                                     VideoTrackInfo vsi = (VideoTrackInfo) si;
-                                    log += "#" + si.getIndex() + " - type: video, codec: " + vsi.getCodecName() + ", w: " +
+                                    log += "#" + si.getIndex() + " - type: video, codec: " + vsi.getCodecName() + ", profile: " + vsi.getProfile() + ", w: " +
                                             vsi.getWidth() + ", h: " + vsi.getHeight() + ", fps: " +
                                             String.format("%.3f", vsi.getFrameRate()) + ", pixFmt: " + vsi.getPixelFormat() + "\r\n";
                                 } else if (si.getStreamType() == TrackType.AUDIO) {
@@ -79,15 +80,7 @@ public class Analyzer {
                                 }
                             }
 
-                            Logger.log(log);
-                        }
-
-                        if (completedListener != null) {
-                            completedListener.handle(new CompletedEventArgs(0, streamInfo));
-
-                        } else {
-                            Logger.warn("Unable to trigger completed event listener after analysis (stream id: " +
-                                    stream.getID()+ ") because it was null.");
+                            Logger.debug(Logger.FFPROBE, log);
                         }
 
                     } else {
@@ -105,6 +98,16 @@ public class Analyzer {
                         ") was completed. FFProbe worker returned no exit code.");
             }
             isRunning = false;
+
+            //failures are reported too, the encoder stops waiting for the analysis
+            if (completedListener != null) {
+                completedListener.handle(streamInfo != null ? new CompletedEventArgs(0, streamInfo) :
+                        new CompletedEventArgs(opt.orElse(null), null));
+
+            } else {
+                Logger.warn("Unable to trigger completed event listener after analysis (stream id: " +
+                        stream.getID()+ ") because it was null.");
+            }
         });
 
         worker = new Thread(mainWorker);
@@ -115,7 +118,8 @@ public class Analyzer {
     }
 
     /**
-     * Attach a listener to the on analysis complete event of the analyzer.
+     * Attach a listener to the on analysis complete event of the analyzer. The result of the event is the
+     * information about the input stream, null if the analysis failed.
      *
      * @param listener A CompletedEventListener
      */
@@ -0,0 +1,602 @@
+package jvs.workers;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.command.CommandsGenerator;
+import jvs.config.ConfigManager;
+import jvs.packaging.MezzanineIndex;
+import jvs.packaging.MezzaninePackager;
+import jvs.packaging.SegmentPack;
+import jvs.stream.Stream;
+import jvs.utils.Logger;
+import jvs.utils.ProcessUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Re-encodes the recordings of completed H.264 live encodes with an efficient preset, since the live encodes
+ * use the fastest presets to keep up with the input. The archives are encoded one at a time by a niced ffmpeg,
+ * which is paused while the admitted live encodes leave less than a quarter of the cpu budget
+ * (see {@link AdmissionController#getHeadroom()}). The new segments are written in a subdirectory of the stream,
+ * then the manifest is atomically replaced by one pointing to them and the old segments are deleted once
+ * the viewers had the time to reload the manifest.
+ * When the mezzanine storage is enabled, the recording (re-encoded or copied) is instead written in a single
+ * fragmented mp4 file, from which the manifests and segments are packaged on request (see {@link MezzaninePackager}).
+ */
+public class ArchiveReencoder {
+
+    /**
+     * Niceness of the archive encodes
+     */
+    private static final int NICENESS = 19;
+
+    /**
+     * Share of the cpu budget left by the live encodes below which the archive encode is paused
+     */
+    private static final double MIN_HEADROOM = 0.25;
+
+    /**
+     * Time, in milliseconds, the old segments are kept after the manifest has been replaced
+     */
+    private static final long DELETE_DELAY = 60000;
+
+    /**
+     * Directories, inside the stream directory, of the archive and of the files being encoded
+     */
+    private static final String ARCHIVE_DIR = "archive";
+    private static final String WORK_DIR = "archive.tmp";
+    private static final String INPUT_DIR = "input";
+    private static final String MANIFEST = "manifest.mpd";
+
+    /**
+     * Segments written by the MPEG-DASH muxer: the init segment and the numbered media segments of each representation
+     */
+    private static final Pattern INIT_SEGMENT = Pattern.compile("init-stream(\\d+)\\.m4s");
+    private static final Pattern MEDIA_SEGMENT = Pattern.compile("chunk-stream(\\d+)-(\\d+)\\.m4s");
+
+    /**
+     * HLS media playlists written by the MPEG-DASH muxer, one per representation
+     */
+    private static final Pattern MEDIA_PLAYLIST = Pattern.compile("media_\\d+\\.m3u8");
+
+    private static final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+    private static ExecutorService executor = null;
+    private static ScheduledExecutorService timer = null;
+
+    private ArchiveReencoder(){}
+
+    /**
+     * Starts the re-encoder.
+     * @param interval The interval, in milliseconds, between two checks of the cpu left by the live encodes.
+     */
+    public static synchronized void start(final long interval) {
+        if (executor != null) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "archive-reencoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "archive-preemption");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(ArchiveReencoder::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the re-encoder, killing the running encode. The recordings not re-encoded yet keep their live segments.
+     */
+    public static synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+
+        jobs.keySet().forEach(ArchiveReencoder::cancel);
+        executor.shutdownNow();
+        timer.shutdownNow();
+        executor = null;
+        timer = null;
+    }
+
+    /**
+     * Queues the re-encode of the recording of a completed live encode.
+     * @param stream The stream whose recording is re-encoded.
+     * @param cmdGen The commandsGenerator used by the live encode, with the information about the input tracks.
+     * @param reencode True, to re-encode the video; false, to only store the recording as a mezzanine.
+     */
+    public static synchronized void schedule(final Stream stream, final CommandsGenerator cmdGen, final boolean reencode) {
+        if (executor == null) {
+            return;
+        }
+
+        cancel(stream.getID());
+        Job job = new Job(stream, cmdGen, reencode, ConfigManager.getConfig().isMezzanineEnabled());
+        jobs.put(stream.getID(), job);
+        job.future = executor.submit(job::run);
+        Logger.info("Re-encode of the archive of stream with id: " + stream.getID() + " queued.");
+    }
+
+    /**
+     * Cancels the re-encode of a recording, killing ffmpeg if it is running. A replaced manifest is kept.
+     * @param streamID The id of the stream.
+     */
+    public static void cancel(final int streamID) {
+        Job job = jobs.remove(streamID);
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Checks whether the recording of a stream is being re-encoded.
+     * @param streamID The id of the stream.
+     * @return True, if the re-encode is queued, running or paused; otherwise false.
+     */
+    public static boolean isPending(final int streamID) {
+        Job job = jobs.get(streamID);
+        return job != null && (job.state == State.QUEUED || job.state == State.RUNNING || job.state == State.PAUSED);
+    }
+
+    /**
+     * Return a json object that represents the re-encode of the recording of a stream.
+     * @param streamID The id of the stream.
+     * @return The json with the state and the size of the segments before and after the re-encode;
+     * null if the recording is not re-encoded.
+     */
+    public static JsonObject toJSON(final int streamID) {
+        Job job = jobs.get(streamID);
+        if (job == null) {
+            return null;
+        }
+
+        JsonObject json = new JsonObject().put(Constants.STATE_KEY, job.state.name().toLowerCase())
+                .put(Constants.BYTESBEFORE_KEY, job.bytesBefore);
+        if (job.state == State.COMPLETED) {
+            json.put(Constants.BYTESAFTER_KEY, job.bytesAfter)
+                    .put(Constants.BYTESSAVED_KEY, job.bytesBefore - job.bytesAfter);
+        }
+        return json;
+    }
+
+    /**
+     * Pauses the running encode while the live encodes need the cpu, resumes it otherwise.
+     */
+    private static void tick() {
+        try {
+            boolean preempt = AdmissionController.getHeadroom() < MIN_HEADROOM;
+            for (Job job : jobs.values()) {
+                if (job.state == State.RUNNING && preempt) {
+                    job.pause();
+                } else if (job.state == State.PAUSED && !preempt) {
+                    job.resume();
+                }
+            }
+        } catch (Exception e) {
+            Logger.error("Archive re-encoder failed to check the cpu usage: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * States of a re-encode.
+     */
+    private enum State {
+        QUEUED, RUNNING, PAUSED, COMPLETED, FAILED
+    }
+
+    /**
+     * Re-encode of the recording of a stream.
+     */
+    private static class Job {
+        private final Stream stream;
+        private final CommandsGenerator cmdGen;
+        private final Duration duration;
+        private final boolean reencode;
+        private final boolean mezzanine;
+        private volatile State state = State.QUEUED;
+        private volatile boolean cancelled = false;
+        private volatile long bytesBefore = 0;
+        private volatile long bytesAfter = 0;
+        private volatile FFMpegWorker ffmpeg = null;
+        private Future<?> future = null;
+
+        private Job(final Stream stream, final CommandsGenerator cmdGen, final boolean reencode, final boolean mezzanine) {
+            this.stream = stream;
+            this.cmdGen = cmdGen;
+            this.duration = SegmentIndexer.getDuration(stream.getID(), stream.getDuration());
+            this.reencode = reencode;
+            this.mezzanine = mezzanine;
+        }
+
+        /**
+         * Re-encodes the recording, or stores it as a mezzanine, and replaces the live segments.
+         */
+        private void run() {
+            File streamDir = new File(stream.getDirectory());
+            File workDir = new File(streamDir, WORK_DIR);
+            File inputDir = new File(workDir, INPUT_DIR);
+
+            try {
+                deleteDirectory(workDir);
+                if (!inputDir.mkdirs()) {
+                    fail("failed to create new folder: " + inputDir.getPath());
+                    return;
+                }
+
+                //the segments of each representation are joined back into a fragmented mp4 file
+                Map<Integer, List<File>> representations = listSegments(streamDir);
+                if (representations.isEmpty()) {
+                    fail("no MPEG-DASH segments found");
+                    return;
+                }
+                List<String> inputs = new ArrayList<>();
+                for (Map.Entry<Integer, List<File>> representation : representations.entrySet()) {
+                    String input = INPUT_DIR + File.separator + "in_" + representation.getKey() + ".mp4";
+                    bytesBefore += join(representation.getValue(), new File(workDir, input));
+                    inputs.add(input);
+                }
+
+                //wait for the cpu left by the live encodes before starting a re-encode, a copy is cheap
+                while (reencode && !cancelled && AdmissionController.getHeadroom() < MIN_HEADROOM) {
+                    Thread.sleep(1000);
+                }
+                List<String> commands = mezzanine ? cmdGen.generateMezzanineCommands(inputs, reencode).getEncodeCommands() :
+                        cmdGen.generateArchiveCommands(inputs).getEncodeCommands();
+                if (!encode(workDir.getPath(), commands)) {
+                    return;
+                }
+                deleteDirectory(inputDir);
+
+                File archiveDir = new File(streamDir, ARCHIVE_DIR);
+                synchronized (this) {
+                    if (cancelled) {
+                        return;
+                    }
+                    if (mezzanine) {
+                        //the content requests look for the mezzanine once the manifests it replaces are deleted
+                        stream.setMezzanine(true);
+                        try {
+                            bytesAfter = replaceWithMezzanine(new File(workDir, Constants.MEZZANINE_FILE), streamDir);
+                        } catch (IOException e) {
+                            stream.setMezzanine(false);
+                            throw e;
+                        }
+                        //the mezzanine has its own index
+                        SegmentIndexer.rebuild(stream, null);
+                    } else {
+                        new MPDUpdaterWorker(Arrays.asList(workDir.getPath(), MANIFEST), duration).run();
+                        deleteDirectory(archiveDir);
+                        Files.move(workDir.toPath(), archiveDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                        bytesAfter = sizeOf(archiveDir.listFiles());
+                        replaceManifest(new File(archiveDir, MANIFEST), new File(streamDir, MANIFEST));
+                        SegmentIndexer.rebuild(stream, archiveDir);
+                        if (stream.isHls()) {
+                            replacePlaylist(new File(archiveDir, Constants.HLS_PLAYLIST), new File(streamDir, Constants.HLS_PLAYLIST));
+                        }
+                    }
+                    state = State.COMPLETED;
+                }
+
+                Logger.info("Archive of stream with id: " + stream.getID() + (reencode ? " re-encoded" : " copied") +
+                        (mezzanine ? " in a mezzanine, " : ", ") +
+                        (bytesBefore - bytesAfter) / 1024 + " kB saved (" + bytesBefore / 1024 + " kB before, " +
+                        bytesAfter / 1024 + " kB after).");
+
+                //viewers may still be playing the old manifest
+                List<File> old = new ArrayList<>();
+                representations.values().forEach(old::addAll);
+                File[] playlists = streamDir.listFiles((dir, name) -> MEDIA_PLAYLIST.matcher(name).matches());
+                if (playlists != null) {
+                    old.addAll(Arrays.asList(playlists));
+                }
+                deleteLater(old, streamDir);
+            } catch (InterruptedException e) {
+                fail("interrupted");
+            } catch (Exception e) {
+                fail(e.getLocalizedMessage());
+            } finally {
+                if (state != State.COMPLETED) {
+                    deleteDirectory(workDir);
+                }
+            }
+        }
+
+        /**
+         * Runs the niced ffmpeg in the calling thread.
+         * @param workingDir The working directory of the process.
+         * @param commands The ffmpeg commands.
+         * @return True, if ffmpeg completed successfully; otherwise false.
+         */
+        private boolean encode(final String workingDir, final List<String> commands) {
+            FFMpegWorker worker = new FFMpegWorker(workingDir, commands);
+            worker.setOwnerID(stream.getID());
+            worker.setNiceness(NICENESS);
+
+            final String[] error = new String[1];
+            worker.addOnCompleteListener(args -> {
+                Optional<Integer> exitCode = args.getExitCode();
+                if (!exitCode.isPresent() || exitCode.get() != 0) {
+                    error[0] = "exit code: " + exitCode.map(String::valueOf).orElse("none") + ", status: " + args.getResult();
+                }
+            });
+
+            synchronized (this) {
+                if (cancelled) {
+                    return false;
+                }
+                ffmpeg = worker;
+                state = State.RUNNING;
+            }
+            Logger.info((reencode ? "Re-encoding" : "Copying") + " the archive of stream with id: " + stream.getID() + ".");
+            try {
+                worker.run();
+            } finally {
+                ffmpeg = null;
+            }
+
+            if (error[0] != null) {
+                fail(error[0]);
+                return false;
+            }
+            return !cancelled;
+        }
+
+        /**
+         * Pauses ffmpeg.
+         */
+        private synchronized void pause() {
+            FFMpegWorker worker = ffmpeg;
+            if (worker != null && state == State.RUNNING && ProcessUtils.signal(worker.getPid(), "STOP")) {
+                state = State.PAUSED;
+                Logger.info("Re-encode of the archive of stream with id: " + stream.getID() + " paused, the live encodes need the cpu.");
+            }
+        }
+
+        /**
+         * Resumes a paused ffmpeg.
+         */
+        private synchronized void resume() {
+            FFMpegWorker worker = ffmpeg;
+            if (worker != null && state == State.PAUSED && ProcessUtils.signal(worker.getPid(), "CONT")) {
+                state = State.RUNNING;
+                Logger.info("Re-encode of the archive of stream with id: " + stream.getID() + " resumed.");
+            }
+        }
+
+        /**
+         * Cancels the re-encode, killing ffmpeg (paused processes are killed too).
+         */
+        private synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(true);
+            }
+            FFMpegWorker worker = ffmpeg;
+            if (worker != null) {
+                worker.kill();
+            }
+        }
+
+        /**
+         * Marks the re-encode as failed, unless it has been cancelled.
+         * @param reason The reason of the failure.
+         */
+        private void fail(final String reason) {
+            state = State.FAILED;
+            if (!cancelled) {
+                Logger.warn("Re-encode of the archive of stream with id: " + stream.getID() + " failed (" + reason + ").");
+            }
+        }
+    }
+
+    /**
+     * Deletes the replaced segments once the viewers had the time to reload the manifest.
+     * @param segments The replaced segments.
+     * @param directory The directory of the replaced segments, whose segment packs are deleted too.
+     */
+    private static synchronized void deleteLater(final List<File> segments, final File directory) {
+        if (timer != null) {
+            timer.schedule(() -> {
+                segments.forEach(File::delete);
+                SegmentPack.delete(directory);
+            }, DELETE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Lists the MPEG-DASH segments in a directory, including the segments appended to its packs.
+     * @param directory The directory.
+     * @return The segments of each representation, by representation id, with the init segment first
+     * and the media segments in ascending order.
+     */
+    private static Map<Integer, List<File>> listSegments(final File directory) {
+        Map<Integer, File> inits = new TreeMap<>();
+        Map<Integer, TreeMap<Integer, File>> media = new TreeMap<>();
+
+        //the packed segments are listed with the segment files
+        List<String> names = SegmentPack.open(directory).getNames();
+        String[] files = directory.list();
+        if (files != null) {
+            names.addAll(Arrays.asList(files));
+        }
+        for (String name : names) {
+            Matcher init = INIT_SEGMENT.matcher(name);
+            Matcher chunk = MEDIA_SEGMENT.matcher(name);
+            if (init.matches()) {
+                inits.put(Integer.parseInt(init.group(1)), new File(directory, name));
+            } else if (chunk.matches()) {
+                media.computeIfAbsent(Integer.parseInt(chunk.group(1)), k -> new TreeMap<>())
+                        .put(Integer.parseInt(chunk.group(2)), new File(directory, name));
+            }
+        }
+
+        Map<Integer, List<File>> representations = new TreeMap<>();
+        inits.forEach((id, init) -> {
+            if (media.containsKey(id)) {
+                List<File> segments = new ArrayList<>();
+                segments.add(init);
+                segments.addAll(media.get(id).values());
+                representations.put(id, segments);
+            }
+        });
+        return representations;
+    }
+
+    /**
+     * Concatenates the segments of a representation.
+     * @param segments The segments, in order.
+     * @param output The output file.
+     * @return The size of the segments, in bytes.
+     * @throws IOException If a segment cannot be copied.
+     */
+    private static long join(final List<File> segments, final File output) throws IOException {
+        long size = 0;
+        try (OutputStream out = new FileOutputStream(output)) {
+            for (File segment : segments) {
+                size += segment.isFile() ? Files.copy(segment.toPath(), out) :
+                        SegmentPack.open(segment.getParentFile()).copy(segment.getName(), out);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Atomically replaces the manifest of a stream with the one of its archive, pointing to the archive segments.
+     * @param archiveManifest The manifest written by the re-encode.
+     * @param manifest The manifest of the stream.
+     * @throws Exception If the manifest cannot be written.
+     */
+    private static void replaceManifest(final File archiveManifest, final File manifest) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().parse(archiveManifest);
+        Element root = doc.getDocumentElement();
+
+        //the base url must precede the periods, after the program information
+        Element baseUrl = doc.createElementNS(root.getNamespaceURI(), "BaseURL");
+        baseUrl.setTextContent(ARCHIVE_DIR + "/");
+        Node next = root.getFirstChild();
+        while (next != null && (next.getNodeType() != Node.ELEMENT_NODE || "ProgramInformation".equals(next.getLocalName()))) {
+            next = next.getNextSibling();
+        }
+        root.insertBefore(baseUrl, next);
+
+        File tmp = new File(manifest.getPath() + ".tmp");
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(tmp));
+        Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Replaces the manifests of a stream with the ones packaged from its mezzanine: the mezzanine is indexed,
+     * then the written manifests are deleted so that the content requests are served from it.
+     * @param written The mezzanine written by the encode.
+     * @param streamDir The directory of the stream.
+     * @return The size of the mezzanine, in bytes.
+     * @throws IOException If the mezzanine cannot be moved or indexed.
+     */
+    private static long replaceWithMezzanine(final File written, final File streamDir) throws IOException {
+        File file = new File(streamDir, Constants.MEZZANINE_FILE);
+        MezzanineIndex.delete(file);
+        Files.move(written.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        deleteDirectory(written.getParentFile());
+        if (MezzanineIndex.open(file) == null) {
+            MezzanineIndex.delete(file);
+            throw new IOException("the mezzanine cannot be indexed");
+        }
+
+        deleteDirectory(new File(streamDir, ARCHIVE_DIR));
+        new File(streamDir, MANIFEST).delete();
+        new File(streamDir, Constants.HLS_PLAYLIST).delete();
+        return file.length();
+    }
+
+    /**
+     * Atomically replaces the HLS master playlist of a stream with the one of its archive, pointing to the
+     * archive media playlists (which reference the segments relatively to the archive directory).
+     * @param archivePlaylist The master playlist written by the re-encode.
+     * @param playlist The master playlist of the stream.
+     * @throws IOException If the playlist cannot be written.
+     */
+    private static void replacePlaylist(final File archivePlaylist, final File playlist) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(archivePlaylist.toPath(), StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                lines.add(line);
+            } else if (line.startsWith("#")) {
+                lines.add(line.replace("URI=\"", "URI=\"" + ARCHIVE_DIR + "/"));
+            } else {
+                lines.add(ARCHIVE_DIR + "/" + line);
+            }
+        }
+
+        File tmp = new File(playlist.getPath() + ".tmp");
+        Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(tmp.toPath(), playlist.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Gets the size of some files.
+     * @param files The files; may be null.
+     * @return The size, in bytes.
+     */
+    private static long sizeOf(final File[] files) {
+        long size = 0;
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes a directory with its content.
+     * @param directory The directory.
+     */
+    private static void deleteDirectory(final File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else if (!file.delete()) {
+                    Logger.warn("Unable to delete archive file: " + file.getPath());
+                }
+            }
+        }
+        if (directory.exists() && !directory.delete()) {
+            Logger.warn("Unable to delete archive folder: " + directory.getPath());
+        }
+    }
+}
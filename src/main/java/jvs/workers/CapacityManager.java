@@ -0,0 +1,148 @@
+package jvs.workers;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.config.ConfigManager;
+import jvs.monitor.StorageMonitor;
+import jvs.packaging.SegmentIndex;
+import jvs.stream.Stream;
+import jvs.stream.StreamRegistry;
+import jvs.utils.Logger;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the streams folders from filling up, which would make ffmpeg fail on every live encode at once: when the
+ * usage of the disk of a folder exceeds the high-water mark, the finished recordings are evicted, least recently
+ * requested first, until the evicted recordings bring it back to the low-water mark. The running encodes are
+ * never evicted. The disk usage of a recording is the size of its indexed segments (see {@link SegmentIndexer}),
+ * updated as the segments are written, or the size of its mezzanine.
+ */
+public class CapacityManager {
+
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * Streams folders above the high-water mark without recordings left to evict, reported once
+     */
+    private static final Set<String> exhausted = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService timer = null;
+
+    private CapacityManager(){}
+
+    /**
+     * Starts the manager.
+     * @param interval The interval, in milliseconds, between two checks of the streams folders.
+     */
+    public static synchronized void start(final long interval) {
+        if (timer != null) {
+            return;
+        }
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "capacity-manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(CapacityManager::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the manager.
+     */
+    public static synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Gets the disk usage of the recording of a stream.
+     * @param stream The stream that owns the recording.
+     * @return The size in bytes of its indexed segments, or of its mezzanine.
+     */
+    public static long getUsage(final Stream stream) {
+        SegmentIndex index = SegmentIndexer.get(stream.getID());
+        long usage = index != null ? index.getSize() : 0;
+        return usage > 0 ? usage : new File(stream.getDirectory(), Constants.MEZZANINE_FILE).length();
+    }
+
+    /**
+     * Return a json object that represents the evictions since the start of the server.
+     * @return The json with the number of evicted recordings and their size.
+     */
+    public static JsonObject toJSON() {
+        return new JsonObject().put(Constants.EVICTIONS_KEY, evictions.get())
+                .put(Constants.EVICTEDBYTES_KEY, evictedBytes.get());
+    }
+
+    /**
+     * Evicts the finished recordings of the streams folders above the high-water mark.
+     */
+    private static void tick() {
+        try {
+            for (String path : ConfigManager.getConfig().getStreamsPaths()) {
+                evict(path, ConfigManager.getConfig().getCapacityHighWater(), ConfigManager.getConfig().getCapacityLowWater());
+            }
+        } catch (Exception e) {
+            Logger.error("Capacity manager failed to evict recordings: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Evicts the finished recordings of a streams folder if the usage of its disk is above the high-water mark.
+     * @param path The local path of the streams folder.
+     * @param highWater The usage, in percent of the disk, above which the recordings are evicted.
+     * @param lowWater The usage, in percent of the disk, the evictions bring the disk back to.
+     */
+    private static void evict(final String path, final int highWater, final int lowWater) {
+        File directory = new File(path);
+        long total = directory.getTotalSpace();
+        long free = directory.getUsableSpace();
+        if (total <= 0 || (total - free) * 100 < highWater * total) {
+            exhausted.remove(path);
+            return;
+        }
+
+        long needed = (total - free) - lowWater * total / 100;
+        StreamRegistry registry = StreamRegistry.getInstance();
+        boolean evicting = false;
+        for (Stream stream : registry.getEvictableStreams()) {
+            if (needed <= 0) {
+                break;
+            }
+            if (!path.equals(StorageMonitor.getDataDirectory(stream.getDirectory()))) {
+                continue;
+            }
+
+            if (!evicting) {
+                evicting = true;
+                Logger.warn("The disk of the streams folder " + path + " is " + (total - free) * 100 / total +
+                        "% full, evicting finished recordings.");
+            }
+            long usage = getUsage(stream);
+            if (registry.evictStream(stream)) {
+                needed -= usage;
+                evictions.incrementAndGet();
+                evictedBytes.addAndGet(usage);
+                exhausted.remove(path);
+                Logger.info("Stream with id: " + stream.getID() + " evicted to free " + usage + " bytes in the streams folder " +
+                        path + " (last requested: " + (stream.getLastRequestTime() > 0 ?
+                        Instant.ofEpochMilli(stream.getLastRequestTime()).toString() : "never") + ").");
+            }
+        }
+        if (needed > 0 && exhausted.add(path)) {
+            Logger.warn("The disk of the streams folder " + path + " is still above the low-water mark, no finished " +
+                    "recording left to evict.");
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package jvs.workers;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.packaging.SegmentIndex;
+import jvs.packaging.SegmentPack;
+import jvs.stream.Stream;
+import jvs.utils.DurationUtils;
+import jvs.utils.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Extracts clips of the recordings without re-encoding: a clip is a new stream whose directory gets hard links to
+ * the segments of the recording that cover a time range (starting at a keyframe, see {@link SegmentIndex#slice}),
+ * so that no media is read or written, and static manifests listing them. The segments are copied only if the
+ * directories are on different file systems, or if they have been appended to packs (see {@link SegmentPack}). The clips are extracted one at a time in the background.
+ */
+public class ClipExtractor {
+
+    /**
+     * Attributes of the root of a dynamic manifest that are not allowed in a static one
+     */
+    private static final String[] DYNAMIC_ATTRIBUTES = {"availabilityStartTime", "availabilityEndTime",
+            "minimumUpdatePeriod", "timeShiftBufferDepth", "suggestedPresentationDelay"};
+
+    private static final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+    private static ExecutorService executor = null;
+
+    private ClipExtractor(){}
+
+    /**
+     * Starts the extractor.
+     */
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "clip-extractor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the extractor, the clips not extracted yet are left without manifest.
+     */
+    public static synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+
+        jobs.keySet().forEach(ClipExtractor::cancel);
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * Queues the extraction of a clip.
+     * @param clip The new stream of the clip.
+     * @param source The stream that owns the recording.
+     * @param from The start of the clip, in seconds from the start of the recording.
+     * @param to The end of the clip, in seconds from the start of the recording.
+     * @return True, if the clip is queued; false if the recording has no indexed segment in the range.
+     */
+    public static synchronized boolean schedule(final Stream clip, final Stream source, final double from, final double to) {
+        SegmentIndex index = SegmentIndexer.get(source.getID());
+        SegmentIndex segments = index != null ? index.slice(from, to) : null;
+        if (executor == null || segments == null || segments.getCount() == 0) {
+            return false;
+        }
+
+        Job job = new Job(clip, source, index, segments, from, to);
+        jobs.put(clip.getID(), job);
+        executor.submit(job::run);
+        Logger.info("Clip of stream with id: " + source.getID() + " from " + from + "s to " + to + "s queued as stream with id: " + clip.getID());
+        return true;
+    }
+
+    /**
+     * Cancels the extraction of a clip.
+     * @param streamID The id of the stream of the clip.
+     */
+    public static void cancel(final int streamID) {
+        Job job = jobs.remove(streamID);
+        if (job != null) {
+            job.cancelled = true;
+        }
+    }
+
+    /**
+     * Checks whether a stream is used by the extraction of a clip.
+     * @param streamID The id of the stream.
+     * @return True, if a queued or running extraction writes the clip or reads the recording of the stream;
+     * otherwise false.
+     */
+    public static boolean isPending(final int streamID) {
+        return jobs.values().stream().anyMatch(job -> (job.state == State.QUEUED || job.state == State.RUNNING) &&
+                (job.clip.getID() == streamID || job.source.getID() == streamID));
+    }
+
+    /**
+     * Return a json object that represents the extraction of a clip.
+     * @param streamID The id of the stream of the clip.
+     * @return The json with the state of the extraction, the range of the clip and the number of the segments of
+     * all its representations; null if the stream is not a clip extracted since the start of the server.
+     */
+    public static JsonObject toJSON(final int streamID) {
+        Job job = jobs.get(streamID);
+        if (job == null) {
+            return null;
+        }
+
+        return new JsonObject().put(Constants.STATE_KEY, job.state.name().toLowerCase())
+                .put(Constants.SOURCE_KEY, job.source.getID())
+                .put(Constants.FROM_KEY, job.from)
+                .put(Constants.TO_KEY, job.to)
+                .put(Constants.COUNT_KEY, job.segmentCount)
+                .put(Constants.COMPLETEDSEGMENTS_KEY, job.completedSegments);
+    }
+
+    /**
+     * States of an extraction.
+     */
+    private enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * Extraction of a clip.
+     */
+    private static class Job {
+        private final Stream clip;
+        private final Stream source;
+        private final SegmentIndex index;
+        private final SegmentIndex segments;
+        private final double from;
+        private final double to;
+        private final int segmentCount;
+        private volatile State state = State.QUEUED;
+        private volatile boolean cancelled = false;
+        private volatile int completedSegments = 0;
+
+        /**
+         * @param clip The stream of the clip.
+         * @param source The stream that owns the recording.
+         * @param index The index of the segments of the recording.
+         * @param segments The segments of the clip.
+         * @param from The start of the clip, in seconds from the start of the recording.
+         * @param to The end of the clip, in seconds from the start of the recording.
+         */
+        private Job(final Stream clip, final Stream source, final SegmentIndex index, final SegmentIndex segments,
+                    final double from, final double to) {
+            this.clip = clip;
+            this.source = source;
+            this.index = index;
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+            this.segmentCount = segments.getRepresentations().stream().mapToInt(SegmentIndex.Representation::getCount).sum();
+        }
+
+        /**
+         * Links the segments, then writes the manifests: the clip can be played once its manifests exist.
+         */
+        private void run() {
+            File sourceDir = new File(source.getDirectory());
+            File clipDir = new File(clip.getDirectory());
+            state = State.RUNNING;
+
+            try {
+                if (!clipDir.isDirectory() && !clipDir.mkdirs()) {
+                    fail("failed to create new folder: " + clipDir.getPath());
+                    return;
+                }
+
+                for (SegmentIndex.Representation representation : segments.getRepresentations()) {
+                    SegmentIndex.Representation original = index.getRepresentation(representation.getID());
+                    for (int i = 0; i < representation.getCount() && !cancelled; i++) {
+                        int number = representation.getNumber(i);
+                        link(new File(sourceDir, original.getSegmentName(number)), new File(clipDir, representation.getSegmentName(number)));
+                        completedSegments++;
+                    }
+                }
+
+                //the manifests of the recording are rewritten in the same order, the MPEG-DASH one first
+                List<String> manifests = new ArrayList<>();
+                for (String manifest : new String[] {source.getManifest(), source.getWebmManifest()}) {
+                    if (manifest != null && !manifest.isEmpty()) {
+                        manifests.add(manifest.substring(manifest.lastIndexOf('/') + 1));
+                    }
+                }
+                if (cancelled) {
+                    return;
+                }
+                SegmentIndexer.add(clip, segments);
+                clip.setTotalDuration(Duration.ofMillis(Math.round(segments.getDuration() * 1000)));
+                for (String manifest : manifests) {
+                    if (cancelled) {
+                        return;
+                    }
+                    writeManifest(new File(sourceDir, manifest), new File(clipDir, manifest));
+                }
+
+                state = State.COMPLETED;
+                Logger.info("Clip of stream with id: " + source.getID() + " extracted as stream with id: " + clip.getID() +
+                        " (" + completedSegments + " segments, " + clip.getDuration() + ").");
+            } catch (Exception e) {
+                fail(e.getLocalizedMessage());
+            }
+        }
+
+        /**
+         * Rewrites a manifest of the recording as the static manifest of the clip: every representation gets its own
+         * segment template, with the timeline of its segments in the clip. The headers of the representations
+         * are linked in the directory of the clip.
+         * @param sourceManifest The manifest of the recording.
+         * @param manifest The manifest of the clip.
+         */
+        private void writeManifest(final File sourceManifest, final File manifest) throws Exception {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document doc = factory.newDocumentBuilder().parse(sourceManifest);
+            Element root = doc.getDocumentElement();
+            String namespace = root.getNamespaceURI();
+
+            root.setAttribute("type", "static");
+            for (String attribute : DYNAMIC_ATTRIBUTES) {
+                root.removeAttribute(attribute);
+            }
+            root.setAttribute("mediaPresentationDuration",
+                    DurationUtils.formatToISO8601(Duration.ofMillis(Math.round(segments.getDuration() * 1000))));
+
+            //the segments of the clip are in its directory
+            File sourceDir = sourceManifest.getParentFile();
+            for (Element baseUrl : getElements(doc, "BaseURL")) {
+                sourceDir = new File(sourceDir, baseUrl.getTextContent().trim());
+                baseUrl.getParentNode().removeChild(baseUrl);
+            }
+
+            List<Element> sharedTemplates = new ArrayList<>();
+            for (Element representation : getElements(doc, "Representation")) {
+                SegmentIndex.Representation clipSegments = segments.getRepresentation(representation.getAttribute("id"));
+                Element adaptationSet = (Element) representation.getParentNode();
+                Element template = getChild(representation, "SegmentTemplate");
+                Element shared = getChild(adaptationSet, "SegmentTemplate");
+                if (clipSegments == null || (template == null && shared == null)) {
+                    adaptationSet.removeChild(representation);
+                    continue;
+                }
+
+                Element clipTemplate = (Element) (template != null ? template : shared).cloneNode(false);
+                clipTemplate.removeAttribute("duration");
+                clipTemplate.setAttribute("timescale", Long.toString(clipSegments.getTimescale()));
+                clipTemplate.setAttribute("startNumber", Integer.toString(clipSegments.getNumber(0)));
+                clipTemplate.setAttribute("presentationTimeOffset", Long.toString(clipSegments.getTime(0)));
+                clipTemplate.appendChild(createTimeline(doc, namespace, clipSegments));
+                if (template != null) {
+                    representation.replaceChild(clipTemplate, template);
+                } else {
+                    representation.appendChild(clipTemplate);
+                    sharedTemplates.add(shared);
+                }
+                if (clipSegments.getBitrate() > 0) {
+                    representation.setAttribute("bandwidth", Long.toString(clipSegments.getBitrate()));
+                }
+
+                String header = clipTemplate.getAttribute("initialization").replace("$RepresentationID$", clipSegments.getID());
+                if (!header.isEmpty()) {
+                    link(new File(sourceDir, header), new File(manifest.getParentFile(), header));
+                }
+            }
+            for (Element shared : sharedTemplates) {
+                if (shared.getParentNode() != null) {
+                    shared.getParentNode().removeChild(shared);
+                }
+            }
+
+            //the manifest appears once it is complete
+            File tmp = new File(manifest.getPath() + ".tmp");
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(tmp));
+            Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private void fail(final String reason) {
+            state = State.FAILED;
+            Logger.warn("Unable to extract the clip of stream with id: " + source.getID() + " as stream with id: " +
+                    clip.getID() + ", " + reason + ".");
+        }
+    }
+
+    /**
+     * Creates the timeline of the segments of a representation, the consecutive segments with the same duration
+     * are repeated.
+     * @param doc The manifest.
+     * @param namespace The namespace of the manifest.
+     * @param segments The segments.
+     * @return The SegmentTimeline element.
+     */
+    static Element createTimeline(final Document doc, final String namespace, final SegmentIndex.Representation segments) {
+        Element timeline = doc.createElementNS(namespace, "SegmentTimeline");
+        Element entry = null;
+        long repeat = 0;
+        long end = -1;
+        for (int i = 0; i < segments.getCount(); i++) {
+            long time = segments.getTime(i);
+            long duration = segments.getDuration(i);
+            if (entry != null && time == end && Long.toString(duration).equals(entry.getAttribute("d"))) {
+                entry.setAttribute("r", Long.toString(++repeat));
+            } else {
+                entry = doc.createElementNS(namespace, "S");
+                entry.setAttribute("t", Long.toString(time));
+                entry.setAttribute("d", Long.toString(duration));
+                timeline.appendChild(entry);
+                repeat = 0;
+            }
+            end = time + duration;
+        }
+        return timeline;
+    }
+
+    /**
+     * Hard links a file, or copies it if it cannot be linked (e.g. the directories are on different file systems).
+     * A segment appended to a pack is copied from the pack.
+     * @param file The file.
+     * @param link The link.
+     * @throws IOException If the file can neither be linked nor copied.
+     */
+    private static void link(final File file, final File link) throws IOException {
+        if (!file.exists() && SegmentPack.open(file.getParentFile()).find(file.getName()) != null) {
+            try (OutputStream out = new FileOutputStream(link)) {
+                SegmentPack.open(file.getParentFile()).copy(file.getName(), out);
+            }
+            return;
+        }
+
+        try {
+            Files.createLink(link.toPath(), file.toPath());
+        } catch (FileAlreadyExistsException e) {
+            //a header shared by the manifests
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(file.toPath(), link.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static List<Element> getElements(final Document doc, final String name) {
+        List<Element> elements = new ArrayList<>();
+        NodeList nodes = doc.getElementsByTagNameNS("*", name);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            elements.add((Element) nodes.item(i));
+        }
+        return elements;
+    }
+
+    private static Element getChild(final Element parent, final String name) {
+        Node node = parent.getFirstChild();
+        while (node != null && !(node instanceof Element && name.equals(node.getLocalName()))) {
+            node = node.getNextSibling();
+        }
+        return (Element) node;
+    }
+}
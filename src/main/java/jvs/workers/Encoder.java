@@ -4,13 +4,17 @@ import java.io.File;
 import java.time.Duration;
 import java.util.*;
 
+import io.vertx.core.json.JsonObject;
 import jvs.Constants;
 import jvs.RTSPMode;
 import jvs.stream.Stream;
 import jvs.stream.StreamInfo;
+import jvs.stream.track.VideoTrackInfo;
 import jvs.command.CommandsGenerator;
 import jvs.command.Commands;
 import jvs.config.ConfigManager;
+import jvs.monitor.ResourceMonitor;
+import jvs.packaging.MezzanineIndex;
 import jvs.utils.Logger;
 
 /**
@@ -21,15 +25,22 @@ import jvs.utils.Logger;
  */
 public class Encoder {
 
-    private boolean isRunning; //define whether this encoder is running
+    private volatile boolean isRunning; //define whether this encoder is running
 	private Stream stream; //contains all information about the input stream
 	private EncodingType type; //the client requested encoding type
+    private volatile EncodingType activeType; //the encoding type actually used, selected after the analysis
     private RTSPMode mode; //the client requested rtsp mode
     private List<String> extraArgs = null; //client defined extra arguments for ffmpeg
 	private Map<EncoderType, Thread> workers = null; //the worker that process the arguments
     private Analyzer analyzer = null; //the analyzer
     private StreamInfo userStreamInfo = null; //the stream info parsed from the user request when RTSP server mode is enabled
     private FFMpegWorker mainWorker = null; //used to access ffmpeg worker stop under RTSP server
+    private FFMpegWorker manifestWorker = null; //the webm dash manifest generator
+    private VodTranscoder vodTranscoder = null; //the parallel transcoder of recordings
+    private volatile long lastProgressTime = 0; //the time of the last progress reported by ffmpeg
+    private volatile boolean stopRequested = false; //define whether the encode has been stopped on purpose
+    private boolean watched = false; //define whether the stall watchdog is watching this encoder
+    private volatile String workingPath = null; //the folder ffmpeg writes to, the staging folder of live encodes
 	
 	/**
 	 * Encoder constructor
@@ -40,6 +51,7 @@ public class Encoder {
 	public Encoder(final Stream stream, final EncodingType type, final RTSPMode mode) {
 		this.stream = stream;
 		this.type = type;
+		this.activeType = type;
 		this.mode = mode;
 		this.workers = new HashMap<>();
 		this.isRunning = false;
@@ -54,6 +66,58 @@ public class Encoder {
         return type;
     }
 
+    /**
+     * Gets the encoding type actually used by the encode, which differs from the requested one when
+     * the input video of a H.264/AAC encode is copied.
+     * @return The active encoding type.
+     */
+    public EncodingType getActiveType() {
+        return activeType;
+    }
+
+    /**
+     * Gets the ffmpeg RTSP mode selected for this encoder.
+     * @return The RTSP mode.
+     */
+    public RTSPMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the stream encoded by this encoder.
+     * @return The stream.
+     */
+    public Stream getStream() {
+        return stream;
+    }
+
+    /**
+     * Gets the last time ffmpeg reported a progress (or the start time if no progress has been reported yet).
+     * @return The time of the last progress in milliseconds.
+     */
+    public long getLastProgressTime() {
+        return lastProgressTime;
+    }
+
+    /**
+     * Creates a new encoder, not running, with the same settings of this one.
+     * @return The new encoder.
+     */
+    public Encoder recreate() {
+        Encoder encoder = new Encoder(stream, type, mode);
+        encoder.setExtraArgs(extraArgs);
+        encoder.setUserStreamInfo(userStreamInfo);
+        return encoder;
+    }
+
+    /**
+     * Gets the extra ffmpeg arguments.
+     * @return The list of extra ffmpeg arguments; null if not defined.
+     */
+    public List<String> getExtraArgs() {
+        return extraArgs;
+    }
+
     /**
      * Set extra ffmpeg arguments.
      * @param extraArgs List of extra ffmpeg commands.
@@ -76,6 +140,12 @@ public class Encoder {
 		String outputPath = stream.getDirectory();
 		File outputDir = new File(outputPath);
 
+        //a new encode overwrites the recording, its manifests are no longer generated from the mezzanine
+        ArchiveReencoder.cancel(stream.getID());
+        MezzanineIndex.delete(new File(outputDir, Constants.MEZZANINE_FILE));
+        stream.setMezzanine(false);
+        SegmentIndexer.watch(stream);
+
 		if (!outputDir.exists() && !outputDir.mkdirs()) {
 			Logger.error("Failed to create new folder: " + outputPath);
             stream.setError();
@@ -83,6 +153,9 @@ public class Encoder {
 			return false;
 		}
 
+        //the live encodes are written to the staging folder, and persisted to the output folder in the background
+        workingPath = SegmentStager.watch(stream);
+
 		CommandsGenerator cmdgen = new CommandsGenerator(stream);
 
 		//set client extra arguments if needed
@@ -92,16 +165,19 @@ public class Encoder {
 		
 		switch (type) {
             case MPEG_DASH_H264_AAC: //single worker needed
+            case MPEG_DASH_COPY_AAC:
             case MPEG_DASH_PASSTHROUGH:
+            case AUTO:
 
-                if (type == EncodingType.MPEG_DASH_H264_AAC) {
+                if (type != EncodingType.MPEG_DASH_PASSTHROUGH) {
                     if (mode == RTSPMode.SERVER) {
                         //when rtsp server mode is selected we need user to send
                         //information about the stream because ffprobe cannot be
                         //use in this case.
                         if (userStreamInfo != null) {
                             cmdgen.setStreamInfo(userStreamInfo);
-                            encodeMpeg(cmdgen, outputPath);
+                            activeType = selectType(userStreamInfo);
+                            startMpeg(userStreamInfo, cmdgen, outputPath);
                         } else {
                             Logger.error("Unable to start MPEG-DASH encoding of the stream with id: " + stream.getID() +
                                     ".\r\nMissing stream information from the user");
@@ -110,22 +186,31 @@ public class Encoder {
                             return false;
                         }
                     } else {
-                        Analyzer analyzer = new Analyzer(stream);
+                        analyzer = new Analyzer(stream);
                         analyzer.addOnCompleteListener(args ->  {
                             //get information about the input stream
-                            cmdgen.setStreamInfo((StreamInfo)args.getResult());
+                            StreamInfo streamInfo = (StreamInfo)args.getResult();
+                            if (streamInfo == null) {
+                                analysisFailed();
+                                return;
+                            }
+                            cmdgen.setStreamInfo(streamInfo);
+                            activeType = selectType(streamInfo);
+                            startMpeg(streamInfo, cmdgen, outputPath);
                         });
 
                         isRunning = analyzer.run();
                         return isRunning;
                     }
                 } else {
-                    encodeMpeg(cmdgen, outputPath);
+                    admit(null, () -> encodeMpeg(cmdgen, outputPath));
                 }
                 break;
 
             case WEBM_DASH_VP8_VORBIS:
             case WEBM_DASH_VP9_OPUS:
+            case MULTI_DASH_H264_VP8:
+            case MULTI_DASH_H264_VP9:
 
                 if (mode == RTSPMode.SERVER) {
                     //when rtsp server mode is selected we need user to send
@@ -133,7 +218,8 @@ public class Encoder {
                     //use in this case.
                     if (userStreamInfo != null) {
                         cmdgen.setStreamInfo(userStreamInfo);
-                        encodeWebM(cmdgen, outputPath);
+                        selectType(userStreamInfo);
+                        admit(userStreamInfo, () -> encodeWebM(cmdgen, outputPath));
                         isRunning = true;
                     } else {
                         Logger.error("Unable to start WEBM-DASH encoding of the stream with id: " + stream.getID() +
@@ -145,11 +231,17 @@ public class Encoder {
                     return isRunning;
 
                 } else {
-                    Analyzer analyzer = new Analyzer(stream);
+                    analyzer = new Analyzer(stream);
                     analyzer.addOnCompleteListener(args ->  {
                         //get information about the input stream
-                        cmdgen.setStreamInfo((StreamInfo)args.getResult());
-                        encodeWebM(cmdgen, outputPath);
+                        StreamInfo streamInfo = (StreamInfo)args.getResult();
+                        if (streamInfo == null) {
+                            analysisFailed();
+                            return;
+                        }
+                        cmdgen.setStreamInfo(streamInfo);
+                        selectType(streamInfo);
+                        admit(streamInfo, () -> encodeWebM(cmdgen, outputPath));
                     });
 
                     isRunning = analyzer.run();
@@ -166,12 +258,39 @@ public class Encoder {
 		return true;
 	}
 
+    /**
+     * Stops waiting for the analysis of the input, which failed: the encode cannot be started.
+     */
+    private void analysisFailed() {
+        if (!stopRequested) {
+            Logger.error("Unable to start the encode of the stream with id: " + stream.getID() +
+                    " without the information about its input.");
+            stream.setError();
+        }
+        isRunning = false;
+        AdmissionController.release(stream.getID());
+    }
+
 	/**
 	 * Stops the worker.
 	 */
 	public Boolean stop() {
 		try {
 		    if (isRunning) {
+		        stopRequested = true;
+		        AdmissionController.release(stream.getID());
+
+		        //interrupting the worker threads does not terminate ffmpeg
+                if (mainWorker != null) {
+                    mainWorker.kill();
+                }
+                if (vodTranscoder != null) {
+                    vodTranscoder.stop();
+                }
+                if (manifestWorker != null) {
+                    manifestWorker.kill();
+                }
+
                 workers.forEach((k,v)-> {
                     if (v.isAlive()) {
                         v.interrupt();
@@ -199,8 +318,21 @@ public class Encoder {
 	public Boolean stopGracefully() {
         try {
             if (isRunning && mainWorker != null) {
+                stopRequested = true;
                 return mainWorker.stopGracefully();
             }
+            if (isRunning && vodTranscoder != null && vodTranscoder.isRunning()) {
+                //a partially transcoded recording cannot be finalized
+                stopRequested = true;
+                return vodTranscoder.stop();
+            }
+            if (isRunning && AdmissionController.isQueued(stream.getID())) {
+                //the encode never started, there is nothing to finalize
+                stopRequested = true;
+                AdmissionController.release(stream.getID());
+                isRunning = false;
+                return true;
+            }
         } catch (SecurityException e) {
             Logger.error("The worker thread of the encoder could not be gracefully stopped.");
             e.printStackTrace();
@@ -208,6 +340,15 @@ public class Encoder {
         return false;
     }
 
+    /**
+     * Return a json object that represents the state of the parallel transcode of a recording.
+     * @return The json with the transcode state; null if the input is not transcoded in chunks.
+     */
+    public JsonObject getVodJSON() {
+        VodTranscoder current = vodTranscoder;
+        return current != null ? current.toJSON() : null;
+    }
+
     /**
      * Returns whether the encoder is running or not.
      * @return True, if the encoder is running; otherwise false.
@@ -226,36 +367,41 @@ public class Encoder {
     }
 
     /**
-     * Starts workers to encode stream into webm-dash format.
+     * Starts workers to encode stream into webm-dash format, with a mpeg-dash output from the same process
+     * if a multi output encoding type is selected.
      * @param cmdGen The commandsGenerator to generate commands
      * @param outputPath The output path.
      */
     private void encodeWebM(final CommandsGenerator cmdGen, final String outputPath) {
 
-        String encodingTag = (type == EncodingType.WEBM_DASH_VP9_OPUS ? "WEBM-DASH (VP9/Opus)" : "WEBM-DASH (VP8/Vorbis)");
+        String encodingTag = type.getDescription();
+        String webmManifest = type.isMultiOutput() ? Constants.WEBM_MANIFEST : "manifest.mpd";
 
         //generate commands
         Commands commands = cmdGen.generateCommands(type, mode);
 
         //DEBUG
-        if (Constants.DEBUG_MODE) {
-            Logger.log("encode: " + Arrays.toString(commands.getEncodeCommands().toArray()));
-            Logger.log("manifest: " + Arrays.toString(commands.getManifestCommands().toArray()));
+        if (Logger.isDebugEnabled(Logger.COMMANDS)) {
+            Logger.debug(Logger.COMMANDS, "encode: " + Arrays.toString(commands.getEncodeCommands().toArray()));
+            Logger.debug(Logger.COMMANDS, "manifest: " + Arrays.toString(commands.getManifestCommands().toArray()));
         }
 
         //update stream information
         stream.setManifest(ConfigManager.getConfig().getRemoteStreamsPath() + "/stream_" + stream.getID() + "/manifest.mpd");
+        stream.setWebmManifest(type.isMultiOutput() ? ConfigManager.getConfig().getRemoteStreamsPath() + "/stream_" +
+                stream.getID() + "/" + webmManifest : "");
 
         //initialize workers, event handlers and start encode
         Logger.info("Started " + encodingTag + " encoding of the stream with id: " + stream.getID());
 
         //manifest generator
-        Worker manifestWorker = new FFMpegWorker(outputPath, commands.getManifestCommands());
+        manifestWorker = new FFMpegWorker(workingPath, commands.getManifestCommands());
+        manifestWorker.setOwnerID(stream.getID());
         manifestWorker.addOnCompleteListener(arg -> {
             Optional<Integer> opt = arg.getExitCode();
 
             //mark stream as removable
-            if (!opt.isPresent() || opt.get() != 0) {
+            if (!stopRequested && (!opt.isPresent() || opt.get() != 0)) {
                 stream.setError();
             }
 
@@ -276,7 +422,9 @@ public class Encoder {
         workers.put(EncoderType.MPDCREATOR, secondWorker);
 
         // stream encoder
-        mainWorker = new FFMpegWorker(outputPath, commands.getEncodeCommands());
+        mainWorker = new FFMpegWorker(workingPath, commands.getEncodeCommands());
+        mainWorker.setOwnerID(stream.getID());
+        stream.setOutput(mainWorker.getOutput());
         mainWorker.addOnProgressListener(arg -> {
             Optional<Duration> progress = arg.getProgress();
             if (progress.isPresent() && !progress.get().isZero()) {
@@ -288,15 +436,17 @@ public class Encoder {
                 }
 
                 stream.setTotalDuration(progress.get());
+                reportActivity();
             } else {
                 Logger.warn("Worker triggered a new progress event without sending data.");
             }
         });
         mainWorker.addOnCompleteListener(arg -> {
             Optional<Integer> opt = arg.getExitCode();
+            SegmentStager.flush(stream.getID());
 
             //mark stream as removable
-            if ((!opt.isPresent() || opt.get() != 0) && !(mode == RTSPMode.SERVER && opt.isPresent() && opt.get() == 2)) {
+            if (!stopRequested && (!opt.isPresent() || opt.get() != 0) && !(mode == RTSPMode.SERVER && opt.isPresent() && opt.get() == 2)) {
                 stream.setError();
             }
 
@@ -304,9 +454,11 @@ public class Encoder {
                 if (opt.get() == 0 || (mode == RTSPMode.SERVER && opt.get() == 2)) {
                     Logger.info(encodingTag + " encoding completed for stream with id: " + stream.getID());
 
-                    //update webm dash manifest from live to on-demand
-                    Worker mpdUpdaterWorker = new MPDUpdaterWorker(Arrays.asList(outputPath, "manifest.mpd"),
-                            Duration.ofSeconds(stream.getCurrentLiveTime()));
+                    //update webm dash manifest from live to on-demand, with the duration and bitrates of the indexed chunks
+                    SegmentIndexer.flush(stream.getID());
+                    MPDUpdaterWorker mpdUpdaterWorker = new MPDUpdaterWorker(Arrays.asList(outputPath, webmManifest),
+                            SegmentIndexer.getDuration(stream.getID(), Duration.ofSeconds(stream.getCurrentLiveTime())));
+                    mpdUpdaterWorker.setBandwidths(SegmentIndexer.getBandwidths(stream.getID()));
                     Thread thirdWorker = new Thread(mpdUpdaterWorker);
                     workers.put(EncoderType.MPDFINALIZER, thirdWorker);
                     thirdWorker.start();
@@ -321,12 +473,14 @@ public class Encoder {
 
             isRunning = false;
             mainWorker = null;
+            AdmissionController.release(stream.getID());
         });
 
         //create new thread for the encode worker and start it
         Thread firstWorker = new Thread(mainWorker);
         workers.put(EncoderType.MAIN, firstWorker);
         firstWorker.start();
+        startWatchdog();
     }
 
     /**
@@ -336,30 +490,51 @@ public class Encoder {
      */
     private void encodeMpeg(final CommandsGenerator cmdGen, final String outputPath) {
 
-        String encodingTag = (type == EncodingType.MPEG_DASH_H264_AAC ? "MPEG-DASH (H264/AAC)" : "MPEG-DASH (passthrough)");
+        String encodingTag = activeType.getDescription();
 
-        Commands cmd = cmdGen.generateCommands(type, mode);
+        Commands cmd = cmdGen.generateCommands(activeType, mode);
 
-        mainWorker = new FFMpegWorker(outputPath, cmd.getEncodeCommands());
+        mainWorker = new FFMpegWorker(workingPath, cmd.getEncodeCommands());
+        mainWorker.setOwnerID(stream.getID());
+        stream.setOutput(mainWorker.getOutput());
         mainWorker.addOnProgressListener(args -> {
             Optional<Duration> progress = args.getProgress();
             if (progress.isPresent()) {
                 stream.setTotalDuration(progress.get());
+                reportActivity();
             } else {
                 Logger.warn("Worker triggered a new progress event without sending data.");
             }
         });
         mainWorker.addOnCompleteListener(args -> {
             Optional<Integer> opt = args.getExitCode();
+            SegmentStager.flush(stream.getID());
 
             //mark stream as removable
-            if ((!opt.isPresent() || opt.get() != 0) && !(mode == RTSPMode.SERVER && opt.isPresent() && opt.get() == 2)) {
+            if (!stopRequested && (!opt.isPresent() || opt.get() != 0) && !(mode == RTSPMode.SERVER && opt.isPresent() && opt.get() == 2)) {
                 stream.setError();
             }
 
             if (opt.isPresent()) {
                 if (opt.get() == 0 || (mode == RTSPMode.SERVER && opt.get() == 2)) {
                     Logger.info(encodingTag + " encoding completed for stream with id: " + stream.getID());
+                    SegmentIndexer.flush(stream.getID());
+
+                    //the manifest of a recording is complete, it is made static before the stream stops being live
+                    if (stream.isVod() && mode == RTSPMode.CLIENT) {
+                        MPDUpdaterWorker mpdUpdaterWorker = new MPDUpdaterWorker(Arrays.asList(outputPath, "manifest.mpd"),
+                                SegmentIndexer.getDuration(stream.getID(), Duration.ofSeconds(stream.getCurrentLiveTime())));
+                        mpdUpdaterWorker.setBandwidths(SegmentIndexer.getBandwidths(stream.getID()));
+                        mpdUpdaterWorker.run();
+                    } else if (!stream.isVod() && !stream.isOnDemand()) {
+                        //the live preset is fast but inefficient, the recording is re-encoded when the cpu is idle
+                        //and, if enabled, stored as a single mezzanine packaged on request
+                        boolean reencode = activeType == EncodingType.MPEG_DASH_H264_AAC &&
+                                ConfigManager.getConfig().isArchiveReencodeEnabled();
+                        if (reencode || (activeType.isMpegDash() && ConfigManager.getConfig().isMezzanineEnabled())) {
+                            ArchiveReencoder.schedule(stream, cmdGen, reencode);
+                        }
+                    }
                 } else {
                     Logger.warn(encodingTag + " encoding failed for stream with id: " + stream.getID() + " (exit code: " +
                             opt.get() + ", status: " + args.getResult().toString() + ").");
@@ -369,6 +544,7 @@ public class Encoder {
             }
             isRunning = false;
             mainWorker = null;
+            AdmissionController.release(stream.getID());
         });
 
         //update stream information
@@ -380,5 +556,173 @@ public class Encoder {
         Thread worker = new Thread(mainWorker);
         workers.put(EncoderType.MAIN, worker);
         worker.start();
+        startWatchdog();
+    }
+
+    /**
+     * Starts an encode once the admission controller reserved its cpu, unless the stop has been requested
+     * while the encode was queued.
+     * @param streamInfo The information about the input tracks; null if the input has not been analyzed.
+     * @param start The action that starts the encode.
+     */
+    private void admit(final StreamInfo streamInfo, final Runnable start) {
+        AdmissionController.admit(stream, activeType, streamInfo, unlessStopped(start));
+    }
+
+    /**
+     * Wraps the start of an encode, so that it is skipped if the stop has been requested while it was queued.
+     * @param start The action that starts the encode.
+     * @return The wrapped action.
+     */
+    private Runnable unlessStopped(final Runnable start) {
+        return () -> {
+            if (!stopRequested) {
+                start.run();
+            } else {
+                AdmissionController.release(stream.getID());
+            }
+        };
+    }
+
+    /**
+     * Admits and starts a MPEG-DASH encode. Recordings transcoded to H.264 are split into chunks transcoded
+     * in parallel, reserving a core per process; any other input is encoded by a single ffmpeg process.
+     * @param streamInfo The information about the input tracks.
+     * @param cmdGen The commandsGenerator to generate commands
+     * @param outputPath The output path.
+     */
+    private void startMpeg(final StreamInfo streamInfo, final CommandsGenerator cmdGen, final String outputPath) {
+        if (stream.isVod() && mode == RTSPMode.CLIENT && activeType == EncodingType.MPEG_DASH_H264_AAC) {
+            int chunks = stream.getVodChunks() > 0 ? stream.getVodChunks() : ConfigManager.getConfig().getVodChunks();
+            vodTranscoder = new VodTranscoder(stream, cmdGen, streamInfo, outputPath, chunks);
+            AdmissionController.admit(stream, activeType, vodTranscoder.getParallelism() * 100d,
+                    unlessStopped(() -> encodeVod(outputPath)));
+        } else {
+            admit(streamInfo, () -> encodeMpeg(cmdGen, outputPath));
+        }
+    }
+
+    /**
+     * Starts the parallel transcode of a recording into mpeg-dash format.
+     * @param outputPath The output path.
+     */
+    private void encodeVod(final String outputPath) {
+
+        String encodingTag = activeType.getDescription();
+        VodTranscoder transcoder = vodTranscoder;
+
+        transcoder.addOnProgressListener(args -> {
+            Optional<Duration> progress = args.getProgress();
+            if (progress.isPresent()) {
+                stream.setTotalDuration(progress.get());
+                reportActivity();
+            }
+        });
+        transcoder.addOnCompleteListener(args -> {
+            Optional<Integer> opt = args.getExitCode();
+
+            //mark stream as removable
+            if (!stopRequested && (!opt.isPresent() || opt.get() != 0)) {
+                stream.setError();
+            }
+
+            if (opt.isPresent() && opt.get() == 0) {
+                Logger.info(encodingTag + " transcode of the recording completed for stream with id: " + stream.getID() +
+                        " in " + transcoder.toJSON().getLong(Constants.ENCODETIME_KEY) + " ms.");
+
+                //the manifest written by ffmpeg may still be dynamic, it is made static before the stream stops being live
+                SegmentIndexer.flush(stream.getID());
+                MPDUpdaterWorker mpdUpdaterWorker = new MPDUpdaterWorker(Arrays.asList(outputPath, "manifest.mpd"),
+                        SegmentIndexer.getDuration(stream.getID(), transcoder.getDuration()));
+                mpdUpdaterWorker.setBandwidths(SegmentIndexer.getBandwidths(stream.getID()));
+                mpdUpdaterWorker.run();
+            } else if (!stopRequested) {
+                Logger.warn(encodingTag + " transcode of the recording failed for stream with id: " + stream.getID() +
+                        " (status: " + args.getResult() + ").");
+            }
+
+            isRunning = false;
+            AdmissionController.release(stream.getID());
+        });
+
+        //update stream information
+        stream.setManifest(ConfigManager.getConfig().getRemoteStreamsPath() +
+                "/stream_" + stream.getID() + "/manifest.mpd");
+
+        Logger.info("Started " + encodingTag + " parallel transcode of the recording of the stream with id: " + stream.getID());
+        transcoder.run();
+    }
+
+    /**
+     * Selects the encoding type to use for the analyzed input and records the decision on the stream:
+     * an automatic encode uses the cheapest playable type, while a H.264/AAC encode copies the video,
+     * and only transcodes the audio, when browsers can already play it.
+     * @param streamInfo The information about the input tracks.
+     * @return The encoding type to use.
+     */
+    private EncodingType selectType(final StreamInfo streamInfo) {
+        EncodingDecision decision = selectDecision(streamInfo);
+        stream.setEncodingDecision(decision);
+        Logger.info("Selected " + decision.getType().getDescription() + " encoding for the stream with id: " +
+                stream.getID() + " (" + decision.getReason() + ", estimated cpu: " +
+                Math.round(decision.getEstimatedCpu()) + "%).");
+        return decision.getType();
+    }
+
+    /**
+     * Applies the selection rules of the requested encoding type.
+     * @param streamInfo The information about the input tracks.
+     * @return The decision.
+     */
+    private EncodingDecision selectDecision(final StreamInfo streamInfo) {
+        if (type == EncodingType.AUTO) {
+            return EncodingSelector.select(streamInfo, ResourceMonitor.getHostCpuPercent(),
+                    ConfigManager.getConfig().getAutoMaxHostCpu());
+        }
+
+        Optional<VideoTrackInfo> video = streamInfo.getVideoTrackAtIndex(0);
+        boolean compatible = video.isPresent() && video.get().isBrowserCompatible();
+        EncodingType selected = type;
+        String reason = "requested";
+
+        if (type == EncodingType.MPEG_DASH_H264_AAC && compatible && ConfigManager.getConfig().isVideoPassthroughEnabled()) {
+            selected = EncodingType.MPEG_DASH_COPY_AAC;
+            reason = "the video is browser compatible, it is copied";
+        }
+        if (type == EncodingType.MPEG_DASH_COPY_AAC && !compatible) {
+            Logger.warn("The video of the stream with id: " + stream.getID() + " may not be playable by browsers " +
+                    "(codec: " + video.map(VideoTrackInfo::getCodecName).orElse("none") + ", profile: " +
+                    video.map(VideoTrackInfo::getProfile).orElse("none") + "), it will be copied anyway.");
+        }
+        return new EncodingDecision(selected, EncodingSelector.estimateCpu(selected, streamInfo), reason);
+    }
+
+    /**
+     * Starts watching the encode for stalls. When ffmpeg runs as RTSP server the encode is idle until
+     * the client announces the stream, so the watch starts with the first progress event instead.
+     */
+    private void startWatchdog() {
+        lastProgressTime = System.currentTimeMillis();
+
+        if (mode != RTSPMode.SERVER && !watched) {
+            watched = true;
+            StallWatchdog.watch(this);
+        }
+    }
+
+    /**
+     * Records the last activity of ffmpeg.
+     */
+    private void reportActivity() {
+        lastProgressTime = System.currentTimeMillis();
+
+        if (!watched) {
+            watched = true;
+            StallWatchdog.watch(this);
+        }
+
+        if (stream.isStalled()) {
+            stream.setStalled(false);
+        }
     }
 }
@@ -0,0 +1,60 @@
+package jvs.workers;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+
+/**
+ * Encoding type selected for an analyzed input, with the estimated cost of the encode and the reason of the choice.
+ */
+public class EncodingDecision {
+
+    private final EncodingType type;
+    private final double estimatedCpu;
+    private final String reason;
+
+    /**
+     * EncodingDecision constructor
+     * @param type The selected encoding type.
+     * @param estimatedCpu The estimated cpu usage of the encode, in percent of a single core.
+     * @param reason The reason of the choice.
+     */
+    public EncodingDecision(final EncodingType type, final double estimatedCpu, final String reason) {
+        this.type = type;
+        this.estimatedCpu = estimatedCpu;
+        this.reason = reason;
+    }
+
+    /**
+     * Gets the selected encoding type.
+     * @return The encoding type.
+     */
+    public EncodingType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the estimated cpu usage of the encode.
+     * @return The cpu usage, in percent of a single core.
+     */
+    public double getEstimatedCpu() {
+        return estimatedCpu;
+    }
+
+    /**
+     * Gets the reason of the choice.
+     * @return The reason.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Return a json object that represents the decision.
+     * @return The json with the selected type, its estimated cost and the reason.
+     */
+    public JsonObject toJSON() {
+        return new JsonObject().put(Constants.STREAMTYPE_KEY, type.getDescription())
+                .put(Constants.ESTIMATEDCPU_KEY, Math.round(estimatedCpu * 10) / 10d)
+                .put(Constants.REASON_KEY, reason);
+    }
+}
@@ -0,0 +1,151 @@
+package jvs.workers;
+
+import jvs.stream.StreamInfo;
+import jvs.stream.track.AudioTrackInfo;
+import jvs.stream.track.VideoTrackInfo;
+
+import java.util.Optional;
+
+/**
+ * Selects the cheapest encoding type that produces a browser playable output for an analyzed input,
+ * and estimates the cpu cost of the encodes.
+ * Rules are evaluated in order:
+ * 1. inputs without video are copied (nothing to transcode);
+ * 2. playable H.264 video is copied, with the audio copied too if it is AAC or transcoded otherwise;
+ * 3. H.264 video whose compatibility cannot be verified (missing profile, level or pixel format) is
+ *    transcoded, unless the host cannot afford the transcode, in which case it is copied;
+ * 4. any other video is transcoded to H.264/AAC.
+ */
+public class EncodingSelector {
+
+    /**
+     * Pixels per second transcoded to H.264 by a single core (1080p at 30 fps with the veryfast preset)
+     */
+    private static final double H264_PIXELS_PER_CORE = 1920d * 1080d * 30d;
+
+    /**
+     * Cost of the vpx encoders relative to libx264
+     */
+    private static final double VP8_FACTOR = 1.5;
+    private static final double VP9_FACTOR = 2.5;
+
+    /**
+     * Cost of copying the tracks and of transcoding the audio, in percent of a single core
+     */
+    private static final double COPY_CPU = 1d;
+    private static final double AUDIO_CPU = 3d;
+
+    private EncodingSelector(){}
+
+    /**
+     * Selects the encoding type of an input.
+     * @param streamInfo The information about the input tracks.
+     * @param hostCpuPercent The current cpu usage of the host, in percent (0-100).
+     * @param maxHostCpuPercent The host cpu usage above which a transcode is avoided when a copy may be playable.
+     * @return The decision.
+     */
+    public static EncodingDecision select(final StreamInfo streamInfo, final double hostCpuPercent,
+                                          final double maxHostCpuPercent) {
+
+        Optional<VideoTrackInfo> video = streamInfo.getVideoTrackAtIndex(0);
+
+        if (!video.isPresent()) {
+            return decide(EncodingType.MPEG_DASH_PASSTHROUGH, streamInfo, "no video track, the input is copied");
+        }
+
+        VideoTrackInfo vti = video.get();
+        String videoTag = vti.getCodecName() + " " + vti.getProfile() + " " + vti.getPixelFormat() + " " +
+                vti.getWidth() + "x" + vti.getHeight();
+
+        if (vti.isBrowserCompatible()) {
+            return decideCopy(streamInfo, videoTag + " is playable");
+        }
+
+        double transcodeCpu = estimateCpu(EncodingType.MPEG_DASH_H264_AAC, streamInfo);
+        double projectedHostCpu = hostCpuPercent + transcodeCpu / Runtime.getRuntime().availableProcessors();
+
+        if (vti.isPossiblyBrowserCompatible()) {
+            if (projectedHostCpu > maxHostCpuPercent) {
+                return decideCopy(streamInfo, videoTag + " may be playable, the host cannot afford a transcode (cpu " +
+                        Math.round(projectedHostCpu) + "%)");
+            }
+            return decide(EncodingType.MPEG_DASH_H264_AAC, streamInfo,
+                    videoTag + " may not be playable, transcoded");
+        }
+
+        return decide(EncodingType.MPEG_DASH_H264_AAC, streamInfo, videoTag + " is not playable, transcoded" +
+                (projectedHostCpu > maxHostCpuPercent ? " (host cpu " + Math.round(projectedHostCpu) + "%)" : ""));
+    }
+
+    /**
+     * Estimates the cpu usage of an encode.
+     * @param type The encoding type.
+     * @param streamInfo The information about the input tracks.
+     * @return The estimated cpu usage, in percent of a single core.
+     */
+    public static double estimateCpu(final EncodingType type, final StreamInfo streamInfo) {
+
+        Optional<VideoTrackInfo> video = streamInfo.getVideoTrackAtIndex(0);
+        double videoCpu = video.map(v -> v.getWidth() * v.getHeight() * v.getFrameRate() / H264_PIXELS_PER_CORE * 100d)
+                .orElse(0d);
+        double audioCpu = streamInfo.getAudioTracks().isEmpty() ? 0 : AUDIO_CPU;
+
+        switch (type) {
+            case MPEG_DASH_PASSTHROUGH:
+                return COPY_CPU;
+            case MPEG_DASH_COPY_AAC:
+                return COPY_CPU + (isAacAudio(streamInfo) ? 0 : audioCpu);
+            case MPEG_DASH_H264_AAC:
+                return videoCpu + audioCpu;
+            case WEBM_DASH_VP8_VORBIS:
+                return videoCpu * VP8_FACTOR + audioCpu;
+            case WEBM_DASH_VP9_OPUS:
+                return videoCpu * VP9_FACTOR + audioCpu;
+            case MULTI_DASH_H264_VP8:
+                return videoCpu * (1 + VP8_FACTOR) + audioCpu * 2;
+            case MULTI_DASH_H264_VP9:
+                return videoCpu * (1 + VP9_FACTOR) + audioCpu * 2;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Creates the decision to copy a playable video, copying the whole input if the audio is AAC as well.
+     * @param streamInfo The information about the input tracks.
+     * @param reason The reason of the choice.
+     * @return The decision.
+     */
+    private static EncodingDecision decideCopy(final StreamInfo streamInfo, final String reason) {
+        if (isAacAudio(streamInfo)) {
+            return decide(EncodingType.MPEG_DASH_PASSTHROUGH, streamInfo, reason + ", the input is copied");
+        }
+        return decide(EncodingType.MPEG_DASH_COPY_AAC, streamInfo, reason + ", " +
+                streamInfo.getAudioTracks().get(0).getCodecName() + " audio transcoded to AAC");
+    }
+
+    /**
+     * Creates a decision with the estimated cost of the selected type.
+     * @param type The selected encoding type.
+     * @param streamInfo The information about the input tracks.
+     * @param reason The reason of the choice.
+     * @return The decision.
+     */
+    private static EncodingDecision decide(final EncodingType type, final StreamInfo streamInfo, final String reason) {
+        return new EncodingDecision(type, estimateCpu(type, streamInfo), reason);
+    }
+
+    /**
+     * Determine whether every audio track can be copied.
+     * @param streamInfo The information about the input tracks.
+     * @return True, if there are no audio tracks or all of them are AAC; otherwise false.
+     */
+    private static boolean isAacAudio(final StreamInfo streamInfo) {
+        for (AudioTrackInfo audio : streamInfo.getAudioTracks()) {
+            if (!"aac".equals(audio.getCodecName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
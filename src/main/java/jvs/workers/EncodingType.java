@@ -19,7 +19,25 @@ public enum EncodingType {
     /**
      * Slowest profile, medium/high server load, limited browser compatibility, maximum efficiency.
      */
-	WEBM_DASH_VP9_OPUS;
+	WEBM_DASH_VP9_OPUS,
+    /**
+     * Fastest profile with audio transcode, low server load, maximum browser compatibility, good efficiency.
+     * The H.264 video is copied, so the input must already be playable by browsers.
+     */
+    MPEG_DASH_COPY_AAC,
+    /**
+     * Cheapest MPEG-DASH profile that produces a playable output, selected after the analysis of the input
+     * (see {@link EncodingSelector}).
+     */
+    AUTO,
+    /**
+     * MPEG-DASH (H.264/AAC) and WEBM-DASH (VP8/Vorbis) from a single ffmpeg process, which decodes the input once.
+     */
+    MULTI_DASH_H264_VP8,
+    /**
+     * MPEG-DASH (H.264/AAC) and WEBM-DASH (VP9/Opus) from a single ffmpeg process, which decodes the input once.
+     */
+    MULTI_DASH_H264_VP9;
 
 	/**
 	 * Description of the encoding type.
@@ -34,6 +52,10 @@ public enum EncodingType {
         MPEG_DASH_H264_AAC.description = "MPEG-DASH (H.264/AAC)";
         WEBM_DASH_VP8_VORBIS.description = "WEBM-DASH (VP8/Vorbis)";
         WEBM_DASH_VP9_OPUS.description = "WEBM-DASH (VP9/Opus)";
+        MPEG_DASH_COPY_AAC.description = "MPEG-DASH (H.264 copy/AAC)";
+        AUTO.description = "Automatic";
+        MULTI_DASH_H264_VP8.description = "MPEG-DASH (H.264/AAC) + WEBM-DASH (VP8/Vorbis)";
+        MULTI_DASH_H264_VP9.description = "MPEG-DASH (H.264/AAC) + WEBM-DASH (VP9/Opus)";
     }
 
     /**
@@ -43,6 +65,37 @@ public enum EncodingType {
     public String getDescription() {
         return description;
     }
+
+    /**
+     * Determine whether the encoding type only produces a MPEG-DASH output, written by a single ffmpeg process.
+     * @return True, if the output is MPEG-DASH; otherwise false (WEBM-DASH, alone or with MPEG-DASH).
+     */
+    public boolean isMpegDash() {
+        return this != WEBM_DASH_VP8_VORBIS && this != WEBM_DASH_VP9_OPUS && !isMultiOutput();
+    }
+
+    /**
+     * Determine whether the encoding type produces both a MPEG-DASH and a WEBM-DASH output.
+     * @return True, if the encode has two outputs; otherwise false.
+     */
+    public boolean isMultiOutput() {
+        return this == MULTI_DASH_H264_VP8 || this == MULTI_DASH_H264_VP9;
+    }
+
+    /**
+     * Gets the WEBM-DASH encoding type of the output of a multi output encode.
+     * @return The WEBM-DASH type; the type itself if it is not a multi output one.
+     */
+    public EncodingType getWebmType() {
+        switch (this) {
+            case MULTI_DASH_H264_VP8:
+                return WEBM_DASH_VP8_VORBIS;
+            case MULTI_DASH_H264_VP9:
+                return WEBM_DASH_VP9_OPUS;
+            default:
+                return this;
+        }
+    }
 }
 
 
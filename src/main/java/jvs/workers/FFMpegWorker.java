@@ -1,14 +1,18 @@
 package jvs.workers;
 
 import jvs.config.ConfigManager;
-import jvs.Constants;
+import jvs.monitor.ResourceMonitor;
 import jvs.utils.DurationUtils;
+import jvs.utils.LogRateLimiter;
 import jvs.utils.Logger;
+import jvs.utils.ProcessUtils;
 import jvs.workers.events.CompletedEventArgs;
 import jvs.workers.events.ProgressEventArgs;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -27,6 +31,21 @@ public class FFMpegWorker extends Worker {
      */
     private OutputStream outputStream = null;
 
+    /**
+     * The running ffmpeg process, used to kill it if it does not respond.
+     */
+    private volatile Process process = null;
+
+    /**
+     * Last lines written by ffmpeg on stderr, drained continuously so that ffmpeg never blocks on a full pipe.
+     */
+    private final OutputRingBuffer output;
+
+    /**
+     * Niceness of the process, 0 to run it with the priority of the server.
+     */
+    private int niceness = 0;
+
     /**
      * FFMpegWorker constructor
      *
@@ -35,6 +54,24 @@ public class FFMpegWorker extends Worker {
      */
     public FFMpegWorker(String workingDir, List<String> commands) {
         super(workingDir, commands);
+        output = new OutputRingBuffer(ConfigManager.getConfig().getLogTailLines());
+    }
+
+    /**
+     * Gets the buffer with the last lines written by ffmpeg.
+     * @return The output buffer.
+     */
+    public OutputRingBuffer getOutput() {
+        return output;
+    }
+
+    /**
+     * Sets the niceness of the process, so that it only uses the cpu left by the other processes.
+     * Must be called before the worker is started.
+     * @param niceness The niceness (1-19); 0 to run the process with the priority of the server.
+     */
+    public void setNiceness(final int niceness) {
+        this.niceness = niceness;
     }
 
     /**
@@ -43,14 +80,18 @@ public class FFMpegWorker extends Worker {
     @Override
     public void run() {
 
-        Process process = null;
-        BufferedReader br = null;
         Integer exitCode = null;
+        LogRateLimiter stderrLog = new LogRateLimiter(Logger.FFMPEG, "[stream " + ownerID + "] ",
+                ConfigManager.getConfig().getFfmpegLogRate());
         StringBuilder errorMessage = new StringBuilder();
 
         try {
             //add ffmpeg path as the first element of the commands
             commands.add(0, ConfigManager.getConfig().getFfmpegPath());
+            if (niceness > 0) {
+                //nice replaces itself with ffmpeg, the pid is the one of ffmpeg
+                commands.addAll(0, Arrays.asList("nice", "-n", Integer.toString(niceness)));
+            }
 
             ProcessBuilder pb = new ProcessBuilder();
             pb.command(commands);
@@ -61,26 +102,32 @@ public class FFMpegWorker extends Worker {
             //process.getOutputStream().close();
             outputStream = process.getOutputStream(); //save output stream of the process to kill ffmpeg rtsp server
 
-            if (Constants.DEBUG_MODE) {
-                Logger.info("FFMpeg Process started at: " + new Date().toString());
+            //account process resources to the owner stream
+            pid = ProcessUtils.getPid(process);
+            ResourceMonitor.track(ownerID, pid);
+
+            if (Logger.isDebugEnabled(Logger.FFMPEG)) {
+                Logger.debug(Logger.FFMPEG, "FFMpeg Process started at: " + new Date().toString());
             }
 
-            br = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+            //drain stderr on its own thread, parsing below consumes the buffered lines
+            InputStream errorStream = process.getErrorStream();
+            Thread drainer = new Thread(() -> drain(errorStream), "ffmpeg-stderr-" + ownerID);
+            drainer.setDaemon(true);
+            drainer.start();
 
             String line;
             String lastWarning = null;
             int step = 0;
 
-            while ((line = br.readLine()) != null) {
+            while ((line = output.next()) != null) {
 
-                if (Constants.DEBUG_MODE) {
-                    Logger.log(line);
-                }
+                stderrLog.log(Logger.Level.DEBUG, line);
 
                 //input informations
                 if (step == 0) {
                     if (line.startsWith("WARNING: ")) {
-                        Logger.warn("FFMpeg reported: " + line);
+                        stderrLog.log(Logger.Level.WARNING, "FFMpeg reported: " + line);
                     } else if (!line.startsWith("Output #0")) {
                         //errorMessage.append(line + "\n");
                     } else {
@@ -91,7 +138,7 @@ public class FFMpegWorker extends Worker {
                 //output informations
                 if (step == 1) {
                     if (line.startsWith("WARNING: ")) {
-                        Logger.warn("FFMpeg reported: " + line);
+                        stderrLog.log(Logger.Level.WARNING, "FFMpeg reported: " + line);
                     } else if (!line.startsWith("Output #0")) {
                         //errorMessage.append(line + "\n");
                     } else {
@@ -141,7 +188,7 @@ public class FFMpegWorker extends Worker {
                     }
                     catch (Exception ex)
                     {
-                        Logger.warn("Error in progress parsing for line: " + line);
+                        stderrLog.log(Logger.Level.WARNING, "Error in progress parsing for line: " + line);
                     }
                 }
             }
@@ -159,22 +206,80 @@ public class FFMpegWorker extends Worker {
         } catch (InterruptedException e) {
             Logger.error("FFMpeg process has been interrupted.");
         } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-
             if (process != null) {
                 process.destroy();
             }
+
+            ResourceMonitor.untrack(pid);
+            pid = -1;
+            stderrLog.report();
         }
 
         completed(new CompletedEventArgs(exitCode, errorMessage.toString()));
     }
 
+    /**
+     * Reads the stderr of ffmpeg until the end of the stream, splitting it into lines (ffmpeg ends progress
+     * lines with '\r') and appending them to the output buffer. Lines longer than
+     * {@link OutputRingBuffer#MAX_LINE_LENGTH} bytes are truncated, before their last whole UTF-8 character.
+     * @param stream The stderr of the process.
+     */
+    private void drain(final InputStream stream) {
+        byte[] chunk = new byte[8192];
+        byte[] line = new byte[OutputRingBuffer.MAX_LINE_LENGTH];
+        int length = 0;
+
+        try {
+            int read;
+            while ((read = stream.read(chunk)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = chunk[i];
+                    if (b == '\n' || b == '\r') {
+                        if (length > 0) {
+                            output.append(new String(line, 0, truncate(line, length), StandardCharsets.UTF_8));
+                            length = 0;
+                        }
+                    } else if (length < line.length) {
+                        line[length++] = b;
+                    }
+                }
+            }
+            if (length > 0) {
+                output.append(new String(line, 0, truncate(line, length), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            //the pipe is closed when the process is destroyed
+        } finally {
+            output.close();
+            try {
+                stream.close();
+            } catch (IOException e) {
+                //already closed
+            }
+        }
+    }
+
+    /**
+     * Gets the length of a line without the bytes of an UTF-8 character cut by the truncation of the line.
+     * @param bytes The bytes of the line.
+     * @param length The number of bytes of the line.
+     * @return The number of bytes of the whole characters.
+     */
+    static int truncate(final byte[] bytes, final int length) {
+        //the first byte of the last character, after at most 3 continuation bytes
+        int lead = length - 1;
+        while (lead > 0 && length - lead < 4 && (bytes[lead] & 0xC0) == 0x80) {
+            lead--;
+        }
+        if (lead < 0) {
+            return 0;
+        }
+
+        int first = bytes[lead] & 0xFF;
+        int size = first >= 0xF0 ? 4 : first >= 0xE0 ? 3 : first >= 0xC0 ? 2 : 1;
+        return length - lead >= size ? length : lead;
+    }
+
     /**
      * Sends the stop command to the ffmpeg process.
      * @return True, if the stop command is successfully sent to the process; otherwise false.
@@ -192,12 +297,26 @@ public class FFMpegWorker extends Worker {
         return false;
     }
 
+    /**
+     * Forcibly kills the ffmpeg process.
+     * @return True, if the process was running and the kill signal has been sent; otherwise false.
+     */
+    public boolean kill() {
+        Process runningProcess = process;
+        if (runningProcess != null && runningProcess.isAlive()) {
+            Logger.info("Killing ffmpeg process...");
+            runningProcess.destroyForcibly();
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Parses ffmpeg progress information.
      * @param line The untouched output ffmpeg line.
      * @return HashMap of all parsed information and relative values
      */
-    private HashMap<String, String> parseProgressInfoLine(String line) {
+    static HashMap<String, String> parseProgressInfoLine(String line) {
         HashMap<String, String> table = null;
         Matcher m = ConfigManager.getConfig().getPattern(PROGRESS).matcher(line);
         while (m.find()) {
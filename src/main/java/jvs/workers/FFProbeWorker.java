@@ -1,27 +1,42 @@
 package jvs.workers;
 
 import jvs.config.ConfigManager;
-import jvs.Constants;
+import jvs.monitor.ResourceMonitor;
 import jvs.utils.Logger;
+import jvs.utils.ProcessUtils;
 import jvs.workers.events.CompletedEventArgs;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Worker used to execute ffprobe commands, extends Worker
  */
 public class FFProbeWorker extends Worker {
 
+    private final Consumer<String> lineHandler;
+
     /**
      * FFProbeWorker constructor
      *
      * @param commands The commands to execute in background.
      */
     protected FFProbeWorker(List<String> commands) {
+        this(commands, null);
+    }
+
+    /**
+     * FFProbeWorker constructor, for reports too large to be kept in memory.
+     *
+     * @param commands The commands to execute in background.
+     * @param lineHandler The handler of every line of the report, which is then neither logged nor returned as result.
+     */
+    protected FFProbeWorker(List<String> commands, Consumer<String> lineHandler) {
         super(commands);
+        this.lineHandler = lineHandler;
     }
 
     /**
@@ -47,18 +62,24 @@ public class FFProbeWorker extends Worker {
             process = pb.start();
             process.getOutputStream().close();
 
-            if (Constants.DEBUG_MODE) {
-                Logger.info("FFProbe Process started at: " + new Date().toString());
+            //account process resources to the owner stream
+            pid = ProcessUtils.getPid(process);
+            ResourceMonitor.track(ownerID, pid);
+
+            if (Logger.isDebugEnabled(Logger.FFPROBE)) {
+                Logger.debug(Logger.FFPROBE, "FFProbe Process started at: " + new Date().toString());
             }
 
             br = new BufferedReader(new InputStreamReader(process.getInputStream()));
 
             String line;
             while ((line = br.readLine()) != null) {
-                if (Constants.DEBUG_MODE) {
-                    Logger.log(line);
+                if (lineHandler != null) {
+                    lineHandler.accept(line);
+                    continue;
                 }
-                sb.append(line);
+                Logger.debug(Logger.FFPROBE, line);
+                sb.append(line).append('\n');
             }
 
             exitCode = process.waitFor();
@@ -79,6 +100,9 @@ public class FFProbeWorker extends Worker {
             if (process != null) {
                 process.destroy();
             }
+
+            ResourceMonitor.untrack(pid);
+            pid = -1;
         }
 
         completed(new CompletedEventArgs(exitCode, error ? null : sb.toString()));
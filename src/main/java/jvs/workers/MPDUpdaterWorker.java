@@ -14,7 +14,9 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.File;
 import java.time.Duration;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Worker used to update dash manifest once conversion is finished from dynamic to static.
@@ -26,6 +28,11 @@ public class MPDUpdaterWorker extends Worker {
      */
     private Duration duration;
 
+    /**
+     * Measured bitrates of the representations, indexed by representation id.
+     */
+    private Map<String, Long> bandwidths = Collections.emptyMap();
+
     /**
      * FFProbeWorker constructor
      *
@@ -37,6 +44,14 @@ public class MPDUpdaterWorker extends Worker {
         this.duration = duration;
     }
 
+    /**
+     * Sets the measured bitrates that replace the nominal bandwidths of the representations.
+     * @param bandwidths The bitrates in bits per second, indexed by representation id.
+     */
+    public void setBandwidths(final Map<String, Long> bandwidths) {
+        this.bandwidths = bandwidths;
+    }
+
     /**
      * Defines the thread operations.
      */
@@ -64,6 +79,15 @@ public class MPDUpdaterWorker extends Worker {
                 rootNode.removeAttribute("availabilityStartTime");
                 rootNode.removeAttribute("timeShiftBufferDepth");
 
+                NodeList representations = doc.getElementsByTagName("Representation");
+                for (int i = 0; i < representations.getLength(); i++) {
+                    Element representation = (Element) representations.item(i);
+                    Long bandwidth = bandwidths.get(representation.getAttribute("id"));
+                    if (bandwidth != null && bandwidth > 0) {
+                        representation.setAttribute("bandwidth", Long.toString(bandwidth));
+                    }
+                }
+
                 // write the content into xml file
                 TransformerFactory transformerFactory = TransformerFactory.newInstance();
                 Transformer transformer = transformerFactory.newTransformer();
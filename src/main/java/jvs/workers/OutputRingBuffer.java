@@ -0,0 +1,103 @@
+package jvs.workers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size buffer of the last output lines of a process.
+ * A single producer (the thread draining the process pipe) appends lines without ever waiting for the
+ * consumer, while the consumer (the worker parsing the output) reads them in order; when the consumer
+ * falls more than the capacity behind, the oldest lines are skipped and counted.
+ * The memory used is bounded by the capacity and the maximum line length, regardless of the process duration.
+ */
+public class OutputRingBuffer {
+
+    /**
+     * Maximum length of a stored line, longer lines are truncated
+     */
+    public static final int MAX_LINE_LENGTH = 1024;
+
+    private final String[] lines;
+    private long written = 0;
+    private long read = 0;
+    private long skipped = 0;
+    private boolean closed = false;
+
+    /**
+     * OutputRingBuffer constructor
+     * @param capacity The number of lines kept in memory.
+     */
+    public OutputRingBuffer(final int capacity) {
+        this.lines = new String[Math.max(1, capacity)];
+    }
+
+    /**
+     * Appends a line, overwriting the oldest one if the buffer is full.
+     * @param line The line to append.
+     */
+    public synchronized void append(final String line) {
+        lines[(int)(written % lines.length)] = line;
+        written++;
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of the output, the consumer receives null once every remaining line has been read.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Gets the next unread line, waiting for it if needed.
+     * @return The next line; null if the output is closed and every line has been read.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized String next() throws InterruptedException {
+        while (read == written && !closed) {
+            wait();
+        }
+        if (read == written) {
+            return null;
+        }
+
+        //the producer overwrote lines not read yet, skip them
+        if (written - read > lines.length) {
+            skipped += written - read - lines.length;
+            read = written - lines.length;
+        }
+        return lines[(int)(read++ % lines.length)];
+    }
+
+    /**
+     * Gets the last lines of the output.
+     * @param count The maximum number of lines.
+     * @return The last lines, from the oldest to the newest.
+     */
+    public synchronized List<String> tail(final int count) {
+        int available = (int)Math.min(written, lines.length);
+        int size = Math.max(0, Math.min(count, available));
+        List<String> result = new ArrayList<>(size);
+        for (long i = written - size; i < written; i++) {
+            result.add(lines[(int)(i % lines.length)]);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of lines skipped by the consumer because it was too slow.
+     * @return The number of skipped lines.
+     */
+    public synchronized long getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Gets the total number of lines appended.
+     * @return The number of lines.
+     */
+    public synchronized long getLinesCount() {
+        return written;
+    }
+}
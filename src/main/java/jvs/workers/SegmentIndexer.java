@@ -0,0 +1,355 @@
+package jvs.workers;
+
+import jvs.Constants;
+import jvs.config.ConfigManager;
+import jvs.packaging.SegmentIndex;
+import jvs.packaging.SegmentPack;
+import jvs.packaging.SegmentScanner;
+import jvs.stream.Stream;
+import jvs.utils.Logger;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes the segments of the encodes as they are closed, reading their headers instead of probing them, so that
+ * the manifests get the actual duration and the measured bitrates of the streams. ffmpeg writes the segments one
+ * after the other: a segment is closed once the next one of its representation exists, the last segments are
+ * indexed when the encode completes. When the segment packs are enabled, the indexed segments of the recordings
+ * are then appended to the pack files of their directory (see {@link SegmentPack}).
+ */
+public class SegmentIndexer {
+
+    /**
+     * Headers of the representations of the MPEG-DASH and WebM-DASH encodes, and the names of their segments
+     * (formatted with the id of the representation, then with the number of the segment)
+     */
+    private static final Pattern MP4_HEADER = Pattern.compile("init-stream(\\d+)\\.m4s");
+    private static final Pattern WEBM_HEADER = Pattern.compile("(\\w+)\\.hdr");
+    private static final String MP4_SEGMENT = "chunk-stream%s-%%05d.m4s";
+    private static final String WEBM_SEGMENT = "%s_%%d.chk";
+
+    /**
+     * Indexed streams, indexed by stream id
+     */
+    private static final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService timer = null;
+
+    private SegmentIndexer(){}
+
+    /**
+     * Starts the indexer.
+     * @param interval The interval, in milliseconds, between two scans of the encodes.
+     */
+    public static synchronized void start(final long interval) {
+        if (timer != null) {
+            return;
+        }
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "segment-indexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(SegmentIndexer::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the indexer.
+     */
+    public static synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Starts indexing the segments of a new encode of a stream, the previous index and packs of the stream are
+     * dropped (the new segments get the same names).
+     * @param stream The stream.
+     */
+    public static void watch(final Stream stream) {
+        File directory = new File(stream.getDirectory());
+        SegmentIndex index = new SegmentIndex();
+        index.setStartTime(System.currentTimeMillis());
+        deleteSidecar(directory);
+        SegmentPack.delete(directory);
+        entries.put(stream.getID(), new Entry(directory, directory, index, getPack(stream, directory)));
+    }
+
+    /**
+     * Restores the index of a completed encode (e.g. after a restart of the server) from its sidecar, the segments
+     * missing from the sidecar are indexed on the next tick.
+     * @param stream The stream.
+     */
+    public static void restore(final Stream stream) {
+        File directory = new File(stream.getDirectory());
+        SegmentIndex index = SegmentIndex.read(new File(directory, Constants.SEGMENT_INDEX_FILE));
+        Entry entry = new Entry(directory, directory, index != null ? index : new SegmentIndex(), getPack(stream, directory));
+        entry.closed = true;
+        entries.put(stream.getID(), entry);
+    }
+
+    /**
+     * Indexes again the segments of a completed encode on the next tick, after they have been replaced.
+     * @param stream The stream.
+     * @param segmentsDirectory The directory of the new segments; null if the segments have been replaced by
+     *                          content with its own index (the index only keeps the start time of the stream).
+     */
+    public static void rebuild(final Stream stream, final File segmentsDirectory) {
+        File directory = new File(stream.getDirectory());
+        SegmentIndex index = new SegmentIndex();
+        SegmentIndex previous = get(stream.getID());
+        index.setStartTime(previous != null ? previous.getStartTime() : -1);
+        deleteSidecar(directory);
+        Entry entry = new Entry(directory, segmentsDirectory, index,
+                segmentsDirectory != null ? getPack(stream, segmentsDirectory) : null);
+        entry.closed = true;
+        entries.put(stream.getID(), entry);
+    }
+
+    /**
+     * Adds the index of segments written without an encode (e.g. the segments of a clip), its sidecar is saved
+     * on the next tick.
+     * @param stream The stream.
+     * @param index The index of its segments.
+     */
+    public static void add(final Stream stream, final SegmentIndex index) {
+        File directory = new File(stream.getDirectory());
+        Entry entry = new Entry(directory, null, index, null);
+        entry.closed = true;
+        entries.put(stream.getID(), entry);
+    }
+
+    /**
+     * Indexes the remaining segments of a stream whose encode completed.
+     * @param streamID The id of the stream.
+     */
+    public static void flush(final int streamID) {
+        Entry entry = entries.get(streamID);
+        if (entry != null) {
+            entry.scan(true);
+        }
+    }
+
+    /**
+     * Drops the index of a stream, with its sidecar.
+     * @param streamID The id of the stream.
+     */
+    public static void remove(final int streamID) {
+        Entry entry = entries.remove(streamID);
+        if (entry != null) {
+            deleteSidecar(entry.directory);
+        }
+    }
+
+    /**
+     * Gets the index of a stream.
+     * @param streamID The id of the stream.
+     * @return The index; null if the stream is not indexed.
+     */
+    public static SegmentIndex get(final int streamID) {
+        Entry entry = entries.get(streamID);
+        return entry != null ? entry.index : null;
+    }
+
+    /**
+     * Gets the indexed duration of a stream.
+     * @param streamID The id of the stream.
+     * @param fallback The duration used if the stream has no indexed segment.
+     * @return The duration.
+     */
+    public static Duration getDuration(final int streamID, final Duration fallback) {
+        SegmentIndex index = get(streamID);
+        if (index == null || index.getCount() == 0) {
+            return fallback;
+        }
+        return Duration.ofMillis(Math.round(index.getDuration() * 1000));
+    }
+
+    /**
+     * Gets the measured bitrates of the representations of a stream.
+     * @param streamID The id of the stream.
+     * @return The bitrates in bits per second, indexed by representation id; empty if the stream is not indexed.
+     */
+    public static Map<String, Long> getBandwidths(final int streamID) {
+        SegmentIndex index = get(streamID);
+        return index != null ? index.getBandwidths() : Collections.emptyMap();
+    }
+
+    /**
+     * Indexes the segments closed since the last tick.
+     */
+    private static void tick() {
+        try {
+            for (Entry entry : entries.values()) {
+                if (!entry.completed) {
+                    entry.scan(entry.closed);
+                }
+            }
+        } catch (Exception e) {
+            Logger.error("Segment indexer failed to index segments: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Gets the packs the indexed segments of a stream are appended to.
+     * @param stream The stream.
+     * @param segmentsDirectory The directory of its segments.
+     * @return The packs; null if the segments are not packed. The segments of on-demand encodes are deleted
+     * when the encode restarts, they are never packed.
+     */
+    private static SegmentPack getPack(final Stream stream, final File segmentsDirectory) {
+        if (!ConfigManager.getConfig().isSegmentPackEnabled() || stream.isOnDemand()) {
+            return null;
+        }
+        return SegmentPack.open(segmentsDirectory);
+    }
+
+    private static void deleteSidecar(final File directory) {
+        File sidecar = new File(directory, Constants.SEGMENT_INDEX_FILE);
+        if (sidecar.exists() && !sidecar.delete()) {
+            Logger.warn("Unable to delete the segment index " + sidecar.getPath() + ".");
+        }
+    }
+
+    /**
+     * Indexing state of the encode of a stream.
+     */
+    private static class Entry {
+        private final File directory;
+        private final File segmentsDirectory;
+        private final SegmentIndex index;
+        private final SegmentPack pack;
+        private final List<Source> sources = new ArrayList<>();
+        private final Set<String> unreadable = new HashSet<>();
+        private volatile boolean completed = false;
+
+        /**
+         * Whether the encode is known to be completed without a flush
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * @param directory The directory of the stream, where the sidecar of the index is saved.
+         * @param segmentsDirectory The directory of the segments.
+         * @param index The index.
+         * @param pack The packs the indexed segments are appended to; null to keep the segments.
+         */
+        Entry(final File directory, final File segmentsDirectory, final SegmentIndex index, final SegmentPack pack) {
+            this.directory = directory;
+            this.segmentsDirectory = segmentsDirectory;
+            this.index = index;
+            this.pack = pack;
+        }
+
+        /**
+         * Indexes the closed segments of every representation, packs them and saves the new records in the sidecar.
+         * @param complete Whether the encode completed: its last segments are closed too.
+         */
+        synchronized void scan(final boolean complete) {
+            if (completed) {
+                return;
+            }
+
+            //the representations are known once the encode has written its first segments
+            if (complete || sources.isEmpty() || index.getCount() == 0) {
+                discover(complete);
+            }
+
+            for (Source source : sources) {
+                File segment = source.getSegment(source.next);
+                while (segment.isFile()) {
+                    File next = source.getSegment(source.next + 1);
+                    if (!complete && !next.isFile()) {
+                        break;
+                    }
+
+                    SegmentScanner.Timing timing = SegmentScanner.readSegment(source.track, segment);
+                    if (timing != null) {
+                        source.representation.add(source.next, timing);
+                        if (pack != null) {
+                            pack.append(segment, System.currentTimeMillis() / 1000 / ConfigManager.getConfig().getSegmentPackDuration());
+                        }
+                    }
+                    source.next++;
+                    segment = next;
+                }
+            }
+            if (index.isDirty() && directory.isDirectory()) {
+                index.save(new File(directory, Constants.SEGMENT_INDEX_FILE));
+            }
+            completed = complete;
+        }
+
+        /**
+         * Adds the representations whose header has been written. The indexing of a representation restored from
+         * the sidecar resumes after its last segment.
+         * @param retry Whether the headers that could not be read are read again.
+         */
+        private void discover(final boolean retry) {
+            String[] names = segmentsDirectory != null ? segmentsDirectory.list() : null;
+            if (names == null) {
+                return;
+            }
+
+            for (String name : names) {
+                Matcher mp4 = MP4_HEADER.matcher(name);
+                Matcher webm = WEBM_HEADER.matcher(name);
+                String id = mp4.matches() ? mp4.group(1) : webm.matches() ? webm.group(1) : null;
+                if (id == null || sources.stream().anyMatch(source -> source.representation.getID().equals(id)) ||
+                        (!retry && unreadable.contains(name))) {
+                    continue;
+                }
+
+                SegmentScanner.Track track = SegmentScanner.readHeader(new File(segmentsDirectory, name));
+                if (track != null) {
+                    String segmentName = String.format(mp4.matches() ? MP4_SEGMENT : WEBM_SEGMENT, id);
+                    String path = directory.toPath().relativize(segmentsDirectory.toPath()).toString();
+                    sources.add(new Source(index.getRepresentation(id, track.getTimescale(),
+                            path.isEmpty() ? segmentName : path + "/" + segmentName), track, segmentName));
+                } else {
+                    unreadable.add(name);
+                }
+            }
+        }
+
+        /**
+         * Segments of a representation.
+         */
+        private class Source {
+            private final SegmentIndex.Representation representation;
+            private final SegmentScanner.Track track;
+            private final String segmentName;
+
+            /**
+             * Number of the next segment to index, the segments are numbered from 1
+             */
+            private int next;
+
+            Source(final SegmentIndex.Representation representation, final SegmentScanner.Track track, final String segmentName) {
+                this.representation = representation;
+                this.track = track;
+                this.segmentName = segmentName;
+                this.next = representation.getLastNumber() + 1;
+            }
+
+            File getSegment(final int number) {
+                return new File(segmentsDirectory, String.format(segmentName, number));
+            }
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package jvs.workers;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.config.ConfigManager;
+import jvs.stream.Stream;
+import jvs.utils.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stages the output of the live encodes in a memory-backed folder (e.g. a tmpfs mount): ffmpeg writes its
+ * segments and manifests there, the viewers are served from there, and the closed segments are persisted to the
+ * directory of the stream in batches. The segments of a batch are copied and synced to temporary files, then
+ * renamed, so that a persisted segment is always complete; the staged copy is served until the retention of the
+ * persisted segments expires. The manifests and the headers are persisted again whenever they change, everything
+ * left is persisted when the encode completes.
+ */
+public class SegmentStager {
+
+    /**
+     * Media segments of the MPEG-DASH and WebM-DASH encodes: a segment is closed once the next one of its
+     * representation exists
+     */
+    private static final Pattern SEGMENT = Pattern.compile("(chunk-stream\\d+-|\\w+_)(\\d+)(\\.m4s|\\.chk)");
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Weight of the last batch in the smoothed throughputs
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Staged streams, indexed by stream id
+     */
+    private static final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService timer = null;
+
+    /**
+     * Throughputs of the tiers: the bytes written by ffmpeg in the staging folder per second of wall time, and the
+     * bytes persisted per second spent copying and syncing them
+     */
+    private static volatile long stagedBytes = 0;
+    private static volatile long persistedBytes = 0;
+    private static volatile long batches = 0;
+    private static volatile double stagingRate = 0;
+    private static volatile double persistRate = 0;
+    private static long lastTick = 0;
+
+    private SegmentStager(){}
+
+    /**
+     * Starts persisting the staged segments, the segments left in the staging folder by a stop of the server are
+     * persisted first.
+     * @param interval The interval, in milliseconds, between two batches.
+     */
+    public static synchronized void start(final long interval) {
+        if (timer != null || !ConfigManager.getConfig().isStagingEnabled()) {
+            return;
+        }
+
+        recover(new File(ConfigManager.getConfig().getStagingPath()));
+        lastTick = System.nanoTime();
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "segment-stager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(SegmentStager::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops persisting the staged segments.
+     */
+    public static synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Prepares the staging folder of a new encode of a stream. Only the live encodes are staged: the recordings
+     * are transcoded faster than they are watched, and the on-demand encodes are deleted when they restart.
+     * @param stream The stream.
+     * @return The folder ffmpeg writes to: the staging folder of the stream, or its directory if it is not staged.
+     */
+    public static String watch(final Stream stream) {
+        File previous = remove(stream.getID());
+        if (previous != null) {
+            deleteDirectory(previous);
+        }
+        if (timer == null || stream.isVod() || stream.isOnDemand()) {
+            return stream.getDirectory();
+        }
+
+        File durable = new File(stream.getDirectory());
+        File staging = new File(ConfigManager.getConfig().getStagingPath(), durable.getName());
+        if (staging.exists() && durable.isDirectory()) {
+            //the files a previous encode could not persist
+            new Entry(staging, durable).persist(true);
+        }
+        deleteDirectory(staging);
+        if (!staging.mkdirs()) {
+            Logger.warn("Unable to create the staging folder " + staging.getPath() + ", the stream with id: " +
+                    stream.getID() + " is written to its directory.");
+            return stream.getDirectory();
+        }
+
+        entries.put(stream.getID(), new Entry(staging, durable));
+        return staging.getPath();
+    }
+
+    /**
+     * Persists everything left in the staging folder of a stream whose encode completed, then deletes the folder.
+     * The folder is kept if some files could not be persisted, they are persisted again by the next encode of the
+     * stream or the next start of the server.
+     * @param streamID The id of the stream.
+     */
+    public static void flush(final int streamID) {
+        Entry entry = entries.get(streamID);
+        if (entry != null) {
+            Batch batch = entry.persist(true);
+            record(batch.staged, batch.persisted, batch.time);
+            entries.remove(streamID);
+            if (batch.isComplete()) {
+                deleteDirectory(entry.staging);
+            } else {
+                Logger.warn(batch.failed + " staged files of the stream with id: " + streamID + " could not be " +
+                        "persisted, they are kept in " + entry.staging.getPath() + ".");
+            }
+        }
+    }
+
+    /**
+     * Stops persisting the staging folder of a stream, e.g. when the stream is deleted: the completion of its encode
+     * no longer flushes the folder.
+     * @param streamID The id of the stream.
+     * @return The staging folder, to be deleted once ffmpeg stopped writing to it; null if the stream is not staged.
+     */
+    public static File remove(final int streamID) {
+        Entry entry = entries.remove(streamID);
+        return entry != null ? entry.staging : null;
+    }
+
+    /**
+     * Gets the folder the encode of a stream writes to.
+     * @param stream The stream.
+     * @return The staging folder of the stream; its directory if it is not staged.
+     */
+    public static File getWorkingDirectory(final Stream stream) {
+        Entry entry = entries.get(stream.getID());
+        return entry != null ? entry.staging : new File(stream.getDirectory());
+    }
+
+    /**
+     * Checks whether a file of a stream is served from the staging folder, without accessing the file system: the
+     * manifests and the headers stay staged until the encode completes, the segments until their staged copy is
+     * deleted.
+     * @param streamID The id of the stream.
+     * @param name The name of the file.
+     * @return True, if the stream is staged and the file has not been deleted from its staging folder; otherwise false.
+     */
+    public static boolean isStaged(final int streamID, final String name) {
+        Entry entry = entries.get(streamID);
+        return entry != null && !name.isEmpty() && entry.isStaged(name);
+    }
+
+    /**
+     * Return a json object that represents the throughputs of the tiers.
+     * @return The json with the bytes written by ffmpeg in the staging folder and its throughput, the bytes
+     * persisted and the throughput of the copies (bytes per second), and the number of batches.
+     */
+    public static JsonObject toJSON() {
+        return new JsonObject()
+                .put(Constants.STAGING_KEY, new JsonObject()
+                        .put(Constants.BYTES_KEY, stagedBytes)
+                        .put(Constants.WRITE_RATE_KEY, Math.round(stagingRate)))
+                .put(Constants.DURABLE_KEY, new JsonObject()
+                        .put(Constants.BYTES_KEY, persistedBytes)
+                        .put(Constants.WRITE_RATE_KEY, Math.round(persistRate)))
+                .put(Constants.BATCHES_KEY, batches);
+    }
+
+    /**
+     * Persists the segments closed since the last batch, and measures the throughputs.
+     */
+    private static void tick() {
+        try {
+            long staged = 0;
+            long persisted = 0;
+            long persistTime = 0;
+            for (Entry entry : entries.values()) {
+                Batch batch = entry.persist(false);
+                staged += batch.staged;
+                persisted += batch.persisted;
+                persistTime += batch.time;
+            }
+
+            long now = System.nanoTime();
+            record(staged, persisted, persistTime);
+            stagingRate = SMOOTHING * (staged * 1e9 / Math.max(1, now - lastTick)) + (1 - SMOOTHING) * stagingRate;
+            if (persistTime > 0) {
+                persistRate = SMOOTHING * (persisted * 1e9 / persistTime) + (1 - SMOOTHING) * persistRate;
+            }
+            lastTick = now;
+        } catch (Exception e) {
+            Logger.error("Segment stager failed to persist segments: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Adds a batch to the totals of the tiers.
+     * @param staged The bytes of the segments written by ffmpeg.
+     * @param persisted The bytes persisted.
+     * @param time The time spent persisting them, in nanoseconds.
+     */
+    private static synchronized void record(final long staged, final long persisted, final long time) {
+        stagedBytes += staged;
+        persistedBytes += persisted;
+        batches += time > 0 ? 1 : 0;
+    }
+
+    /**
+     * Persists the staging folders left by a stop of the server to the stream directories with the same name.
+     * @param stagingPath The staging folder.
+     */
+    private static void recover(final File stagingPath) {
+        File[] folders = stagingPath.listFiles(File::isDirectory);
+        if (folders == null) {
+            return;
+        }
+
+        for (File staging : folders) {
+            boolean complete = true;
+            for (String streamsPath : ConfigManager.getConfig().getStreamsPaths()) {
+                File durable = new File(streamsPath, staging.getName());
+                if (durable.isDirectory()) {
+                    Logger.info("Persisting the segments left in the staging folder " + staging.getPath() + ".");
+                    complete = new Entry(staging, durable).persist(true).isComplete();
+                    break;
+                }
+            }
+            if (complete) {
+                deleteDirectory(staging);
+            } else {
+                Logger.warn("Unable to persist every file of the staging folder " + staging.getPath() + ", it is kept.");
+            }
+        }
+    }
+
+    private static void deleteDirectory(final File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Logger.warn("Unable to delete the staged file " + file.getPath() + ".");
+                }
+            }
+        }
+        if (directory.exists() && !directory.delete()) {
+            Logger.warn("Unable to delete the staging folder " + directory.getPath() + ".");
+        }
+    }
+
+    /**
+     * Bytes and time of a batch.
+     */
+    static class Batch {
+        private long staged = 0;
+        private long persisted = 0;
+        private long time = 0;
+        private int failed = 0;
+
+        /**
+         * Determine whether every file of the batch has been persisted.
+         * @return True, if no file failed to be persisted; otherwise false.
+         */
+        boolean isComplete() {
+            return failed == 0;
+        }
+    }
+
+    /**
+     * Staging state of the encode of a stream.
+     */
+    static class Entry {
+        private final File staging;
+        private final File durable;
+
+        /**
+         * Persisted segments, and the size and modification time of the persisted manifests and headers
+         */
+        private final Set<String> segments = new HashSet<>();
+        private final Map<String, String> versions = new HashMap<>();
+
+        /**
+         * Highest sequence number, per representation, of the segments gone from the staging folder
+         */
+        private final Map<String, Integer> expired = new ConcurrentHashMap<>();
+
+        Entry(final File staging, final File durable) {
+            this.staging = staging;
+            this.durable = durable;
+        }
+
+        /**
+         * Persists the closed segments and the changed manifests and headers, then deletes the staged segments
+         * whose retention expired.
+         * @param complete Whether the encode completed: the last segments are closed too.
+         * @return The bytes and the time of the batch.
+         */
+        synchronized Batch persist(final boolean complete) {
+            Batch batch = new Batch();
+            File[] files = staging.listFiles(file -> file.isFile() && !file.getName().endsWith(TMP_SUFFIX));
+            if (files == null) {
+                return batch;
+            }
+            if (!durable.isDirectory()) {
+                batch.failed = files.length;
+                return batch;
+            }
+
+            //the last segment of every representation is still being written
+            Map<String, Integer> last = new HashMap<>();
+            for (File file : files) {
+                Matcher matcher = SEGMENT.matcher(file.getName());
+                if (matcher.matches()) {
+                    last.merge(matcher.group(1) + matcher.group(3), Integer.parseInt(matcher.group(2)), Math::max);
+                }
+            }
+
+            List<File> pending = new ArrayList<>();
+            Map<String, String> changed = new HashMap<>();
+            for (File file : files) {
+                Matcher matcher = SEGMENT.matcher(file.getName());
+                if (matcher.matches()) {
+                    if (!segments.contains(file.getName()) && (complete ||
+                            Integer.parseInt(matcher.group(2)) < last.get(matcher.group(1) + matcher.group(3)))) {
+                        pending.add(file);
+                    }
+                } else {
+                    String version = file.length() + ":" + file.lastModified();
+                    if (!version.equals(versions.get(file.getName()))) {
+                        pending.add(file);
+                        changed.put(file.getName(), version);
+                    }
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                int count = pending.size();
+                long start = System.nanoTime();
+                long bytes = copy(pending);
+                batch.time = System.nanoTime() - start;
+                batch.persisted = bytes;
+                batch.failed = count - pending.size();
+                for (File file : pending) {
+                    if (changed.containsKey(file.getName())) {
+                        versions.put(file.getName(), changed.get(file.getName()));
+                    } else {
+                        segments.add(file.getName());
+                        batch.staged += file.length();
+                    }
+                }
+            }
+
+            //the persisted segments are served from the stream directory once their retention expired
+            long expiry = System.currentTimeMillis() - ConfigManager.getConfig().getStagingRetention() * 1000L;
+            Set<String> remaining = new HashSet<>();
+            for (File file : files) {
+                if (segments.contains(file.getName()) && file.lastModified() < expiry) {
+                    if (file.delete()) {
+                        continue;
+                    }
+                    Logger.warn("Unable to delete the staged segment " + file.getPath() + ".");
+                }
+                remaining.add(file.getName());
+            }
+
+            //the segments gone from the staging folder are not listed again, they are served from the stream directory
+            for (Iterator<String> iterator = segments.iterator(); iterator.hasNext(); ) {
+                String name = iterator.next();
+                if (!remaining.contains(name)) {
+                    iterator.remove();
+                    Matcher matcher = SEGMENT.matcher(name);
+                    if (matcher.matches()) {
+                        expired.merge(matcher.group(1) + matcher.group(3), Integer.parseInt(matcher.group(2)), Math::max);
+                    }
+                }
+            }
+            return batch;
+        }
+
+        /**
+         * Checks whether a file is served from the staging folder.
+         * @param name The name of the file.
+         * @return False, if the file is a segment whose staged copy has been deleted; otherwise true.
+         */
+        boolean isStaged(final String name) {
+            Matcher matcher = SEGMENT.matcher(name);
+            if (!matcher.matches()) {
+                return true;
+            }
+            //the sequence numbers of ffmpeg fit in an int, longer ones are not staged segments
+            return matcher.group(2).length() < 10 &&
+                    Integer.parseInt(matcher.group(2)) > expired.getOrDefault(matcher.group(1) + matcher.group(3), -1);
+        }
+
+        /**
+         * Copies and syncs the files to temporary files of the stream directory, then renames them.
+         * @param files The staged files.
+         * @return The number of bytes persisted; the files that could not be copied are left in the batch of the
+         * next tick.
+         */
+        private long copy(final List<File> files) {
+            long bytes = 0;
+            List<File> copied = new ArrayList<>();
+            for (File file : files) {
+                File tmp = new File(durable, "." + file.getName() + TMP_SUFFIX);
+                try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long length = in.size();
+                    for (long written = 0; written < length; ) {
+                        written += in.transferTo(written, length - written, out);
+                    }
+                    out.force(true);
+                    bytes += length;
+                    copied.add(file);
+                } catch (IOException e) {
+                    Logger.warn("Unable to persist the staged file " + file.getPath() + ". " + e.getLocalizedMessage());
+                    tmp.delete();
+                }
+            }
+
+            files.retainAll(copied);
+            for (File file : copied) {
+                File tmp = new File(durable, "." + file.getName() + TMP_SUFFIX);
+                try {
+                    Files.move(tmp.toPath(), new File(durable, file.getName()).toPath(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    Logger.warn("Unable to persist the staged file " + file.getPath() + ". " + e.getLocalizedMessage());
+                    files.remove(file);
+                    tmp.delete();
+                }
+            }
+
+            //the renames are durable once the directory is synced
+            try (FileChannel directory = FileChannel.open(durable.toPath(), StandardOpenOption.READ)) {
+                directory.force(true);
+            } catch (IOException e) {
+                //the folders cannot be synced on every file system, the files are synced anyway
+            }
+            return bytes;
+        }
+    }
+}
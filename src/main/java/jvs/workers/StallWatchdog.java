@@ -0,0 +1,168 @@
+package jvs.workers;
+
+import jvs.stream.Stream;
+import jvs.utils.Logger;
+
+import java.io.File;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects encodes that stopped producing output (e.g. a frozen rtsp source that never closes the connection).
+ * Every running encoder is kept in a single hashed timer wheel served by one thread: an entry is only
+ * evaluated when its deadline expires, progress events just update a timestamp inside the encoder.
+ */
+public class StallWatchdog {
+
+    /**
+     * Number of buckets of the wheel
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * Duration of a single wheel tick in milliseconds
+     */
+    private static final long TICK_DURATION = 1000;
+
+    private static final Queue<Entry> pendingEntries = new ConcurrentLinkedQueue<>();
+    private static final TimerWheel<Encoder> wheel = new TimerWheel<>(WHEEL_SIZE, TICK_DURATION);
+    private static ScheduledExecutorService timer = null;
+    private static ExecutorService restarter = null;
+    private static long stallTimeout = 0;
+    private static boolean restartOnStall = false;
+
+    private StallWatchdog(){}
+
+    /**
+     * Starts the watchdog.
+     * @param timeout Interval, in milliseconds, without progress or new segments after which an encode is stalled.
+     * @param restart Whether a stalled encode must be restarted after being killed.
+     */
+    public static synchronized void start(final long timeout, final boolean restart) {
+        if (timer != null || timeout <= 0) {
+            return;
+        }
+
+        stallTimeout = timeout;
+        restartOnStall = restart;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stall-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(StallWatchdog::tick, TICK_DURATION, TICK_DURATION, TimeUnit.MILLISECONDS);
+        //stalled encodes are stopped and restarted off the wheel thread, a restart runs a new analysis
+        restarter = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "stall-restarter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the watchdog.
+     */
+    public static synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        if (restarter != null) {
+            restarter.shutdownNow();
+            restarter = null;
+        }
+    }
+
+    /**
+     * Starts watching a running encoder. The encoder is dropped automatically once it stops running.
+     * @param encoder The encoder to watch.
+     */
+    public static void watch(final Encoder encoder) {
+        if (stallTimeout > 0) {
+            pendingEntries.add(new Entry(encoder, System.currentTimeMillis() + stallTimeout));
+        }
+    }
+
+    /**
+     * Advances the wheel by one tick and evaluates every expired entry.
+     */
+    private static void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            wheel.advance(now, encoder -> check(encoder, now));
+
+            //add encoders started since the last tick
+            Entry pending;
+            while ((pending = pendingEntries.poll()) != null) {
+                wheel.schedule(pending.encoder, pending.deadline, now);
+            }
+        } catch (Exception e) {
+            Logger.error("Stall watchdog failed to evaluate encoders: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Checks whether an encoder is stalled and handles the stall.
+     * @param encoder The encoder to check.
+     * @param now The current time in milliseconds.
+     * @return The next deadline of the encoder; -1 if it must not be watched anymore.
+     */
+    private static long check(final Encoder encoder, final long now) {
+        if (!encoder.isRunning()) {
+            return -1;
+        }
+
+        long lastProgress = encoder.getLastProgressTime();
+        if (now - lastProgress < stallTimeout) {
+            return lastProgress + stallTimeout;
+        }
+
+        //no progress reported, a stream without progress lines could still be writing segments
+        Stream stream = encoder.getStream();
+        long lastSegment = getLastModified(SegmentStager.getWorkingDirectory(stream));
+        if (now - lastSegment < stallTimeout) {
+            return lastSegment + stallTimeout;
+        }
+
+        Logger.warn("Encode of stream with id: " + stream.getID() + " stalled, no progress for " +
+                ((now - Math.max(lastProgress, lastSegment)) / 1000) + " seconds.");
+        ExecutorService executor = restarter;
+        if (executor != null) {
+            executor.execute(() -> stream.handleStall(restartOnStall));
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the last modification time among all files of a directory.
+     * @param directory The directory.
+     * @return The last modification time in milliseconds; 0 if the directory is empty.
+     */
+    private static long getLastModified(final File directory) {
+        long lastModified = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                lastModified = Math.max(lastModified, file.lastModified());
+            }
+        }
+        return lastModified;
+    }
+
+    /**
+     * Encoder started since the last tick and its first deadline.
+     */
+    private static class Entry {
+        private final Encoder encoder;
+        private final long deadline;
+
+        private Entry(final Encoder encoder, final long deadline) {
+            this.encoder = encoder;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package jvs.workers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hashed timer wheel: every item is kept in the bucket of its deadline, with the number of whole laps left before
+ * it expires, so that a tick only visits the items of a single bucket. The wheel is not thread-safe, it is
+ * advanced by a single thread (see {@link StallWatchdog}).
+ * @param <T> The type of the scheduled items.
+ */
+class TimerWheel<T> {
+
+    private final List<ArrayDeque<Entry<T>>> buckets;
+    private final long tickDuration;
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     * Creates an empty wheel.
+     * @param wheelSize The number of buckets.
+     * @param tickDuration The duration of a tick in milliseconds.
+     */
+    TimerWheel(final int wheelSize, final long tickDuration) {
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayDeque<>());
+        }
+        this.tickDuration = tickDuration;
+    }
+
+    /**
+     * Puts an item in the bucket of its deadline, an expired deadline expires at the next tick.
+     * @param item The item to schedule.
+     * @param deadline The deadline in milliseconds.
+     * @param now The current time in milliseconds.
+     */
+    void schedule(final T item, final long deadline, final long now) {
+        schedule(new Entry<>(item, deadline), now);
+    }
+
+    /**
+     * Advances the wheel by one tick and evaluates every expired item.
+     * @param now The current time in milliseconds.
+     * @param check Evaluates an expired item and returns its next deadline; 0 or less to drop it.
+     */
+    void advance(final long now, final ToLongFunction<T> check) {
+        ArrayDeque<Entry<T>> bucket = buckets.get((int)(currentTick % buckets.size()));
+        currentTick++;
+
+        //an item due again in exactly one lap goes back in the bucket being iterated, so it is scheduled afterwards
+        List<Entry<T>> rescheduled = new ArrayList<>();
+        Iterator<Entry<T>> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Entry<T> entry = iterator.next();
+            if (entry.rounds > 0) {
+                entry.rounds--;
+                continue;
+            }
+            iterator.remove();
+            size--;
+
+            long nextDeadline = check.applyAsLong(entry.item);
+            if (nextDeadline > 0) {
+                entry.deadline = nextDeadline;
+                rescheduled.add(entry);
+            }
+        }
+        for (Entry<T> entry : rescheduled) {
+            schedule(entry, now);
+        }
+    }
+
+    private void schedule(final Entry<T> entry, final long now) {
+        long ticks = Math.max(1, (entry.deadline - now + tickDuration - 1) / tickDuration);
+        entry.rounds = (ticks - 1) / buckets.size();
+        buckets.get((int)((currentTick + ticks - 1) % buckets.size())).add(entry);
+        size++;
+    }
+
+    /**
+     * Gets the number of scheduled items.
+     * @return The number of items in the wheel.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Scheduled item, its deadline and the number of laps left before it expires.
+     */
+    private static class Entry<T> {
+        private final T item;
+        private long deadline;
+        private long rounds;
+
+        private Entry(final T item, final long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
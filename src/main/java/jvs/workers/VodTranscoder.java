@@ -0,0 +1,459 @@
+package jvs.workers;
+
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import jvs.command.CommandsGenerator;
+import jvs.stream.Stream;
+import jvs.stream.StreamInfo;
+import jvs.utils.DurationUtils;
+import jvs.utils.Logger;
+import jvs.workers.events.CompletedEventArgs;
+import jvs.workers.events.CompletedEventListener;
+import jvs.workers.events.ProgressEventArgs;
+import jvs.workers.events.ProgressEventListener;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transcodes a recording to MPEG-DASH H.264/AAC as fast as the host allows.
+ * The input is split at its keyframes into chunks of similar duration, which are transcoded to MPEG-TS by
+ * parallel ffmpeg processes (at most one per core) while another process transcodes the whole audio, so that
+ * the audio has no gaps at the chunk boundaries. The chunks are then concatenated, copying the tracks,
+ * into a single static MPEG-DASH presentation.
+ */
+public class VodTranscoder {
+
+    /**
+     * Minimum duration, in seconds, of a chunk: shorter chunks cost more to start than they save
+     */
+    private static final double MIN_CHUNK_DURATION = 10;
+
+    /**
+     * Directory, inside the stream directory, of the intermediate files
+     */
+    private static final String CHUNKS_DIR = "chunks";
+    private static final String CHUNKS_LIST = "chunks.txt";
+    private static final String AUDIO_FILE = "audio.mp4";
+
+    private final Stream stream;
+    private final CommandsGenerator cmdGen;
+    private final StreamInfo streamInfo;
+    private final String outputPath;
+    private final int requestedChunks;
+    private final List<FFMpegWorker> runningWorkers = new CopyOnWriteArrayList<>();
+    private volatile boolean isRunning = false;
+    private volatile boolean stopped = false;
+    private volatile boolean failed = false;
+    private volatile int chunkCount = 0;
+    private final AtomicInteger completedChunks = new AtomicInteger();
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+    private volatile Duration duration = Duration.ZERO;
+    private Duration[] chunkProgress = new Duration[0];
+    private Thread worker;
+    private ProgressEventListener progressListener;
+    private CompletedEventListener completedListener;
+
+    /**
+     * VodTranscoder constructor
+     * @param stream The stream to transcode.
+     * @param cmdGen The commandsGenerator to generate commands, with the information about the input tracks.
+     * @param streamInfo The information about the input tracks.
+     * @param outputPath The output path.
+     * @param chunks The number of chunks to transcode in parallel.
+     */
+    public VodTranscoder(final Stream stream, final CommandsGenerator cmdGen, final StreamInfo streamInfo,
+                         final String outputPath, final int chunks) {
+        this.stream = stream;
+        this.cmdGen = cmdGen;
+        this.streamInfo = streamInfo;
+        this.outputPath = outputPath;
+        this.requestedChunks = Math.max(1, chunks);
+    }
+
+    /**
+     * Gets the maximum number of ffmpeg processes running at the same time.
+     * @return The number of processes.
+     */
+    public int getParallelism() {
+        return Math.min(requestedChunks, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Gets the duration of the recording, known once the keyframes have been analyzed.
+     * @return The duration.
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Starts the transcode.
+     * @return True, if the transcode has been started; otherwise false.
+     */
+    public synchronized boolean run() {
+        if (isRunning) {
+            Logger.error("Unable to start the transcode of the recording (stream id: " + stream.getID() + ") if it's already running.");
+            return false;
+        }
+
+        isRunning = true;
+        startTime = System.currentTimeMillis();
+        worker = new Thread(this::transcode, "vod-transcoder-" + stream.getID());
+        worker.start();
+        return true;
+    }
+
+    /**
+     * Stops the transcode, killing every running ffmpeg process. A partial recording cannot be finalized.
+     * @return True, if the transcode was running; otherwise false.
+     */
+    public synchronized boolean stop() {
+        if (!isRunning) {
+            return false;
+        }
+
+        stopped = true;
+        runningWorkers.forEach(FFMpegWorker::kill);
+        if (worker != null && worker.isAlive()) {
+            worker.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the transcode is running or not.
+     * @return True, if the transcode is running; otherwise false.
+     */
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Attach a listener to the on progress event of the transcode.
+     * @param listener A ProgressEventListener
+     */
+    public void addOnProgressListener(final ProgressEventListener listener) {
+        this.progressListener = listener;
+    }
+
+    /**
+     * Attach a listener to the on complete event of the transcode.
+     * @param listener A CompletedEventListener
+     */
+    public void addOnCompleteListener(final CompletedEventListener listener) {
+        this.completedListener = listener;
+    }
+
+    /**
+     * Return a json object that represents the state of the transcode.
+     * @return The json with the number of chunks, the completed ones and the elapsed time in milliseconds.
+     */
+    public JsonObject toJSON() {
+        long end = endTime > 0 ? endTime : System.currentTimeMillis();
+        return new JsonObject().put(Constants.CHUNKS_KEY, chunkCount)
+                .put(Constants.COMPLETEDCHUNKS_KEY, completedChunks.get())
+                .put(Constants.ENCODETIME_KEY, startTime > 0 ? end - startTime : 0);
+    }
+
+    /**
+     * Splits a recording at its keyframes into chunks of similar duration.
+     * @param keyframes The times, in seconds from the start of the recording, of its keyframes in ascending order.
+     * @param duration The duration of the recording, in seconds.
+     * @param chunks The requested number of chunks.
+     * @return The start times, in seconds, of the chunks (the first one is always 0).
+     */
+    static List<Double> planChunks(final List<Double> keyframes, final double duration, final int chunks) {
+        List<Double> starts = new ArrayList<>();
+        starts.add(0d);
+
+        int count = (int)Math.max(1, Math.min(chunks, Math.floor(duration / MIN_CHUNK_DURATION)));
+        int next = 0;
+        for (int i = 1; i < count; i++) {
+            double target = duration * i / count;
+            while (next < keyframes.size() && (keyframes.get(next) < target || keyframes.get(next) <= starts.get(starts.size() - 1))) {
+                next++;
+            }
+            if (next >= keyframes.size() || keyframes.get(next) >= duration) {
+                break;
+            }
+            starts.add(keyframes.get(next));
+        }
+        return starts;
+    }
+
+    /**
+     * Runs the whole transcode: analysis of the keyframes, parallel transcode of the chunks and of the audio,
+     * then packaging of the presentation.
+     */
+    private void transcode() {
+        Integer exitCode = null;
+        String message = "";
+        File chunksDir = new File(outputPath, CHUNKS_DIR);
+
+        try {
+            List<Double> keyframes = new ArrayList<>();
+            double total = probeKeyframes(keyframes);
+            if (stopped) {
+                return;
+            }
+            if (total <= 0) {
+                Logger.warn("Keyframes of the recording (stream id: " + stream.getID() + ") cannot be analyzed, " +
+                        "it will be transcoded by a single process.");
+            }
+
+            duration = Duration.ofMillis(Math.round(Math.max(0, total) * 1000));
+            List<Double> starts = planChunks(keyframes, total, requestedChunks);
+            boolean hasAudio = !streamInfo.getAudioTracks().isEmpty();
+
+            chunkCount = starts.size();
+            chunkProgress = new Duration[starts.size()];
+            Arrays.fill(chunkProgress, Duration.ZERO);
+
+            if (!chunksDir.exists() && !chunksDir.mkdirs()) {
+                message = "Failed to create new folder: " + chunksDir.getPath();
+                return;
+            }
+
+            Logger.info("Transcoding the recording of the stream with id: " + stream.getID() + " (" +
+                    DurationUtils.formatToISO8601(duration) + ") in " + starts.size() + " chunks, " +
+                    getParallelism() + " at a time.");
+
+            //the audio is transcoded first, since it lasts as long as the whole recording
+            List<Runnable> jobs = new ArrayList<>();
+            if (hasAudio) {
+                jobs.add(() -> runWorker(chunksDir.getPath(), cmdGen.generateAudioCommands(AUDIO_FILE).getEncodeCommands(), -1));
+            }
+            for (int i = 0; i < starts.size(); i++) {
+                final int index = i;
+                double start = starts.get(i);
+                double length = i + 1 < starts.size() ? starts.get(i + 1) - start : 0;
+                jobs.add(() -> {
+                    if (runWorker(chunksDir.getPath(), cmdGen.generateChunkCommands(start, length,
+                            getChunkName(index)).getEncodeCommands(), index)) {
+                        completedChunks.incrementAndGet();
+                    }
+                });
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(getParallelism(), jobs.size()), r -> {
+                Thread thread = new Thread(r, "vod-chunk-" + stream.getID());
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                jobs.forEach(job -> futures.add(executor.submit(job)));
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            if (stopped || failed || completedChunks.get() < starts.size()) {
+                message = stopped ? "stopped" : (starts.size() - completedChunks.get()) + " chunks not transcoded";
+                return;
+            }
+
+            //package the chunks in a single presentation
+            List<String> list = new ArrayList<>();
+            for (int i = 0; i < starts.size(); i++) {
+                list.add("file '" + getChunkName(i) + "'");
+            }
+            Files.write(new File(chunksDir, CHUNKS_LIST).toPath(), list, StandardCharsets.UTF_8);
+
+            exitCode = runWorker(outputPath, cmdGen.generateStitchCommands(CHUNKS_DIR + File.separator + CHUNKS_LIST,
+                    hasAudio ? CHUNKS_DIR + File.separator + AUDIO_FILE : null).getEncodeCommands(), -2) ? 0 : 1;
+
+            if (exitCode == 0 && !duration.isZero() && progressListener != null) {
+                progressListener.handle(new ProgressEventArgs(duration, null));
+            }
+        } catch (InterruptedException e) {
+            message = "interrupted";
+        } catch (Exception e) {
+            message = e.getLocalizedMessage();
+        } finally {
+            deleteDirectory(chunksDir);
+            endTime = System.currentTimeMillis();
+            isRunning = false;
+
+            if (completedListener != null) {
+                completedListener.handle(new CompletedEventArgs(exitCode, message));
+            }
+        }
+    }
+
+    /**
+     * Analyzes the video packets of the recording to find its keyframes.
+     * @param keyframes The list where the keyframe times, in seconds from the start of the recording, are added.
+     * @return The duration of the recording, in seconds; 0 if it cannot be analyzed.
+     */
+    private double probeKeyframes(final List<Double> keyframes) {
+        //the packets of a long recording are parsed as they are reported, only the keyframes are kept
+        final double[] range = {Double.NaN, 0};
+        final List<Double> times = new ArrayList<>();
+        Worker probe = new FFProbeWorker(new ArrayList<>(Arrays.asList("-v", "error", "-select_streams", "v:0",
+                "-show_entries", "packet=pts_time,duration_time,flags", "-of", "csv=print_section=0", stream.getInputUrl())),
+                line -> parsePacket(line, range, times));
+        probe.setOwnerID(stream.getID());
+
+        final boolean[] succeeded = new boolean[1];
+        probe.addOnCompleteListener(args -> {
+            Optional<Integer> exitCode = args.getExitCode();
+            succeeded[0] = exitCode.isPresent() && exitCode.get() == 0;
+        });
+        probe.run();
+
+        double first = range[0];
+        if (!succeeded[0] || Double.isNaN(first)) {
+            return 0;
+        }
+
+        //ffmpeg seeks relatively to the start time of the input
+        for (Double time : times) {
+            keyframes.add(time - first);
+        }
+        keyframes.sort(Double::compareTo);
+        return range[1] - first;
+    }
+
+    /**
+     * Parses a video packet reported by ffprobe.
+     * @param line The packet, as pts_time,duration_time,flags.
+     * @param range The first timestamp and the end of the packets parsed so far, updated with the packet.
+     * @param keyframes The list where the timestamp of the packet is added, if it is a keyframe.
+     */
+    static void parsePacket(final String line, final double[] range, final List<Double> keyframes) {
+        String[] fields = line.trim().split(",");
+        if (fields.length < 3) {
+            return;
+        }
+        try {
+            double pts = Double.parseDouble(fields[0]);
+            double length = fields[1].equals("N/A") ? 0 : Double.parseDouble(fields[1]);
+
+            if (Double.isNaN(range[0]) || pts < range[0]) {
+                range[0] = pts;
+            }
+            range[1] = Math.max(range[1], pts + length);
+            if (fields[2].contains("K")) {
+                keyframes.add(pts);
+            }
+        } catch (NumberFormatException e) {
+            //packets without timestamp cannot be used to split the recording
+        }
+    }
+
+    /**
+     * Runs an ffmpeg process in the calling thread.
+     * @param workingDir The working directory of the process.
+     * @param commands The ffmpeg commands.
+     * @param index The index of the chunk (-1 for the audio, -2 for the packaging).
+     * @return True, if ffmpeg completed successfully; otherwise false.
+     */
+    private boolean runWorker(final String workingDir, final List<String> commands, final int index) {
+        if (stopped || failed) {
+            return false;
+        }
+
+        FFMpegWorker ffmpeg = new FFMpegWorker(workingDir, commands);
+        ffmpeg.setOwnerID(stream.getID());
+        if (index != -1) {
+            stream.setOutput(ffmpeg.getOutput());
+        }
+
+        ffmpeg.addOnProgressListener(args -> {
+            Optional<Duration> progress = args.getProgress();
+            if (progress.isPresent() && progressListener != null) {
+                if (index >= 0) {
+                    progressListener.handle(new ProgressEventArgs(updateProgress(index, progress.get()), null));
+                } else if (index == -2) {
+                    progressListener.handle(new ProgressEventArgs(progress.get(), null));
+                }
+            }
+        });
+
+        final boolean[] success = new boolean[1];
+        ffmpeg.addOnCompleteListener(args -> {
+            Optional<Integer> exitCode = args.getExitCode();
+            success[0] = exitCode.isPresent() && exitCode.get() == 0;
+            if (!success[0] && !stopped && !failed) {
+                Logger.warn((index >= 0 ? "Chunk " + index : index == -1 ? "Audio" : "Packaging") +
+                        " of the recording of the stream with id: " + stream.getID() + " failed (exit code: " +
+                        exitCode.map(String::valueOf).orElse("none") + ", status: " + args.getResult() + ").");
+            }
+        });
+
+        runningWorkers.add(ffmpeg);
+        try {
+            //the process may have been started after a concurrent stop
+            if (!stopped && !failed) {
+                ffmpeg.run();
+            }
+        } finally {
+            runningWorkers.remove(ffmpeg);
+        }
+
+        if (!success[0] && !stopped && !failed) {
+            //the presentation cannot be completed, do not waste cpu on the other chunks
+            failed = true;
+            runningWorkers.forEach(FFMpegWorker::kill);
+        }
+        return success[0];
+    }
+
+    /**
+     * Updates the progress of a chunk.
+     * @param index The index of the chunk.
+     * @param progress The time transcoded in the chunk.
+     * @return The time transcoded in all the chunks.
+     */
+    private synchronized Duration updateProgress(final int index, final Duration progress) {
+        chunkProgress[index] = progress;
+        Duration total = Duration.ZERO;
+        for (Duration chunk : chunkProgress) {
+            total = total.plus(chunk);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the file name of a chunk.
+     * @param index The index of the chunk.
+     * @return The file name.
+     */
+    private static String getChunkName(final int index) {
+        return String.format("chunk_%04d.ts", index);
+    }
+
+    /**
+     * Deletes the intermediate files.
+     * @param directory The directory of the intermediate files.
+     */
+    private void deleteDirectory(final File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Logger.warn("Unable to delete intermediate file: " + file.getPath());
+                }
+            }
+        }
+        if (directory.exists() && !directory.delete()) {
+            Logger.warn("Unable to delete folder: " + directory.getPath());
+        }
+    }
+}
@@ -23,6 +23,14 @@ public abstract class Worker implements Runnable {
      * The working directory of the process to start.
      */
 	protected String workingDir;
+    /**
+     * The id of the stream that owns the process to start.
+     */
+	protected int ownerID = -1;
+    /**
+     * The pid of the started process, -1 if not started or unknown.
+     */
+	protected volatile long pid = -1;
 	
 	//event listeners
 	private ProgressEventListener progressListener;
@@ -49,6 +57,24 @@ public abstract class Worker implements Runnable {
 		this.workingDir = workingDir;
 	}
 
+	/**
+	 * Sets the id of the stream that owns the process, used to account its resources.
+	 *
+	 * @param ownerID The id of the stream.
+	 */
+	public void setOwnerID(final int ownerID) {
+		this.ownerID = ownerID;
+	}
+
+	/**
+	 * Gets the pid of the running process.
+	 *
+	 * @return The pid of the process; -1 if it is not running or unknown.
+	 */
+	public long getPid() {
+		return pid;
+	}
+
 	/**
 	 * Attach a listener to the on progress event of the worker.
 	 * 
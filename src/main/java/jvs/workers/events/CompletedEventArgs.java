@@ -25,14 +25,14 @@ public class CompletedEventArgs {
      * @return The exit code.
      */
     public Optional<Integer> getExitCode() {
-        return Optional.of(this.exitCode);
+        return Optional.ofNullable(this.exitCode);
     }
 
     /**
      * Gets the result.
-     * @return The result.
+     * @return The result (can be null).
      */
     public Object getResult() {
-        return Optional.of(this.result);
+        return this.result;
     }
 }
@@ -0,0 +1,91 @@
+package jvs.monitor;
+
+import jvs.monitor.StorageMonitor.DataDirectory;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StorageMonitorTest {
+
+    private static final long GB = 1_000_000_000L;
+    private static final long SECOND = 1_000_000_000L;
+
+    /**
+     * Creates a data directory sampled twice, one second apart.
+     * @param path The path of the directory.
+     * @param before The free space at the first sample.
+     * @param after The free space at the second sample.
+     * @return The sampled directory.
+     */
+    private static DataDirectory sampled(final String path, final long before, final long after) {
+        DataDirectory directory = new DataDirectory(path, new File(path));
+        directory.sample(before, 0);
+        directory.sample(after, SECOND);
+        return directory;
+    }
+
+    @Test
+    public void idleDirectoriesAreRankedByFreeSpace() {
+        DataDirectory small = sampled("/small", 100 * GB, 100 * GB);
+        DataDirectory large = sampled("/large", 200 * GB, 200 * GB);
+
+        assertSame(large, StorageMonitor.select(Arrays.asList(small, large)));
+    }
+
+    @Test
+    public void busyDirectoryLosesToAnIdleOne() {
+        DataDirectory busy = sampled("/busy", 1000 * GB, 1000 * GB - 100_000_000);
+        DataDirectory idle = sampled("/idle", 100 * GB, 100 * GB);
+
+        assertSame(idle, StorageMonitor.select(Arrays.asList(busy, idle)));
+    }
+
+    @Test
+    public void directoryThatFillsUpLaterIsSelected() {
+        //10 000 s left at 100 MB/s, against 100 000 s at 1 MB/s with ten times less free space
+        DataDirectory fast = sampled("/fast", 1000 * GB + 100_000_000, 1000 * GB);
+        DataDirectory slow = sampled("/slow", 100 * GB + 1_000_000, 100 * GB);
+
+        assertSame(slow, StorageMonitor.select(Arrays.asList(fast, slow)));
+    }
+
+    @Test
+    public void deletionsAreNotNegativeWrites() {
+        DataDirectory cleaned = sampled("/cleaned", 100 * GB, 150 * GB);
+        DataDirectory idle = sampled("/idle", 150 * GB, 150 * GB);
+
+        //both are idle with the same free space, the first one wins the tie
+        assertSame(cleaned, StorageMonitor.select(Arrays.asList(cleaned, idle)));
+    }
+
+    @Test
+    public void placementsSpreadStreamsBetweenSamples() {
+        DataDirectory first = sampled("/first", 100 * GB, 100 * GB);
+        DataDirectory second = sampled("/second", 100 * GB, 100 * GB);
+
+        assertSame(first, StorageMonitor.select(Arrays.asList(first, second)));
+        assertSame(second, StorageMonitor.select(Arrays.asList(first, second)));
+        assertSame(first, StorageMonitor.select(Arrays.asList(first, second)));
+    }
+
+    @Test
+    public void sampleResetsThePlacements() {
+        DataDirectory first = sampled("/first", 100 * GB, 100 * GB);
+        DataDirectory second = sampled("/second", 100 * GB, 100 * GB);
+        assertSame(first, StorageMonitor.select(Arrays.asList(first, second)));
+
+        first.sample(100 * GB, 2 * SECOND);
+
+        assertSame(first, StorageMonitor.select(Arrays.asList(first, second)));
+    }
+
+    @Test
+    public void noDirectoryIsSelectedWithoutCandidates() {
+        assertNull(StorageMonitor.select(Collections.<DataDirectory>emptyList()));
+    }
+}
@@ -0,0 +1,244 @@
+package jvs.packaging;
+
+import jvs.packaging.MezzanineIndex.Fragment;
+import jvs.packaging.MezzanineIndex.Track;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MezzanineIndexTest {
+
+    private static final int VIDEO = 1;
+    private static final int AUDIO = 2;
+
+    /**
+     * Two seconds fragments: 50 video samples of 1800 ticks, 94 audio samples of 1024 ticks
+     */
+    private static final long[] VIDEO_DURATIONS = repeat(50, 1800);
+    private static final long[] AUDIO_DURATIONS = repeat(94, 1024);
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("mezzanine").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                MezzanineIndex.delete(file);
+            }
+        }
+        directory.delete();
+    }
+
+    private static long[] repeat(final int count, final long duration) {
+        long[] durations = new long[count];
+        for (int i = 0; i < count; i++) {
+            durations[i] = duration;
+        }
+        return durations;
+    }
+
+    private static byte[] header() {
+        return Mp4Builder.concat(Mp4Builder.ftyp(), Mp4Builder.moov(
+                new byte[][]{Mp4Builder.videoTrak(VIDEO, 1280, 720), Mp4Builder.audioTrak(AUDIO, 2, 48000)},
+                new int[]{VIDEO, AUDIO}, new long[]{1800, 1024}));
+    }
+
+    /**
+     * Writes a mezzanine with a moof per track and per fragment, interleaved like ffmpeg writes them.
+     * @param name The name of the file.
+     * @param count The number of fragments per track.
+     * @return The mezzanine.
+     */
+    private File mezzanine(final String name, final int count) throws IOException {
+        List<byte[]> parts = new ArrayList<>();
+        parts.add(header());
+        for (int i = 0; i < count; i++) {
+            parts.add(Mp4Builder.fragment(new int[]{VIDEO}, i * 180000L, VIDEO_DURATIONS, true, 1000));
+            parts.add(Mp4Builder.fragment(new int[]{AUDIO}, i * 96256L, AUDIO_DURATIONS, true, 100));
+        }
+        return Mp4Builder.write(new File(directory, name), parts.toArray(new byte[0][]));
+    }
+
+    @Test
+    public void tracksAreParsedFromTheMovieBox() throws IOException {
+        MezzanineIndex index = MezzanineIndex.open(mezzanine("tracks.mp4", 1));
+        assertNotNull(index);
+        assertEquals(2, index.getTracks().size());
+
+        Track video = index.getTrack(VIDEO);
+        assertTrue(video.isVideo());
+        assertEquals(Mp4Builder.VIDEO_TIMESCALE, video.getTimescale());
+        assertEquals("avc1.64001f", video.getCodecs());
+        assertEquals(1280, video.getWidth());
+        assertEquals(720, video.getHeight());
+
+        Track audio = index.getTrack(AUDIO);
+        assertTrue(audio.isAudio());
+        assertEquals(Mp4Builder.AUDIO_TIMESCALE, audio.getTimescale());
+        assertEquals("mp4a.40.2", audio.getCodecs());
+        assertEquals(2, audio.getChannels());
+        assertEquals(48000, audio.getSampleRate());
+
+        assertNull(index.getTrack(3));
+    }
+
+    @Test
+    public void fragmentsAreByteRangesOfTheirMoofAndMdat() throws IOException {
+        File file = mezzanine("fragments.mp4", 3);
+        MezzanineIndex index = MezzanineIndex.open(file);
+        assertNotNull(index);
+
+        List<Fragment> video = index.getTrack(VIDEO).getFragments();
+        List<Fragment> audio = index.getTrack(AUDIO).getFragments();
+        assertEquals(3, video.size());
+        assertEquals(3, audio.size());
+
+        //the fragments of both tracks tile the file after the header
+        long position = header().length;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(position, video.get(i).getOffset());
+            position += video.get(i).getSize();
+            assertEquals(position, audio.get(i).getOffset());
+            position += audio.get(i).getSize();
+
+            assertEquals(i * 180000L, video.get(i).getTime());
+            assertEquals(90000, video.get(i).getDuration());
+            assertEquals(i * 96256L, audio.get(i).getTime());
+            assertEquals(96256, audio.get(i).getDuration());
+        }
+        assertEquals(file.length(), position);
+
+        //every range starts with its moof
+        byte[] data = Files.readAllBytes(file.toPath());
+        assertEquals("moof", Box.readType(ByteBuffer.wrap(data), (int) video.get(1).getOffset() + 4));
+        //the longest track, the audio fragments are a little longer than two seconds
+        assertEquals(3 * 96256.0 / Mp4Builder.AUDIO_TIMESCALE, index.getDuration(), 0.0001);
+    }
+
+    @Test
+    public void findReturnsTheFragmentStartingAtOrBeforeTheOffset() throws IOException {
+        Track video = MezzanineIndex.open(mezzanine("find.mp4", 3)).getTrack(VIDEO);
+
+        assertEquals(0, video.find(0));
+        assertEquals(0, video.find(1.99));
+        assertEquals(1, video.find(2));
+        assertEquals(2, video.find(5.5));
+        assertEquals(2, video.find(60));
+        assertEquals(0, video.find(-5));
+    }
+
+    @Test
+    public void trackWithoutFragmentsHasNoDurationAndNoStart() throws IOException {
+        File file = Mp4Builder.write(new File(directory, "empty.mp4"), header());
+        MezzanineIndex index = MezzanineIndex.open(file);
+        assertNotNull(index);
+
+        Track video = index.getTrack(VIDEO);
+        assertTrue(video.getFragments().isEmpty());
+        assertEquals(-1, video.find(0));
+        assertEquals(0, video.getDuration(), 0);
+        assertEquals(0, video.getBandwidth());
+    }
+
+    @Test
+    public void indexIsPersistedNextToTheMezzanine() throws IOException {
+        File file = mezzanine("persisted.mp4", 2);
+        MezzanineIndex index = MezzanineIndex.open(file);
+        assertTrue(new File(file.getPath() + ".idx").isFile());
+
+        //cached while the file does not change
+        assertSame(index, MezzanineIndex.open(file));
+    }
+
+    @Test
+    public void changedFileIsIndexedAgain() throws IOException {
+        File file = mezzanine("changed.mp4", 2);
+        MezzanineIndex index = MezzanineIndex.open(file);
+        assertEquals(2, index.getTrack(VIDEO).getFragments().size());
+
+        mezzanine("changed.mp4", 4);
+        file.setLastModified(file.lastModified() + 2000);
+        MezzanineIndex reindexed = MezzanineIndex.open(file);
+        assertNotSame(index, reindexed);
+        assertEquals(4, reindexed.getTrack(VIDEO).getFragments().size());
+    }
+
+    @Test
+    public void fileWithoutTrackExtendsIsRejected() throws IOException {
+        File file = Mp4Builder.write(new File(directory, "progressive.mp4"), Mp4Builder.ftyp(),
+                Mp4Builder.moovWithoutMvex(Mp4Builder.videoTrak(VIDEO, 1280, 720)));
+
+        assertNull(MezzanineIndex.open(file));
+        assertFalse(new File(file.getPath() + ".idx").exists());
+    }
+
+    @Test
+    public void fragmentOfSeveralTracksIsRejected() throws IOException {
+        File file = Mp4Builder.write(new File(directory, "interleaved.mp4"), header(),
+                Mp4Builder.fragment(new int[]{VIDEO, AUDIO}, 0, VIDEO_DURATIONS, true, 1000));
+
+        assertNull(MezzanineIndex.open(file));
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        byte[] fragment = Mp4Builder.fragment(new int[]{VIDEO}, 0, VIDEO_DURATIONS, true, 1000);
+        byte[] truncated = new byte[fragment.length - 10];
+        System.arraycopy(fragment, 0, truncated, 0, truncated.length);
+        File file = Mp4Builder.write(new File(directory, "truncated.mp4"), header(), truncated);
+
+        assertNull(MezzanineIndex.open(file));
+    }
+
+    @Test
+    public void initSegmentOnlyHasTheRequestedTrack() throws IOException {
+        MezzanineIndex index = MezzanineIndex.open(mezzanine("init.mp4", 1));
+        byte[] init = index.getInitSegment(AUDIO);
+        assertNotNull(init);
+        assertNull(index.getInitSegment(3));
+
+        ByteBuffer buffer = ByteBuffer.wrap(init);
+        List<Box> boxes = Box.parse(buffer, 0, init.length);
+        assertEquals(2, boxes.size());
+        assertEquals("ftyp", boxes.get(0).type);
+        assertArrayEquals(Mp4Builder.ftyp(), Arrays.copyOfRange(init, 0, boxes.get(0).size));
+
+        Box moov = boxes.get(1);
+        List<Integer> trackIDs = new ArrayList<>();
+        for (Box box : Box.parse(buffer, moov.getContentStart(), moov.getEnd())) {
+            if (box.type.equals("trak")) {
+                trackIDs.add(Box.readTrackID(buffer, Box.find(buffer, box, "tkhd")));
+            }
+        }
+        assertEquals(1, trackIDs.size());
+        assertEquals(AUDIO, (int) trackIDs.get(0));
+
+        Box mvex = Box.find(buffer, moov, "mvex");
+        List<Box> trexes = Box.parse(buffer, mvex.getContentStart(), mvex.getEnd());
+        assertEquals(1, trexes.size());
+        assertEquals(AUDIO, buffer.getInt(trexes.get(0).getContentStart() + 4));
+    }
+}
@@ -0,0 +1,145 @@
+package jvs.packaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the minimal ISO-BMFF boxes read by the mp4 parsers: fragmented mp4 headers with H.264 and AAC tracks,
+ * and movie fragments written with a moof per track and default_base_moof, like ffmpeg writes the mezzanines.
+ */
+final class Mp4Builder {
+
+    static final int VIDEO_TIMESCALE = 90000;
+    static final int AUDIO_TIMESCALE = 48000;
+
+    /**
+     * Flags of the samples: depends on no other sample, or depends on others and is not a sync sample
+     */
+    private static final int SYNC_SAMPLE = 0x02000000;
+    private static final int NON_SYNC_SAMPLE = 0x01010000;
+
+    private Mp4Builder(){}
+
+    static byte[] box(final String type, final byte[]... children) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            content.write(child, 0, child.length);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Box.write(out, type, content.toByteArray());
+        return out.toByteArray();
+    }
+
+    static byte[] fullBox(final String type, final int version, final int flags, final byte[] fields) {
+        return box(type, ByteBuffer.allocate(4 + fields.length).putInt(version << 24 | flags).put(fields).array());
+    }
+
+    static byte[] ftyp() {
+        return box("ftyp", "iso5".getBytes(StandardCharsets.US_ASCII), new byte[4],
+                "iso5dash".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes a movie box with the tracks and their track extends boxes.
+     * @param traks The track boxes.
+     * @param trackIDs The ids of the tracks.
+     * @param defaultDurations The default sample durations of the tracks.
+     */
+    static byte[] moov(final byte[][] traks, final int[] trackIDs, final long[] defaultDurations) {
+        byte[][] trexes = new byte[trackIDs.length][];
+        for (int i = 0; i < trackIDs.length; i++) {
+            trexes[i] = fullBox("trex", 0, 0, ByteBuffer.allocate(20).putInt(trackIDs[i]).putInt(1)
+                    .putInt((int) defaultDurations[i]).putInt(0).putInt(0).array());
+        }
+        byte[] mvhd = fullBox("mvhd", 0, 0, ByteBuffer.allocate(96).putInt(8, 1000).array());
+        byte[][] children = new byte[traks.length + 2][];
+        children[0] = mvhd;
+        System.arraycopy(traks, 0, children, 1, traks.length);
+        children[children.length - 1] = box("mvex", trexes);
+        return box("moov", children);
+    }
+
+    /**
+     * Writes a movie box without track extends boxes, which is not a fragmented mp4.
+     */
+    static byte[] moovWithoutMvex(final byte[] trak) {
+        return box("moov", fullBox("mvhd", 0, 0, ByteBuffer.allocate(96).putInt(8, 1000).array()), trak);
+    }
+
+    static byte[] videoTrak(final int trackID, final int width, final int height) {
+        ByteBuffer entry = ByteBuffer.allocate(78);
+        entry.putShort(6, (short) 1).putShort(24, (short) width).putShort(26, (short) height);
+        byte[] avcC = box("avcC", new byte[]{1, 0x64, 0x00, 0x1f, (byte) 0xff, (byte) 0xe0, 0});
+        return trak(trackID, VIDEO_TIMESCALE, "vide", box("avc1", entry.array(), avcC));
+    }
+
+    static byte[] audioTrak(final int trackID, final int channels, final int sampleRate) {
+        ByteBuffer entry = ByteBuffer.allocate(28);
+        entry.putShort(6, (short) 1).putShort(16, (short) channels).putShort(18, (short) 16).putInt(24, sampleRate << 16);
+        byte[] descriptors = {
+                0x03, 25, 0, 1, 0,                                  //elementary stream descriptor, id 1, no flags
+                0x04, 17, 0x40, 0x15, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,   //decoder config, AAC
+                0x05, 2, 0x12, 0x10,                                //decoder specific info, AAC LC
+                0x06, 1, 2};                                        //sync layer config
+        byte[] esds = fullBox("esds", 0, 0, descriptors);
+        return trak(trackID, AUDIO_TIMESCALE, "soun", box("mp4a", entry.array(), esds));
+    }
+
+    private static byte[] trak(final int trackID, final int timescale, final String handler, final byte[] sampleEntry) {
+        byte[] tkhd = fullBox("tkhd", 0, 3, ByteBuffer.allocate(80).putInt(8, trackID).array());
+        byte[] mdhd = fullBox("mdhd", 0, 0, ByteBuffer.allocate(20).putInt(8, timescale).array());
+        ByteBuffer handlerFields = ByteBuffer.allocate(21);
+        handlerFields.position(4);
+        handlerFields.put(handler.getBytes(StandardCharsets.US_ASCII));
+        byte[] hdlr = fullBox("hdlr", 0, 0, handlerFields.array());
+        byte[] stsd = fullBox("stsd", 0, 0, concat(ByteBuffer.allocate(4).putInt(1).array(), sampleEntry));
+        return box("trak", tkhd, box("mdia", mdhd, hdlr, box("minf", box("stbl", stsd))));
+    }
+
+    /**
+     * Writes a movie fragment with its media data.
+     * @param trackIDs The ids of the track fragments, one per track fragment box.
+     * @param time The decode time of the first sample.
+     * @param durations The durations of the samples.
+     * @param keyframe Whether the first sample is a keyframe, the others are not.
+     * @param payload The size of the media data.
+     */
+    static byte[] fragment(final int[] trackIDs, final long time, final long[] durations, final boolean keyframe,
+                           final int payload) {
+        byte[][] children = new byte[trackIDs.length + 1][];
+        children[0] = fullBox("mfhd", 0, 0, ByteBuffer.allocate(4).putInt(1).array());
+        for (int t = 0; t < trackIDs.length; t++) {
+            byte[] tfhd = fullBox("tfhd", 0, 0x020000, ByteBuffer.allocate(4).putInt(trackIDs[t]).array());
+            byte[] tfdt = fullBox("tfdt", 1, 0, ByteBuffer.allocate(8).putLong(time).array());
+            ByteBuffer run = ByteBuffer.allocate(8 + durations.length * 12).putInt(durations.length).putInt(0);
+            for (int i = 0; i < durations.length; i++) {
+                run.putInt((int) durations[i]).putInt(payload / durations.length)
+                        .putInt(i == 0 && keyframe ? SYNC_SAMPLE : NON_SYNC_SAMPLE);
+            }
+            byte[] trun = fullBox("trun", 0, 0x001 | 0x100 | 0x200 | 0x400, run.array());
+            children[t + 1] = box("traf", tfhd, tfdt, trun);
+        }
+        return concat(box("moof", children), box("mdat", new byte[payload]));
+    }
+
+    static File write(final File file, final byte[]... parts) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+        }
+        return file;
+    }
+
+    static byte[] concat(final byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
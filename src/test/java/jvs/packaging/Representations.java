@@ -0,0 +1,24 @@
+package jvs.packaging;
+
+/**
+ * Builds the indexed representations read by the workers, through the segment index instead of its sidecar format.
+ */
+public final class Representations {
+
+    private Representations(){}
+
+    /**
+     * Indexes a representation whose segments are numbered from 1 and start with a keyframe.
+     * @param id The id of the representation.
+     * @param timescale The timescale of its segments.
+     * @param segments The time and the duration of every segment.
+     * @return The representation.
+     */
+    public static SegmentIndex.Representation of(final String id, final long timescale, final long[][] segments) {
+        SegmentIndex.Representation representation = new SegmentIndex().getRepresentation(id, timescale, id + "-%d.m4s");
+        for (int i = 0; i < segments.length; i++) {
+            representation.add(i + 1, segments[i][0], (int) segments[i][1], 0, 1000);
+        }
+        return representation;
+    }
+}
@@ -0,0 +1,262 @@
+package jvs.packaging;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jvs.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SeekResolverTest {
+
+    private static final long TIMESCALE = 90000;
+    private static final int SEGMENT_DURATION = 180000;
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("seek").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                MezzanineIndex.delete(file);
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Creates the index of a 20 s stream: a video representation with a keyframe every other segment and an
+     * audio representation with a keyframe in every segment, both in two seconds segments.
+     */
+    private static SegmentIndex index() {
+        SegmentIndex index = new SegmentIndex();
+        SegmentIndex.Representation video = index.getRepresentation("video", TIMESCALE, "video/seg-%d.m4s");
+        SegmentIndex.Representation audio = index.getRepresentation("audio", 48000, "audio/seg-%d.m4s");
+        for (int i = 0; i < 10; i++) {
+            video.add(i + 1, 1000 + (long) i * SEGMENT_DURATION, SEGMENT_DURATION, i % 2 == 0 ? 0 : -1, 250000);
+            audio.add(i + 1, (long) i * 96000, 96000, 0, 32000 + i);
+        }
+        return index;
+    }
+
+    private File manifest(final String type, final String template) throws IOException {
+        String mpd = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"" + type + "\" mediaPresentationDuration=\"PT20S\">" +
+                "<Period><AdaptationSet>" + template + "<Representation id=\"video\"/></AdaptationSet></Period></MPD>";
+        File file = new File(directory, "manifest.mpd");
+        Files.write(file.toPath(), mpd.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static Document parse(final PackagedContent content) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(content.getData()));
+    }
+
+    private static Element first(final Document doc, final String name) {
+        return (Element) doc.getElementsByTagName(name).item(0);
+    }
+
+    @Test
+    public void secondsAreCountedFromTheStart() {
+        assertEquals(30, SeekResolver.parseOffset("30", -1, 100), 0);
+        assertEquals(12.5, SeekResolver.parseOffset("12.5", -1, 100), 0);
+    }
+
+    @Test
+    public void negativeSecondsAreCountedBackFromTheEnd() {
+        assertEquals(90, SeekResolver.parseOffset("-10", -1, 100), 0);
+        assertEquals(100, SeekResolver.parseOffset("-0", -1, 100), 0);
+    }
+
+    @Test
+    public void durationsAreCountedFromTheStartOrBackFromTheEnd() {
+        assertEquals(90, SeekResolver.parseOffset("PT1M30S", -1, 100), 0);
+        assertEquals(70, SeekResolver.parseOffset("-PT30S", -1, 100), 0);
+        assertEquals(0.5, SeekResolver.parseOffset("PT0.5S", -1, 100), 0);
+    }
+
+    @Test
+    public void datesAreCountedFromTheWallClockStart() {
+        long start = OffsetDateTime.parse("2017-06-01T10:00:00Z").toInstant().toEpochMilli();
+
+        assertEquals(42, SeekResolver.parseOffset("2017-06-01T10:00:42Z", start, 100), 0);
+        assertEquals(42, SeekResolver.parseOffset("2017-06-01T12:00:42+02:00", start, 100), 0);
+        assertNull(SeekResolver.parseOffset("2017-06-01T10:00:42Z", -1, 100));
+    }
+
+    @Test
+    public void offsetsAreClampedToTheStream() {
+        long start = OffsetDateTime.parse("2017-06-01T10:00:00Z").toInstant().toEpochMilli();
+
+        assertEquals(100, SeekResolver.parseOffset("500", -1, 100), 0);
+        assertEquals(0, SeekResolver.parseOffset("-500", -1, 100), 0);
+        assertEquals(100, SeekResolver.parseOffset("PT1H", -1, 100), 0);
+        assertEquals(0, SeekResolver.parseOffset("-PT1H", -1, 100), 0);
+        assertEquals(0, SeekResolver.parseOffset("2017-06-01T09:00:00Z", start, 100), 0);
+        assertEquals(100, SeekResolver.parseOffset("2017-06-02T10:00:00Z", start, 100), 0);
+    }
+
+    @Test
+    public void invalidValuesAreRejected() {
+        assertNull(SeekResolver.parseOffset(null, -1, 100));
+        assertNull(SeekResolver.parseOffset("", -1, 100));
+        assertNull(SeekResolver.parseOffset("ten", -1, 100));
+        assertNull(SeekResolver.parseOffset("P1X", -1, 100));
+        assertNull(SeekResolver.parseOffset("2017-06-01T25:00:00Z", 0, 100));
+        assertNull(SeekResolver.parseOffset("NaN", -1, 100));
+        assertNull(SeekResolver.parseOffset("Infinity", -1, 100));
+    }
+
+    @Test
+    public void seekStartsEveryRepresentationWithItsKeyframeSegment() {
+        JsonObject seek = SeekResolver.seek(index(), 7, "/content/stream_1/");
+        assertNotNull(seek);
+        assertEquals(4, seek.getDouble(Constants.TIME_KEY), 0);
+
+        JsonArray representations = seek.getJsonArray(Constants.REPRESENTATIONS_KEY);
+        assertEquals(2, representations.size());
+
+        JsonObject video = representations.getJsonObject(0);
+        assertEquals("video", video.getString(Constants.ID_KEY));
+        assertEquals(3, (int) video.getInteger(Constants.NUMBER_KEY));
+        assertEquals(4, video.getDouble(Constants.TIME_KEY), 0);
+        assertEquals("/content/stream_1/video/seg-3.m4s", video.getString(Constants.SEGMENT_KEY));
+        assertEquals(video.getString(Constants.SEGMENT_KEY), video.getString(Constants.FILE_KEY));
+        assertEquals(0, (long) video.getLong(Constants.OFFSET_KEY));
+        assertEquals(250000, (long) video.getLong(Constants.SIZE_KEY));
+
+        //the audio segments all start with a keyframe
+        JsonObject audio = representations.getJsonObject(1);
+        assertEquals(4, (int) audio.getInteger(Constants.NUMBER_KEY));
+        assertEquals(6, audio.getDouble(Constants.TIME_KEY), 0);
+        assertEquals(32003, (long) audio.getLong(Constants.SIZE_KEY));
+    }
+
+    @Test
+    public void seekWithoutSegmentsHasNoStart() {
+        SegmentIndex index = new SegmentIndex();
+        index.getRepresentation("video", TIMESCALE, "video/seg-%d.m4s");
+
+        assertNull(SeekResolver.seek(index, 7, "/content/stream_1/"));
+    }
+
+    @Test
+    public void seekInAMezzanineReturnsTheByteRangesOfItsFragments() throws IOException {
+        byte[] header = Mp4Builder.concat(Mp4Builder.ftyp(), Mp4Builder.moov(
+                new byte[][]{Mp4Builder.videoTrak(1, 1280, 720)}, new int[]{1}, new long[]{1800}));
+        long[] durations = new long[50];
+        Arrays.fill(durations, 1800);
+        byte[][] fragments = new byte[3][];
+        for (int i = 0; i < 3; i++) {
+            fragments[i] = Mp4Builder.fragment(new int[]{1}, i * 90000L, durations, true, 1000);
+        }
+        File file = Mp4Builder.write(new File(directory, Constants.MEZZANINE_FILE),
+                Mp4Builder.concat(header, fragments[0], fragments[1], fragments[2]));
+
+        JsonObject seek = SeekResolver.seek(MezzanineIndex.open(file), 2.5, "/content/stream_1/");
+        assertNotNull(seek);
+        assertEquals(2, seek.getDouble(Constants.TIME_KEY), 0);
+
+        JsonObject video = seek.getJsonArray(Constants.REPRESENTATIONS_KEY).getJsonObject(0);
+        assertEquals("1", video.getString(Constants.ID_KEY));
+        assertEquals(3, (int) video.getInteger(Constants.NUMBER_KEY));
+        assertEquals("/content/stream_1/seg-1-3.m4s", video.getString(Constants.SEGMENT_KEY));
+        assertEquals("/content/stream_1/" + Constants.MEZZANINE_FILE, video.getString(Constants.FILE_KEY));
+        assertEquals(header.length + fragments[0].length + fragments[1].length, (long) video.getLong(Constants.OFFSET_KEY));
+        assertEquals(fragments[2].length, (long) video.getLong(Constants.SIZE_KEY));
+    }
+
+    @Test
+    public void manifestTimelineStartsWithTheKeyframeSegment() throws Exception {
+        File manifest = manifest("static", "<SegmentTemplate timescale=\"90000\" startNumber=\"1\" media=\"seg-$Number$.m4s\">" +
+                "<SegmentTimeline><S t=\"1000\" d=\"180000\" r=\"9\"/></SegmentTimeline></SegmentTemplate>");
+
+        PackagedContent content = SeekResolver.trimManifest(manifest, index(), 7);
+        assertNotNull(content);
+        assertEquals(MezzaninePackager.DASH_MIME_TYPE, content.getContentType());
+
+        Document doc = parse(content);
+        Element template = first(doc, "SegmentTemplate");
+        assertEquals("3", template.getAttribute("startNumber"));
+        assertEquals("361000", template.getAttribute("presentationTimeOffset"));
+
+        NodeList entries = doc.getElementsByTagName("S");
+        assertEquals(1, entries.getLength());
+        assertEquals("361000", ((Element) entries.item(0)).getAttribute("t"));
+        assertEquals("7", ((Element) entries.item(0)).getAttribute("r"));
+        assertEquals("PT0H0M16S", doc.getDocumentElement().getAttribute("mediaPresentationDuration"));
+    }
+
+    @Test
+    public void manifestTimelineEntriesBeforeTheSeekAreRemoved() throws Exception {
+        File manifest = manifest("static", "<SegmentTemplate timescale=\"90000\" media=\"seg-$Number$.m4s\">" +
+                "<SegmentTimeline><S t=\"1000\" d=\"180000\" r=\"1\"/><S d=\"180000\"/><S d=\"180000\" r=\"6\"/>" +
+                "</SegmentTimeline></SegmentTemplate>");
+
+        Document doc = parse(SeekResolver.trimManifest(manifest, index(), 8));
+        assertEquals("5", first(doc, "SegmentTemplate").getAttribute("startNumber"));
+
+        NodeList entries = doc.getElementsByTagName("S");
+        assertEquals(1, entries.getLength());
+        Element entry = (Element) entries.item(0);
+        assertEquals("721000", entry.getAttribute("t"));
+        assertEquals("5", entry.getAttribute("r"));
+    }
+
+    @Test
+    public void lastTimelineEntryLosesItsRepeat() throws Exception {
+        //the last keyframe segment is the ninth one
+        File manifest = manifest("static", "<SegmentTemplate timescale=\"90000\" startNumber=\"1\" media=\"seg-$Number$.m4s\">" +
+                "<SegmentTimeline><S t=\"1000\" d=\"180000\" r=\"8\"/></SegmentTimeline></SegmentTemplate>");
+
+        Element entry = first(parse(SeekResolver.trimManifest(manifest, index(), 20)), "S");
+        assertEquals("1441000", entry.getAttribute("t"));
+        assertFalse(entry.hasAttribute("r"));
+    }
+
+    @Test
+    public void manifestTemplateWithoutTimelineStartsWithTheSegmentNumber() throws Exception {
+        File manifest = manifest("static", "<SegmentTemplate timescale=\"1000\" duration=\"2000\" startNumber=\"1\" " +
+                "media=\"seg-$Number$.m4s\"/>");
+
+        Element template = first(parse(SeekResolver.trimManifest(manifest, index(), 7)), "SegmentTemplate");
+        assertEquals("3", template.getAttribute("startNumber"));
+        //the time of the segment in the timescale of the template
+        assertEquals("4011", template.getAttribute("presentationTimeOffset"));
+    }
+
+    @Test
+    public void dynamicOrUnknownManifestsAreNotRewritten() throws Exception {
+        String template = "<SegmentTemplate timescale=\"90000\" startNumber=\"1\" media=\"seg-$Number$.m4s\"/>";
+        assertNull(SeekResolver.trimManifest(manifest("dynamic", template), index(), 7));
+
+        SegmentIndex unknown = new SegmentIndex();
+        unknown.getRepresentation("other", TIMESCALE, "other/seg-%d.m4s").add(1, 0, SEGMENT_DURATION, 0, 1);
+        assertNull(SeekResolver.trimManifest(manifest("static", template), unknown, 7));
+
+        assertNull(SeekResolver.trimManifest(new File(directory, "missing.mpd"), index(), 7));
+    }
+}
@@ -0,0 +1,268 @@
+package jvs.packaging;
+
+import jvs.packaging.SegmentIndex.Representation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentIndexTest {
+
+    private static final long TIMESCALE = 90000;
+    private static final int SEGMENT_DURATION = 180000;
+    private static final int SEGMENT_SIZE = 250000;
+
+    private File sidecar;
+
+    @Before
+    public void createSidecar() throws IOException {
+        sidecar = File.createTempFile("segments", ".idx");
+        sidecar.delete();
+    }
+
+    @After
+    public void deleteSidecar() {
+        sidecar.delete();
+    }
+
+    /**
+     * Adds two seconds segments numbered from 1, starting at a time of 1000 ticks.
+     * @param representation The representation.
+     * @param count The number of segments.
+     * @param keyframeEvery Only every nth segment has a keyframe.
+     */
+    private static void addSegments(final Representation representation, final int count, final int keyframeEvery) {
+        int first = representation.getCount();
+        for (int i = first; i < first + count; i++) {
+            representation.add(i + 1, 1000 + (long) i * SEGMENT_DURATION, SEGMENT_DURATION,
+                    i % keyframeEvery == 0 ? 0 : -1, SEGMENT_SIZE);
+        }
+    }
+
+    @Test
+    public void emptyIndexHasNoDurationAndNoStart() {
+        SegmentIndex index = new SegmentIndex();
+        Representation video = index.getRepresentation("video", TIMESCALE, "video/%d.m4s");
+
+        assertEquals(0, index.getDuration(), 0);
+        assertEquals(0, index.getBitrate());
+        assertEquals(0, index.getCount());
+        assertEquals(-1, video.find(0));
+        assertEquals(0, video.getLastNumber());
+        assertTrue(index.getBandwidths().isEmpty());
+    }
+
+    @Test
+    public void durationAndBitrateAreMeasuredFromTheSegments() {
+        SegmentIndex index = new SegmentIndex();
+        Representation video = index.getRepresentation("video", TIMESCALE, "video/%d.m4s");
+        Representation audio = index.getRepresentation("audio", 48000, "audio/%d.m4s");
+        addSegments(video, 10, 1);
+        audio.add(1, 0, 48000, 0, 16000);
+
+        assertEquals(20, video.getDuration(), 1e-9);
+        assertEquals(1_000_000, video.getBitrate());
+        assertEquals(128_000, audio.getBitrate());
+
+        //the stream is as long as its longest representation and as large as all of them
+        assertEquals(20, index.getDuration(), 1e-9);
+        assertEquals(1_128_000, index.getBitrate());
+        assertEquals(10 * SEGMENT_SIZE + 16000, index.getSize());
+        assertEquals(10, index.getCount());
+        assertEquals(10, video.getLastNumber());
+        assertEquals("video/7.m4s", video.getSegmentName(7));
+    }
+
+    @Test
+    public void segmentsGrowPastTheInitialCapacity() {
+        Representation video = new SegmentIndex().getRepresentation("video", TIMESCALE, "video/%d.m4s");
+        addSegments(video, 200, 1);
+
+        assertEquals(200, video.getCount());
+        assertEquals(200, video.getNumber(199));
+        assertEquals(1000 + 199L * SEGMENT_DURATION, video.getTime(199));
+        assertEquals(200L * SEGMENT_SIZE, video.getTotalSize());
+        assertEquals(130, video.find(260));
+    }
+
+    @Test
+    public void findReturnsTheSegmentContainingTheOffset() {
+        Representation video = new SegmentIndex().getRepresentation("video", TIMESCALE, "video/%d.m4s");
+        addSegments(video, 10, 1);
+
+        assertEquals(0, video.find(0));
+        assertEquals(0, video.find(1.999));
+        assertEquals(1, video.find(2));
+        assertEquals(4, video.find(9));
+        assertEquals(8, video.getOffset(4), 1e-9);
+    }
+
+    @Test
+    public void findClampsTheOffsetsOutsideOfTheSegments() {
+        Representation video = new SegmentIndex().getRepresentation("video", TIMESCALE, "video/%d.m4s");
+        addSegments(video, 10, 1);
+
+        assertEquals(0, video.find(-10));
+        assertEquals(9, video.find(19.5));
+        assertEquals(9, video.find(1000));
+    }
+
+    @Test
+    public void findFallsBackToTheLastSegmentWithAKeyframe() {
+        Representation video = new SegmentIndex().getRepresentation("video", TIMESCALE, "video/%d.m4s");
+        addSegments(video, 10, 3);
+
+        //keyframes in the segments 0, 3, 6 and 9
+        assertEquals(0, video.find(5));
+        assertEquals(3, video.find(6));
+        assertEquals(3, video.find(11.9));
+        assertEquals(6, video.find(12));
+        assertEquals(9, video.find(100));
+    }
+
+    @Test
+    public void firstSegmentIsUsedWithoutAnyKeyframe() {
+        Representation video = new SegmentIndex().getRepresentation("video", TIMESCALE, "video/%d.m4s");
+        for (int i = 0; i < 3; i++) {
+            video.add(i + 1, (long) i * SEGMENT_DURATION, SEGMENT_DURATION, -1, SEGMENT_SIZE);
+        }
+
+        assertEquals(0, video.find(5));
+    }
+
+    @Test
+    public void sliceCoversTheRangeFromTheKeyframeBeforeItsStart() {
+        SegmentIndex index = new SegmentIndex();
+        index.setStartTime(1_500_000_000_000L);
+        Representation video = index.getRepresentation("video", TIMESCALE, "stream_1/video/%d.m4s");
+        addSegments(video, 10, 2);
+
+        SegmentIndex slice = index.slice(7, 13);
+        Representation clip = slice.getRepresentation("video");
+        assertNotNull(clip);
+
+        //starts with the keyframe segment at 4 s and ends with the segment containing 13 s
+        assertEquals(3, clip.getNumber(0));
+        assertEquals(5, clip.getCount());
+        assertEquals(7, clip.getLastNumber());
+        assertEquals("5.m4s", clip.getSegmentName(5));
+        assertEquals(1_500_000_004_000L, slice.getStartTime());
+    }
+
+    @Test
+    public void sliceOfAnEmptyRangeHasASingleSegment() {
+        SegmentIndex index = new SegmentIndex();
+        addSegments(index.getRepresentation("video", TIMESCALE, "video/%d.m4s"), 10, 1);
+
+        SegmentIndex slice = index.slice(4, 4);
+        assertEquals(1, slice.getRepresentation("video").getCount());
+        assertEquals(3, slice.getRepresentation("video").getNumber(0));
+        assertEquals(-1, slice.getStartTime());
+    }
+
+    @Test
+    public void sliceWithoutSegmentsIsEmpty() {
+        SegmentIndex index = new SegmentIndex();
+        index.setStartTime(1_500_000_000_000L);
+        index.getRepresentation("video", TIMESCALE, "video/%d.m4s");
+
+        SegmentIndex slice = index.slice(0, 10);
+        assertNull(slice.getRepresentation("video"));
+        assertEquals(-1, slice.getStartTime());
+    }
+
+    @Test
+    public void savedIndexIsReadBack() {
+        SegmentIndex index = new SegmentIndex();
+        index.setStartTime(1_500_000_000_000L);
+        addSegments(index.getRepresentation("video", TIMESCALE, "video/%d.m4s"), 5, 2);
+        index.getRepresentation("audio", 48000, "audio/%d.m4s").add(1, 0, 96000, 0, 32000);
+        assertTrue(index.isDirty());
+        assertTrue(index.save(sidecar));
+        assertFalse(index.isDirty());
+
+        SegmentIndex read = SegmentIndex.read(sidecar);
+        assertNotNull(read);
+        assertFalse(read.isDirty());
+        assertEquals(1_500_000_000_000L, read.getStartTime());
+        assertEquals(2, read.getRepresentations().size());
+        assertEquals("video", read.getRepresentations().get(0).getID());
+
+        Representation video = read.getRepresentation("video");
+        assertEquals(TIMESCALE, video.getTimescale());
+        assertEquals(5, video.getCount());
+        assertEquals(1000 + 4L * SEGMENT_DURATION, video.getTime(4));
+        assertEquals(SEGMENT_DURATION, video.getDuration(4));
+        assertEquals(SEGMENT_SIZE, video.getSize(4));
+        assertEquals(2, video.find(5));
+        assertEquals("audio/3.m4s", read.getRepresentation("audio").getSegmentName(3));
+    }
+
+    @Test
+    public void newSegmentsAreAppendedToTheSidecar() {
+        SegmentIndex index = new SegmentIndex();
+        Representation video = index.getRepresentation("video", TIMESCALE, "video/%d.m4s");
+        addSegments(video, 5, 1);
+        index.save(sidecar);
+        long saved = sidecar.length();
+
+        addSegments(video, 3, 1);
+        assertTrue(index.isDirty());
+        index.save(sidecar);
+
+        //three segment records of a type, an ordinal, a number, a time, a duration, a keyframe offset and a size
+        assertEquals(saved + 3 * (1 + 2 + 4 + 8 + 4 + 4 + 4), sidecar.length());
+        SegmentIndex read = SegmentIndex.read(sidecar);
+        assertEquals(8, read.getRepresentation("video").getCount());
+        assertEquals(8, read.getRepresentation("video").getLastNumber());
+    }
+
+    @Test
+    public void deletedSidecarIsWrittenAgain() {
+        SegmentIndex index = new SegmentIndex();
+        addSegments(index.getRepresentation("video", TIMESCALE, "video/%d.m4s"), 5, 1);
+        index.save(sidecar);
+        sidecar.delete();
+
+        index.save(sidecar);
+        assertEquals(5, SegmentIndex.read(sidecar).getRepresentation("video").getCount());
+    }
+
+    @Test
+    public void truncatedSidecarKeepsItsWholeRecords() throws IOException {
+        SegmentIndex index = new SegmentIndex();
+        addSegments(index.getRepresentation("video", TIMESCALE, "video/%d.m4s"), 5, 1);
+        index.save(sidecar);
+        try (RandomAccessFile file = new RandomAccessFile(sidecar, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        SegmentIndex read = SegmentIndex.read(sidecar);
+        assertNotNull(read);
+        assertEquals(4, read.getRepresentation("video").getCount());
+
+        //the whole index is written again on the next save
+        assertTrue(read.isDirty());
+        read.save(sidecar);
+        assertEquals(4, SegmentIndex.read(sidecar).getRepresentation("video").getCount());
+        assertFalse(SegmentIndex.read(sidecar).isDirty());
+    }
+
+    @Test
+    public void missingOrForeignSidecarIsNotRead() throws IOException {
+        assertNull(SegmentIndex.read(sidecar));
+
+        Files.write(sidecar.toPath(), "not an index".getBytes("US-ASCII"));
+        assertNull(SegmentIndex.read(sidecar));
+    }
+}
@@ -0,0 +1,208 @@
+package jvs.packaging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentPackTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("packs").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        SegmentPack.delete(directory);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private File segment(final String name, final String content) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static String read(final SegmentPack pack, final String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pack.copy(name, out);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void appendedSegmentsAreServedFromThePackOfTheirPeriod() throws IOException {
+        SegmentPack pack = SegmentPack.open(directory);
+        File first = segment("seg-1.m4s", "first");
+        File second = segment("seg-2.m4s", "second segment");
+        File third = segment("seg-3.m4s", "third");
+
+        assertTrue(pack.append(first, 100));
+        assertTrue(pack.append(second, 100));
+        assertTrue(pack.append(third, 101));
+        assertFalse(first.exists());
+        assertFalse(second.exists());
+
+        SegmentPack.Location location = pack.find("seg-2.m4s");
+        assertNotNull(location);
+        assertEquals(5, location.getOffset());
+        assertEquals(14, location.getLength());
+        assertEquals(location.getFile(), pack.find("seg-1.m4s").getFile());
+        assertEquals(0, pack.find("seg-3.m4s").getOffset());
+        assertNotSame(location.getFile(), pack.find("seg-3.m4s").getFile());
+
+        assertEquals("second segment", read(pack, "seg-2.m4s"));
+        assertEquals("third", read(pack, "seg-3.m4s"));
+        assertEquals(3, pack.getNames().size());
+        assertNull(pack.find("seg-4.m4s"));
+    }
+
+    @Test
+    public void resolvedSegmentIsAByteRangeOfItsPack() throws IOException {
+        SegmentPack pack = SegmentPack.open(directory);
+        pack.append(segment("seg-1.m4s", "first"), 1);
+        pack.append(segment("seg-2.chk", "chunk"), 1);
+
+        PackagedContent content = pack.resolve("seg-2.chk");
+        assertNotNull(content);
+        assertNull(content.getData());
+        assertEquals("video/webm", content.getContentType());
+        assertEquals(5, content.getOffset());
+        assertEquals(5, content.getLength());
+        assertEquals("video/iso.segment", pack.resolve("seg-1.m4s").getContentType());
+        assertNull(pack.resolve("seg-3.m4s"));
+    }
+
+    @Test(expected = IOException.class)
+    public void copyOfAnUnpackedSegmentFails() throws IOException {
+        read(SegmentPack.open(directory), "seg-1.m4s");
+    }
+
+    @Test
+    public void missingSegmentIsNotPacked() {
+        SegmentPack pack = SegmentPack.open(directory);
+
+        assertFalse(pack.append(new File(directory, "missing.m4s"), 1));
+        assertNull(pack.find("missing.m4s"));
+    }
+
+    @Test
+    public void openedPacksAreCached() {
+        assertSame(SegmentPack.open(directory), SegmentPack.open(directory));
+    }
+
+    @Test
+    public void indexesAreLoadedWhenTheDirectoryIsOpenedAgain() throws IOException {
+        SegmentPack pack = SegmentPack.open(directory);
+        pack.append(segment("seg-1.m4s", "first"), 1);
+        pack.append(segment("seg-2.m4s", "second"), 2);
+        SegmentPack.close(directory);
+
+        SegmentPack reopened = SegmentPack.open(directory);
+        assertNotSame(pack, reopened);
+        assertEquals(2, reopened.getNames().size());
+        assertEquals("first", read(reopened, "seg-1.m4s"));
+        assertEquals("second", read(reopened, "seg-2.m4s"));
+    }
+
+    @Test
+    public void segmentsMissingFromTheirPackAreIgnored() throws IOException {
+        SegmentPack pack = SegmentPack.open(directory);
+        pack.append(segment("seg-1.m4s", "first"), 1);
+        pack.append(segment("seg-2.m4s", "second"), 1);
+        File packFile = pack.find("seg-2.m4s").getFile();
+        SegmentPack.close(directory);
+
+        //the server stopped while the second segment was appended
+        try (RandomAccessFile file = new RandomAccessFile(packFile, "rw")) {
+            file.setLength(8);
+        }
+        SegmentPack reopened = SegmentPack.open(directory);
+        assertNotNull(reopened.find("seg-1.m4s"));
+        assertNull(reopened.find("seg-2.m4s"));
+    }
+
+    @Test
+    public void truncatedIndexKeepsItsWholeRecords() throws IOException {
+        SegmentPack pack = SegmentPack.open(directory);
+        pack.append(segment("seg-1.m4s", "first"), 1);
+        pack.append(segment("seg-2.m4s", "second"), 1);
+        File index = new File(pack.find("seg-1.m4s").getFile().getPath() + ".idx");
+        SegmentPack.close(directory);
+
+        try (RandomAccessFile file = new RandomAccessFile(index, "rw")) {
+            file.setLength(file.length() - 4);
+        }
+        SegmentPack reopened = SegmentPack.open(directory);
+        assertEquals("first", read(reopened, "seg-1.m4s"));
+        assertNull(reopened.find("seg-2.m4s"));
+    }
+
+    @Test
+    public void deletedPacksAreForgotten() throws IOException {
+        SegmentPack pack = SegmentPack.open(directory);
+        pack.append(segment("seg-1.m4s", "first"), 1);
+        SegmentPack.delete(directory);
+
+        assertFalse(new File(directory, "packs").exists());
+        assertNull(pack.find("seg-1.m4s"));
+        assertTrue(SegmentPack.open(directory).getNames().isEmpty());
+    }
+
+    @Test
+    public void closingADirectoryClosesItsSubdirectories() throws IOException {
+        File child = new File(directory, "video");
+        assertTrue(child.mkdir());
+        SegmentPack pack = SegmentPack.open(child);
+        SegmentPack.close(directory);
+
+        assertNotSame(pack, SegmentPack.open(child));
+
+        //a sibling sharing the prefix of the directory is kept
+        File sibling = new File(directory.getPath() + "-other");
+        SegmentPack other = SegmentPack.open(sibling);
+        SegmentPack.close(directory);
+        assertSame(other, SegmentPack.open(sibling));
+        SegmentPack.close(sibling);
+    }
+
+    @Test
+    public void packedContentIsUnchanged() throws IOException {
+        byte[] data = new byte[256 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        File segment = new File(directory, "seg-1.m4s");
+        Files.write(segment.toPath(), data);
+        SegmentPack pack = SegmentPack.open(directory);
+        pack.append(segment("seg-0.m4s", "header"), 1);
+        pack.append(segment, 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length, pack.copy("seg-1.m4s", out));
+        assertArrayEquals(data, out.toByteArray());
+    }
+}
@@ -0,0 +1,124 @@
+package jvs.packaging;
+
+import jvs.packaging.SegmentIndex.Representation;
+import jvs.packaging.SegmentScanner.Timing;
+import jvs.packaging.SegmentScanner.Track;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentScannerTest {
+
+    private static final int VIDEO = 1;
+
+    /**
+     * Two seconds segments: 50 samples of 3600 ticks
+     */
+    private static final long[] SAMPLE_DURATIONS = repeat(50, 3600);
+    private static final long SEGMENT_DURATION = 180000;
+
+    private File directory;
+    private Track track;
+
+    @Before
+    public void readHeader() throws IOException {
+        directory = Files.createTempDirectory("segments").toFile();
+        File header = Mp4Builder.write(new File(directory, "init-stream0.m4s"), Mp4Builder.ftyp(),
+                Mp4Builder.moov(new byte[][]{Mp4Builder.videoTrak(VIDEO, 1280, 720)}, new int[]{VIDEO}, new long[]{3600}));
+        track = SegmentScanner.readHeader(header);
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static long[] repeat(final int count, final long duration) {
+        long[] durations = new long[count];
+        for (int i = 0; i < count; i++) {
+            durations[i] = duration;
+        }
+        return durations;
+    }
+
+    /**
+     * Writes the segment of a number, starting at the end of the previous one.
+     * @param number The number of the segment, from 1.
+     * @param keyframe Whether its first sample is a keyframe.
+     * @return The segment.
+     */
+    private File segment(final int number, final boolean keyframe) throws IOException {
+        return Mp4Builder.write(new File(directory, "chunk-stream0-" + number + ".m4s"),
+                Mp4Builder.fragment(new int[]{VIDEO}, (number - 1) * SEGMENT_DURATION, SAMPLE_DURATIONS, keyframe, 10000));
+    }
+
+    @Test
+    public void headerGivesTheTimescaleOfTheTrack() {
+        assertNotNull(track);
+        assertEquals(Mp4Builder.VIDEO_TIMESCALE, track.getTimescale());
+    }
+
+    @Test
+    public void timingIsReadFromTheMovieFragment() throws IOException {
+        File file = segment(3, true);
+        Timing timing = SegmentScanner.readSegment(track, file);
+
+        assertNotNull(timing);
+        assertEquals(2 * SEGMENT_DURATION, timing.getTime());
+        assertEquals(SEGMENT_DURATION, timing.getDuration());
+        assertEquals(0, timing.getKeyframeOffset());
+        assertEquals(file.length(), timing.getSize());
+    }
+
+    @Test
+    public void segmentWithoutKeyframeHasNoKeyframeOffset() throws IOException {
+        Timing timing = SegmentScanner.readSegment(track, segment(1, false));
+
+        assertNotNull(timing);
+        assertEquals(-1, timing.getKeyframeOffset());
+    }
+
+    @Test
+    public void segmentWithoutMovieFragmentIsNotRead() throws IOException {
+        File file = Mp4Builder.write(new File(directory, "chunk-stream0-1.m4s"), Mp4Builder.box("mdat", new byte[100]));
+
+        assertNull(SegmentScanner.readSegment(track, file));
+        assertNull(SegmentScanner.readSegment(track, new File(directory, "missing.m4s")));
+    }
+
+    @Test
+    public void scannedSegmentsGiveTheDurationAndTheBitrate() throws IOException {
+        SegmentIndex index = new SegmentIndex();
+        Representation video = index.getRepresentation("video", track.getTimescale(), "chunk-stream0-%d.m4s");
+        assertEquals(0, index.getDuration(), 0);
+        assertTrue(index.getBandwidths().isEmpty());
+
+        //more segments than the initial capacity of the representation
+        long size = 0;
+        for (int number = 1; number <= 100; number++) {
+            File file = segment(number, number % 2 == 1);
+            video.add(number, SegmentScanner.readSegment(track, file));
+            size += file.length();
+        }
+
+        assertEquals(100, index.getCount());
+        assertEquals(200, index.getDuration(), 1e-9);
+        assertEquals(Math.round(size * 8 / 200d), index.getBitrate());
+        assertEquals(index.getBitrate(), (long) index.getBandwidths().get("video"));
+    }
+}
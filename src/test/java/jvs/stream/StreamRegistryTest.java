@@ -0,0 +1,85 @@
+package jvs.stream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamRegistryTest {
+
+    private static final long DAY = 86400000;
+
+    private static Stream stream(final int id, final long creationDate) {
+        Stream stream = new Stream();
+        stream.setID(id);
+        stream.setCreationDate(new Date(creationDate));
+        return stream;
+    }
+
+    private static List<Integer> evictionOrder(final Stream... streams) {
+        List<Integer> ids = new ArrayList<>();
+        for (Stream stream : StreamRegistry.sortForEviction(Arrays.asList(streams))) {
+            ids.add(stream.getID());
+        }
+        return ids;
+    }
+
+    @Test
+    public void neverRequestedRecordingsAreEvictedByCreationDate() {
+        long now = System.currentTimeMillis();
+
+        assertEquals(Arrays.asList(2, 3, 1), evictionOrder(stream(1, now - DAY), stream(2, now - 3 * DAY),
+                stream(3, now - 2 * DAY)));
+    }
+
+    @Test
+    public void requestedRecordingIsEvictedAfterTheOthers() {
+        long now = System.currentTimeMillis();
+        Stream requested = stream(1, now - 10 * DAY);
+        requested.touch(now);
+
+        assertEquals(Arrays.asList(2, 3, 1), evictionOrder(requested, stream(2, now - 2 * DAY), stream(3, now - DAY)));
+    }
+
+    @Test
+    public void leastRecentlyRequestedRecordingIsEvictedFirst() {
+        long now = System.currentTimeMillis();
+        Stream first = stream(1, now - 2 * DAY);
+        Stream second = stream(2, now - 3 * DAY);
+        second.touch(now - 5);
+        first.touch(now);
+
+        assertEquals(Arrays.asList(3, 2, 1), evictionOrder(first, second, stream(3, now - DAY)));
+    }
+
+    @Test
+    public void touchedRecordingIsSortedByItsTimeBeforeTheSort() {
+        long now = System.currentTimeMillis();
+        Stream requested = new Stream() {
+            @Override
+            public long getLastRequestTime() {
+                //a request during the sort
+                long time = super.getLastRequestTime();
+                touch(now + 1000);
+                return time;
+            }
+        };
+        requested.setID(1);
+        requested.setCreationDate(new Date(now - 3 * DAY));
+        requested.touch(now - DAY);
+
+        assertEquals(Arrays.asList(1, 2), evictionOrder(requested, stream(2, now - 12 * 3600000L)));
+    }
+
+    @Test
+    public void recordingWithoutCreationDateIsEvictedFirst() {
+        Stream restored = new Stream();
+        restored.setID(1);
+
+        assertEquals(Arrays.asList(1, 2), evictionOrder(stream(2, System.currentTimeMillis() - DAY), restored));
+    }
+}
@@ -0,0 +1,152 @@
+package jvs.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogBufferTest {
+
+    private static final int PRODUCERS = 4;
+
+    /**
+     * Starts threads that add the messages "<producer> <index>" as soon as they are all ready.
+     * @param buffer The buffer.
+     * @param messages The number of messages of every producer.
+     * @param accepted The counter of the messages added.
+     * @return The producers.
+     */
+    private static List<Thread> produce(final LogBuffer buffer, final int messages, final AtomicInteger accepted) {
+        CountDownLatch ready = new CountDownLatch(PRODUCERS);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(() -> {
+                ready.countDown();
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < messages; i++) {
+                    if (buffer.offer(Logger.Level.INFO, Logger.SERVER, producer + " " + i)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        return producers;
+    }
+
+    private static boolean isAlive(final List<Thread> threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void messagesOfEveryProducerAreReadInOrder() throws InterruptedException {
+        LogBuffer buffer = new LogBuffer(64);
+        int messages = 20000;
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> producers = produce(buffer, messages, accepted);
+
+        //the reader keeps up with the producers, except for the messages dropped while it is behind
+        int[] next = new int[PRODUCERS];
+        int read = 0;
+        StringBuilder line = new StringBuilder();
+        while (isAlive(producers) || !buffer.isEmpty()) {
+            line.setLength(0);
+            if (!buffer.poll(line)) {
+                Thread.yield();
+                continue;
+            }
+            assertTrue(line.toString().startsWith("[INFO] "));
+            String[] fields = line.substring("[INFO] ".length()).split(" ");
+            int producer = Integer.parseInt(fields[0]);
+            int index = Integer.parseInt(fields[1]);
+            assertTrue(index >= next[producer]);
+            next[producer] = index + 1;
+            read++;
+        }
+
+        assertEquals(accepted.get(), read);
+        assertEquals(PRODUCERS * messages, read + buffer.getDroppedCount());
+    }
+
+    @Test
+    public void messagesAreDroppedAndCountedWhenTheBufferIsFull() throws InterruptedException {
+        LogBuffer buffer = new LogBuffer(8);
+        AtomicInteger accepted = new AtomicInteger();
+        for (Thread producer : produce(buffer, 100, accepted)) {
+            producer.join();
+        }
+
+        assertEquals(8, accepted.get());
+        assertEquals(PRODUCERS * 100 - 8, buffer.getDroppedCount());
+        assertEquals(PRODUCERS * 100 - 8, buffer.takeDropped());
+        assertEquals(0, buffer.takeDropped());
+
+        //a read slot is available again, the total is kept
+        assertTrue(buffer.poll(new StringBuilder()));
+        assertTrue(buffer.offer(Logger.Level.WARNING, Logger.FFMPEG, "again"));
+        assertFalse(buffer.offer(Logger.Level.WARNING, Logger.FFMPEG, "dropped"));
+        assertEquals(PRODUCERS * 100 - 7, buffer.getDroppedCount());
+        assertEquals(1, buffer.takeDropped());
+    }
+
+    @Test
+    public void categoryIsWrittenUnlessItIsTheServer() {
+        LogBuffer buffer = new LogBuffer(2);
+        buffer.offer(Logger.Level.DEBUG, Logger.FFPROBE, "packet");
+        buffer.offer(Logger.Level.ERROR, Logger.SERVER, "failed");
+
+        StringBuilder line = new StringBuilder();
+        assertTrue(buffer.poll(line));
+        assertEquals("[DEBUG] [ffprobe] packet", line.toString());
+        line.setLength(0);
+        assertTrue(buffer.poll(line));
+        assertEquals("[ERROR] failed", line.toString());
+        assertFalse(buffer.poll(line));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeMustBeAPowerOfTwo() {
+        new LogBuffer(100);
+    }
+
+    @Test
+    public void flushWaitsForTheMessagesOfEveryProducer() throws InterruptedException {
+        String category = "logbuffertest";
+        Logger.setLevel(category, Logger.Level.DEBUG);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 25; i++) {
+                    Logger.debug(category, "flush " + producer + " " + i);
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        Logger.flush(5000);
+        assertTrue(Logger.buffer.isEmpty());
+    }
+}
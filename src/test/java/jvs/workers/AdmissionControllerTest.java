@@ -0,0 +1,189 @@
+package jvs.workers;
+
+import jvs.Constants;
+import jvs.stream.Stream;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+
+    private static final long HOUR = 3600000;
+
+    private final List<Stream> streams = new ArrayList<>();
+
+    @After
+    public void stop() {
+        for (Stream stream : streams) {
+            AdmissionController.release(stream.getID());
+        }
+        AdmissionController.stop();
+    }
+
+    private Stream stream() {
+        Stream stream = new Stream();
+        stream.setID(streams.size() + 1);
+        streams.add(stream);
+        return stream;
+    }
+
+    /**
+     * Waits for the queued encodes started by a release on the admission thread.
+     * @param condition The condition met once they started.
+     */
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * Starts the admission control without calibrations during the test.
+     * @return The budget, in percent of a single core.
+     */
+    private static double start() {
+        AdmissionController.start(50, HOUR, HOUR);
+        return AdmissionController.toJSON().getDouble(Constants.BUDGET_KEY);
+    }
+
+    @Test
+    public void everyEncodeIsAdmittedWithoutBudget() {
+        AtomicInteger started = new AtomicInteger();
+        AdmissionController.admit(stream(), EncodingType.MPEG_DASH_H264_AAC, 1e9, started::incrementAndGet);
+        AdmissionController.admit(stream(), EncodingType.MPEG_DASH_H264_AAC, 1e9, started::incrementAndGet);
+
+        assertEquals(2, started.get());
+        assertTrue(AdmissionController.canAdmit(EncodingType.MPEG_DASH_H264_AAC, null));
+        assertEquals(1, AdmissionController.getHeadroom(), 0);
+    }
+
+    @Test
+    public void encodeExceedingTheBudgetIsQueuedUntilCpuIsReleased() throws InterruptedException {
+        double budget = start();
+        AtomicInteger started = new AtomicInteger();
+        Stream first = stream();
+        Stream second = stream();
+
+        AtomicReference<Thread> starter = new AtomicReference<>();
+        AdmissionController.admit(first, EncodingType.MPEG_DASH_H264_AAC, budget * 0.6, started::incrementAndGet);
+        AdmissionController.admit(second, EncodingType.MPEG_DASH_H264_AAC, budget * 0.6, () -> {
+            starter.set(Thread.currentThread());
+            started.incrementAndGet();
+        });
+        assertEquals(1, started.get());
+        assertFalse(AdmissionController.isQueued(first.getID()));
+        assertTrue(AdmissionController.isQueued(second.getID()));
+        assertEquals(1, (int) AdmissionController.toJSON().getInteger(Constants.QUEUED_KEY));
+
+        AdmissionController.release(first.getID());
+        await(() -> started.get() == 2);
+        assertFalse(AdmissionController.isQueued(second.getID()));
+        //the queued encode is not started by the releasing thread, e.g. an event loop
+        assertNotSame(Thread.currentThread(), starter.get());
+    }
+
+    @Test
+    public void queuedEncodesStartInOrder() throws InterruptedException {
+        double budget = start();
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        Stream running = stream();
+        Stream large = stream();
+        Stream small = stream();
+
+        AdmissionController.admit(running, EncodingType.MPEG_DASH_H264_AAC, budget * 0.5, () -> order.add(running.getID()));
+        AdmissionController.admit(large, EncodingType.MPEG_DASH_H264_AAC, budget * 0.8, () -> order.add(large.getID()));
+        //fits in the budget left, but does not overtake the queued encode
+        AdmissionController.admit(small, EncodingType.MPEG_DASH_H264_AAC, budget * 0.1, () -> order.add(small.getID()));
+        assertTrue(AdmissionController.isQueued(small.getID()));
+
+        AdmissionController.release(running.getID());
+        await(() -> order.size() == 3);
+        assertEquals(large.getID(), (int) order.get(1));
+        assertEquals(small.getID(), (int) order.get(2));
+    }
+
+    @Test
+    public void encodeLargerThanTheBudgetRunsAlone() {
+        double budget = start();
+        AtomicInteger started = new AtomicInteger();
+        Stream huge = stream();
+
+        AdmissionController.admit(huge, EncodingType.MPEG_DASH_H264_AAC, budget * 3, started::incrementAndGet);
+        assertEquals(1, started.get());
+
+        AdmissionController.admit(stream(), EncodingType.MPEG_DASH_H264_AAC, 1, started::incrementAndGet);
+        assertEquals(1, started.get());
+    }
+
+    @Test
+    public void releasedQueuedEncodeIsForgotten() {
+        double budget = start();
+        AtomicInteger started = new AtomicInteger();
+        Stream running = stream();
+        Stream queued = stream();
+
+        AdmissionController.admit(running, EncodingType.MPEG_DASH_H264_AAC, budget, started::incrementAndGet);
+        AdmissionController.admit(queued, EncodingType.MPEG_DASH_H264_AAC, budget, started::incrementAndGet);
+        AdmissionController.release(queued.getID());
+        assertFalse(AdmissionController.isQueued(queued.getID()));
+
+        AdmissionController.release(running.getID());
+        assertEquals(1, started.get());
+    }
+
+    @Test
+    public void headroomIsTheShareOfTheBudgetLeft() {
+        double budget = start();
+        assertEquals(1, AdmissionController.getHeadroom(), 1e-9);
+
+        Stream running = stream();
+        AdmissionController.admit(running, EncodingType.MPEG_DASH_H264_AAC, budget * 0.75, () -> { });
+        assertEquals(0.25, AdmissionController.getHeadroom(), 1e-9);
+
+        //nothing is left while encodes wait for cpu
+        AdmissionController.admit(stream(), EncodingType.MPEG_DASH_H264_AAC, budget * 0.5, () -> { });
+        assertEquals(0, AdmissionController.getHeadroom(), 0);
+    }
+
+    @Test
+    public void newRequestIsRejectedWhenTheBudgetIsFull() {
+        double budget = start();
+        assertTrue(AdmissionController.canAdmit(EncodingType.MPEG_DASH_H264_AAC, null));
+
+        AdmissionController.admit(stream(), EncodingType.MPEG_DASH_H264_AAC, budget, () -> { });
+        assertFalse(AdmissionController.canAdmit(EncodingType.MPEG_DASH_H264_AAC, null));
+        assertFalse(AdmissionController.canAdmit(EncodingType.AUTO, null));
+    }
+
+    @Test
+    public void queuedEncodeFailsAfterTheTimeout() throws InterruptedException {
+        AdmissionController.start(50, 0, 20);
+        double budget = AdmissionController.toJSON().getDouble(Constants.BUDGET_KEY);
+        AtomicInteger started = new AtomicInteger();
+        Stream running = stream();
+        Stream queued = stream();
+
+        AdmissionController.admit(running, EncodingType.MPEG_DASH_H264_AAC, budget, started::incrementAndGet);
+        AdmissionController.admit(queued, EncodingType.MPEG_DASH_H264_AAC, budget, started::incrementAndGet);
+        for (int i = 0; i < 100 && AdmissionController.isQueued(queued.getID()); i++) {
+            Thread.sleep(20);
+        }
+
+        assertFalse(AdmissionController.isQueued(queued.getID()));
+        assertTrue(queued.hadErrors());
+        assertFalse(running.hadErrors());
+        assertEquals(1, started.get());
+    }
+}
@@ -0,0 +1,68 @@
+package jvs.workers;
+
+import jvs.packaging.Representations;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ClipExtractorTest {
+
+    private static final String NAMESPACE = "urn:mpeg:dash:schema:mpd:2011";
+
+    private static NodeList timeline(final long[][] segments) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element timeline = ClipExtractor.createTimeline(doc, NAMESPACE,
+                Representations.of("video", 90000, segments));
+        assertEquals(NAMESPACE, timeline.getNamespaceURI());
+        return timeline.getElementsByTagNameNS(NAMESPACE, "S");
+    }
+
+    private static void assertEntry(final Element entry, final long time, final long duration, final long repeat) {
+        assertEquals(Long.toString(time), entry.getAttribute("t"));
+        assertEquals(Long.toString(duration), entry.getAttribute("d"));
+        if (repeat > 0) {
+            assertEquals(Long.toString(repeat), entry.getAttribute("r"));
+        } else {
+            assertFalse(entry.hasAttribute("r"));
+        }
+    }
+
+    @Test
+    public void consecutiveSegmentsOfTheSameDurationAreRepeated() throws Exception {
+        NodeList entries = timeline(new long[][]{{1000, 180000}, {181000, 180000}, {361000, 180000}, {541000, 90000}});
+
+        assertEquals(2, entries.getLength());
+        assertEntry((Element) entries.item(0), 1000, 180000, 2);
+        assertEntry((Element) entries.item(1), 541000, 90000, 0);
+    }
+
+    @Test
+    public void gapStartsANewEntry() throws Exception {
+        NodeList entries = timeline(new long[][]{{0, 180000}, {180000, 180000}, {540000, 180000}});
+
+        assertEquals(2, entries.getLength());
+        assertEntry((Element) entries.item(0), 0, 180000, 1);
+        assertEntry((Element) entries.item(1), 540000, 180000, 0);
+    }
+
+    @Test
+    public void durationChangesStartNewEntries() throws Exception {
+        NodeList entries = timeline(new long[][]{{0, 180000}, {180000, 170000}, {350000, 180000}, {530000, 180000}});
+
+        assertEquals(3, entries.getLength());
+        assertEntry((Element) entries.item(0), 0, 180000, 0);
+        assertEntry((Element) entries.item(1), 180000, 170000, 0);
+        assertEntry((Element) entries.item(2), 350000, 180000, 1);
+    }
+
+    @Test
+    public void representationWithoutSegmentsHasAnEmptyTimeline() throws Exception {
+        assertEquals(0, timeline(new long[0][]).getLength());
+    }
+}
@@ -0,0 +1,43 @@
+package jvs.workers;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class FFMpegWorkerTest {
+
+    /**
+     * Truncates a line like the stderr drainer, to a number of bytes.
+     */
+    private static String truncate(final String line, final int length) {
+        byte[] bytes = Arrays.copyOf(line.getBytes(StandardCharsets.UTF_8), length);
+        return new String(bytes, 0, FFMpegWorker.truncate(bytes, length), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void wholeCharactersAreKept() {
+        assertEquals("frame=  25", truncate("frame=  25", 10));
+        assertEquals("cam\u00e9ra", truncate("cam\u00e9ra", 7));
+        assertEquals("", truncate("", 0));
+    }
+
+    @Test
+    public void characterCutByTheTruncationIsDropped() {
+        //the accented e takes 2 bytes, the euro sign 3 and the camera emoji 4
+        assertEquals("cam", truncate("cam\u00e9ra", 4));
+        assertEquals("prix ", truncate("prix \u20ac", 6));
+        assertEquals("prix ", truncate("prix \u20ac", 7));
+        assertEquals("prix \u20ac", truncate("prix \u20ac", 8));
+        assertEquals("input ", truncate("input \uD83C\uDFA5", 9));
+        assertEquals("input \uD83C\uDFA5", truncate("input \uD83C\uDFA5", 10));
+    }
+
+    @Test
+    public void lineOfContinuationBytesIsKept() {
+        byte[] bytes = {(byte) 0x80, (byte) 0x80};
+        assertEquals(2, FFMpegWorker.truncate(bytes, 2));
+    }
+}
@@ -0,0 +1,99 @@
+package jvs.workers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OutputRingBufferTest {
+
+    private static OutputRingBuffer buffer(final int capacity, final int lines) {
+        OutputRingBuffer buffer = new OutputRingBuffer(capacity);
+        for (int i = 1; i <= lines; i++) {
+            buffer.append("line " + i);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void linesAreReadInOrder() throws InterruptedException {
+        OutputRingBuffer buffer = buffer(4, 3);
+        buffer.close();
+
+        assertEquals("line 1", buffer.next());
+        assertEquals("line 2", buffer.next());
+        assertEquals("line 3", buffer.next());
+        assertNull(buffer.next());
+        assertEquals(0, buffer.getSkippedCount());
+    }
+
+    @Test
+    public void oldestLinesAreSkippedByASlowConsumer() throws InterruptedException {
+        OutputRingBuffer buffer = buffer(4, 10);
+        buffer.close();
+
+        assertEquals("line 7", buffer.next());
+        assertEquals(6, buffer.getSkippedCount());
+        assertEquals("line 8", buffer.next());
+        assertEquals("line 9", buffer.next());
+        assertEquals("line 10", buffer.next());
+        assertNull(buffer.next());
+        assertEquals(6, buffer.getSkippedCount());
+        assertEquals(10, buffer.getLinesCount());
+    }
+
+    @Test
+    public void skippedLinesAreCountedAcrossWraparounds() throws InterruptedException {
+        OutputRingBuffer buffer = buffer(3, 2);
+        assertEquals("line 1", buffer.next());
+
+        //the consumer falls behind twice
+        for (int i = 3; i <= 9; i++) {
+            buffer.append("line " + i);
+        }
+        assertEquals("line 7", buffer.next());
+        for (int i = 10; i <= 14; i++) {
+            buffer.append("line " + i);
+        }
+        assertEquals("line 12", buffer.next());
+
+        assertEquals(5 + 4, buffer.getSkippedCount());
+        assertEquals("line 13", buffer.next());
+    }
+
+    @Test
+    public void tailReturnsTheLastLinesAfterAWraparound() {
+        OutputRingBuffer buffer = buffer(4, 6);
+
+        assertEquals(Arrays.asList("line 5", "line 6"), buffer.tail(2));
+        assertEquals(Arrays.asList("line 3", "line 4", "line 5", "line 6"), buffer.tail(10));
+        assertEquals(Collections.emptyList(), buffer.tail(0));
+        assertEquals(Collections.singletonList("line 1"), buffer(4, 1).tail(3));
+    }
+
+    @Test
+    public void consumerWaitsForTheProducer() throws InterruptedException {
+        OutputRingBuffer buffer = new OutputRingBuffer(2);
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i <= 100; i++) {
+                buffer.append("line " + i);
+            }
+            buffer.close();
+        });
+        producer.start();
+
+        int read = 0;
+        String last = null;
+        for (String line = buffer.next(); line != null; line = buffer.next()) {
+            read++;
+            last = line;
+        }
+        producer.join();
+
+        assertEquals("line 100", last);
+        assertEquals(100, read + buffer.getSkippedCount());
+    }
+}
@@ -0,0 +1,193 @@
+package jvs.workers;
+
+import jvs.Constants;
+import jvs.config.ConfigManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentStagerTest {
+
+    private File staging;
+    private File durable;
+    private SegmentStager.Entry entry;
+
+    @BeforeClass
+    public static void importConfig() {
+        //the retention of the staged segments
+        ConfigManager.importConfig(Constants.CONFIG_FILE_PATH);
+    }
+
+    @Before
+    public void createFolders() throws IOException {
+        staging = Files.createTempDirectory("staging").toFile();
+        durable = Files.createTempDirectory("durable").toFile();
+        entry = new SegmentStager.Entry(staging, durable);
+    }
+
+    @After
+    public void deleteFolders() {
+        for (File folder : new File[]{staging, durable}) {
+            File[] files = folder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            folder.delete();
+        }
+    }
+
+    private File stage(final String name, final String content) throws IOException {
+        File file = new File(staging, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private Set<String> persisted() {
+        String[] names = durable.list();
+        return new TreeSet<>(Arrays.asList(names != null ? names : new String[0]));
+    }
+
+    private static Set<String> names(final String... names) {
+        return new TreeSet<>(Arrays.asList(names));
+    }
+
+    /**
+     * Makes the staged copy of a segment older than the retention of the persisted segments.
+     */
+    private void expire(final String name) {
+        long retention = ConfigManager.getConfig().getStagingRetention() * 1000L;
+        new File(staging, name).setLastModified(System.currentTimeMillis() - retention - 60000);
+    }
+
+    @Test
+    public void closedSegmentsAreBatchedWithTheManifestsAndHeaders() throws IOException {
+        stage("manifest.mpd", "<MPD/>");
+        stage("init-stream0.m4s", "init");
+        stage("chunk-stream0-00001.m4s", "video 1");
+        stage("chunk-stream0-00002.m4s", "video 2");
+        stage("chunk-stream0-00003.m4s", "video 3");
+        stage("chunk-stream1-00001.m4s", "audio 1");
+        stage("chunk-stream1-00002.m4s", "audio 2");
+        stage("video_1.chk", "webm 1");
+        stage("video_2.chk", "webm 2");
+        stage("chunk-stream0-00004.m4s.tmp", "partial");
+
+        entry.persist(false);
+
+        //the last segment of every representation is still being written
+        assertEquals(names("manifest.mpd", "init-stream0.m4s", "chunk-stream0-00001.m4s", "chunk-stream0-00002.m4s",
+                "chunk-stream1-00001.m4s", "video_1.chk"), persisted());
+        assertEquals("video 2", new String(Files.readAllBytes(new File(durable, "chunk-stream0-00002.m4s").toPath()),
+                StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void completedEncodeIsPersistedEntirely() throws IOException {
+        stage("manifest.mpd", "<MPD/>");
+        stage("chunk-stream0-00001.m4s", "video 1");
+        stage("chunk-stream0-00002.m4s", "video 2");
+        entry.persist(false);
+
+        assertTrue(entry.persist(true).isComplete());
+        assertEquals(names("manifest.mpd", "chunk-stream0-00001.m4s", "chunk-stream0-00002.m4s"), persisted());
+    }
+
+    @Test
+    public void changedManifestIsPersistedAgain() throws IOException {
+        File manifest = stage("manifest.mpd", "<MPD/>");
+        entry.persist(false);
+
+        Files.write(manifest.toPath(), "<MPD type=\"static\"/>".getBytes(StandardCharsets.US_ASCII));
+        entry.persist(false);
+        assertEquals("<MPD type=\"static\"/>", new String(Files.readAllBytes(new File(durable, "manifest.mpd").toPath()),
+                StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void persistedSegmentsAreNotCopiedAgain() throws IOException {
+        stage("chunk-stream0-00001.m4s", "video 1");
+        stage("chunk-stream0-00002.m4s", "video 2");
+        entry.persist(false);
+
+        //a copy of the persisted segment would overwrite this one
+        File copy = new File(durable, "chunk-stream0-00001.m4s");
+        Files.write(copy.toPath(), "persisted".getBytes(StandardCharsets.US_ASCII));
+        stage("chunk-stream0-00003.m4s", "video 3");
+        entry.persist(false);
+
+        assertEquals("persisted", new String(Files.readAllBytes(copy.toPath()), StandardCharsets.US_ASCII));
+        assertTrue(persisted().contains("chunk-stream0-00002.m4s"));
+    }
+
+    @Test
+    public void expiredSegmentsAreServedFromTheStreamDirectory() throws IOException {
+        stage("manifest.mpd", "<MPD/>");
+        stage("chunk-stream0-00001.m4s", "video 1");
+        stage("chunk-stream0-00002.m4s", "video 2");
+        stage("chunk-stream0-00003.m4s", "video 3");
+        stage("chunk-stream1-00001.m4s", "audio 1");
+        stage("chunk-stream1-00002.m4s", "audio 2");
+        entry.persist(false);
+        assertTrue(entry.isStaged("chunk-stream0-00001.m4s"));
+
+        expire("chunk-stream0-00001.m4s");
+        expire("chunk-stream0-00002.m4s");
+        entry.persist(false);
+
+        assertFalse(new File(staging, "chunk-stream0-00001.m4s").exists());
+        assertFalse(new File(staging, "chunk-stream0-00002.m4s").exists());
+        assertFalse(entry.isStaged("chunk-stream0-00001.m4s"));
+        assertFalse(entry.isStaged("chunk-stream0-00002.m4s"));
+        assertTrue(entry.isStaged("chunk-stream0-00003.m4s"));
+        assertTrue(entry.isStaged("chunk-stream0-00004.m4s"));
+
+        //the other representations and the manifests stay staged
+        assertTrue(entry.isStaged("chunk-stream1-00001.m4s"));
+        assertTrue(entry.isStaged("manifest.mpd"));
+    }
+
+    @Test
+    public void segmentIsNotDeletedBeforeItIsPersisted() throws IOException {
+        stage("chunk-stream0-00001.m4s", "video 1");
+        expire("chunk-stream0-00001.m4s");
+
+        //the last segment is still being written
+        entry.persist(false);
+        entry.persist(false);
+        assertTrue(new File(staging, "chunk-stream0-00001.m4s").exists());
+        assertTrue(entry.isStaged("chunk-stream0-00001.m4s"));
+    }
+
+    @Test
+    public void sequenceNumbersLongerThanAnIntAreNotStaged() {
+        assertTrue(entry.isStaged("chunk-stream0-000000001.m4s"));
+        assertFalse(entry.isStaged("chunk-stream0-99999999999.m4s"));
+    }
+
+    @Test
+    public void nothingIsPersistedWithoutTheStreamDirectory() throws IOException {
+        stage("chunk-stream0-00001.m4s", "video 1");
+        stage("chunk-stream0-00002.m4s", "video 2");
+        durable.delete();
+
+        //the staging folder is kept for the next attempt
+        assertFalse(entry.persist(true).isComplete());
+        assertFalse(durable.exists());
+        assertTrue(new File(staging, "chunk-stream0-00001.m4s").exists());
+    }
+}
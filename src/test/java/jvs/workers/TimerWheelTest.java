@@ -0,0 +1,128 @@
+package jvs.workers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimerWheelTest {
+
+    private static final int WHEEL_SIZE = 8;
+    private static final long TICK = 1000;
+
+    private TimerWheel<String> wheel;
+    private long now;
+    private int tick;
+
+    /**
+     * Ticks at which every item has been checked
+     */
+    private Map<String, List<Integer>> checks;
+
+    /**
+     * Next deadline returned by the check of every item, relative to the check time (absent to drop the item)
+     */
+    private Map<String, Long> intervals;
+
+    @Before
+    public void setUp() {
+        wheel = new TimerWheel<>(WHEEL_SIZE, TICK);
+        now = 0;
+        tick = 0;
+        checks = new HashMap<>();
+        intervals = new HashMap<>();
+    }
+
+    private void advance(final int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            now += TICK;
+            tick++;
+            wheel.advance(now, item -> {
+                checks.computeIfAbsent(item, k -> new ArrayList<>()).add(tick);
+                Long interval = intervals.get(item);
+                return interval != null ? now + interval : -1;
+            });
+        }
+    }
+
+    private List<Integer> checksOf(final String item) {
+        return checks.getOrDefault(item, Collections.emptyList());
+    }
+
+    @Test
+    public void itemIsCheckedAtItsDeadline() {
+        wheel.schedule("a", now + 3 * TICK, now);
+        wheel.schedule("b", now + 2 * TICK + 1, now);
+
+        advance(5);
+
+        assertEquals(Collections.singletonList(3), checksOf("a"));
+        assertEquals(Collections.singletonList(3), checksOf("b"));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void expiredDeadlineIsCheckedAtTheNextTick() {
+        wheel.schedule("a", now - 5 * TICK, now);
+
+        advance(1);
+
+        assertEquals(Collections.singletonList(1), checksOf("a"));
+    }
+
+    @Test
+    public void deadlineBeyondOneLapWaitsForItsRounds() {
+        wheel.schedule("a", now + (2 * WHEEL_SIZE + 3) * TICK, now);
+
+        advance(3 * WHEEL_SIZE);
+
+        assertEquals(Collections.singletonList(2 * WHEEL_SIZE + 3), checksOf("a"));
+    }
+
+    @Test
+    public void checkedItemIsRescheduledAtItsNextDeadline() {
+        intervals.put("a", 2 * TICK);
+        wheel.schedule("a", now + TICK, now);
+
+        advance(7);
+
+        assertEquals(Arrays.asList(1, 3, 5, 7), checksOf("a"));
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void itemRescheduledOneLapLaterKeepsTheRestOfItsBucket() {
+        //every item of the bucket is due again in exactly one lap, back in the bucket being iterated
+        for (String item : Arrays.asList("a", "b", "c")) {
+            intervals.put(item, WHEEL_SIZE * TICK);
+            wheel.schedule(item, now + TICK, now);
+        }
+
+        advance(2 * WHEEL_SIZE + 1);
+
+        for (String item : Arrays.asList("a", "b", "c")) {
+            assertEquals(Arrays.asList(1, 1 + WHEEL_SIZE, 1 + 2 * WHEEL_SIZE), checksOf(item));
+        }
+        assertEquals(3, wheel.size());
+    }
+
+    @Test
+    public void droppedItemLeavesTheWheel() {
+        intervals.put("kept", TICK);
+        wheel.schedule("kept", now + TICK, now);
+        wheel.schedule("dropped", now + TICK, now);
+
+        advance(3);
+
+        assertEquals(Collections.singletonList(1), checksOf("dropped"));
+        assertEquals(Arrays.asList(1, 2, 3), checksOf("kept"));
+        assertEquals(1, wheel.size());
+    }
+}
@@ -0,0 +1,87 @@
+package jvs.workers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VodTranscoderTest {
+
+    /**
+     * Gets the keyframes of a recording with a fixed group of pictures.
+     * @param interval The interval between two keyframes, in seconds.
+     * @param duration The duration of the recording, in seconds.
+     * @return The times of the keyframes.
+     */
+    private static List<Double> keyframes(final double interval, final double duration) {
+        List<Double> keyframes = new ArrayList<>();
+        for (double time = 0; time < duration; time += interval) {
+            keyframes.add(time);
+        }
+        return keyframes;
+    }
+
+    @Test
+    public void chunksStartAtTheFirstKeyframeAfterTheirShare() {
+        assertEquals(Arrays.asList(0d, 16d, 30d, 46d), VodTranscoder.planChunks(keyframes(2, 60), 60, 4));
+    }
+
+    @Test
+    public void chunksAreAtLeastTheMinimumDuration() {
+        //25 s only make two chunks of at least 10 s
+        assertEquals(Arrays.asList(0d, 14d), VodTranscoder.planChunks(keyframes(2, 25), 25, 8));
+        assertEquals(Collections.singletonList(0d), VodTranscoder.planChunks(keyframes(2, 9), 9, 8));
+    }
+
+    @Test
+    public void singleChunkCoversTheWholeRecording() {
+        assertEquals(Collections.singletonList(0d), VodTranscoder.planChunks(keyframes(2, 60), 60, 1));
+        assertEquals(Collections.singletonList(0d), VodTranscoder.planChunks(keyframes(2, 60), 60, 0));
+    }
+
+    @Test
+    public void sparseKeyframesMakeFewerChunks() {
+        //the second and third chunks would both start at 50 s
+        assertEquals(Arrays.asList(0d, 50d), VodTranscoder.planChunks(Arrays.asList(0d, 50d), 60, 4));
+    }
+
+    @Test
+    public void recordingWithoutKeyframesIsASingleChunk() {
+        assertEquals(Collections.singletonList(0d), VodTranscoder.planChunks(Collections.emptyList(), 60, 4));
+    }
+
+    @Test
+    public void keyframesAfterTheEndAreIgnored() {
+        assertEquals(Collections.singletonList(0d), VodTranscoder.planChunks(Arrays.asList(0d, 60d, 62d), 60, 2));
+    }
+
+    @Test
+    public void chunkStartsAreAscending() {
+        List<Double> starts = VodTranscoder.planChunks(keyframes(7, 3600), 3600, 16);
+        assertEquals(16, starts.size());
+        for (int i = 1; i < starts.size(); i++) {
+            assertTrue(starts.get(i) > starts.get(i - 1));
+            assertTrue(starts.get(i) >= 3600d * i / 16);
+            assertTrue(starts.get(i) < 3600d * i / 16 + 7);
+        }
+    }
+
+    @Test
+    public void packetsAreParsedIntoTheKeyframesAndTheRange() {
+        double[] range = {Double.NaN, 0};
+        List<Double> keyframes = new ArrayList<>();
+        for (String line : new String[]{"1.400000,0.040000,K_", "1.440000,0.040000,__", "N/A,0.040000,K_",
+                "1.480000,N/A,__", "3.400000,0.040000,K_", "", "1.360000,0.040000,__"}) {
+            VodTranscoder.parsePacket(line, range, keyframes);
+        }
+
+        assertEquals(1.36, range[0], 1e-9);
+        assertEquals(3.44, range[1], 1e-9);
+        assertEquals(Arrays.asList(1.4, 3.4), keyframes);
+    }
+}